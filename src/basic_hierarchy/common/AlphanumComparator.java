@@ -46,32 +46,21 @@ public class AlphanumComparator implements Comparator<String>
         return ch >= 48 && ch <= 57;
     }
 
-    /** Length of string is passed in for improved efficiency (only need to calculate it once) **/
-    private final String getChunk( String s, int slength, int marker )
+    /**
+     * Chunks are compared in place, instead of being copied into new strings, so that comparisons
+     * don't create any objects.
+     *
+     * @return index past the end of the chunk starting at {@code marker}.
+     *         Length of string is passed in for improved efficiency (only need to calculate it once)
+     */
+    private final int getChunkEnd( String s, int slength, int marker )
     {
-        StringBuilder chunk = new StringBuilder();
-        char c = s.charAt( marker );
-        chunk.append( c );
+        boolean digits = isDigit( s.charAt( marker ) );
         marker++;
-        if ( isDigit( c ) ) {
-            while ( marker < slength ) {
-                c = s.charAt( marker );
-                if ( !isDigit( c ) )
-                    break;
-                chunk.append( c );
-                marker++;
-            }
-        }
-        else {
-            while ( marker < slength ) {
-                c = s.charAt( marker );
-                if ( isDigit( c ) )
-                    break;
-                chunk.append( c );
-                marker++;
-            }
+        while ( marker < slength && isDigit( s.charAt( marker ) ) == digits ) {
+            marker++;
         }
-        return chunk.toString();
+        return marker;
     }
 
     public int compare( String s1, String s2 )
@@ -82,22 +71,20 @@ public class AlphanumComparator implements Comparator<String>
         int s2Length = s2.length();
 
         while ( thisMarker < s1Length && thatMarker < s2Length ) {
-            String thisChunk = getChunk( s1, s1Length, thisMarker );
-            thisMarker += thisChunk.length();
-
-            String thatChunk = getChunk( s2, s2Length, thatMarker );
-            thatMarker += thatChunk.length();
+            int thisChunkEnd = getChunkEnd( s1, s1Length, thisMarker );
+            int thatChunkEnd = getChunkEnd( s2, s2Length, thatMarker );
+            int thisChunkLength = thisChunkEnd - thisMarker;
+            int thatChunkLength = thatChunkEnd - thatMarker;
 
             // If both chunks contain numeric characters, sort them numerically
             int result = 0;
-            if ( isDigit( thisChunk.charAt( 0 ) ) && isDigit( thatChunk.charAt( 0 ) ) ) {
+            if ( isDigit( s1.charAt( thisMarker ) ) && isDigit( s2.charAt( thatMarker ) ) ) {
                 // Simple chunk comparison by length.
-                int thisChunkLength = thisChunk.length();
-                result = thisChunkLength - thatChunk.length();
+                result = thisChunkLength - thatChunkLength;
                 // If equal, the first different number counts
                 if ( result == 0 ) {
                     for ( int i = 0; i < thisChunkLength; i++ ) {
-                        result = thisChunk.charAt( i ) - thatChunk.charAt( i );
+                        result = s1.charAt( thisMarker + i ) - s2.charAt( thatMarker + i );
                         if ( result != 0 ) {
                             return result;
                         }
@@ -105,11 +92,21 @@ public class AlphanumComparator implements Comparator<String>
                 }
             }
             else {
-                result = thisChunk.compareTo( thatChunk );
+                // Same as String.compareTo() applied to both chunks.
+                int end = Math.min( thisChunkLength, thatChunkLength );
+                for ( int i = 0; i < end && result == 0; i++ ) {
+                    result = s1.charAt( thisMarker + i ) - s2.charAt( thatMarker + i );
+                }
+                if ( result == 0 ) {
+                    result = thisChunkLength - thatChunkLength;
+                }
             }
 
             if ( result != 0 )
                 return result;
+
+            thisMarker = thisChunkEnd;
+            thatMarker = thatChunkEnd;
         }
 
         return s1Length - s2Length;
@@ -0,0 +1,147 @@
+package basic_hierarchy.common;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Layout of binary hierarchy snapshot files.
+ * <p>
+ * All values are little-endian. The file starts with a fixed-size header, followed by sections, each aligned
+ * to 8 bytes. The header holds the absolute offset of every section, so that any section (and, thanks to the offset
+ * tables, any single entry) can be accessed directly, without reading the file sequentially.
+ * </p>
+ * <p>
+ * Nodes are stored in the order of {@link basic_hierarchy.interfaces.Hierarchy#getGroups()} and referred to
+ * by their index in that order. Instances are stored node by node, so that each node's instances form
+ * a contiguous range. Feature values of all instances form a single contiguous block of {@code double}s.
+ * </p>
+ * <p>
+ * A string table consists of: {@code int} count, {@code int} padding, {@code long[count + 1]} offsets of each
+ * string's bytes (relative to the start of the bytes), a bitmap of {@code (count + 7) / 8} bytes marking null
+ * strings, and the UTF-8 bytes of all strings.
+ * </p>
+ */
+public class BinaryHierarchyFormat
+{
+    /** The bytes 'B', 'H', 'S', 'N' when read as a little-endian int. */
+    public static final int MAGIC = 0x4E534842;
+    public static final int VERSION = 1;
+
+    public static final int FLAG_DATA_NAMES = 1;
+    public static final int FLAG_CLASSES = 1 << 1;
+
+    // Header fields
+    public static final int HEADER_MAGIC = 0;
+    public static final int HEADER_VERSION = 4;
+    public static final int HEADER_FLAGS = 8;
+    public static final int HEADER_NODE_COUNT = 12;
+    public static final int HEADER_ROOT_INDEX = 16;
+    public static final int HEADER_DIMENSIONS = 20;
+    public static final int HEADER_OVERALL_NUMBER_OF_INSTANCES = 24;
+    public static final int HEADER_INSTANCE_COUNT = 32;
+    public static final int HEADER_SECTIONS = 40;
+
+    // Sections, in the order in which they are laid out in the file
+
+    /** String table with node ids. */
+    public static final int SECTION_NODE_IDS = 0;
+    /** {@code int} index of each node's parent, or -1 for nodes without a parent. */
+    public static final int SECTION_PARENTS = 1;
+    /** {@code int[nodeCount + 1]}; children of node {@code i} are stored at indices {@code [offsets[i], offsets[i + 1])}. */
+    public static final int SECTION_CHILD_OFFSETS = 2;
+    /** {@code int} indices of children of all nodes. */
+    public static final int SECTION_CHILDREN = 3;
+    /** {@code long[nodeCount + 1]}; instances of node {@code i} have indices {@code [offsets[i], offsets[i + 1])}. */
+    public static final int SECTION_INSTANCE_OFFSETS = 4;
+    /** {@code long} offset of each node's representation within the representation data, or -1 if it has none. */
+    public static final int SECTION_REPRESENTATION_OFFSETS = 5;
+    /** {@code int} number of feature values of each node's representation. */
+    public static final int SECTION_REPRESENTATION_LENGTHS = 6;
+    /** String table with names of each node's representation. */
+    public static final int SECTION_REPRESENTATION_NAMES = 7;
+    /** String table with node ids of each node's representation. */
+    public static final int SECTION_REPRESENTATION_NODE_IDS = 8;
+    /** String table with true classes of each node's representation. */
+    public static final int SECTION_REPRESENTATION_TRUE_CLASSES = 9;
+    /** {@code double} feature values of all representations. */
+    public static final int SECTION_REPRESENTATION_DATA = 10;
+    /** String table with names of data columns. Empty if {@link #FLAG_DATA_NAMES} is not set. */
+    public static final int SECTION_DATA_NAMES = 11;
+    /** String table with the hierarchy's classes. Empty if {@link #FLAG_CLASSES} is not set. */
+    public static final int SECTION_CLASSES = 12;
+    /** {@code int} count of each of the hierarchy's classes. */
+    public static final int SECTION_CLASS_COUNTS = 13;
+    /** String table with distinct true classes of instances. */
+    public static final int SECTION_TRUE_CLASSES = 14;
+    /** {@code int} index of each instance's true class in {@link #SECTION_TRUE_CLASSES}, or -1 if it has none. */
+    public static final int SECTION_INSTANCE_TRUE_CLASSES = 15;
+    /** String table with instance names. */
+    public static final int SECTION_INSTANCE_NAMES = 16;
+    /** {@code double[instanceCount * dimensions]} feature values of all instances, row by row. */
+    public static final int SECTION_FEATURES = 17;
+
+    public static final int SECTION_COUNT = 18;
+
+    public static final int HEADER_SIZE = HEADER_SECTIONS + 8 * SECTION_COUNT;
+
+
+    /**
+     * @return position of the specified section, read from the file header.
+     */
+    public static long getSection( MappedFile file, int section )
+    {
+        return file.getLong( HEADER_SECTIONS + 8 * section );
+    }
+
+    /**
+     * @return number of strings in the string table starting at the specified position.
+     */
+    public static int getStringCount( MappedFile file, long table )
+    {
+        return file.getInt( table );
+    }
+
+    /**
+     * Reads a single string from the string table starting at the specified position.
+     *
+     * @param file
+     *            the snapshot file
+     * @param table
+     *            position of the string table
+     * @param index
+     *            index of the string to read
+     * @return the string, or null if a null string was stored at that index.
+     */
+    public static String getString( MappedFile file, long table, long index )
+    {
+        long count = getStringCount( file, table );
+        long offsets = table + 8;
+        long nulls = offsets + 8 * ( count + 1 );
+
+        if ( ( file.getByte( nulls + ( index >>> 3 ) ) & ( 1 << ( index & 7 ) ) ) != 0 ) {
+            return null;
+        }
+
+        long bytes = nulls + ( count + 7 ) / 8;
+        long start = file.getLong( offsets + 8 * index );
+        int length = (int)( file.getLong( offsets + 8 * ( index + 1 ) ) - start );
+
+        byte[] buffer = new byte[length];
+        file.getBytes( bytes + start, buffer, 0, length );
+        return new String( buffer, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Reads the whole string table starting at the specified position.
+     *
+     * @return array of all strings in the table
+     */
+    public static String[] getStrings( MappedFile file, long table )
+    {
+        String[] result = new String[getStringCount( file, table )];
+        for ( int i = 0; i < result.length; ++i ) {
+            result[i] = getString( file, table, i );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package basic_hierarchy.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A {@link FeatureMatrix} whose chunks are direct buffers, allocated outside of the Java heap.
+ * <p>
+ * Feature values then neither count towards the maximum heap size, nor have to be traced or moved by
+ * the garbage collector, so its pauses do not grow with the number of values. The memory is released once
+ * the matrix becomes unreachable. The total size of direct buffers is limited by {@code -XX:MaxDirectMemorySize},
+ * which defaults to the maximum heap size.
+ * </p>
+ */
+public class DirectFeatureMatrix extends FeatureMatrix
+{
+    private final List<DoubleBuffer> chunks = new ArrayList<>();
+
+
+    /**
+     * @param dimensions
+     *            number of feature values in each row
+     */
+    public DirectFeatureMatrix( int dimensions )
+    {
+        super( dimensions );
+    }
+
+    @Override
+    protected void addChunk( int values )
+    {
+        chunks.add( ByteBuffer.allocateDirect( values * 8 ).order( ByteOrder.nativeOrder() ).asDoubleBuffer() );
+    }
+
+    @Override
+    protected void releaseChunk( int chunk )
+    {
+        chunks.set( chunk, null );
+    }
+
+    @Override
+    protected double getValue( int chunk, int index )
+    {
+        return chunks.get( chunk ).get( index );
+    }
+
+    @Override
+    protected void getValues( int chunk, int index, double[] target )
+    {
+        DoubleBuffer values = chunks.get( chunk );
+        for ( int i = 0; i < target.length; ++i ) {
+            target[i] = values.get( index + i );
+        }
+    }
+
+    @Override
+    protected void setValues( int chunk, int index, double[] values )
+    {
+        DoubleBuffer target = chunks.get( chunk );
+        for ( int i = 0; i < values.length; ++i ) {
+            target.put( index + i, values[i] );
+        }
+    }
+
+    @Override
+    protected void addValuesTo( int chunk, int index, double[] sums )
+    {
+        DoubleBuffer values = chunks.get( chunk );
+        for ( int i = 0; i < sums.length; ++i ) {
+            sums[i] += values.get( index + i );
+        }
+    }
+
+    @Override
+    protected double getSquaredDistance( int chunk, int index, double[] point )
+    {
+        DoubleBuffer values = chunks.get( chunk );
+        double result = 0;
+        for ( int i = 0; i < point.length; ++i ) {
+            double d = values.get( index + i ) - point[i];
+            result += d * d;
+        }
+        return result;
+    }
+
+    @Override
+    protected DoubleBuffer getBuffer( int chunk, int index )
+    {
+        // Position and limit of a duplicate are private to it, so concurrent readers do not interfere.
+        DoubleBuffer result = chunks.get( chunk ).duplicate();
+        result.position( index );
+        result.limit( index + getDimensions() );
+        return result.slice();
+    }
+}
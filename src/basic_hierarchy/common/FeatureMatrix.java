@@ -0,0 +1,472 @@
+package basic_hierarchy.common;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import basic_hierarchy.implementation.MatrixInstance;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * Feature values of many instances, stored row by row in large contiguous blocks of memory, rather than
+ * in a separate array per instance.
+ * <p>
+ * Rows are split into chunks of whole rows, so that the matrix is not limited by the maximum size of a single block,
+ * and can grow without copying the rows stored so far. Instances stored in the matrix are represented
+ * by {@link MatrixInstance}s, which only hold the index of their row.
+ * </p>
+ * <p>
+ * Subclasses decide where the chunks are kept, see {@link FeatureStorage#createMatrix(int)}.
+ * </p>
+ * <p>
+ * Adding rows is not thread safe. Once all rows have been added, the matrix can be read by many threads at once.
+ * </p>
+ */
+public abstract class FeatureMatrix
+{
+    /** Number of values stored in a single chunk, unless a single row is longer than that. */
+    protected static final int CHUNK_VALUES = 1 << 20;
+
+    private final int dimensions;
+    private final int rowsPerChunk;
+    private int rowCount = 0;
+    /** Reused when copying rows from other matrices. */
+    private double[] rowBuffer = null;
+
+
+    /**
+     * @param dimensions
+     *            number of feature values in each row
+     */
+    protected FeatureMatrix( int dimensions )
+    {
+        if ( dimensions < 0 ) {
+            throw new IllegalArgumentException( "Number of dimensions must not be negative: " + dimensions );
+        }
+
+        this.dimensions = dimensions;
+        this.rowsPerChunk = Math.max( 1, CHUNK_VALUES / Math.max( 1, dimensions ) );
+    }
+
+    /**
+     * @return number of feature values in each row.
+     */
+    public final int getDimensions()
+    {
+        return dimensions;
+    }
+
+    /**
+     * @return number of rows in the matrix.
+     */
+    public final int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Appends a row to the matrix.
+     *
+     * @param values
+     *            feature values of the row. The values are copied.
+     * @return index of the new row
+     */
+    public final int addRow( double[] values )
+    {
+        checkLength( values );
+
+        int row = rowCount;
+        if ( row % rowsPerChunk == 0 ) {
+            addChunk( rowsPerChunk * dimensions );
+        }
+
+        setValues( row / rowsPerChunk, getOffset( row ), values );
+        ++rowCount;
+        return row;
+    }
+
+    /**
+     * Appends a copy of a row of another matrix to this matrix.
+     *
+     * @param source
+     *            the matrix to copy the row from. Must have the same number of dimensions as this matrix.
+     * @param sourceRow
+     *            index of the row to copy
+     * @return index of the new row
+     */
+    public final int addRow( FeatureMatrix source, int sourceRow )
+    {
+        if ( source.dimensions != dimensions ) {
+            throw new IllegalArgumentException(
+                String.format( "Expected %s feature values, but got %s.", dimensions, source.dimensions )
+            );
+        }
+
+        if ( rowBuffer == null ) {
+            rowBuffer = new double[dimensions];
+        }
+        source.getRow( sourceRow, rowBuffer );
+        return addRow( rowBuffer );
+    }
+
+    /**
+     * @return the value of the specified feature in the specified row.
+     */
+    public final double get( int row, int dimension )
+    {
+        return getValue( getChunk( row ), getOffset( row ) + dimension );
+    }
+
+    /**
+     * Copies feature values of the specified row into the target array.
+     */
+    public final void getRow( int row, double[] target )
+    {
+        checkLength( target );
+        getValues( getChunk( row ), getOffset( row ), target );
+    }
+
+    /**
+     * Overwrites feature values of the specified row.
+     */
+    public final void setRow( int row, double[] values )
+    {
+        checkLength( values );
+        setValues( getChunk( row ), getOffset( row ), values );
+    }
+
+    /**
+     * Adds feature values of the specified row to the sums, without copying the row.
+     */
+    public final void addRowTo( int row, double[] sums )
+    {
+        addValuesTo( getChunk( row ), getOffset( row ), sums );
+    }
+
+    /**
+     * @return squared euclidean distance between the specified row and the point.
+     */
+    public final double getSquaredDistance( int row, double[] point )
+    {
+        return getSquaredDistance( getChunk( row ), getOffset( row ), point );
+    }
+
+    /**
+     * Returns a buffer spanning feature values of the specified row, without copying them if the matrix stores
+     * them at full precision. Changes made through the buffer are then visible in the matrix, and vice versa.
+     * Matrices storing values in a compact form return a read-only buffer of the widened values instead,
+     * and provide their own accessors for the compact form.
+     *
+     * @return buffer whose position is 0 and whose limit is the number of dimensions
+     */
+    public final DoubleBuffer getRowBuffer( int row )
+    {
+        return getBuffer( getChunk( row ), getOffset( row ) );
+    }
+
+    /**
+     * Allocates a new chunk, following the existing ones.
+     *
+     * @param values
+     *            number of values the chunk must hold
+     */
+    protected abstract void addChunk( int values );
+
+    /**
+     * Lets go of the chunk, so that its memory can be reclaimed. Rows held in the chunk must not be accessed
+     * afterwards. By default, does nothing.
+     */
+    protected void releaseChunk( int chunk )
+    {
+    }
+
+    /**
+     * @return the value at the specified index of the chunk.
+     */
+    protected abstract double getValue( int chunk, int index );
+
+    /**
+     * Copies {@link #getDimensions()} values, starting at the specified index of the chunk, into the target array.
+     */
+    protected abstract void getValues( int chunk, int index, double[] target );
+
+    /**
+     * Overwrites {@link #getDimensions()} values, starting at the specified index of the chunk.
+     */
+    protected abstract void setValues( int chunk, int index, double[] values );
+
+    /**
+     * Adds {@link #getDimensions()} values, starting at the specified index of the chunk, to the sums.
+     */
+    protected abstract void addValuesTo( int chunk, int index, double[] sums );
+
+    /**
+     * @return squared euclidean distance between the point and {@link #getDimensions()} values starting
+     *         at the specified index of the chunk.
+     */
+    protected abstract double getSquaredDistance( int chunk, int index, double[] point );
+
+    /**
+     * @return buffer spanning {@link #getDimensions()} values, starting at the specified index of the chunk.
+     *         By default, a read-only buffer holding a copy of the values.
+     */
+    protected DoubleBuffer getBuffer( int chunk, int index )
+    {
+        double[] values = new double[dimensions];
+        getValues( chunk, index, values );
+        return DoubleBuffer.wrap( values ).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return number of feature values of the instance, read without copying them if the instance
+     *         is stored in a matrix.
+     */
+    public static int getDimensions( Instance instance )
+    {
+        return instance instanceof MatrixInstance
+            ? ( (MatrixInstance)instance ).getMatrix().getDimensions()
+            : instance.getData().length;
+    }
+
+    /**
+     * Adds feature values of the instance to the sums, reading them straight from the matrix if the instance
+     * is stored in one, so that centroid computations do not copy the values.
+     */
+    public static void addTo( Instance instance, double[] sums )
+    {
+        if ( instance instanceof MatrixInstance ) {
+            MatrixInstance i = (MatrixInstance)instance;
+            i.getMatrix().addRowTo( i.getRow(), sums );
+        }
+        else {
+            double[] data = instance.getData();
+            for ( int i = 0; i < sums.length; ++i ) {
+                sums[i] += data[i];
+            }
+        }
+    }
+
+    /**
+     * Copies feature values of all instances into a single new matrix, in the order of the nodes, so that instances
+     * of each node occupy consecutive rows. Instances of the nodes are replaced with ones pointing to the new matrix.
+     * <p>
+     * If the storage is quantized, ranges of the columns are computed first, over all instances.
+     * </p>
+     *
+     * @param nodes
+     *            the nodes, whose instances all have the same number of feature values
+     * @param storage
+     *            where the new matrix is to be kept
+     * @throws IllegalArgumentException
+     *             if the storage is quantized, and a feature value is NaN or infinite
+     */
+    public static void pack( Collection<? extends Node> nodes, FeatureStorage storage )
+    {
+        pack( nodes, storage, false );
+    }
+
+    /**
+     * Like {@link #pack(Collection, FeatureStorage)}, but for instances held in matrices created with
+     * {@link FeatureStorage#createStagingMatrix(int)}, which are not used afterwards.
+     * <p>
+     * If the instances already occupy all rows of a single matrix of the storage, in the order of the nodes,
+     * they are left as they are. Otherwise each chunk of the staging matrices is released as soon as all
+     * of its rows have been copied, so that the rows are not held in full in both matrices at once.
+     * </p>
+     *
+     * @param nodes
+     *            the nodes, whose instances all have the same number of feature values
+     * @param storage
+     *            where the new matrix is to be kept
+     */
+    public static void packStaged( Collection<? extends Node> nodes, FeatureStorage storage )
+    {
+        if ( !isPacked( nodes, storage ) ) {
+            pack( nodes, storage, true );
+        }
+    }
+
+    /**
+     * @param releaseSources
+     *            whether to release chunks of the source matrices once all of their rows have been copied
+     */
+    private static void pack( Collection<? extends Node> nodes, FeatureStorage storage, boolean releaseSources )
+    {
+        Map<FeatureMatrix, int[]> remainingRows = releaseSources ? countRowsPerChunk( nodes ) : null;
+
+        FeatureMatrix matrix = null;
+        if ( storage.isQuantized() ) {
+            double[][] ranges = getColumnRanges( nodes );
+            if ( ranges == null ) {
+                return;
+            }
+            matrix = storage.createMatrix( ranges[0], ranges[1] );
+        }
+
+        for ( Node node : nodes ) {
+            Utils.checkInterruptStatus();
+
+            LinkedList<Instance> packed = new LinkedList<Instance>();
+            for ( Instance instance : node.getNodeInstanceList() ) {
+                if ( matrix == null ) {
+                    matrix = storage.createMatrix( getDimensions( instance ) );
+                }
+
+                int row;
+                if ( instance instanceof MatrixInstance ) {
+                    MatrixInstance source = (MatrixInstance)instance;
+                    row = matrix.addRow( source.getMatrix(), source.getRow() );
+
+                    if ( remainingRows != null ) {
+                        int chunk = source.getMatrix().getChunk( source.getRow() );
+                        if ( --remainingRows.get( source.getMatrix() )[chunk] == 0 ) {
+                            source.getMatrix().releaseChunk( chunk );
+                        }
+                    }
+                }
+                else {
+                    row = matrix.addRow( instance.getData() );
+                }
+                packed.add(
+                    new MatrixInstance( matrix, row, instance.getInstanceName(), instance.getNodeId(), instance.getTrueClass() )
+                );
+            }
+            node.setInstances( packed );
+        }
+    }
+
+    /**
+     * @return true if instances of the nodes occupy all rows of a single matrix of the storage,
+     *         in the order of the nodes.
+     */
+    private static boolean isPacked( Collection<? extends Node> nodes, FeatureStorage storage )
+    {
+        FeatureMatrix matrix = null;
+        int nextRow = 0;
+        for ( Node node : nodes ) {
+            for ( Instance instance : node.getNodeInstanceList() ) {
+                if ( !( instance instanceof MatrixInstance ) ) {
+                    return false;
+                }
+
+                MatrixInstance i = (MatrixInstance)instance;
+                if ( matrix == null ) {
+                    matrix = i.getMatrix();
+                }
+                if ( i.getMatrix() != matrix || i.getRow() != nextRow++ ) {
+                    return false;
+                }
+            }
+        }
+        return matrix != null && matrix.getRowCount() == nextRow && storage.isStorageOf( matrix );
+    }
+
+    /**
+     * @return number of rows of each chunk of each matrix, which are held by instances of the nodes.
+     */
+    private static Map<FeatureMatrix, int[]> countRowsPerChunk( Collection<? extends Node> nodes )
+    {
+        Map<FeatureMatrix, int[]> result = new IdentityHashMap<FeatureMatrix, int[]>();
+        for ( Node node : nodes ) {
+            for ( Instance instance : node.getNodeInstanceList() ) {
+                if ( instance instanceof MatrixInstance ) {
+                    MatrixInstance i = (MatrixInstance)instance;
+                    FeatureMatrix source = i.getMatrix();
+
+                    int[] counts = result.get( source );
+                    if ( counts == null ) {
+                        counts = new int[( source.rowCount + source.rowsPerChunk - 1 ) / source.rowsPerChunk];
+                        result.put( source, counts );
+                    }
+                    ++counts[source.getChunk( i.getRow() )];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param nodes
+     *            the nodes, whose instances all have the same number of feature values
+     * @return minimum and maximum of each column over instances of all nodes, or null if there are no instances.
+     * @throws IllegalArgumentException
+     *             if a feature value is NaN or infinite, since quantized codes cannot represent it
+     */
+    private static double[][] getColumnRanges( Collection<? extends Node> nodes )
+    {
+        double[] min = null;
+        double[] max = null;
+        double[] values = null;
+        for ( Node node : nodes ) {
+            Utils.checkInterruptStatus();
+
+            for ( Instance instance : node.getNodeInstanceList() ) {
+                if ( values == null ) {
+                    values = new double[getDimensions( instance )];
+                    min = new double[values.length];
+                    max = new double[values.length];
+                    Arrays.fill( min, Double.POSITIVE_INFINITY );
+                    Arrays.fill( max, Double.NEGATIVE_INFINITY );
+                }
+
+                double[] row = values;
+                if ( instance instanceof MatrixInstance ) {
+                    MatrixInstance source = (MatrixInstance)instance;
+                    source.getMatrix().getRow( source.getRow(), values );
+                }
+                else {
+                    row = instance.getData();
+                }
+                for ( int i = 0; i < values.length; ++i ) {
+                    if ( !Double.isFinite( row[i] ) ) {
+                        throw new IllegalArgumentException(
+                            String.format(
+                                "Value %s of feature %s of instance '%s' in node '%s' cannot be stored quantized. "
+                                    + "Use a storage which is not quantized for data with missing or infinite values.",
+                                row[i], i, instance.getInstanceName(), node.getId()
+                            )
+                        );
+                    }
+                    min[i] = Math.min( min[i], row[i] );
+                    max[i] = Math.max( max[i], row[i] );
+                }
+            }
+        }
+        return values == null ? null : new double[][] { min, max };
+    }
+
+    /**
+     * @return index of the chunk holding the specified row.
+     * @throws IndexOutOfBoundsException
+     *             if there is no such row
+     */
+    protected final int getChunk( int row )
+    {
+        if ( row < 0 || row >= rowCount ) {
+            throw new IndexOutOfBoundsException( "Row: " + row + ", row count: " + rowCount );
+        }
+        return row / rowsPerChunk;
+    }
+
+    /**
+     * @return index of the first value of the specified row in its chunk.
+     */
+    protected final int getOffset( int row )
+    {
+        return ( row % rowsPerChunk ) * dimensions;
+    }
+
+    private void checkLength( double[] values )
+    {
+        if ( values.length != dimensions ) {
+            throw new IllegalArgumentException(
+                String.format( "Expected %s feature values, but got %s.", dimensions, values.length )
+            );
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package basic_hierarchy.common;
+
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.MatrixInstance;
+
+
+/**
+ * Ways in which readers can store feature values of the instances they load.
+ */
+public enum FeatureStorage
+{
+    /**
+     * Each instance holds its own array of feature values ({@link BasicInstance}).
+     */
+    INSTANCE_ARRAYS,
+
+    /**
+     * Feature values of all instances are stored in a single {@link FeatureMatrix}, with instances of each node
+     * in consecutive rows, and nodes in the order of their ids. Instances only hold the index of their row
+     * ({@link MatrixInstance}). The matrix is kept on the Java heap ({@link HeapFeatureMatrix}).
+     */
+    MATRIX,
+
+    /**
+     * Like {@link #MATRIX}, but the matrix is kept outside of the Java heap, in direct buffers
+     * ({@link DirectFeatureMatrix}). Only the instance objects themselves remain on the heap.
+     * <p>
+     * Direct buffers are limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size,
+     * so it has to be raised above the size of the feature values (8 bytes per value) to load hierarchies
+     * larger than the heap. Readers add a little over one chunk per parsing task to that while loading,
+     * or the whole size again if rows of the file are not grouped by node in the order of node ids.
+     * </p>
+     */
+    OFF_HEAP,
+
+    /**
+     * Like {@link #MATRIX}, but values are stored as {@code float}s ({@link FloatFeatureMatrix}),
+     * taking half the memory.
+     */
+    FLOAT,
+
+    /**
+     * Like {@link #MATRIX}, but values are stored as 16-bit codes scaled to the range of their column
+     * ({@link Int16FeatureMatrix}), taking a quarter of the memory.
+     */
+    INT16,
+
+    /**
+     * Like {@link #MATRIX}, but values are stored as 8-bit codes scaled to the range of their column
+     * ({@link Int8FeatureMatrix}), taking an eighth of the memory.
+     */
+    INT8;
+
+
+    /**
+     * @return true if this storage quantizes values to the ranges of their columns, which therefore
+     *         have to be known before the matrix is created.
+     */
+    public boolean isQuantized()
+    {
+        return this == INT16 || this == INT8;
+    }
+
+    /**
+     * @param dimensions
+     *            number of feature values in each row
+     * @return a new, empty matrix kept in this storage
+     * @throws UnsupportedOperationException
+     *             if this storage does not use a matrix, or is quantized
+     */
+    public FeatureMatrix createMatrix( int dimensions )
+    {
+        switch ( this ) {
+            case MATRIX:
+                return new HeapFeatureMatrix( dimensions );
+            case OFF_HEAP:
+                return new DirectFeatureMatrix( dimensions );
+            case FLOAT:
+                return new FloatFeatureMatrix( dimensions );
+            case INT16:
+            case INT8:
+                throw new UnsupportedOperationException( this + " requires ranges of the columns to create a matrix." );
+            default:
+                throw new UnsupportedOperationException( this + " does not store feature values in a matrix." );
+        }
+    }
+
+    /**
+     * @param minimum
+     *            minimum value of each column
+     * @param maximum
+     *            maximum value of each column
+     * @return a new, empty matrix kept in this storage. Only quantized storages make use of the ranges.
+     * @throws UnsupportedOperationException
+     *             if this storage does not use a matrix
+     */
+    public FeatureMatrix createMatrix( double[] minimum, double[] maximum )
+    {
+        switch ( this ) {
+            case INT16:
+                return new Int16FeatureMatrix( minimum, maximum );
+            case INT8:
+                return new Int8FeatureMatrix( minimum, maximum );
+            default:
+                return createMatrix( minimum.length );
+        }
+    }
+
+    /**
+     * Creates a matrix for readers to hold rows in until all of them are read, after which they are moved
+     * into a matrix of this storage with {@link FeatureMatrix#packStaged}. Rows of quantized storages are held
+     * at full precision, since ranges of the columns are not known until then.
+     *
+     * @param dimensions
+     *            number of feature values in each row
+     * @return a new, empty matrix
+     */
+    public FeatureMatrix createStagingMatrix( int dimensions )
+    {
+        return isQuantized() ? MATRIX.createMatrix( dimensions ) : createMatrix( dimensions );
+    }
+
+    /**
+     * @return true if the matrix is kept in this storage, i.e. is of the class {@link #createMatrix(int)} creates.
+     */
+    boolean isStorageOf( FeatureMatrix matrix )
+    {
+        switch ( this ) {
+            case MATRIX:
+                return matrix.getClass() == HeapFeatureMatrix.class;
+            case OFF_HEAP:
+                return matrix.getClass() == DirectFeatureMatrix.class;
+            case FLOAT:
+                return matrix.getClass() == FloatFeatureMatrix.class;
+            default:
+                return false;
+        }
+    }
+}
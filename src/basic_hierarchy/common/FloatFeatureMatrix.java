@@ -0,0 +1,97 @@
+package basic_hierarchy.common;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A {@link FeatureMatrix} which stores feature values as {@code float}s, in arrays on the Java heap,
+ * taking half the memory of a {@link HeapFeatureMatrix}.
+ * <p>
+ * Values are rounded to the nearest {@code float} when they are stored, and widened back to {@code double}
+ * when they are read. {@link #getFloatRowBuffer(int)} gives access to the stored values without widening them.
+ * </p>
+ */
+public class FloatFeatureMatrix extends FeatureMatrix
+{
+    private final List<float[]> chunks = new ArrayList<>();
+
+
+    /**
+     * @param dimensions
+     *            number of feature values in each row
+     */
+    public FloatFeatureMatrix( int dimensions )
+    {
+        super( dimensions );
+    }
+
+    /**
+     * Returns a buffer spanning the stored values of the specified row, without copying them.
+     * Changes made through the buffer are visible in the matrix, and vice versa.
+     *
+     * @return buffer whose position is 0 and whose limit is the number of dimensions
+     */
+    public FloatBuffer getFloatRowBuffer( int row )
+    {
+        return FloatBuffer.wrap( chunks.get( getChunk( row ) ), getOffset( row ), getDimensions() ).slice();
+    }
+
+    @Override
+    protected void addChunk( int values )
+    {
+        chunks.add( new float[values] );
+    }
+
+    @Override
+    protected void releaseChunk( int chunk )
+    {
+        chunks.set( chunk, null );
+    }
+
+    @Override
+    protected double getValue( int chunk, int index )
+    {
+        return chunks.get( chunk )[index];
+    }
+
+    @Override
+    protected void getValues( int chunk, int index, double[] target )
+    {
+        float[] values = chunks.get( chunk );
+        for ( int i = 0; i < target.length; ++i ) {
+            target[i] = values[index + i];
+        }
+    }
+
+    @Override
+    protected void setValues( int chunk, int index, double[] values )
+    {
+        float[] target = chunks.get( chunk );
+        for ( int i = 0; i < values.length; ++i ) {
+            target[index + i] = (float)values[i];
+        }
+    }
+
+    @Override
+    protected void addValuesTo( int chunk, int index, double[] sums )
+    {
+        float[] values = chunks.get( chunk );
+        for ( int i = 0; i < sums.length; ++i ) {
+            sums[i] += values[index + i];
+        }
+    }
+
+    @Override
+    protected double getSquaredDistance( int chunk, int index, double[] point )
+    {
+        float[] values = chunks.get( chunk );
+        double result = 0;
+        for ( int i = 0; i < point.length; ++i ) {
+            double d = values[index + i] - point[i];
+            result += d * d;
+        }
+        return result;
+    }
+}
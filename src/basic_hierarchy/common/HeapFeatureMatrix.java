@@ -0,0 +1,81 @@
+package basic_hierarchy.common;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A {@link FeatureMatrix} whose chunks are {@code double} arrays on the Java heap.
+ */
+public class HeapFeatureMatrix extends FeatureMatrix
+{
+    private final List<double[]> chunks = new ArrayList<>();
+
+
+    /**
+     * @param dimensions
+     *            number of feature values in each row
+     */
+    public HeapFeatureMatrix( int dimensions )
+    {
+        super( dimensions );
+    }
+
+    @Override
+    protected void addChunk( int values )
+    {
+        chunks.add( new double[values] );
+    }
+
+    @Override
+    protected void releaseChunk( int chunk )
+    {
+        chunks.set( chunk, null );
+    }
+
+    @Override
+    protected double getValue( int chunk, int index )
+    {
+        return chunks.get( chunk )[index];
+    }
+
+    @Override
+    protected void getValues( int chunk, int index, double[] target )
+    {
+        System.arraycopy( chunks.get( chunk ), index, target, 0, getDimensions() );
+    }
+
+    @Override
+    protected void setValues( int chunk, int index, double[] values )
+    {
+        System.arraycopy( values, 0, chunks.get( chunk ), index, getDimensions() );
+    }
+
+    @Override
+    protected void addValuesTo( int chunk, int index, double[] sums )
+    {
+        double[] values = chunks.get( chunk );
+        for ( int i = 0; i < sums.length; ++i ) {
+            sums[i] += values[index + i];
+        }
+    }
+
+    @Override
+    protected double getSquaredDistance( int chunk, int index, double[] point )
+    {
+        double[] values = chunks.get( chunk );
+        double result = 0;
+        for ( int i = 0; i < point.length; ++i ) {
+            double d = values[index + i] - point[i];
+            result += d * d;
+        }
+        return result;
+    }
+
+    @Override
+    protected DoubleBuffer getBuffer( int chunk, int index )
+    {
+        return DoubleBuffer.wrap( chunks.get( chunk ), index, getDimensions() ).slice();
+    }
+}
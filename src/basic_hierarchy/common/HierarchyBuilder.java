@@ -1,18 +1,29 @@
 package basic_hierarchy.common;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import basic_hierarchy.implementation.BasicNode;
 import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
 
 
@@ -23,6 +34,11 @@ public class HierarchyBuilder
 {
     private static char branchSeparator = Constants.HIERARCHY_BRANCH_SEPARATOR.charAt( 0 );
 
+    /** Number of nodes looked up by a single task when linking nodes in parallel. */
+    private static final int LINKING_BATCH_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+
     private volatile int progress = 0;
     private volatile String statusMsg = "";
 
@@ -35,6 +51,31 @@ public class HierarchyBuilder
     };
 
 
+    /**
+     * Creates a builder which builds hierarchies sequentially, on the calling thread.
+     */
+    public HierarchyBuilder()
+    {
+        this( null );
+    }
+
+    /**
+     * Creates a builder which builds hierarchies using the specified pool.
+     * <p>
+     * Work is split into independent subtrees under the root, each processed as a separate task, so
+     * the speedup depends on how many children the root has, and how evenly nodes are spread among them.
+     * The resulting hierarchy is the same as the one built sequentially, except for rounding errors
+     * in subtree centroids.
+     * </p>
+     * 
+     * @param pool
+     *            the pool used to build hierarchies, or null to build them sequentially.
+     */
+    public HierarchyBuilder( ForkJoinPool pool )
+    {
+        this.pool = pool;
+    }
+
     /**
      * @return value representing progress of current operation, values [0, 100], or
      *         negative for indeterminate operation.
@@ -84,6 +125,10 @@ public class HierarchyBuilder
             nodes.add( 0, root );
         }
 
+        if ( pool != null ) {
+            return buildInParallel( root, nodes, fixBreadthGaps, useSubtree );
+        }
+
         statusMsg = "Creating parent-child relations...";
         createParentChildRelations( nodes, progressReporter );
 
@@ -110,6 +155,275 @@ public class HierarchyBuilder
         return nodes;
     }
 
+    /**
+     * Parallel counterpart of {@link #buildCompleteHierarchy(BasicNode, List, boolean, boolean)}, continuing
+     * after the nodes have been sorted and the root has been found. Each phase is run for all subtrees under
+     * the root before the next one begins.
+     */
+    private List<? extends Node> buildInParallel(
+        final BasicNode root, List<BasicNode> nodes,
+        boolean fixBreadthGaps, final boolean useSubtree )
+    {
+        final NodeIdComparator comparator = new NodeIdComparator();
+
+        statusMsg = "Creating parent-child relations...";
+        createParentChildRelationsInParallel( nodes );
+
+        statusMsg = "Fixing depth gaps...";
+        progress = 0;
+        List<BasicNode> artificialNodes = new ArrayList<>();
+        List<Subtree> subtrees = splitIntoSubtrees( root, nodes, useSubtree, artificialNodes );
+        artificialNodes.addAll(
+            runOnSubtrees( subtrees, nodes.size(), new SubtreeOperation() {
+                public List<BasicNode> apply( Subtree subtree, ProgressCounter progress )
+                {
+                    progress.advance( subtree.nodes.size() );
+                    return fixDepthGaps( subtree.nodes, subtree.root.getId(), useSubtree, null );
+                }
+            } )
+        );
+        nodes.addAll( artificialNodes );
+
+        if ( fixBreadthGaps ) {
+            progress = -1;
+            statusMsg = "Fixing breadth gaps...";
+
+            // The root is fixed first, so that the new, empty children get processed as subtrees, too.
+            nodes.addAll( fixBreadthGapsInNode( root, useSubtree ) );
+            nodes.addAll(
+                runOnSubtrees( getSubtrees( root ), 0, new SubtreeOperation() {
+                    public List<BasicNode> apply( Subtree subtree, ProgressCounter progress )
+                    {
+                        return fixBreadthGaps( subtree.root, useSubtree );
+                    }
+                } )
+            );
+        }
+
+        statusMsg = "Recalculating centroids...";
+        progress = 0;
+        subtrees = getSubtrees( root );
+        runOnSubtrees( subtrees, nodes.size(), new SubtreeOperation() {
+            public List<BasicNode> apply( Subtree subtree, ProgressCounter progress )
+            {
+                if ( useSubtree ) {
+                    subtree.aggregate = aggregateSubtree( subtree.root, null, progress );
+                }
+                else {
+                    Deque<Node> pending = new ArrayDeque<>();
+                    pending.push( subtree.root );
+                    while ( !pending.isEmpty() ) {
+                        Utils.checkInterruptStatus();
+
+                        Node n = pending.pop();
+                        ( (BasicNode)n ).recalculateCentroid( false );
+                        progress.advance( 1 );
+                        for ( Node child : n.getChildren() ) {
+                            pending.push( child );
+                        }
+                    }
+                }
+                return Collections.emptyList();
+            }
+        } );
+        if ( useSubtree ) {
+            SubtreeAggregate aggregate = new SubtreeAggregate( root );
+            for ( Subtree subtree : subtrees ) {
+                aggregate.add( subtree.aggregate );
+            }
+            root.setCentroid( aggregate.sums == null ? new double[0] : aggregate.sums, aggregate.count );
+        }
+        else {
+            root.recalculateCentroid( false );
+        }
+
+        statusMsg = "Sorting...";
+        progress = 0;
+
+        Collections.sort( nodes, comparator );
+        Collections.sort( root.getChildList(), comparator );
+        runOnSubtrees( subtrees, 0, new SubtreeOperation() {
+            public List<BasicNode> apply( Subtree subtree, ProgressCounter progress )
+            {
+                sortAllChildren( subtree.root, comparator );
+                return Collections.emptyList();
+            }
+        } );
+
+        progress = 100;
+
+        return nodes;
+    }
+
+    /**
+     * Parallel counterpart of {@link #createParentChildRelations(List, Consumer)}. Parents are looked up
+     * in parallel, but linked sequentially, so that children are added in the same order.
+     */
+    private void createParentChildRelationsInParallel( final List<BasicNode> nodes )
+    {
+        progress = 0;
+
+        final Map<String, BasicNode> idNodeMap = new HashMap<>( nodes.size() );
+        for ( BasicNode node : nodes ) {
+            node.setChildren( new LinkedList<Node>() );
+            node.setParent( null );
+            idNodeMap.put( node.getId(), node );
+        }
+
+        final BasicNode[] parents = new BasicNode[nodes.size()];
+        final ProgressCounter counter = new ProgressCounter( nodes.size(), progressReporter );
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for ( int start = 0; start < parents.length; start += LINKING_BATCH_SIZE ) {
+            final int batchStart = start;
+            final int batchEnd = Math.min( parents.length, start + LINKING_BATCH_SIZE );
+            tasks.add( ForkJoinTask.adapt( new Runnable() {
+                public void run()
+                {
+                    for ( int i = batchStart; i < batchEnd; ++i ) {
+                        parents[i] = findParent( idNodeMap, nodes.get( i ) );
+                    }
+                    counter.advance( batchEnd - batchStart );
+                }
+            } ) );
+        }
+        await( tasks );
+
+        for ( int i = 0; i < parents.length; ++i ) {
+            if ( parents[i] != null ) {
+                BasicNode child = nodes.get( i );
+                child.setParent( parents[i] );
+                parents[i].addChild( child );
+            }
+        }
+    }
+
+    /**
+     * Groups nodes by the child of the root whose subtree they belong to, and creates the children that are missing.
+     * Expects parent-child relations to already be created.
+     * 
+     * @param artificialNodes
+     *            list to which artificial children of the root are added
+     * @return the subtrees, each one holding the nodes that belong to it
+     */
+    private static List<Subtree> splitIntoSubtrees(
+        BasicNode root, List<BasicNode> nodes, boolean useSubtree, List<BasicNode> artificialNodes )
+    {
+        Map<String, Subtree> subtrees = new LinkedHashMap<>();
+        for ( Subtree subtree : getSubtrees( root ) ) {
+            subtrees.put( subtree.root.getId(), subtree );
+        }
+
+        String prefix = root.getId() + Constants.HIERARCHY_BRANCH_SEPARATOR;
+        for ( BasicNode node : nodes ) {
+            Utils.checkInterruptStatus();
+
+            String id = node.getId();
+            if ( node == root ) {
+                continue;
+            }
+            if ( !id.startsWith( prefix ) ) {
+                throw noAncestorFound( id );
+            }
+
+            int separatorIndex = id.indexOf( branchSeparator, prefix.length() );
+            String subtreeId = separatorIndex < 0 ? id : id.substring( 0, separatorIndex );
+
+            Subtree subtree = subtrees.get( subtreeId );
+            if ( subtree == null ) {
+                BasicNode subtreeRoot = new BasicNode( subtreeId, root, useSubtree );
+                root.addChild( subtreeRoot );
+                artificialNodes.add( subtreeRoot );
+
+                subtree = new Subtree( subtreeRoot );
+                subtrees.put( subtreeId, subtree );
+            }
+            if ( node != subtree.root ) {
+                subtree.nodes.add( node );
+            }
+        }
+
+        return new ArrayList<>( subtrees.values() );
+    }
+
+    /**
+     * @return subtrees rooted at each child of the specified node
+     */
+    private static List<Subtree> getSubtrees( Node root )
+    {
+        List<Subtree> result = new ArrayList<>();
+        for ( Node child : root.getChildren() ) {
+            result.add( new Subtree( (BasicNode)child ) );
+        }
+        return result;
+    }
+
+    /**
+     * Runs the operation on each subtree using the pool, and waits until it is done for all of them.
+     * 
+     * @param totalWork
+     *            total amount of work reported by the operation, used to compute progress.
+     *            If 0, progress is not reported.
+     * @return artificial nodes created by the operation, in order of the subtrees
+     */
+    private List<BasicNode> runOnSubtrees( List<Subtree> subtrees, long totalWork, final SubtreeOperation operation )
+    {
+        final ProgressCounter counter = new ProgressCounter( totalWork, totalWork == 0 ? null : progressReporter );
+
+        final List<List<BasicNode>> results = new ArrayList<>( subtrees.size() );
+        List<ForkJoinTask<?>> tasks = new ArrayList<>( subtrees.size() );
+        for ( int i = 0; i < subtrees.size(); ++i ) {
+            final Subtree subtree = subtrees.get( i );
+            final int index = i;
+            results.add( null );
+            tasks.add( ForkJoinTask.adapt( new Runnable() {
+                public void run()
+                {
+                    results.set( index, operation.apply( subtree, counter ) );
+                }
+            } ) );
+        }
+        await( tasks );
+
+        List<BasicNode> artificialNodes = new ArrayList<>();
+        for ( List<BasicNode> result : results ) {
+            artificialNodes.addAll( result );
+        }
+        return artificialNodes;
+    }
+
+    /**
+     * Submits the tasks to the pool and waits until all of them are done. If the calling thread is interrupted
+     * while waiting, or one of the tasks fails, the remaining tasks are cancelled.
+     */
+    private void await( List<ForkJoinTask<?>> tasks )
+    {
+        for ( ForkJoinTask<?> task : tasks ) {
+            pool.execute( task );
+        }
+
+        try {
+            for ( ForkJoinTask<?> task : tasks ) {
+                task.get();
+            }
+        }
+        catch ( InterruptedException e ) {
+            throw new Utils.RuntimeInterruptedException();
+        }
+        catch ( ExecutionException e ) {
+            // Rethrow exceptions raised by the builder itself unchanged.
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+        finally {
+            // No-op for tasks that have already completed.
+            for ( ForkJoinTask<?> task : tasks ) {
+                task.cancel( false );
+            }
+        }
+    }
+
     /**
      * Recursively sorts all children of the specified node using {@link NodeIdComparator}
      * 
@@ -132,14 +446,20 @@ public class HierarchyBuilder
      */
     public static void sortAllChildren( Node node, Comparator<Node> comparator )
     {
-        Collections.sort( node.getChildren(), comparator );
-        for ( Node n : node.getChildren() ) {
+        Collections.sort( node.getChildList(), comparator );
+        for ( Node n : node.getChildList() ) {
             sortAllChildren( n, comparator );
         }
     }
 
     /**
      * Recalculates centroids of all nodes in the list.
+     * <p>
+     * When {@code useSubtree} is set, feature sums and instance counts are aggregated in a single post-order pass,
+     * and each node's sums are passed on to its parent, so every instance is visited only once, regardless of
+     * the depth of the hierarchy. Because the sums are added up in a different order than by
+     * {@link BasicNode#recalculateCentroid(boolean)}, results may differ from it by rounding errors.
+     * </p>
      * 
      * @param nodes
      *            collection of all nodes for the centroids are to be recalculated
@@ -152,6 +472,12 @@ public class HierarchyBuilder
     {
         if ( progressReporter != null )
             progressReporter.accept( 0 );
+
+        if ( useSubtree ) {
+            recalculateSubtreeCentroids( nodes, progressReporter );
+            return;
+        }
+
         long total = nodes.size();
         long current = 0;
         for ( BasicNode n : nodes ) {
@@ -165,6 +491,124 @@ public class HierarchyBuilder
         }
     }
 
+    /**
+     * Recalculates subtree centroids of all nodes in the list, in a single post-order pass over each tree
+     * the nodes belong to.
+     * 
+     * @see #recalculateCentroids(List, boolean, Consumer)
+     */
+    private static void recalculateSubtreeCentroids( List<BasicNode> nodes, Consumer<Integer> progressReporter )
+    {
+        Set<Node> pending = Collections.newSetFromMap( new IdentityHashMap<Node, Boolean>( nodes.size() ) );
+        pending.addAll( nodes );
+
+        ProgressCounter progress = new ProgressCounter( nodes.size(), progressReporter );
+        for ( BasicNode start : nodes ) {
+            if ( !pending.contains( start ) || ( start.getParent() != null && pending.contains( start.getParent() ) ) ) {
+                // Already reached, or will be reached from its ancestor.
+                continue;
+            }
+
+            aggregateSubtree( start, pending, progress );
+        }
+    }
+
+    /**
+     * Sums up features of all instances in the specified subtree in a single post-order pass, and updates
+     * centroids of nodes along the way.
+     * 
+     * @param start
+     *            root of the subtree
+     * @param pending
+     *            nodes whose centroids should be updated. Updated nodes are removed from the set.
+     *            If null, centroids of all nodes in the subtree are updated.
+     * @param progress
+     *            counter advanced for each updated node
+     * @return sums of features of all instances in the subtree
+     */
+    private static SubtreeAggregate aggregateSubtree( Node start, Set<Node> pending, ProgressCounter progress )
+    {
+        Deque<SubtreeAggregate> stack = new ArrayDeque<>();
+        stack.push( new SubtreeAggregate( start ) );
+
+        while ( true ) {
+            SubtreeAggregate top = stack.peek();
+            if ( top.children.hasNext() ) {
+                stack.push( new SubtreeAggregate( top.children.next() ) );
+                continue;
+            }
+
+            Utils.checkInterruptStatus();
+
+            stack.pop();
+            if ( pending == null ? top.node instanceof BasicNode : pending.remove( top.node ) ) {
+                progress.advance( 1 );
+
+                // The sums are turned into the centroid in place, so they must be passed on first.
+                double[] sums = top.sums == null ? new double[0] : top.sums;
+                if ( stack.isEmpty() ) {
+                    ( (BasicNode)top.node ).setCentroid( sums.clone(), top.count );
+                    return top;
+                }
+
+                stack.peek().add( top );
+                ( (BasicNode)top.node ).setCentroid( sums, top.count );
+            }
+            else if ( stack.isEmpty() ) {
+                return top;
+            }
+            else {
+                stack.peek().add( top );
+            }
+        }
+    }
+
+    /**
+     * Sums of feature values and number of instances in a subtree, used by {@link #recalculateSubtreeCentroids}.
+     */
+    private static class SubtreeAggregate
+    {
+        final Node node;
+        final Iterator<Node> children;
+        double[] sums;
+        int count;
+
+
+        SubtreeAggregate( Node node )
+        {
+            this.node = node;
+            this.children = node.getChildren().iterator();
+
+            // Own instances come first, like in Node#getSubtreeInstances(), so that the number
+            // of features is decided the same way.
+            for ( Instance i : node.getNodeInstanceList() ) {
+                if ( sums == null ) {
+                    sums = new double[FeatureMatrix.getDimensions( i )];
+                }
+                FeatureMatrix.addTo( i, sums );
+                ++count;
+            }
+        }
+
+        void add( SubtreeAggregate child )
+        {
+            if ( child.sums != null ) {
+                add( child.sums, child.count );
+            }
+        }
+
+        private void add( double[] data, int instanceCount )
+        {
+            if ( sums == null ) {
+                sums = new double[data.length];
+            }
+            for ( int i = 0; i < sums.length; ++i ) {
+                sums[i] += data[i];
+            }
+            count += instanceCount;
+        }
+    }
+
     /**
      * Updates all nodes in the specified collection so that their actual parent-child relations match
      * up with their IDs.
@@ -194,6 +638,14 @@ public class HierarchyBuilder
             node.setParent( null );
         }
 
+        Map<String, BasicNode> idNodeMap = new HashMap<>( nodes.size() );
+        for ( BasicNode node : nodes ) {
+            idNodeMap.put( node.getId(), node );
+        }
+
+        // A node's parent id is its own id without the last segment, so each parent can be found with
+        // a single lookup. Children are visited in list order, so every node receives its children
+        // in the same order in which they appear in the list.
         long total = nodes.size();
         for ( int i = 0; i < total; ++i ) {
             Utils.checkInterruptStatus();
@@ -201,24 +653,24 @@ public class HierarchyBuilder
             if ( progressReporter != null )
                 progressReporter.accept( (int)( 100 * ( (double)i / total ) ) );
 
-            BasicNode parent = nodes.get( i );
-
-            for ( int j = 0; j < nodes.size(); ++j ) {
-                if ( i == j ) {
-                    // Can't become a parent unto itself.
-                    continue;
-                }
-
-                BasicNode child = nodes.get( j );
-
-                if ( areIdsParentAndChild( parent.getId(), child.getId() ) ) {
-                    child.setParent( parent );
-                    parent.addChild( child );
-                }
+            BasicNode child = nodes.get( i );
+            BasicNode parent = findParent( idNodeMap, child );
+            if ( parent != null ) {
+                child.setParent( parent );
+                parent.addChild( child );
             }
         }
     }
 
+    /**
+     * @return the node whose id is the parent id of the specified node, or null if there is no such node.
+     */
+    private static BasicNode findParent( Map<String, BasicNode> idNodeMap, Node child )
+    {
+        int separatorIndex = child.getId().lastIndexOf( branchSeparator );
+        return separatorIndex < 0 ? null : idNodeMap.get( child.getId().substring( 0, separatorIndex ) );
+    }
+
     /**
      * Fixes gaps in depth (missing ancestors) by creating empty nodes where needed.
      * <p>
@@ -274,12 +726,7 @@ public class HierarchyBuilder
                     }
                 }
                 else {
-                    throw new RuntimeException(
-                        String.format(
-                            "Could not find nearest parent for '%s'. This means that something went seriously wrong.",
-                            node.getId()
-                        )
-                    );
+                    throw noAncestorFound( node.getId() );
                 }
             }
         }
@@ -287,6 +734,16 @@ public class HierarchyBuilder
         return artificialNodes;
     }
 
+    private static RuntimeException noAncestorFound( String id )
+    {
+        return new RuntimeException(
+            String.format(
+                "Could not find nearest parent for '%s'. This means that something went seriously wrong.",
+                id
+            )
+        );
+    }
+
     /**
      * Fixes depth gaps between the specified ancestor and descendant nodes only.
      * 
@@ -377,6 +834,10 @@ public class HierarchyBuilder
 
     /**
      * Fixes gaps in breadth just in the specified node.
+     * <p>
+     * Children are sorted once, and the gaps between their last id segments are filled in a single pass,
+     * so a node with k children takes O(k log k) time.
+     * </p>
      * 
      * @param node
      *            the node to fix breadth gaps in
@@ -390,43 +851,49 @@ public class HierarchyBuilder
         List<BasicNode> artificialNodes = new ArrayList<>();
 
         // Make sure children are sorted so that we can detect gaps.
-        Collections.sort( children, new NodeIdComparator() );
-
-        for ( int i = 0; i < children.size(); ++i ) {
-            Node child = children.get( i );
-
-            String id = child.getId();
-            int idx = id.lastIndexOf( Constants.HIERARCHY_BRANCH_SEPARATOR );
-            String lastSegment = id.substring( idx + 1 );
-
-            if ( lastSegment.equals( Integer.toString( i ) ) ) {
-                // Assert that the existing nodes have correct relationships.
-                if ( !areNodesAncestorAndDescendant( node, child ) ) {
-                    throw new RuntimeException(
-                        String.format(
-                            "Fatal error while filling breadth gaps! '%s' IS NOT an ancestor of '%s', " +
-                                "but '%s' IS a child of '%s'!",
-                            node.getId(), child.getId(), child.getId(), node.getId()
-                        )
-                    );
-                }
+        Node[] sortedChildren = children.toArray( new Node[children.size()] );
+        Arrays.sort( sortedChildren, new NodeIdComparator() );
+        children.clear();
+
+        int nextIndex = 0;
+        for ( Node child : sortedChildren ) {
+            // Assert that the existing nodes have correct relationships.
+            if ( !areNodesAncestorAndDescendant( node, child ) ) {
+                throw new RuntimeException(
+                    String.format(
+                        "Fatal error while filling breadth gaps! '%s' IS NOT an ancestor of '%s', " +
+                            "but '%s' IS a child of '%s'!",
+                        node.getId(), child.getId(), child.getId(), node.getId()
+                    )
+                );
             }
-            else {
-                // i-th node's id isn't equal to i - there's a gap. Fix it.
-                String newId = node.getId() + Constants.HIERARCHY_BRANCH_SEPARATOR + i;
+
+            int index = getChildIndex( child );
+            if ( index < nextIndex ) {
+                throw new RuntimeException(
+                    String.format(
+                        "Fatal error while filling breadth gaps! Index of '%s' is not a number " +
+                            "greater than indices of its preceding siblings.",
+                        child.getId()
+                    )
+                );
+            }
+
+            // There's a gap between the previous child and this one. Fix it.
+            for ( ; nextIndex < index; ++nextIndex ) {
+                String newId = node.getId() + Constants.HIERARCHY_BRANCH_SEPARATOR + nextIndex;
                 BasicNode newNode = new BasicNode( newId, node, useSubtree );
                 newNode.setParent( node );
 
-                // Insert the new node at the current index.
-                // Don't enqueue the new node, since it has no children anyway
-                // During the next iteration of the loop, we will process the same node again,
-                // so that further gaps will be detected
-                children.add( i, newNode );
+                children.add( newNode );
                 artificialNodes.add( newNode );
             }
+
+            children.add( child );
+            ++nextIndex;
         }
 
-        // Children were inserted at correct indices, no need to sort again.
+        // Children were added in order, no need to sort again.
         // Set the list of children of the current node, in case implementation of getChildren()
         // is changed to return a copy, and not the collection itself.
         node.setChildren( children );
@@ -434,6 +901,27 @@ public class HierarchyBuilder
         return artificialNodes;
     }
 
+    /**
+     * @return index of the node among its siblings, ie. the value of the last segment of its id, or -1 if the segment
+     *         is not a number in canonical form.
+     */
+    private static int getChildIndex( Node n )
+    {
+        NodeId id = getParsedId( n );
+        if ( id != null ) {
+            return id.getLastSegment();
+        }
+
+        String lastSegment = n.getId().substring( n.getId().lastIndexOf( Constants.HIERARCHY_BRANCH_SEPARATOR ) + 1 );
+        try {
+            int index = Integer.parseInt( lastSegment );
+            return index >= 0 && lastSegment.equals( Integer.toString( index ) ) ? index : -1;
+        }
+        catch ( NumberFormatException e ) {
+            return -1;
+        }
+    }
+
     /**
      * Attempts to find the nearest existing node that can act as an ancestor to the node specified in argument. IF no such
      * node could be found, this method returns null.
@@ -488,7 +976,8 @@ public class HierarchyBuilder
      */
     public static int getNodeHeight( Node n )
     {
-        return getIdHeight( n.getId() );
+        NodeId id = getParsedId( n );
+        return id != null ? id.getDepth() : getIdHeight( n.getId() );
     }
 
     /**
@@ -499,7 +988,15 @@ public class HierarchyBuilder
      */
     public static int getIdHeight( String id )
     {
-        return id.length() - id.replace( Constants.HIERARCHY_BRANCH_SEPARATOR, "" ).length();
+        return NodeId.getDepth( id );
+    }
+
+    /**
+     * @return the pre-parsed id of the node, or null if the node doesn't cache one, or its id isn't canonical.
+     */
+    private static NodeId getParsedId( Node n )
+    {
+        return n instanceof BasicNode ? ( (BasicNode)n ).getParsedId() : null;
     }
 
     /**
@@ -517,6 +1014,12 @@ public class HierarchyBuilder
      */
     public static boolean areNodesParentAndChild( Node parent, Node child )
     {
+        NodeId parentId = getParsedId( parent );
+        NodeId childId = getParsedId( child );
+        if ( parentId != null && childId != null ) {
+            return parentId.isParentOf( childId );
+        }
+
         return areIdsParentAndChild(
             parent.getId(),
             child.getId()
@@ -528,6 +1031,12 @@ public class HierarchyBuilder
      */
     public static boolean areNodesAncestorAndDescendant( Node ancestor, Node descendant )
     {
+        NodeId ancestorId = getParsedId( ancestor );
+        NodeId descendantId = getParsedId( descendant );
+        if ( ancestorId != null && descendantId != null ) {
+            return ancestorId.isAncestorOf( descendantId );
+        }
+
         return areIdsAncestorAndDescendant(
             ancestor.getId(),
             descendant.getId()
@@ -547,7 +1056,7 @@ public class HierarchyBuilder
     public static boolean areIdsParentAndChild( String parentId, String childId )
     {
         return areIdsAncestorAndDescendant( parentId, childId ) &&
-            childId.substring( parentId.length() + 1 ).indexOf( Constants.HIERARCHY_BRANCH_SEPARATOR ) == -1;
+            childId.indexOf( branchSeparator, parentId.length() + 1 ) == -1;
     }
 
     /**
@@ -565,4 +1074,54 @@ public class HierarchyBuilder
         return !ancestorId.equals( descendantId ) && descendantId.startsWith( ancestorId ) &&
             descendantId.charAt( ancestorId.length() ) == branchSeparator;
     }
+
+    /**
+     * Counts work done by possibly many threads, and reports it as a percentage.
+     */
+    private static class ProgressCounter
+    {
+        private final AtomicLong current = new AtomicLong();
+        private final long total;
+        private final Consumer<Integer> progressReporter;
+
+
+        ProgressCounter( long total, Consumer<Integer> progressReporter )
+        {
+            this.total = total;
+            this.progressReporter = progressReporter;
+        }
+
+        void advance( long work )
+        {
+            long done = current.addAndGet( work );
+            if ( progressReporter != null )
+                progressReporter.accept( (int)( 100 * ( (double)done / total ) ) );
+        }
+    }
+
+    /**
+     * Subtree rooted at one of the children of the root, processed by a single task when building in parallel.
+     */
+    private static class Subtree
+    {
+        final BasicNode root;
+        /** All nodes of the subtree, when it has just been split off. */
+        final List<BasicNode> nodes = new ArrayList<>();
+        SubtreeAggregate aggregate;
+
+
+        Subtree( BasicNode root )
+        {
+            this.root = root;
+            nodes.add( root );
+        }
+    }
+
+    private static interface SubtreeOperation
+    {
+        /**
+         * @return artificial nodes created by the operation
+         */
+        List<BasicNode> apply( Subtree subtree, ProgressCounter progress );
+    }
 }
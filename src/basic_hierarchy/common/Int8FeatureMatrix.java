@@ -0,0 +1,56 @@
+package basic_hierarchy.common;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A {@link QuantizedFeatureMatrix} with 8-bit codes, taking an eighth of the memory of a {@link HeapFeatureMatrix}.
+ */
+public class Int8FeatureMatrix extends QuantizedFeatureMatrix
+{
+    private final List<byte[]> chunks = new ArrayList<>();
+
+
+    /**
+     * @param minimum
+     *            minimum value of each column
+     * @param maximum
+     *            maximum value of each column
+     */
+    public Int8FeatureMatrix( double[] minimum, double[] maximum )
+    {
+        super( 8, minimum, maximum );
+    }
+
+    /**
+     * Returns a buffer spanning codes of the specified row, without copying them. Codes are unsigned,
+     * so they have to be read as {@code code & 0xFF}. Changes made through the buffer are visible in the matrix,
+     * and vice versa.
+     *
+     * @return buffer whose position is 0 and whose limit is the number of dimensions
+     */
+    public ByteBuffer getCodeBuffer( int row )
+    {
+        return ByteBuffer.wrap( chunks.get( getChunk( row ) ), getOffset( row ), getDimensions() ).slice();
+    }
+
+    @Override
+    protected void addChunk( int values )
+    {
+        chunks.add( new byte[values] );
+    }
+
+    @Override
+    protected int getCode( int chunk, int index )
+    {
+        return chunks.get( chunk )[index] & 0xFF;
+    }
+
+    @Override
+    protected void setCode( int chunk, int index, int code )
+    {
+        chunks.get( chunk )[index] = (byte)code;
+    }
+}
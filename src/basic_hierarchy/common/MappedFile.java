@@ -0,0 +1,167 @@
+package basic_hierarchy.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A read-only, little-endian view of a whole file mapped into memory, addressable with {@code long} offsets.
+ * <p>
+ * A single {@link MappedByteBuffer} cannot be larger than 2 GB, so the file is mapped in segments. Consecutive
+ * segments overlap by a few bytes, so that single primitive values never straddle two segments.
+ * </p>
+ * <p>
+ * The mapping is shared with the operating system's page cache, so multiple processes mapping the same
+ * file share the same physical memory. This class is thread safe.
+ * </p>
+ */
+public class MappedFile
+{
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /** Size of the largest primitive value, ie. {@code long} and {@code double}. */
+    private static final int OVERLAP = 8;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+
+
+    private MappedFile( ByteBuffer[] segments, long size )
+    {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Maps the whole specified file into memory.
+     *
+     * @param file
+     *            the file to map
+     * @return the mapped file
+     * @throws IOException
+     *             if an IO error occurred while mapping the file
+     */
+    public static MappedFile open( File file ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            ByteBuffer[] segments = new ByteBuffer[(int)( ( size + SEGMENT_SIZE - 1 ) >>> SEGMENT_SHIFT )];
+
+            for ( int i = 0; i < segments.length; ++i ) {
+                long start = (long)i << SEGMENT_SHIFT;
+                long length = Math.min( size - start, SEGMENT_SIZE + OVERLAP );
+                segments[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, length ).order( ByteOrder.LITTLE_ENDIAN );
+            }
+
+            // Mappings stay valid after the channel is closed.
+            return new MappedFile( segments, size );
+        }
+    }
+
+    /**
+     * @return size of the mapped file, in bytes.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    public byte getByte( long position )
+    {
+        return segment( position ).get( offset( position ) );
+    }
+
+    public int getInt( long position )
+    {
+        return segment( position ).getInt( offset( position ) );
+    }
+
+    public long getLong( long position )
+    {
+        return segment( position ).getLong( offset( position ) );
+    }
+
+    public double getDouble( long position )
+    {
+        return segment( position ).getDouble( offset( position ) );
+    }
+
+    /**
+     * Copies {@code length} bytes starting at {@code position} into the array.
+     */
+    public void getBytes( long position, byte[] dst, int dstOffset, int length )
+    {
+        while ( length > 0 ) {
+            ByteBuffer segment = segment( position ).duplicate();
+            int offset = offset( position );
+            int count = (int)Math.min( length, SEGMENT_SIZE - offset );
+
+            segment.position( offset );
+            segment.get( dst, dstOffset, count );
+
+            position += count;
+            dstOffset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Copies {@code length} doubles starting at {@code position} into the array.
+     */
+    public void getDoubles( long position, double[] dst, int dstOffset, int length )
+    {
+        while ( length > 0 ) {
+            int offset = offset( position );
+            int count = (int)Math.min( length, ( SEGMENT_SIZE - offset ) / Double.BYTES );
+            if ( count == 0 ) {
+                // The value starts at the very end of the segment, and is only readable thanks to the overlap.
+                count = 1;
+            }
+
+            ByteBuffer segment = segment( position ).duplicate().order( ByteOrder.LITTLE_ENDIAN );
+            segment.position( offset );
+            segment.asDoubleBuffer().get( dst, dstOffset, count );
+
+            position += (long)count * Double.BYTES;
+            dstOffset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Returns a read-only buffer of {@code length} doubles starting at {@code position}. The buffer is a view
+     * of the mapping, unless the doubles straddle two segments, in which case they are copied.
+     */
+    public DoubleBuffer getDoubleBuffer( long position, int length )
+    {
+        ByteBuffer segment = segment( position ).duplicate();
+        int offset = offset( position );
+        if ( (long)offset + (long)length * Double.BYTES <= segment.limit() ) {
+            segment.position( offset );
+            segment.limit( offset + length * Double.BYTES );
+            // Slices are always big-endian, so the byte order has to be set afterwards.
+            return segment.slice().order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+        }
+
+        double[] values = new double[length];
+        getDoubles( position, values, 0, length );
+        return DoubleBuffer.wrap( values ).asReadOnlyBuffer();
+    }
+
+    private ByteBuffer segment( long position )
+    {
+        return segments[(int)( position >>> SEGMENT_SHIFT )];
+    }
+
+    private static int offset( long position )
+    {
+        return (int)( position & SEGMENT_MASK );
+    }
+}
@@ -0,0 +1,231 @@
+package basic_hierarchy.common;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable, pre-parsed node id, such as '{@code gen.0.15.1}'.
+ * <p>
+ * The id is held as the path of numeric segments following the '{@code gen}' prefix, along with its string form.
+ * Comparisons, depth computation and ancestry checks work on the path directly, without creating any objects.
+ * </p>
+ * <p>
+ * Only canonical ids can be parsed: each segment must be a non-negative {@code int} without leading zeros.
+ * For such ids, the ordering of {@link #compareTo(NodeId)} is the same as the ordering of
+ * {@link AlphanumComparator} and {@link StringIdComparator} applied to their string forms.
+ * </p>
+ */
+public final class NodeId implements Comparable<NodeId>
+{
+    private static final char BRANCH_SEPARATOR = Constants.HIERARCHY_BRANCH_SEPARATOR.charAt( 0 );
+
+    private final int[] path;
+    private final String id;
+
+    private NodeId parent;
+
+
+    private NodeId( int[] path, String id )
+    {
+        this.path = path;
+        this.id = id;
+    }
+
+    /**
+     * Parses the specified id.
+     *
+     * @param id
+     *            the id to parse
+     * @return the parsed id
+     * @throws IllegalArgumentException
+     *             if the id is not a canonical node id
+     */
+    public static NodeId parse( String id )
+    {
+        NodeId result = tryParse( id );
+        if ( result == null ) {
+            throw new IllegalArgumentException( String.format( "'%s' is not a valid node id.", id ) );
+        }
+        return result;
+    }
+
+    /**
+     * Parses the specified id.
+     *
+     * @param id
+     *            the id to parse
+     * @return the parsed id, or null if the id is not a canonical node id.
+     */
+    public static NodeId tryParse( String id )
+    {
+        int depth = getDepth( id );
+        if ( depth <= 0 || !id.startsWith( Constants.NODES_PREFIX ) ) {
+            return null;
+        }
+
+        int[] path = new int[depth];
+        int position = Constants.NODES_PREFIX.length();
+        for ( int i = 0; i < depth; ++i ) {
+            if ( id.charAt( position ) != BRANCH_SEPARATOR ) {
+                return null;
+            }
+
+            int end = segmentEnd( id, ++position );
+            if ( end == position || end - position > 9 || ( id.charAt( position ) == '0' && end - position > 1 ) ) {
+                // Empty, possibly out of int range, or with leading zeros.
+                return null;
+            }
+
+            int value = 0;
+            for ( ; position < end; ++position ) {
+                value = 10 * value + ( id.charAt( position ) - '0' );
+            }
+            path[i] = value;
+        }
+
+        return position == id.length() ? new NodeId( path, id ) : null;
+    }
+
+    /**
+     * @return id of the child of this node with the specified index.
+     */
+    public NodeId getChild( int index )
+    {
+        if ( index < 0 ) {
+            throw new IllegalArgumentException( "Child index must not be negative: " + index );
+        }
+
+        int[] childPath = Arrays.copyOf( path, path.length + 1 );
+        childPath[path.length] = index;
+        NodeId child = new NodeId( childPath, id + BRANCH_SEPARATOR + index );
+        child.parent = this;
+        return child;
+    }
+
+    /**
+     * @return id of the parent of this node, or null if this id has a single segment. The parent is created
+     *         on first call and cached.
+     */
+    public NodeId getParent()
+    {
+        NodeId result = parent;
+        if ( result == null && path.length > 1 ) {
+            result = new NodeId(
+                Arrays.copyOf( path, path.length - 1 ),
+                id.substring( 0, id.lastIndexOf( BRANCH_SEPARATOR ) )
+            );
+            parent = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return height of the node (how deep it is within the tree). 1 means root node.
+     * @see HierarchyBuilder#getIdHeight(String)
+     */
+    public int getDepth()
+    {
+        return path.length;
+    }
+
+    /**
+     * @return value of the segment at the specified depth, where 0 is the segment directly following the prefix.
+     */
+    public int getSegment( int depth )
+    {
+        return path[depth];
+    }
+
+    /**
+     * @return value of the last segment, ie. index of this node among its siblings.
+     */
+    public int getLastSegment()
+    {
+        return path[path.length - 1];
+    }
+
+    /**
+     * @return whether this id is the direct parent of the other id.
+     */
+    public boolean isParentOf( NodeId other )
+    {
+        return other.path.length == path.length + 1 && isPrefixOf( other );
+    }
+
+    /**
+     * @return whether this id is an ancestor of the other id. An id is not an ancestor of itself.
+     */
+    public boolean isAncestorOf( NodeId other )
+    {
+        return other.path.length > path.length && isPrefixOf( other );
+    }
+
+    @Override
+    public int compareTo( NodeId other )
+    {
+        int end = Math.min( path.length, other.path.length );
+        for ( int i = 0; i < end; ++i ) {
+            if ( path[i] != other.path[i] ) {
+                return path[i] < other.path[i] ? -1 : 1;
+            }
+        }
+        return path.length - other.path.length;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return o instanceof NodeId && Arrays.equals( path, ( (NodeId)o ).path );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode( path );
+    }
+
+    /**
+     * @return the string form of this id.
+     */
+    @Override
+    public String toString()
+    {
+        return id;
+    }
+
+    private boolean isPrefixOf( NodeId other )
+    {
+        for ( int i = path.length - 1; i >= 0; --i ) {
+            if ( path[i] != other.path[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the depth of the specified id, ie. the number of separators in it, without parsing it.
+     *
+     * @see HierarchyBuilder#getIdHeight(String)
+     */
+    public static int getDepth( String id )
+    {
+        int depth = 0;
+        for ( int i = id.indexOf( BRANCH_SEPARATOR ); i >= 0; i = id.indexOf( BRANCH_SEPARATOR, i + 1 ) ) {
+            ++depth;
+        }
+        return depth;
+    }
+
+    /**
+     * @return index of the first non-digit character at or after {@code start}, or length of the string.
+     */
+    static int segmentEnd( String id, int start )
+    {
+        int end = start;
+        while ( end < id.length() && id.charAt( end ) >= '0' && id.charAt( end ) <= '9' ) {
+            ++end;
+        }
+        return end;
+    }
+}
@@ -2,6 +2,7 @@ package basic_hierarchy.common;
 
 import java.util.Comparator;
 
+import basic_hierarchy.implementation.BasicNode;
 import basic_hierarchy.interfaces.Node;
 
 
@@ -21,6 +22,14 @@ public class NodeIdComparator implements Comparator<Node>
     @Override
     public int compare( Node o1, Node o2 )
     {
+        if ( o1 instanceof BasicNode && o2 instanceof BasicNode ) {
+            // Pre-parsed ids are compared without looking at their strings at all.
+            NodeId id1 = ( (BasicNode)o1 ).getParsedId();
+            NodeId id2 = ( (BasicNode)o2 ).getParsedId();
+            if ( id1 != null && id2 != null ) {
+                return id1.compareTo( id2 );
+            }
+        }
         return idComparator.compare( o1.getId(), o2.getId() );
     }
 }
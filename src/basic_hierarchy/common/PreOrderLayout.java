@@ -0,0 +1,299 @@
+package basic_hierarchy.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import basic_hierarchy.implementation.MatrixInstance;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A flattened layout of a tree of nodes, in which nodes, and the instances of each node, are laid out in
+ * depth-first pre-order, so that every subtree occupies a single range of nodes and a single range of instances.
+ * <p>
+ * Nodes are numbered in the same pre-order as in {@link TreeIndex}. Node {@code i}'s subtree consists of nodes
+ * {@code [i, getSubtreeEnd(i))}, its own instances are {@code [getInstanceStart(i), getInstanceEnd(i))},
+ * and the instances of its subtree are {@code [getInstanceStart(i), getSubtreeInstanceEnd(i))}. Subtree instance
+ * counts, iteration and feature sums are therefore range scans, rather than walks over the children.
+ * </p>
+ * <p>
+ * Layouts created by {@link #compact(Node, FeatureStorage)} also store feature values of the instances in a single
+ * {@link FeatureMatrix}, in which the row of each instance is its position in the layout.
+ * </p>
+ * <p>
+ * The layout is a snapshot of the tree at the time it was created, and does not reflect later changes to the tree.
+ * This class is thread safe.
+ * </p>
+ */
+public class PreOrderLayout
+{
+    private final Node[] nodes;
+    private final Map<Node, Integer> indices;
+    private final int[] subtreeEnds;
+    /** Position of the first instance of each node, followed by the total number of instances. */
+    private final int[] instanceStarts;
+    private final Instance[] instances;
+    private final FeatureMatrix matrix;
+
+
+    /**
+     * Lays out the subtree of the specified node, without moving feature values of its instances.
+     *
+     * @param root
+     *            the root of the tree to lay out
+     */
+    public PreOrderLayout( Node root )
+    {
+        this( getPreOrder( root ) );
+    }
+
+    private PreOrderLayout( List<Node> preOrder )
+    {
+        nodes = preOrder.toArray( new Node[preOrder.size()] );
+        indices = new IdentityHashMap<>( nodes.length );
+        subtreeEnds = new int[nodes.length];
+        instanceStarts = new int[nodes.length + 1];
+
+        int instanceCount = 0;
+        for ( int i = 0; i < nodes.length; ++i ) {
+            indices.put( nodes[i], i );
+            instanceStarts[i] = instanceCount;
+            instanceCount += nodes[i].getNodeInstanceList().size();
+        }
+        instanceStarts[nodes.length] = instanceCount;
+
+        instances = new Instance[instanceCount];
+        for ( int i = 0; i < nodes.length; ++i ) {
+            int position = instanceStarts[i];
+            for ( Instance instance : nodes[i].getNodeInstanceList() ) {
+                instances[position++] = instance;
+            }
+        }
+
+        // Nodes are visited in reverse, so that the subtrees of children are known before their parents'.
+        for ( int i = nodes.length - 1; i >= 0; --i ) {
+            int end = i + 1;
+            for ( Node child : nodes[i].getChildList() ) {
+                end = Math.max( end, subtreeEnds[indices.get( child )] );
+            }
+            subtreeEnds[i] = end;
+        }
+
+        matrix = getContiguousMatrix( instances );
+    }
+
+    /**
+     * Lays out the subtree of the specified node, and copies feature values of all of its instances into a single
+     * new matrix in layout order. Instances of the nodes are replaced with {@link MatrixInstance}s pointing to the
+     * new matrix, see {@link FeatureMatrix#pack}.
+     * <p>
+     * This is meant to be run on a complete hierarchy, e.g. after
+     * {@link HierarchyBuilder#buildCompleteHierarchy(basic_hierarchy.implementation.BasicNode, List, boolean, boolean)},
+     * and before any index of instances, such as {@link basic_hierarchy.interfaces.Hierarchy#getNodeOf(Instance)},
+     * has been built over the nodes.
+     * </p>
+     *
+     * @param root
+     *            the root of the tree to lay out
+     * @param storage
+     *            where the new matrix is to be kept
+     * @return the layout of the tree
+     * @throws UnsupportedOperationException
+     *             if the storage does not use a matrix
+     */
+    public static PreOrderLayout compact( Node root, FeatureStorage storage )
+    {
+        if ( storage == FeatureStorage.INSTANCE_ARRAYS ) {
+            throw new UnsupportedOperationException( storage + " does not store feature values in a matrix." );
+        }
+
+        List<Node> preOrder = getPreOrder( root );
+        FeatureMatrix.pack( preOrder, storage );
+        return new PreOrderLayout( preOrder );
+    }
+
+    /**
+     * @return number of nodes in the layout.
+     */
+    public int size()
+    {
+        return nodes.length;
+    }
+
+    /**
+     * @return number of instances in the layout.
+     */
+    public int getInstanceCount()
+    {
+        return instances.length;
+    }
+
+    /**
+     * @return the node with the specified pre-order number.
+     */
+    public Node getNode( int index )
+    {
+        return nodes[index];
+    }
+
+    /**
+     * @return pre-order number of the node, or -1 if the node does not belong to the laid out tree.
+     */
+    public int indexOf( Node node )
+    {
+        Integer result = indices.get( node );
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * @return pre-order number following the last node of the subtree of the specified node.
+     */
+    public int getSubtreeEnd( int index )
+    {
+        return subtreeEnds[index];
+    }
+
+    /**
+     * @return position of the first instance of the specified node, and of its subtree.
+     */
+    public int getInstanceStart( int index )
+    {
+        return instanceStarts[index];
+    }
+
+    /**
+     * @return position following the last instance of the specified node.
+     */
+    public int getInstanceEnd( int index )
+    {
+        return instanceStarts[index + 1];
+    }
+
+    /**
+     * @return position following the last instance of the subtree of the specified node.
+     */
+    public int getSubtreeInstanceEnd( int index )
+    {
+        return instanceStarts[subtreeEnds[index]];
+    }
+
+    /**
+     * @return number of instances in the subtree of the specified node.
+     */
+    public int getSubtreeInstanceCount( int index )
+    {
+        return getSubtreeInstanceEnd( index ) - instanceStarts[index];
+    }
+
+    /**
+     * @return the instance at the specified position.
+     */
+    public Instance getInstance( int position )
+    {
+        return instances[position];
+    }
+
+    /**
+     * @return read-only view of the instances of the specified node.
+     */
+    public List<Instance> getNodeInstances( int index )
+    {
+        return getInstances( instanceStarts[index], getInstanceEnd( index ) );
+    }
+
+    /**
+     * @return read-only view of the instances of the subtree of the specified node, in the same order
+     *         as in {@link Node#getSubtreeInstances()}.
+     */
+    public List<Instance> getSubtreeInstances( int index )
+    {
+        return getInstances( instanceStarts[index], getSubtreeInstanceEnd( index ) );
+    }
+
+    /**
+     * @return the matrix holding feature values of all instances, in which the row of each instance is its position
+     *         in this layout, or null if there is no such matrix.
+     */
+    public FeatureMatrix getMatrix()
+    {
+        return matrix;
+    }
+
+    /**
+     * Adds feature values of all instances in the subtree of the specified node to the sums, reading consecutive
+     * rows of the matrix if there is one.
+     */
+    public void addSubtreeFeaturesTo( int index, double[] sums )
+    {
+        int end = getSubtreeInstanceEnd( index );
+        if ( matrix != null ) {
+            for ( int row = instanceStarts[index]; row < end; ++row ) {
+                matrix.addRowTo( row, sums );
+            }
+        }
+        else {
+            for ( int position = instanceStarts[index]; position < end; ++position ) {
+                FeatureMatrix.addTo( instances[position], sums );
+            }
+        }
+    }
+
+    private List<Instance> getInstances( int from, int to )
+    {
+        return Collections.unmodifiableList( Arrays.asList( instances ).subList( from, to ) );
+    }
+
+    /**
+     * @return nodes of the subtree of the specified node, in pre-order.
+     */
+    private static List<Node> getPreOrder( Node root )
+    {
+        List<Node> result = new ArrayList<>();
+        // Walked without recursion, since generated hierarchies can be deep.
+        Deque<Iterator<Node>> children = new ArrayDeque<>();
+        result.add( root );
+        children.push( root.getChildList().iterator() );
+        while ( !children.isEmpty() ) {
+            Iterator<Node> it = children.peek();
+            if ( it.hasNext() ) {
+                Node next = it.next();
+                result.add( next );
+                children.push( next.getChildList().iterator() );
+            }
+            else {
+                children.pop();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the matrix holding all of the instances, if the row of each instance is its position, or null otherwise.
+     */
+    private static FeatureMatrix getContiguousMatrix( Instance[] instances )
+    {
+        if ( instances.length == 0 || !( instances[0] instanceof MatrixInstance ) ) {
+            return null;
+        }
+
+        FeatureMatrix result = ( (MatrixInstance)instances[0] ).getMatrix();
+        for ( int i = 0; i < instances.length; ++i ) {
+            if ( !( instances[i] instanceof MatrixInstance ) ) {
+                return null;
+            }
+            MatrixInstance instance = (MatrixInstance)instances[i];
+            if ( instance.getMatrix() != result || instance.getRow() != i ) {
+                return null;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package basic_hierarchy.common;
+
+/**
+ * A {@link FeatureMatrix} which stores each feature value as an unsigned integer code of a fixed number of bits,
+ * scaled to the range of its column.
+ * <p>
+ * A value {@code v} of column {@code d} is stored as {@code round( ( v - minimum[d] ) / scale[d] )}, and read back
+ * as {@code minimum[d] + scale[d] * code}, so the error of a stored value is at most half of the column's scale.
+ * Values outside of the column's range are clamped to it. Columns whose minimum and maximum are equal
+ * are stored exactly.
+ * </p>
+ * <p>
+ * Subclasses decide how many bits the codes have, and provide accessors for the codes themselves.
+ * </p>
+ */
+public abstract class QuantizedFeatureMatrix extends FeatureMatrix
+{
+    private final int maxCode;
+    private final double[] minimum;
+    private final double[] scale;
+
+
+    /**
+     * @param bits
+     *            number of bits of each code
+     * @param minimum
+     *            minimum value of each column
+     * @param maximum
+     *            maximum value of each column
+     */
+    protected QuantizedFeatureMatrix( int bits, double[] minimum, double[] maximum )
+    {
+        super( minimum.length );
+
+        if ( maximum.length != minimum.length ) {
+            throw new IllegalArgumentException(
+                String.format( "Expected %s maximums, but got %s.", minimum.length, maximum.length )
+            );
+        }
+
+        this.maxCode = ( 1 << bits ) - 1;
+        this.minimum = minimum.clone();
+        this.scale = new double[minimum.length];
+        for ( int i = 0; i < minimum.length; ++i ) {
+            if ( !( minimum[i] <= maximum[i] ) || Double.isInfinite( maximum[i] - minimum[i] ) ) {
+                throw new IllegalArgumentException(
+                    String.format( "Invalid range of column %s: [%s, %s].", i, minimum[i], maximum[i] )
+                );
+            }
+            scale[i] = ( maximum[i] - minimum[i] ) / maxCode;
+        }
+    }
+
+    /**
+     * @return the smallest value representable in the specified column.
+     */
+    public double getMinimum( int dimension )
+    {
+        return minimum[dimension];
+    }
+
+    /**
+     * @return difference between values represented by consecutive codes in the specified column.
+     */
+    public double getScale( int dimension )
+    {
+        return scale[dimension];
+    }
+
+    /**
+     * @return the unsigned code stored at the specified index of the chunk.
+     */
+    protected abstract int getCode( int chunk, int index );
+
+    /**
+     * Stores an unsigned code at the specified index of the chunk.
+     */
+    protected abstract void setCode( int chunk, int index, int code );
+
+    @Override
+    protected double getValue( int chunk, int index )
+    {
+        int d = index % getDimensions();
+        return minimum[d] + scale[d] * getCode( chunk, index );
+    }
+
+    @Override
+    protected void getValues( int chunk, int index, double[] target )
+    {
+        for ( int i = 0; i < target.length; ++i ) {
+            target[i] = minimum[i] + scale[i] * getCode( chunk, index + i );
+        }
+    }
+
+    @Override
+    protected void setValues( int chunk, int index, double[] values )
+    {
+        for ( int i = 0; i < values.length; ++i ) {
+            setCode( chunk, index + i, quantize( i, values[i] ) );
+        }
+    }
+
+    @Override
+    protected void addValuesTo( int chunk, int index, double[] sums )
+    {
+        for ( int i = 0; i < sums.length; ++i ) {
+            sums[i] += minimum[i] + scale[i] * getCode( chunk, index + i );
+        }
+    }
+
+    @Override
+    protected double getSquaredDistance( int chunk, int index, double[] point )
+    {
+        double result = 0;
+        for ( int i = 0; i < point.length; ++i ) {
+            double d = minimum[i] + scale[i] * getCode( chunk, index + i ) - point[i];
+            result += d * d;
+        }
+        return result;
+    }
+
+    private int quantize( int dimension, double value )
+    {
+        if ( scale[dimension] == 0 ) {
+            return 0;
+        }
+
+        long code = Math.round( ( value - minimum[dimension] ) / scale[dimension] );
+        return (int)Math.max( 0, Math.min( maxCode, code ) );
+    }
+}
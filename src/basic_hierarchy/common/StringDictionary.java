@@ -0,0 +1,97 @@
+package basic_hierarchy.common;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Assigns consecutive ordinals to distinct strings, such as node ids and true classes of a hierarchy, and keeps
+ * a single instance of each string.
+ * <p>
+ * Strings added to the dictionary can be replaced with the instance it holds, so that equal strings read from
+ * many rows of a file do not take memory separately, and counts of strings can be kept in arrays indexed
+ * by their ordinals, rather than in maps.
+ * </p>
+ * <p>
+ * This class is thread safe. Looking up a string which has already been added does not lock.
+ * </p>
+ */
+public class StringDictionary
+{
+    private final ConcurrentHashMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private int size = 0;
+
+
+    /**
+     * Adds the string to the dictionary, unless an equal one has been added before.
+     *
+     * @param value
+     *            the string to add. Must not be null.
+     * @return ordinal of the string
+     */
+    public int add( String value )
+    {
+        Integer ordinal = ordinals.get( value );
+        if ( ordinal != null ) {
+            return ordinal;
+        }
+
+        synchronized ( this ) {
+            ordinal = ordinals.get( value );
+            if ( ordinal == null ) {
+                if ( size == values.length ) {
+                    values = Arrays.copyOf( values, 2 * size );
+                }
+                // The value has to be stored before its ordinal is published to other threads.
+                values[size] = value;
+                ordinal = size++;
+                ordinals.put( value, ordinal );
+            }
+            return ordinal;
+        }
+    }
+
+    /**
+     * Adds the string to the dictionary, unless an equal one has been added before.
+     *
+     * @param value
+     *            the string to add, or null
+     * @return the instance of the string held by the dictionary, or null if the string was null
+     */
+    public String intern( String value )
+    {
+        return value == null ? null : get( add( value ) );
+    }
+
+    /**
+     * @return ordinal of the string, or -1 if it has not been added to the dictionary.
+     */
+    public int indexOf( String value )
+    {
+        Integer ordinal = ordinals.get( value );
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @return the string with the specified ordinal.
+     * @throws IndexOutOfBoundsException
+     *             if no string has been given the ordinal
+     */
+    public String get( int ordinal )
+    {
+        String[] v = values;
+        if ( ordinal < 0 || ordinal >= v.length || v[ordinal] == null ) {
+            throw new IndexOutOfBoundsException( "Ordinal: " + ordinal );
+        }
+        return v[ordinal];
+    }
+
+    /**
+     * @return number of strings in the dictionary. Ordinals of the strings are {@code [0, size)}.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+}
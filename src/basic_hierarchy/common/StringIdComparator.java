@@ -10,20 +10,34 @@ import java.util.Comparator;
  * Each segment is separated by a dot ('.').<br/>
  * For example: '{@code gen.0.15.1}'
  * </p>
+ * <p>
+ * Segments are parsed in place, so comparing well-formed ids does not create any objects.
+ * </p>
  */
 public class StringIdComparator implements Comparator<String>
 {
+	private static final char BRANCH_SEPARATOR = Constants.HIERARCHY_BRANCH_SEPARATOR.charAt( 0 );
+
+	/** Number of digits of the longest segment parsed in place, so that it always fits in an {@code int}. */
+	private static final int MAX_SEGMENT_DIGITS = 9;
+
+
 	@Override
 	public int compare( String o1, String o2 )
 	{
-		String[] id1 = o1.split( Constants.HIERARCHY_BRANCH_SEPARATOR_REGEX );
-		String[] id2 = o2.split( Constants.HIERARCHY_BRANCH_SEPARATOR_REGEX );
-
 		// Ignore the first segment - 'gen'
-		int end = Math.min( id1.length, id2.length );
-		for ( int i = 1; i < end; ++i ) {
-			int n1 = Integer.parseInt( id1[i] );
-			int n2 = Integer.parseInt( id2[i] );
+		int p1 = o1.indexOf( BRANCH_SEPARATOR );
+		int p2 = o2.indexOf( BRANCH_SEPARATOR );
+
+		while ( p1 >= 0 && p2 >= 0 ) {
+			int end1 = getSegmentEnd( o1, p1 );
+			int end2 = getSegmentEnd( o2, p2 );
+			if ( end1 < 0 || end2 < 0 ) {
+				return compareSplit( o1, o2 );
+			}
+
+			int n1 = parseSegment( o1, p1 + 1, end1 );
+			int n2 = parseSegment( o2, p2 + 1, end2 );
 
 			if ( n1 != n2 ) {
 				// Id with smaller generation index is 'smaller'.
@@ -32,11 +46,84 @@ public class StringIdComparator implements Comparator<String>
 			else {
 				// Both numbers are equal -- proceed to the next segment.
 			}
+
+			p1 = end1 < o1.length() ? end1 : -1;
+			p2 = end2 < o2.length() ? end2 : -1;
 		}
 
 		// Both ids have equal segments, so they're effectively equal.
 		// In this case, consider the shorter id as 'smaller'.
 		// (if we ever even end up in such a situation)
+		int remaining1 = countRemainingSegments( o1, p1 );
+		int remaining2 = countRemainingSegments( o2, p2 );
+		if ( remaining1 < 0 || remaining2 < 0 ) {
+			return compareSplit( o1, o2 );
+		}
+		return remaining1 - remaining2;
+	}
+
+	/**
+	 * Compares ids which are not well-formed the original way, by splitting them into segments, so that
+	 * they are either handled, or rejected, exactly as before.
+	 */
+	private static int compareSplit( String o1, String o2 )
+	{
+		String[] id1 = o1.split( Constants.HIERARCHY_BRANCH_SEPARATOR_REGEX );
+		String[] id2 = o2.split( Constants.HIERARCHY_BRANCH_SEPARATOR_REGEX );
+
+		int end = Math.min( id1.length, id2.length );
+		for ( int i = 1; i < end; ++i ) {
+			int n1 = Integer.parseInt( id1[i] );
+			int n2 = Integer.parseInt( id2[i] );
+
+			if ( n1 != n2 ) {
+				return n1 - n2;
+			}
+		}
+
 		return id1.length - id2.length;
 	}
+
+	/**
+	 * @param separator
+	 *            index of the separator preceding the segment
+	 * @return index past the end of the segment, or -1 if the segment is not a short, non-empty group of digits.
+	 */
+	private static int getSegmentEnd( String id, int separator )
+	{
+		int end = NodeId.segmentEnd( id, separator + 1 );
+		int length = end - separator - 1;
+		if ( length == 0 || length > MAX_SEGMENT_DIGITS || ( end < id.length() && id.charAt( end ) != BRANCH_SEPARATOR ) ) {
+			return -1;
+		}
+		return end;
+	}
+
+	private static int parseSegment( String id, int start, int end )
+	{
+		int result = 0;
+		for ( int i = start; i < end; ++i ) {
+			result = 10 * result + ( id.charAt( i ) - '0' );
+		}
+		return result;
+	}
+
+	/**
+	 * @param separator
+	 *            index of the separator preceding the first remaining segment, or -1 if there are none
+	 * @return number of remaining segments, or -1 if any of them is not well-formed.
+	 */
+	private static int countRemainingSegments( String id, int separator )
+	{
+		int count = 0;
+		while ( separator >= 0 ) {
+			int end = getSegmentEnd( id, separator );
+			if ( end < 0 ) {
+				return -1;
+			}
+			++count;
+			separator = end < id.length() ? end : -1;
+		}
+		return count;
+	}
 }
@@ -0,0 +1,120 @@
+package basic_hierarchy.common;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A read-only view of all instances of a node and its descendants, which walks the tree as it is iterated,
+ * instead of copying the instances.
+ * <p>
+ * Instances are iterated in the same order as in {@link Node#getSubtreeInstances()}: the node's own instances first,
+ * followed by instances of each child's subtree, in order of the children. The view reflects changes made
+ * to the subtree, but the subtree must not be modified while it is being iterated.
+ * </p>
+ */
+public class SubtreeInstanceView extends AbstractCollection<Instance>
+{
+    private final Node root;
+
+
+    /**
+     * @param root
+     *            the node whose subtree's instances are to be viewed
+     */
+    public SubtreeInstanceView( Node root )
+    {
+        this.root = root;
+    }
+
+    @Override
+    public Iterator<Instance> iterator()
+    {
+        return new SubtreeIterator( root );
+    }
+
+    /**
+     * @return the number of instances in the subtree, as given by {@link Node#getSubtreeInstanceCount()}.
+     *         Nodes may cache that count, so it is not guaranteed to match the number of iterated instances
+     *         if the subtree's lists were modified directly.
+     */
+    @Override
+    public int size()
+    {
+        return root.getSubtreeInstanceCount();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return !iterator().hasNext();
+    }
+
+    /**
+     * The spliterator does not report {@link Spliterator#SIZED}, since {@link #size()} is only an estimate,
+     * so streams count the instances by iterating over them.
+     */
+    @Override
+    public Spliterator<Instance> spliterator()
+    {
+        return Spliterators.spliteratorUnknownSize( iterator(), Spliterator.ORDERED );
+    }
+
+
+    /**
+     * Iterates over instances of a subtree in pre-order, keeping only an iterator over children
+     * of each node on the path to the current node.
+     */
+    private static class SubtreeIterator implements Iterator<Instance>
+    {
+        private final Deque<Iterator<Node>> pendingChildren = new ArrayDeque<>();
+        private Iterator<Instance> instances;
+
+
+        public SubtreeIterator( Node root )
+        {
+            instances = root.getNodeInstanceList().iterator();
+            pendingChildren.push( root.getChildList().iterator() );
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while ( !instances.hasNext() ) {
+                if ( pendingChildren.isEmpty() ) {
+                    return false;
+                }
+
+                Iterator<Node> children = pendingChildren.peek();
+                if ( children.hasNext() ) {
+                    Node child = children.next();
+                    instances = child.getNodeInstanceList().iterator();
+                    pendingChildren.push( child.getChildList().iterator() );
+                }
+                else {
+                    pendingChildren.pop();
+                    instances = Collections.emptyIterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Instance next()
+        {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            return instances.next();
+        }
+    }
+}
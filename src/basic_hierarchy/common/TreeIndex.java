@@ -0,0 +1,261 @@
+package basic_hierarchy.common;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A precomputed index of the structure of a tree of nodes, which answers ancestry, lowest common ancestor
+ * and distance queries in constant time, without walking parent chains or comparing ids.
+ * <p>
+ * Nodes are numbered in pre-order, starting with 0 at the root. Along with the pre-order and post-order numbers
+ * and the depth of each node, the index holds an Euler tour of the tree and a sparse table of range minima
+ * over the tour, which take {@code O(n log n)} time and memory to build. Since all nodes between the first
+ * occurrences of two nodes in the tour belong to the subtree of their lowest common ancestor, which comes first
+ * in pre-order, the ancestor is the minimum of the range.
+ * </p>
+ * <p>
+ * The index is a snapshot of the tree at the time it was built, and does not reflect later changes to the tree.
+ * This class is thread safe.
+ * </p>
+ */
+public class TreeIndex
+{
+    private final Node[] nodes;
+    private final Map<Node, Integer> preOrders;
+    private final int[] postOrders;
+    private final int[] depths;
+    /** Index of the first occurrence of each node in the Euler tour. */
+    private final int[] firstOccurrences;
+    /** {@code minima[k][i]} is the minimum of the Euler tour over {@code [i, i + 2^k)}. */
+    private final int[][] minima;
+
+
+    /**
+     * Builds the index of the subtree of the specified node.
+     *
+     * @param root
+     *            the root of the tree to index
+     */
+    public TreeIndex( Node root )
+    {
+        preOrders = new IdentityHashMap<>();
+        Node[] order = new Node[16];
+        int[] post = new int[16];
+        int[] depth = new int[16];
+        int[] first = new int[16];
+        int[] tour = new int[32];
+        int nodeCount = 0;
+        int postCount = 0;
+        int tourLength = 0;
+
+        // Walked without recursion, since generated hierarchies can be deep.
+        Deque<Iterator<Node>> children = new ArrayDeque<>();
+        Deque<Integer> path = new ArrayDeque<>();
+        Node next = root;
+        while ( next != null || !path.isEmpty() ) {
+            if ( next != null ) {
+                if ( nodeCount == order.length ) {
+                    order = Arrays.copyOf( order, 2 * nodeCount );
+                    post = Arrays.copyOf( post, 2 * nodeCount );
+                    depth = Arrays.copyOf( depth, 2 * nodeCount );
+                    first = Arrays.copyOf( first, 2 * nodeCount );
+                }
+                if ( preOrders.put( next, nodeCount ) != null ) {
+                    throw new IllegalArgumentException( String.format( "Node '%s' occurs in the tree more than once.", next.getId() ) );
+                }
+
+                order[nodeCount] = next;
+                depth[nodeCount] = path.size();
+                first[nodeCount] = tourLength;
+                tour = append( tour, tourLength++, nodeCount );
+                path.push( nodeCount++ );
+                children.push( next.getChildList().iterator() );
+            }
+
+            Iterator<Node> it = children.peek();
+            if ( it.hasNext() ) {
+                next = it.next();
+            }
+            else {
+                next = null;
+                children.pop();
+                post[path.pop()] = postCount++;
+                if ( !path.isEmpty() ) {
+                    tour = append( tour, tourLength++, path.peek() );
+                }
+            }
+        }
+
+        nodes = Arrays.copyOf( order, nodeCount );
+        postOrders = Arrays.copyOf( post, nodeCount );
+        depths = Arrays.copyOf( depth, nodeCount );
+        firstOccurrences = Arrays.copyOf( first, nodeCount );
+        minima = getSparseTable( Arrays.copyOf( tour, tourLength ) );
+    }
+
+    /**
+     * @return number of nodes in the indexed tree.
+     */
+    public int size()
+    {
+        return nodes.length;
+    }
+
+    /**
+     * @return the node with the specified pre-order number.
+     */
+    public Node getNode( int preOrder )
+    {
+        return nodes[preOrder];
+    }
+
+    /**
+     * @return pre-order number of the node, or -1 if the node does not belong to the indexed tree.
+     */
+    public int indexOf( Node node )
+    {
+        Integer result = preOrders.get( node );
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * @return pre-order number of the node.
+     * @throws IllegalArgumentException
+     *             if the node does not belong to the indexed tree
+     */
+    public int getPreOrder( Node node )
+    {
+        Integer result = preOrders.get( node );
+        if ( result == null ) {
+            throw new IllegalArgumentException( String.format( "Node '%s' does not belong to the indexed tree.", node.getId() ) );
+        }
+        return result;
+    }
+
+    /**
+     * @return post-order number of the node.
+     */
+    public int getPostOrder( Node node )
+    {
+        return postOrders[getPreOrder( node )];
+    }
+
+    /**
+     * @return post-order number of the node with the specified pre-order number.
+     */
+    public int getPostOrder( int preOrder )
+    {
+        return postOrders[preOrder];
+    }
+
+    /**
+     * @return depth of the node, 0 for the root of the indexed tree.
+     */
+    public int getDepth( Node node )
+    {
+        return depths[getPreOrder( node )];
+    }
+
+    /**
+     * @return depth of the node with the specified pre-order number.
+     */
+    public int getDepth( int preOrder )
+    {
+        return depths[preOrder];
+    }
+
+    /**
+     * Checks whether the first node is a proper ancestor of the second one. Like
+     * {@link HierarchyBuilder#areNodesAncestorAndDescendant(Node, Node)}, this method returns false if both
+     * arguments are the same node.
+     */
+    public boolean isAncestorOf( Node ancestor, Node descendant )
+    {
+        return isAncestorOf( getPreOrder( ancestor ), getPreOrder( descendant ) );
+    }
+
+    /**
+     * {@link #isAncestorOf(Node, Node)}, for nodes given by their pre-order numbers.
+     */
+    public boolean isAncestorOf( int ancestor, int descendant )
+    {
+        return ancestor < descendant && postOrders[descendant] < postOrders[ancestor];
+    }
+
+    /**
+     * @return the deepest node which is an ancestor of both nodes, or is one of them.
+     */
+    public Node getLowestCommonAncestor( Node a, Node b )
+    {
+        return nodes[getLowestCommonAncestor( getPreOrder( a ), getPreOrder( b ) )];
+    }
+
+    /**
+     * {@link #getLowestCommonAncestor(Node, Node)}, for nodes given by their pre-order numbers.
+     *
+     * @return pre-order number of the lowest common ancestor.
+     */
+    public int getLowestCommonAncestor( int a, int b )
+    {
+        int from = firstOccurrences[a];
+        int to = firstOccurrences[b];
+        if ( from > to ) {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+
+        int level = 31 - Integer.numberOfLeadingZeros( to - from + 1 );
+        int[] row = minima[level];
+        return Math.min( row[from], row[to - ( 1 << level ) + 1] );
+    }
+
+    /**
+     * @return number of edges on the path between the two nodes.
+     */
+    public int getDistance( Node a, Node b )
+    {
+        return getDistance( getPreOrder( a ), getPreOrder( b ) );
+    }
+
+    /**
+     * {@link #getDistance(Node, Node)}, for nodes given by their pre-order numbers.
+     */
+    public int getDistance( int a, int b )
+    {
+        return depths[a] + depths[b] - 2 * depths[getLowestCommonAncestor( a, b )];
+    }
+
+    private static int[] append( int[] array, int index, int value )
+    {
+        if ( index == array.length ) {
+            array = Arrays.copyOf( array, 2 * index );
+        }
+        array[index] = value;
+        return array;
+    }
+
+    private static int[][] getSparseTable( int[] tour )
+    {
+        int levels = 32 - Integer.numberOfLeadingZeros( tour.length );
+        int[][] result = new int[levels][];
+        result[0] = tour;
+        for ( int k = 1; k < levels; ++k ) {
+            int[] previous = result[k - 1];
+            int half = 1 << ( k - 1 );
+            int[] row = new int[tour.length - ( 1 << k ) + 1];
+            for ( int i = 0; i < row.length; ++i ) {
+                row[i] = Math.min( previous[i], previous[i + half] );
+            }
+            result[k] = row;
+        }
+        return result;
+    }
+}
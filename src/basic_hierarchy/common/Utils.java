@@ -1,8 +1,14 @@
 package basic_hierarchy.common;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
+import basic_hierarchy.implementation.ArrayNode;
 import basic_hierarchy.implementation.BasicHierarchy;
 import basic_hierarchy.implementation.BasicInstance;
 import basic_hierarchy.implementation.BasicNode;
@@ -31,7 +37,7 @@ public class Utils {
 		{
 			Node n = s.pop();
 			numberOfGroups++;
-			for(Node child: n.getChildren())
+			for(Node child: n.getChildList())
 			{
 				s.push(child);
 			}
@@ -39,9 +45,14 @@ public class Utils {
 		return numberOfGroups;
 	}
 
+    /**
+     * Creates a hierarchy with a single node, holding copies of all instances of the hierarchy.
+     * {@link basic_hierarchy.implementation.HierarchyView#getOneCluster(Hierarchy)} creates the same clustering
+     * without copying the instances.
+     */
 	public static Hierarchy getOneClusterHierarchy(Hierarchy h) {
         LinkedList<Instance> instances = new LinkedList<>();
-        for(Instance i: h.getRoot().getSubtreeInstances()) {
+        for(Instance i: h.getRoot().getSubtreeInstanceView()) {
             instances.add(new BasicInstance(i.getInstanceName(), Constants.ROOT_ID, i.getData().clone(), i.getTrueClass()));
         }
 
@@ -53,6 +64,38 @@ public class Utils {
         return new BasicHierarchy(root, nodes, h.getDataNames(), h.getClasses(), h.getClassesCount(), h.getOverallNumberOfInstances());
     }
 
+    /**
+     * Creates a copy of the hierarchy made of {@link ArrayNode}s, which take less memory and allow indexed access
+     * to children and instances. Instances and node representations are shared with the original hierarchy.
+     *
+     * @param h
+     *            the hierarchy to copy
+     * @return the copied hierarchy, with nodes in the same order as in the original
+     */
+    public static Hierarchy getArrayBackedHierarchy(Hierarchy h) {
+        Node[] groups = h.getGroups();
+        Map<Node, ArrayNode> copies = new IdentityHashMap<>();
+        List<Node> nodes = new ArrayList<>(groups.length);
+        for (Node n : groups) {
+            ArrayNode copy = new ArrayNode(n.getId(), null, Collections.<Node>emptyList(), n.getNodeInstanceList(), n.getNodeRepresentation());
+            copies.put(n, copy);
+            nodes.add(copy);
+        }
+
+        for (Node n : groups) {
+            ArrayNode copy = copies.get(n);
+            if (n.getParent() != null) {
+                copy.setParent(copies.get(n.getParent()));
+            }
+            for (Node child : n.getChildList()) {
+                copy.getChildList().add(copies.get(child));
+            }
+            copy.trimToSize();
+        }
+
+        return new BasicHierarchy(copies.get(h.getRoot()), nodes, h.getDataNames(), h.getClasses(), h.getClassesCount(), h.getOverallNumberOfInstances());
+    }
+
     /**
      * Checks whether the current thread has been interrupted.
      * If it was, clears the interrupt flag and throws an exception.
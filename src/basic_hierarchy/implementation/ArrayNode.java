@@ -0,0 +1,506 @@
+package basic_hierarchy.implementation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import basic_hierarchy.common.SubtreeInstanceView;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A {@link Node} which keeps its children and instances in arrays ({@link ArrayList}s), rather than linked lists.
+ * <p>
+ * This takes considerably less memory per instance than {@link BasicNode}, and allows constant time indexed access
+ * through {@link #getChildList()} and {@link #getNodeInstanceList()}, which return the node's own lists.
+ * </p>
+ * <p>
+ * For compatibility, {@link #getChildren()}, {@link #getNodeInstances()} and {@link #getSubtreeInstances()}
+ * return new linked lists, copied on each call. The copies of children and instances are read-only, so that code
+ * which changes the node through them fails, instead of silently changing only the copy.
+ * Use {@link #getChildList()} and {@link #getNodeInstanceList()} to change the node's lists directly.
+ * </p>
+ */
+public class ArrayNode extends SubtreeCountingNode
+{
+	private String id;
+	private Node parent;
+	private ArrayList<Node> children;
+	private ArrayList<Instance> instances;
+	private Instance representation;
+
+
+	/**
+	 * @param id
+	 *            id of the node
+	 * @param parent
+	 *            the parent node, or null if this is the root node
+	 * @param children
+	 *            child nodes of the node. The collection is copied.
+	 * @param instances
+	 *            instances which belong to the node. The collection is copied.
+	 * @param representation
+	 *            representation of the node, e.g. its centroid
+	 */
+	public ArrayNode( String id, Node parent, Collection<? extends Node> children, Collection<? extends Instance> instances, Instance representation )
+	{
+		this.id = id;
+		this.parent = parent;
+		this.children = new ArrayList<Node>( children );
+		this.instances = new ArrayList<Instance>( instances );
+		this.representation = representation;
+	}
+
+	public ArrayNode( String id, Node parent, Instance representation )
+	{
+		this.id = id;
+		this.parent = parent;
+		this.children = new ArrayList<Node>();
+		this.instances = new ArrayList<Instance>();
+		this.representation = representation;
+	}
+
+	@Override
+	public void setParent( Node parent )
+	{
+		this.parent = parent;
+	}
+
+	@Override
+	public void setParentId( String parentId )
+	{
+		this.getParent().setId( parentId );
+	}
+
+	@Override
+	public void setId( String id )
+	{
+		this.id = id;
+	}
+
+	@Override
+	public void setChildren( LinkedList<Node> children )
+	{
+		this.children = new ArrayList<Node>( children );
+		invalidateSubtreeInstanceCount();
+	}
+
+	@Override
+	public void addChild( Node child )
+	{
+		this.children.add( child );
+		invalidateSubtreeInstanceCount();
+	}
+
+	@Override
+	public void addInstance( Instance instance )
+	{
+		this.instances.add( instance );
+		invalidateSubtreeInstanceCount();
+	}
+
+	@Override
+	public void setInstances( LinkedList<Instance> instances )
+	{
+		this.instances = new ArrayList<Instance>( instances );
+		invalidateSubtreeInstanceCount();
+	}
+
+	@Override
+	public void setRepresentation( Instance representation )
+	{
+		this.representation = representation;
+	}
+
+	/**
+	 * Shrinks the arrays holding children and instances of this node to their sizes.
+	 */
+	public void trimToSize()
+	{
+		children.trimToSize();
+		instances.trimToSize();
+	}
+
+	@Override
+	public String getId()
+	{
+		return id;
+	}
+
+	@Override
+	public Node getParent()
+	{
+		return parent;
+	}
+
+	@Override
+	public String getParentId()
+	{
+		return parent.getId();
+	}
+
+	/**
+	 * @return a read-only copy of the list of child nodes of this node.
+	 */
+	@Override
+	public LinkedList<Node> getChildren()
+	{
+		return new ReadOnlyLinkedList<Node>( children );
+	}
+
+	/**
+	 * @return a read-only copy of the list of instances which belong to this node.
+	 */
+	@Override
+	public LinkedList<Instance> getNodeInstances()
+	{
+		return new ReadOnlyLinkedList<Instance>( instances );
+	}
+
+	/**
+	 * @return the list of child nodes of this node, which can be modified directly
+	 */
+	@Override
+	public List<Node> getChildList()
+	{
+		return children;
+	}
+
+	/**
+	 * @return the list of instances which belong to this node, which can be modified directly
+	 */
+	@Override
+	public List<Instance> getNodeInstanceList()
+	{
+		return instances;
+	}
+
+	@Override
+	public LinkedList<Instance> getSubtreeInstances()
+	{
+		return new LinkedList<Instance>( getSubtreeInstanceView() );
+	}
+
+	@Override
+	public Collection<Instance> getSubtreeInstanceView()
+	{
+		return new SubtreeInstanceView( this );
+	}
+
+	@Override
+	public Instance getNodeRepresentation()
+	{
+		return this.representation;
+	}
+
+	@Override
+	public String toString()
+	{
+		return print( "", true );
+	}
+
+	@Override
+	public void printSubtree()
+	{
+		System.out.println( toString() );
+	}
+
+	private String print( String prefix, boolean isTail )
+	{
+		StringBuilder buf = new StringBuilder();
+
+		buf.append( prefix )
+			.append( isTail ? "L-- " : "|-- " )
+			.append( id )
+			.append( '(' )
+			.append( instances.size() )
+			.append( ')' )
+			.append( '\n' );
+
+		String childPrefix = prefix + ( isTail ? "    " : "|   " );
+
+		for ( int i = 0; i < children.size(); ++i ) {
+			Node n = children.get( i );
+			if ( n instanceof ArrayNode ) {
+				buf.append( ( (ArrayNode)n ).print( childPrefix, i == children.size() - 1 ) );
+			}
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * A linked list whose contents cannot be changed once it is created. All methods which would change it
+	 * throw {@link UnsupportedOperationException}.
+	 */
+	@SuppressWarnings("serial")
+	private static class ReadOnlyLinkedList<E> extends LinkedList<E>
+	{
+		private final boolean sealed;
+
+
+		public ReadOnlyLinkedList( Collection<? extends E> contents )
+		{
+			super( contents );
+			sealed = true;
+		}
+
+		@Override
+		public boolean add( E e )
+		{
+			checkWritable();
+			return super.add( e );
+		}
+
+		@Override
+		public void add( int index, E element )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean addAll( Collection<? extends E> c )
+		{
+			checkWritable();
+			return super.addAll( c );
+		}
+
+		@Override
+		public boolean addAll( int index, Collection<? extends E> c )
+		{
+			checkWritable();
+			return super.addAll( index, c );
+		}
+
+		@Override
+		public void addFirst( E e )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void addLast( E e )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean offer( E e )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean offerFirst( E e )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean offerLast( E e )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void push( E e )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E set( int index, E element )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void clear()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E poll()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E pollFirst()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E pollLast()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E pop()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E remove()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E remove( int index )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean remove( Object o )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E removeFirst()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public E removeLast()
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean removeFirstOccurrence( Object o )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public boolean removeLastOccurrence( Object o )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public ListIterator<E> listIterator( final int index )
+		{
+			final ListIterator<E> it = super.listIterator( index );
+			return new ListIterator<E>() {
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public E next()
+				{
+					return it.next();
+				}
+
+				@Override
+				public boolean hasPrevious()
+				{
+					return it.hasPrevious();
+				}
+
+				@Override
+				public E previous()
+				{
+					return it.previous();
+				}
+
+				@Override
+				public int nextIndex()
+				{
+					return it.nextIndex();
+				}
+
+				@Override
+				public int previousIndex()
+				{
+					return it.previousIndex();
+				}
+
+				@Override
+				public void remove()
+				{
+					throw readOnly();
+				}
+
+				@Override
+				public void set( E e )
+				{
+					throw readOnly();
+				}
+
+				@Override
+				public void add( E e )
+				{
+					throw readOnly();
+				}
+			};
+		}
+
+		@Override
+		public Iterator<E> descendingIterator()
+		{
+			final ListIterator<E> it = listIterator( size() );
+			return new Iterator<E>() {
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasPrevious();
+				}
+
+				@Override
+				public E next()
+				{
+					return it.previous();
+				}
+
+				@Override
+				public void remove()
+				{
+					throw readOnly();
+				}
+			};
+		}
+
+		/**
+		 * @return a modifiable copy of this list.
+		 */
+		@Override
+		public Object clone()
+		{
+			return new LinkedList<E>( this );
+		}
+
+		/**
+		 * The list is filled by {@link LinkedList}'s constructor through {@link #addAll}, before it is sealed.
+		 */
+		private void checkWritable()
+		{
+			if ( sealed ) {
+				throw readOnly();
+			}
+		}
+
+		private static UnsupportedOperationException readOnly()
+		{
+			return new UnsupportedOperationException(
+				"Lists returned by ArrayNode.getChildren() and getNodeInstances() are read-only copies. "
+					+ "Use getChildList() or getNodeInstanceList() to modify the node."
+			);
+		}
+	}
+}
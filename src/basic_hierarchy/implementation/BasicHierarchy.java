@@ -3,7 +3,10 @@ package basic_hierarchy.implementation;
 import java.util.*;
 
 import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.NodeIdComparator;
+import basic_hierarchy.common.StringDictionary;
 import basic_hierarchy.common.StringIdComparator;
+import basic_hierarchy.common.TreeIndex;
 import basic_hierarchy.interfaces.Hierarchy;
 import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
@@ -19,6 +22,14 @@ public class BasicHierarchy implements Hierarchy
 	private Node[] groups;
 	private String[] classes;
     private int[] classCounts;
+    /** Counts of classes including their child classes, or null if they have not been computed yet. */
+    private volatile int[] inheritedClassCounts;
+    /** Groups by their ids, or null if the index has not been built yet. */
+    private volatile Map<String, Node> groupsById;
+    /** Groups by their instances, compared by identity, or null if the index has not been built yet. */
+    private volatile Map<Instance, Node> groupsByInstance;
+    /** Index of the tree structure, or null if it has not been built yet. */
+    private volatile TreeIndex treeIndex;
 	private int overallNumberOfInstances;
     private String[] dataNames;
 
@@ -70,36 +81,61 @@ public class BasicHierarchy implements Hierarchy
         root = nodes.get( 0 );
 
         this.dataNames = dataNames == null ? null : Arrays.copyOf( dataNames, dataNames.length );
-        this.groups = nodes.toArray( new BasicNode[nodes.size()] );
+        this.groups = nodes.toArray( new Node[nodes.size()] );
 
-        List<Instance> instances = root.getSubtreeInstances();
-        boolean withTrueClass = instances.isEmpty() || instances.get( 0 ).getTrueClass() != null;
+        Iterator<Instance> subtreeInstances = root.getSubtreeInstanceView().iterator();
+        boolean withTrueClass = !subtreeInstances.hasNext() || subtreeInstances.next().getTrueClass() != null;
 
-        Map<String, Integer> eachClassWithCount = new HashMap<>();
+        StringDictionary classDictionary = new StringDictionary();
+        int[] classHistogram = new int[0];
         for ( Node n : nodes ) {
-            instances = n.getNodeInstances();
+            List<Instance> instances = n.getNodeInstanceList();
             this.overallNumberOfInstances += instances.size();
 
             if ( !withTrueClass )
                 continue;
 
             for ( Instance i : instances ) {
-                // Can't use getOrDefault() due to version requirements
-                Integer prev = eachClassWithCount.get( i.getTrueClass() );
-                eachClassWithCount.put( i.getTrueClass(), ( prev == null ? 0 : prev ) + 1 );
+                if ( i.getTrueClass() == null )
+                    continue;
+
+                int ordinal = classDictionary.add( i.getTrueClass() );
+                if ( ordinal >= classHistogram.length ) {
+                    classHistogram = Arrays.copyOf( classHistogram, Math.max( ordinal + 1, 2 * classHistogram.length ) );
+                }
+                ++classHistogram[ordinal];
             }
         }
 
-        classes = new String[eachClassWithCount.size()];
-        classCounts = new int[eachClassWithCount.size()];
+        setClasses( classDictionary, classHistogram );
+    }
 
-        LinkedList<String> sortedKeys = new LinkedList<String>( eachClassWithCount.keySet() );
-        Collections.sort( sortedKeys, new StringIdComparator() );
-        for ( int index = 0; index < sortedKeys.size(); ++index ) {
-            String key = sortedKeys.get( index );
-            classes[index] = key;
-            classCounts[index] = eachClassWithCount.get( key );
-        }
+    /**
+     * Creates a new hierarchy object, with counts of true classes given as a histogram.
+     *
+     * @param root
+     *            the root node of the hierarchy. Must not be null.
+     * @param nodes
+     *            list of all nodes in the hierarchy
+     * @param dataNames
+     *            array of names, for data columns in instances
+     * @param classDictionary
+     *            dictionary holding (at least) all true classes of the instances
+     * @param classHistogram
+     *            number of instances of each true class, indexed by ordinals of the classes in the dictionary.
+     *            Strings of the dictionary with a count of 0, or beyond the end of the array, are not classes
+     *            of the hierarchy.
+     * @param overallNumberOfInstances
+     *            total number of instances in the hierarchy
+     */
+    public BasicHierarchy(
+            Node root, List<? extends Node> nodes,
+            String[] dataNames,
+            StringDictionary classDictionary, int[] classHistogram,
+            int overallNumberOfInstances )
+    {
+        this( root, nodes, dataNames, overallNumberOfInstances );
+        setClasses( classDictionary, classHistogram );
     }
 
     /**
@@ -156,7 +192,7 @@ public class BasicHierarchy implements Hierarchy
         this( root, nodes, dataNames, eachClassWithCount, 0 );
 
         for ( Node g : nodes ) {
-            this.overallNumberOfInstances += g.getNodeInstances().size();
+            this.overallNumberOfInstances += g.getNodeInstanceList().size();
         }
     }
 
@@ -198,7 +234,7 @@ public class BasicHierarchy implements Hierarchy
             throw new IllegalArgumentException( "Root node must not be null." );
         }
         this.root = root;
-        this.groups = nodes.toArray(new BasicNode[nodes.size()]);
+        this.groups = nodes.toArray( new Node[nodes.size()] );
         this.overallNumberOfInstances = overallNumberOfInstances;
         this.dataNames = null;
     }
@@ -208,11 +244,31 @@ public class BasicHierarchy implements Hierarchy
             throw new IllegalArgumentException( "Root node must not be null." );
         }
         this.root = root;
-        this.groups = nodes.toArray(new BasicNode[nodes.size()]);
+        this.groups = nodes.toArray( new Node[nodes.size()] );
         this.dataNames = dataNames;
         this.overallNumberOfInstances = overallNumberOfInstances;
     }
 
+    /**
+     * Sets classes of this hierarchy to those with a non-zero count in the histogram, sorted by their ids.
+     */
+    private void setClasses( StringDictionary classDictionary, int[] classHistogram )
+    {
+        List<String> sortedKeys = new ArrayList<String>();
+        for ( int ordinal = 0; ordinal < classHistogram.length; ++ordinal ) {
+            if ( classHistogram[ordinal] > 0 ) {
+                sortedKeys.add( classDictionary.get( ordinal ) );
+            }
+        }
+        Collections.sort( sortedKeys, new StringIdComparator() );
+
+        classes = sortedKeys.toArray( new String[sortedKeys.size()] );
+        classCounts = new int[classes.length];
+        for ( int index = 0; index < classes.length; ++index ) {
+            classCounts[index] = classHistogram[classDictionary.indexOf( classes[index] )];
+        }
+    }
+
 	@Override
 	public Node getRoot()
 	{
@@ -225,6 +281,58 @@ public class BasicHierarchy implements Hierarchy
 		return groups.length;
 	}
 
+	/**
+	 * Groups are indexed by their ids on first use, in time proportional to the number of groups.
+	 * Subsequent lookups take constant time.
+	 */
+	@Override
+	public Node getNode(String id) {
+		Map<String, Node> index = groupsById;
+		if ( index == null ) {
+			index = new HashMap<>( 2 * groups.length );
+			for ( Node n : groups ) {
+				index.put( n.getId(), n );
+			}
+			groupsById = index;
+		}
+		return index.get( id );
+	}
+
+	/**
+	 * Instances of all groups are indexed on first use, in time proportional to the number of instances.
+	 * Subsequent lookups take constant time.
+	 */
+	@Override
+	public Node getNodeOf(Instance instance) {
+		Map<Instance, Node> index = groupsByInstance;
+		if ( index == null ) {
+			index = new IdentityHashMap<>( overallNumberOfInstances );
+			for ( Node n : groups ) {
+				for ( Instance i : n.getNodeInstanceList() ) {
+					index.put( i, n );
+				}
+			}
+			groupsByInstance = index;
+		}
+		return index.get( instance );
+	}
+
+	/**
+	 * The index is built on first use, in {@code O(n log n)} time for {@code n} groups, and rebuilt after
+	 * groups are added or removed by {@link HierarchyUpdater}. It does not reflect changes made to the nodes directly.
+	 *
+	 * @return index answering ancestry, lowest common ancestor and distance queries about groups of this hierarchy
+	 *         in constant time.
+	 */
+	public TreeIndex getTreeIndex() {
+		TreeIndex index = treeIndex;
+		if ( index == null ) {
+			index = new TreeIndex( root );
+			treeIndex = index;
+		}
+		return index;
+	}
+
 	@Override
 	public int getNumberOfClasses()
 	{
@@ -250,30 +358,84 @@ public class BasicHierarchy implements Hierarchy
 
 	@Override
 	public int getParticularClassCount(String className, boolean withInstancesInheritance) {
-		int index = Arrays.binarySearch( classes, className, new StringIdComparator() );
+		return getParticularClassCount(
+			classes, withInstancesInheritance ? getInheritedClassesCount() : classCounts, className
+		);
+	}
 
-		if ( index < 0 ) {
-			// Not found.
-			return index;
+	/**
+	 * Counts are computed once, in a single pass over the classes, and kept up to date as instances are added
+	 * or removed with {@link HierarchyUpdater}.
+	 */
+	@Override
+	public int[] getInheritedClassesCount() {
+		int[] result = inheritedClassCounts;
+		if ( result == null && classes != null ) {
+			result = getInheritedClassCounts( classes, classCounts );
+			inheritedClassCounts = result;
 		}
-		else {
-			// REFACTOR below code could be faster, by moving the computations into the constructor in a smart way
-			// e.g. by using the partial results (from other classes) to compute results for other classes
-			if ( withInstancesInheritance ) {
-				String prefix = className + Constants.HIERARCHY_BRANCH_SEPARATOR;
-				int result = classCounts[index];
-				for ( int i = index; i < classCounts.length; ++i ) {
-					if ( className.length() < classes[i].length() && classes[i].startsWith( prefix ) ) {
-						result += classCounts[i];
-					}
-				}
+		return result;
+	}
 
-				return result;
-			}
-			else {
-				return classCounts[index];
+	/**
+	 * Implementation of {@link Hierarchy#getParticularClassCount(String, boolean)}, shared with other
+	 * {@link Hierarchy} implementations.
+	 *
+	 * @param classes
+	 *            classes of the hierarchy, sorted by {@link StringIdComparator}
+	 * @param counts
+	 *            count of each of the classes, with or without counts of child classes
+	 * @return count of the class, or a negative number if there is no such class
+	 */
+	static int getParticularClassCount(String[] classes, int[] counts, String className) {
+		int index = Arrays.binarySearch( classes, className, new StringIdComparator() );
+		// Not found.
+		return index < 0 ? index : counts[index];
+	}
+
+	/**
+	 * Implementation of {@link Hierarchy#getInheritedClassesCount()}, shared with other {@link Hierarchy}
+	 * implementations.
+	 * <p>
+	 * Classes are sorted by their ids, so child classes of each class immediately follow it. The classes are
+	 * visited in order, keeping a stack of classes which are ancestors of the current one, and the count
+	 * of each class is added to its closest ancestor once all of its descendants have been visited.
+	 * </p>
+	 *
+	 * @param classes
+	 *            classes of the hierarchy, sorted by {@link StringIdComparator}
+	 * @param classCounts
+	 *            count of each of the classes
+	 * @return count of each of the classes, including counts of its child classes
+	 */
+	static int[] getInheritedClassCounts(String[] classes, int[] classCounts) {
+		int[] result = classCounts.clone();
+		int[] ancestors = new int[classes.length];
+		int depth = 0;
+
+		for ( int i = 0; i < classes.length; ++i ) {
+			while ( depth > 0 && !isChildClass( classes[ancestors[depth - 1]], classes[i] ) ) {
+				--depth;
+				if ( depth > 0 ) {
+					result[ancestors[depth - 1]] += result[ancestors[depth]];
+				}
 			}
+			ancestors[depth++] = i;
 		}
+		while ( --depth > 0 ) {
+			result[ancestors[depth - 1]] += result[ancestors[depth]];
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return true if the second class is a (direct or indirect) child class of the first one.
+	 */
+	private static boolean isChildClass(String parent, String child) {
+		return child.length() > parent.length()
+			&& child.charAt( parent.length() ) == Constants.HIERARCHY_BRANCH_SEPARATOR.charAt( 0 )
+			&& child.startsWith( parent );
 	}
 
 	public int getOverallNumberOfInstances() {
@@ -282,12 +444,30 @@ public class BasicHierarchy implements Hierarchy
 
 	@Override
 	public Hierarchy getFlatClusteringWithCommonEmptyRoot() {
+        return getFlatClusteringWithCommonEmptyRoot(this);
+    }
+
+	@Override
+	public Hierarchy getFlatClusteringAtDepth(int depth) {
+		return HierarchyView.getLevelCut( this, depth );
+	}
+
+	@Override
+	public List<Hierarchy> getFlatClusteringsAtAllDepths() {
+		return HierarchyView.getLevelCuts( this );
+	}
+
+    /**
+     * Implementation of {@link Hierarchy#getFlatClusteringWithCommonEmptyRoot()}, shared with other
+     * {@link Hierarchy} implementations.
+     */
+    static Hierarchy getFlatClusteringWithCommonEmptyRoot(Hierarchy h) {
         Node artificialRoot = new BasicNode(Constants.ROOT_ID, null, new LinkedList<Node>(), new LinkedList<Instance>(), false);
 
         LinkedList<Node> groups = new LinkedList<>();
         groups.add(artificialRoot);
         int nodesCounter = 0;
-        for (Node n : this.getGroups()) {
+        for (Node n : h.getGroups()) {
             if (!n.getNodeInstances().isEmpty()) {
                 Node nodeToAdd = new BasicNode(TestCommon.getIDOfChildCluster(Constants.ROOT_ID, nodesCounter++),
                         artificialRoot, new LinkedList<Node>(), new LinkedList<Instance>(), false);
@@ -302,9 +482,163 @@ public class BasicHierarchy implements Hierarchy
             }
         }
 
-        return new BasicHierarchy(artificialRoot, groups, this.dataNames, this.classes, this.classCounts, this.overallNumberOfInstances);
+        return new BasicHierarchy(artificialRoot, groups, h.getDataNames(), h.getClasses(), h.getClassesCount(), h.getOverallNumberOfInstances());
     }
 
+	/**
+	 * Makes this hierarchy the sole owner of its class arrays, which might be shared with other hierarchies,
+	 * so that they can be updated in place.
+	 */
+	void copyClassCounts() {
+		classes = classes == null ? new String[0] : classes.clone();
+		classCounts = classCounts == null ? new int[0] : classCounts.clone();
+	}
+
+	/**
+	 * Updates the number of instances in this hierarchy, and in the specified class, as instances are added or removed.
+	 * Classes are added and removed as needed, keeping the classes sorted.
+	 * 
+	 * @param trueClass
+	 *            true class of the added or removed instances. Can be null.
+	 * @param delta
+	 *            number of instances added, or negative number of instances removed
+	 */
+	void updateInstanceCount(String trueClass, int delta) {
+		overallNumberOfInstances += delta;
+		if ( trueClass == null ) {
+			return;
+		}
+
+		int index = Arrays.binarySearch( classes, trueClass, new StringIdComparator() );
+		if ( index < 0 ) {
+			if ( delta < 0 ) {
+				throw new IllegalArgumentException( String.format( "Class '%s' has no instances to remove.", trueClass ) );
+			}
+
+			index = -index - 1;
+			classes = insert( classes, new String[classes.length + 1], index, trueClass );
+			int[] counts = new int[classCounts.length + 1];
+			System.arraycopy( classCounts, 0, counts, 0, index );
+			System.arraycopy( classCounts, index, counts, index + 1, classCounts.length - index );
+			counts[index] = delta;
+			classCounts = counts;
+			// Recomputed in a single pass, which is no slower than inserting into the array.
+			inheritedClassCounts = null;
+		}
+		else if ( classCounts[index] + delta > 0 ) {
+			classCounts[index] += delta;
+			updateInheritedClassCounts( trueClass, index, delta );
+		}
+		else {
+			// Drop classes without instances, like a hierarchy built from scratch would.
+			classes = remove( classes, new String[classes.length - 1], index );
+			int[] counts = new int[classCounts.length - 1];
+			System.arraycopy( classCounts, 0, counts, 0, index );
+			System.arraycopy( classCounts, index + 1, counts, index, counts.length - index );
+			classCounts = counts;
+			inheritedClassCounts = null;
+		}
+	}
+
+	/**
+	 * Adds the delta to the inherited count of the class and of all of its ancestor classes, if the inherited
+	 * counts have been computed.
+	 *
+	 * @param index
+	 *            index of the class in {@link #classes}
+	 */
+	private void updateInheritedClassCounts(String trueClass, int index, int delta) {
+		int[] counts = inheritedClassCounts;
+		if ( counts == null ) {
+			return;
+		}
+
+		counts[index] += delta;
+		StringIdComparator comparator = new StringIdComparator();
+		for ( int end = trueClass.lastIndexOf( Constants.HIERARCHY_BRANCH_SEPARATOR ); end > 0;
+			end = trueClass.lastIndexOf( Constants.HIERARCHY_BRANCH_SEPARATOR, end - 1 ) ) {
+			int ancestor = Arrays.binarySearch( classes, 0, index, trueClass.substring( 0, end ), comparator );
+			if ( ancestor >= 0 ) {
+				counts[ancestor] += delta;
+			}
+		}
+	}
+
+	/**
+	 * Adds the node to the groups of this hierarchy, keeping them sorted by {@link NodeIdComparator}.
+	 */
+	void addGroup(Node node) {
+		int index = Arrays.binarySearch( groups, node, new NodeIdComparator() );
+		groups = insert( groups, new Node[groups.length + 1], index < 0 ? -index - 1 : index, node );
+		treeIndex = null;
+
+		if ( groupsById != null ) {
+			groupsById.put( node.getId(), node );
+		}
+		if ( groupsByInstance != null ) {
+			for ( Instance i : node.getNodeInstanceList() ) {
+				groupsByInstance.put( i, node );
+			}
+		}
+	}
+
+	/**
+	 * Removes the nodes from the groups of this hierarchy.
+	 */
+	void removeGroups(Set<Node> nodes) {
+		Node[] remaining = new Node[groups.length - nodes.size()];
+		int index = 0;
+		for ( Node n : groups ) {
+			if ( !nodes.contains( n ) ) {
+				remaining[index++] = n;
+			}
+		}
+		groups = remaining;
+		treeIndex = null;
+
+		for ( Node n : nodes ) {
+			if ( groupsById != null ) {
+				groupsById.remove( n.getId() );
+			}
+			if ( groupsByInstance != null ) {
+				for ( Instance i : n.getNodeInstanceList() ) {
+					groupsByInstance.remove( i );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that the instance has been added to the group, or removed from it if {@code group} is null,
+	 * in the index used by {@link #getNodeOf(Instance)}.
+	 */
+	void setNodeOf(Instance instance, Node group) {
+		Map<Instance, Node> index = groupsByInstance;
+		if ( index == null ) {
+			return;
+		}
+
+		if ( group == null ) {
+			index.remove( instance );
+		}
+		else {
+			index.put( instance, group );
+		}
+	}
+
+	private static <T> T[] insert(T[] source, T[] target, int index, T value) {
+		System.arraycopy( source, 0, target, 0, index );
+		System.arraycopy( source, index, target, index + 1, source.length - index );
+		target[index] = value;
+		return target;
+	}
+
+	private static <T> T[] remove(T[] source, T[] target, int index) {
+		System.arraycopy( source, 0, target, 0, index );
+		System.arraycopy( source, index + 1, target, index, target.length - index );
+		return target;
+	}
+
 	@Override
 	public String[] getDataNames()
 	{
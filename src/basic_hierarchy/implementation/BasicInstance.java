@@ -1,5 +1,7 @@
 package basic_hierarchy.implementation;
 
+import java.nio.DoubleBuffer;
+
 import basic_hierarchy.interfaces.Instance;
 
 
@@ -41,6 +43,15 @@ public class BasicInstance implements Instance
 		return data;
 	}
 
+	/**
+	 * @return buffer wrapping the array returned by {@link #getData()}.
+	 */
+	@Override
+	public DoubleBuffer getDataBuffer()
+	{
+		return DoubleBuffer.wrap( data );
+	}
+
     @Override
     public void setData(double[] data) {
         this.data = data;
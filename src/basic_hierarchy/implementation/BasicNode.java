@@ -1,18 +1,25 @@
 package basic_hierarchy.implementation;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.NodeId;
+import basic_hierarchy.common.SubtreeInstanceView;
 import basic_hierarchy.interfaces.Node;
 import basic_hierarchy.interfaces.Instance;
 
 
-public class BasicNode implements Node
+public class BasicNode extends SubtreeCountingNode
 {
 	private String id;
 	private Node parent;
 	private LinkedList<Node> children;
 	private LinkedList<Instance> instances;
 	private Instance representation;
+	private NodeId parsedId;
 
 
 	private BasicNode( String id, Node parent, LinkedList<Node> children, LinkedList<Instance> instances )
@@ -60,30 +67,35 @@ public class BasicNode implements Node
     public void setId( String id )
 	{
 		this.id = id;
+		this.parsedId = null;
 	}
 
 	@Override
 	public void setChildren( LinkedList<Node> children )
 	{
 		this.children = children;
+		invalidateSubtreeInstanceCount();
 	}
 
 	@Override
 	public void addChild( Node child )
 	{
 		this.children.add( child );
+		invalidateSubtreeInstanceCount();
 	}
 
 	@Override
 	public void addInstance( Instance instance )
 	{
 		this.instances.add( instance );
+		invalidateSubtreeInstanceCount();
 	}
 
 	@Override
 	public void setInstances( LinkedList<Instance> instances )
 	{
 		this.instances = instances;
+		invalidateSubtreeInstanceCount();
 	}
 
 	@Override
@@ -98,6 +110,18 @@ public class BasicNode implements Node
 		return id;
 	}
 
+	/**
+	 * @return the id of this node, parsed on first call and cached until the id changes,
+	 *         or null if the id is not a canonical node id.
+	 */
+	public NodeId getParsedId()
+	{
+		if ( parsedId == null && id != null ) {
+			parsedId = NodeId.tryParse( id );
+		}
+		return parsedId;
+	}
+
 	@Override
 	public Node getParent()
 	{
@@ -122,6 +146,24 @@ public class BasicNode implements Node
 		return instances;
 	}
 
+	/**
+	 * @return the same list as {@link #getChildren()}.
+	 */
+	@Override
+	public List<Node> getChildList()
+	{
+		return children;
+	}
+
+	/**
+	 * @return the same list as {@link #getNodeInstances()}.
+	 */
+	@Override
+	public List<Instance> getNodeInstanceList()
+	{
+		return instances;
+	}
+
 	@Override
 	public LinkedList<Instance> getSubtreeInstances()
 	{
@@ -134,6 +176,12 @@ public class BasicNode implements Node
 		return subtreeInstances;
 	}
 
+	@Override
+	public Collection<Instance> getSubtreeInstanceView()
+	{
+		return new SubtreeInstanceView( this );
+	}
+
 	@Override
 	public Instance getNodeRepresentation()
 	{
@@ -165,19 +213,11 @@ public class BasicNode implements Node
 
 		String childPrefix = prefix + ( isTail ? "    " : "|   " );
 
-		// Print all children except last
-		for ( int i = 0; i < children.size() - 1; ++i ) {
-			Node n = children.get( i );
+		// Print the last child as tail. Children are iterated, since indexed access to a linked list is slow.
+		for ( Iterator<Node> it = children.iterator(); it.hasNext(); ) {
+			Node n = it.next();
 			if ( n instanceof BasicNode ) {
-				buf.append( ( (BasicNode)n ).print( childPrefix, false ) );
-			}
-		}
-
-		// Print the last child as tail
-		if ( children.size() > 0 ) {
-			Node n = children.get( children.size() - 1 );
-			if ( n instanceof BasicNode ) {
-				buf.append( ( (BasicNode)n ).print( childPrefix, true ) );
+				buf.append( ( (BasicNode)n ).print( childPrefix, !it.hasNext() ) );
 			}
 		}
 
@@ -193,22 +233,39 @@ public class BasicNode implements Node
 	 */
 	public Instance recalculateCentroid( boolean useSubtree )
 	{
-		LinkedList<Instance> instances = useSubtree ? getSubtreeInstances() : getNodeInstances();
+		Collection<Instance> instances = useSubtree ? getSubtreeInstanceView() : getNodeInstances();
 
-		double[] centroidCoordinates = new double[instances.isEmpty() ? 0 : instances.getFirst().getData().length];
+		double[] centroidCoordinates = null;
+		int instanceCount = 0;
 		for ( Instance inst : instances ) {
-			double[] instanceData = inst.getData();
-			for ( int i = 0; i < centroidCoordinates.length; i++ ) {
-				centroidCoordinates[i] += instanceData[i];
+			if ( centroidCoordinates == null ) {
+				centroidCoordinates = new double[FeatureMatrix.getDimensions( inst )];
 			}
+			FeatureMatrix.addTo( inst, centroidCoordinates );
+			++instanceCount;
 		}
 
-		for ( int i = 0; i < centroidCoordinates.length; i++ ) {
-			centroidCoordinates[i] /= instances.size();
+		return setCentroid( centroidCoordinates == null ? new double[0] : centroidCoordinates, instanceCount );
+	}
+
+	/**
+	 * Updates this group's representation to the centroid of a set of instances, given the sums of their
+	 * feature values. Allows centroids to be computed from aggregates, without visiting the instances again.
+	 * 
+	 * @param featureSums
+	 *            sums of feature values of all instances. This array is used as the centroid's data.
+	 * @param instanceCount
+	 *            number of instances summed up
+	 * @return the previous representation
+	 */
+	public Instance setCentroid( double[] featureSums, int instanceCount )
+	{
+		for ( int i = 0; i < featureSums.length; i++ ) {
+			featureSums[i] /= instanceCount;
 		}
 
 		Instance oldRepresentation = this.representation;
-		this.representation = new BasicInstance( "centroid", "centroid", centroidCoordinates, "centroid" );
+		this.representation = new BasicInstance( "centroid", "centroid", featureSums, "centroid" );
 		return oldRepresentation;
 	}
 }
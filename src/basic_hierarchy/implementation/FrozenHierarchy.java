@@ -0,0 +1,669 @@
+package basic_hierarchy.implementation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.StringIdComparator;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * An immutable snapshot of a hierarchy, which can be shared by many threads without copying or locking.
+ * <p>
+ * All state is held in final fields and arrays which are never modified, and methods returning arrays return copies
+ * of them, so a snapshot is safe to publish. Nodes ({@link FrozenNode}) and instances ({@link FrozenInstance})
+ * are immutable as well. Freezing a hierarchy copies feature values of its instances once.
+ * </p>
+ * <p>
+ * Modified snapshots are derived with the {@code with...} methods, which leave this snapshot intact. Contents
+ * of all subtrees which were not changed are shared with the new snapshot, so deriving it only copies the nodes
+ * on the path from the root to the changed node, in O(depth &times; (children + dimensions)) time, plus the
+ * class counts. Like {@link HierarchyUpdater}, snapshots keep running sums of feature values of each node
+ * (of its whole subtree, if centroids include child nodes' instances), from which centroids of changed nodes
+ * are updated.
+ * </p>
+ * <p>
+ * Groups are ordered as the nodes in pre-order. Indexes used by {@link #getNode(String)} and
+ * {@link #getNodeOf(Instance)} are built per snapshot, on first use.
+ * </p>
+ */
+public final class FrozenHierarchy implements Hierarchy
+{
+	private final Tree rootTree;
+	private final FrozenNode root;
+	private final boolean useSubtree;
+	private final String[] dataNames;
+	private final String[] classes;
+	private final int[] classCounts;
+	private final int[] inheritedClassCounts;
+	private final int overallNumberOfInstances;
+	/** Number of feature values of each instance, or -1 if there are no instances to tell. */
+	private final int dimensions;
+
+	// Built on first use. Races only build equal values, since nodes are created once per snapshot.
+	private volatile Node[] groups;
+	private volatile Map<String, Node> groupsById;
+	private volatile Map<Instance, Node> groupsByInstance;
+
+
+	private FrozenHierarchy(
+		Tree rootTree, boolean useSubtree, int dimensions, String[] dataNames,
+		String[] classes, int[] classCounts, int overallNumberOfInstances )
+	{
+		this.dimensions = dimensions;
+		this.rootTree = rootTree;
+		this.root = new FrozenNode( this, rootTree, null, 0 );
+		this.useSubtree = useSubtree;
+		this.dataNames = dataNames;
+		this.classes = classes;
+		this.classCounts = classCounts;
+		this.inheritedClassCounts = BasicHierarchy.getInheritedClassCounts( classes, classCounts );
+		this.overallNumberOfInstances = overallNumberOfInstances;
+	}
+
+	/**
+	 * Creates an immutable snapshot of the hierarchy. Representations of the nodes are copied as they are,
+	 * and only recomputed for nodes changed in derived snapshots.
+	 *
+	 * @param h
+	 *            the hierarchy to freeze
+	 * @param useSubtree
+	 *            whether centroids of the hierarchy include child nodes' instances. Should be the same
+	 *            as the value used when the hierarchy was built.
+	 * @return the snapshot
+	 */
+	public static FrozenHierarchy freeze( Hierarchy h, boolean useSubtree )
+	{
+		// Nodes in pre-order, with indexes of their parents; built bottom-up, without recursion.
+		List<Node> nodes = new ArrayList<Node>();
+		List<Integer> parents = new ArrayList<Integer>();
+		Deque<Node> stack = new ArrayDeque<Node>();
+		Deque<Integer> stackParents = new ArrayDeque<Integer>();
+		stack.push( h.getRoot() );
+		stackParents.push( -1 );
+		while ( !stack.isEmpty() ) {
+			Node n = stack.pop();
+			int index = nodes.size();
+			nodes.add( n );
+			parents.add( stackParents.pop() );
+
+			List<Node> children = n.getChildList();
+			for ( int i = children.size() - 1; i >= 0; --i ) {
+				stack.push( children.get( i ) );
+				stackParents.push( index );
+			}
+		}
+
+		List<List<Tree>> children = new ArrayList<List<Tree>>( nodes.size() );
+		for ( int i = 0; i < nodes.size(); ++i ) {
+			children.add( new ArrayList<Tree>( nodes.get( i ).getChildList().size() ) );
+		}
+
+		Tree[] trees = new Tree[nodes.size()];
+		int dimensions = -1;
+		for ( int i = nodes.size() - 1; i >= 0; --i ) {
+			Node n = nodes.get( i );
+			List<Instance> source = n.getNodeInstanceList();
+			FrozenInstance[] instances = new FrozenInstance[source.size()];
+			double[] sums = null;
+			int k = 0;
+			for ( Instance instance : source ) {
+				instances[k] = FrozenInstance.of( instance );
+				dimensions = instances[k].getDimensions();
+				sums = add( sums, instances[k++], 1 );
+			}
+
+			// Children were built before their parent, in reverse order.
+			List<Tree> own = children.get( i );
+			Tree[] childTrees = new Tree[own.size()];
+			int subtreeInstanceCount = instances.length;
+			int count = instances.length;
+			for ( int c = 0; c < childTrees.length; ++c ) {
+				childTrees[c] = own.get( childTrees.length - 1 - c );
+				subtreeInstanceCount += childTrees[c].subtreeInstanceCount;
+				if ( useSubtree ) {
+					sums = add( sums, childTrees[c].sums );
+					count += childTrees[c].count;
+				}
+			}
+
+			Instance representation = n.getNodeRepresentation();
+			trees[i] = new Tree(
+				n.getId(), instances, childTrees, sums, count, subtreeInstanceCount,
+				representation == null ? null : FrozenInstance.of( representation )
+			);
+			if ( parents.get( i ) >= 0 ) {
+				children.get( parents.get( i ) ).add( trees[i] );
+			}
+		}
+
+		String[] classes = h.getClasses();
+		int[] classCounts = h.getClassesCount();
+		return new FrozenHierarchy(
+			trees[0], useSubtree, dimensions,
+			h.getDataNames() == null ? null : h.getDataNames().clone(),
+			classes == null ? new String[0] : classes.clone(),
+			classCounts == null ? new int[0] : classCounts.clone(),
+			h.getOverallNumberOfInstances()
+		);
+	}
+
+	/**
+	 * Derives a snapshot in which the instance is added to the specified node.
+	 *
+	 * @param node
+	 *            the node to add the instance to. Must belong to this snapshot.
+	 * @param instance
+	 *            the instance to add. It is frozen, if it is not frozen already.
+	 * @return the new snapshot
+	 * @throws IllegalArgumentException
+	 *             if the instance has a different number of features than other instances of the hierarchy
+	 */
+	public FrozenHierarchy withInstanceAdded( Node node, Instance instance )
+	{
+		FrozenNode target = checkNode( node );
+		FrozenInstance frozen = FrozenInstance.of( instance );
+		checkDimensions( frozen );
+
+		Tree tree = target.getTree();
+		FrozenInstance[] instances = Arrays.copyOf( tree.instances, tree.instances.length + 1 );
+		instances[tree.instances.length] = frozen;
+
+		double[] delta = add( null, frozen, 1 );
+		Tree replacement = tree.with( instances, tree.children, delta, 1, 1 );
+
+		Map<String, Integer> classDeltas = new HashMap<String, Integer>();
+		addClassDelta( classDeltas, frozen.getTrueClass(), 1 );
+		return derive( target, replacement, delta, 1, classDeltas, frozen.getDimensions() );
+	}
+
+	/**
+	 * Derives a snapshot in which the instance is removed from the specified node.
+	 *
+	 * @param node
+	 *            the node to remove the instance from. Must belong to this snapshot.
+	 * @param instance
+	 *            the instance to remove, compared by identity
+	 * @return the new snapshot, or this snapshot if the instance does not belong to the node
+	 */
+	public FrozenHierarchy withInstanceRemoved( Node node, Instance instance )
+	{
+		FrozenNode target = checkNode( node );
+		Tree tree = target.getTree();
+
+		int index = -1;
+		for ( int i = 0; i < tree.instances.length && index < 0; ++i ) {
+			if ( tree.instances[i] == instance ) {
+				index = i;
+			}
+		}
+		if ( index < 0 ) {
+			return this;
+		}
+
+		FrozenInstance removed = tree.instances[index];
+		FrozenInstance[] instances = new FrozenInstance[tree.instances.length - 1];
+		System.arraycopy( tree.instances, 0, instances, 0, index );
+		System.arraycopy( tree.instances, index + 1, instances, index, instances.length - index );
+
+		double[] delta = add( null, removed, -1 );
+		Tree replacement = tree.with( instances, tree.children, delta, -1, -1 );
+
+		Map<String, Integer> classDeltas = new HashMap<String, Integer>();
+		addClassDelta( classDeltas, removed.getTrueClass(), -1 );
+		return derive( target, replacement, delta, -1, classDeltas, dimensions );
+	}
+
+	/**
+	 * Derives a snapshot in which a new, empty node is added as a child of the specified node. Children are kept
+	 * sorted by their ids.
+	 *
+	 * @param parent
+	 *            the parent of the new node. Must belong to this snapshot.
+	 * @param id
+	 *            id of the new node
+	 * @return the new snapshot
+	 * @throws IllegalArgumentException
+	 *             if a node with this id already exists, or the id is not an id of a child of the parent
+	 */
+	public FrozenHierarchy withNodeAdded( Node parent, String id )
+	{
+		FrozenNode target = checkNode( parent );
+		if ( !HierarchyBuilder.areIdsParentAndChild( parent.getId(), id ) ) {
+			throw new IllegalArgumentException( String.format( "'%s' is not an id of a child of '%s'.", id, parent.getId() ) );
+		}
+
+		// The new node can only collide with an existing child of the parent, so don't build the id index.
+		Tree tree = target.getTree();
+		StringIdComparator comparator = new StringIdComparator();
+		int index = 0;
+		int order = -1;
+		while ( index < tree.children.length && ( order = comparator.compare( tree.children[index].id, id ) ) < 0 ) {
+			++index;
+		}
+		if ( order == 0 && tree.children[index].id.equals( id ) ) {
+			throw new IllegalArgumentException( String.format( "Node '%s' already exists.", id ) );
+		}
+
+		Tree[] children = new Tree[tree.children.length + 1];
+		System.arraycopy( tree.children, 0, children, 0, index );
+		System.arraycopy( tree.children, index, children, index + 1, tree.children.length - index );
+		children[index] = new Tree(
+			id, new FrozenInstance[0], new Tree[0], null, 0, 0,
+			new FrozenInstance( "centroid", "centroid", new double[0], "centroid" )
+		);
+
+		Tree replacement = tree.with( tree.instances, children, null, 0, 0 );
+		return derive( target, replacement, null, 0, new HashMap<String, Integer>(), dimensions );
+	}
+
+	/**
+	 * Derives a snapshot in which the node is removed, along with its whole subtree and all of their instances.
+	 *
+	 * @param node
+	 *            the node to remove. Must belong to this snapshot, and must not be its root.
+	 * @return the new snapshot
+	 */
+	public FrozenHierarchy withNodeRemoved( Node node )
+	{
+		FrozenNode target = checkNode( node );
+		if ( target.getParent() == null ) {
+			throw new IllegalArgumentException( "The root node cannot be removed." );
+		}
+
+		Tree tree = target.getTree();
+		Map<String, Integer> classDeltas = new HashMap<String, Integer>();
+		Deque<Tree> stack = new ArrayDeque<Tree>();
+		stack.push( tree );
+		while ( !stack.isEmpty() ) {
+			Tree t = stack.pop();
+			for ( FrozenInstance instance : t.instances ) {
+				addClassDelta( classDeltas, instance.getTrueClass(), -1 );
+			}
+			for ( Tree child : t.children ) {
+				stack.push( child );
+			}
+		}
+
+		FrozenNode parent = (FrozenNode)target.getParent();
+		Tree parentTree = parent.getTree();
+		Tree[] children = new Tree[parentTree.children.length - 1];
+		System.arraycopy( parentTree.children, 0, children, 0, target.getIndex() );
+		System.arraycopy( parentTree.children, target.getIndex() + 1, children, target.getIndex(), children.length - target.getIndex() );
+
+		// Ancestors lose the removed subtree's instances, which are only included in their sums with useSubtree.
+		double[] delta = useSubtree && tree.sums != null ? scale( tree.sums, -1 ) : null;
+		int countDelta = -tree.subtreeInstanceCount;
+		Tree replacement = parentTree.with(
+			parentTree.instances, children, delta, useSubtree ? -tree.count : 0, countDelta
+		);
+		return derive( parent, replacement, delta, countDelta, classDeltas, dimensions );
+	}
+
+	@Override
+	public Node getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * @return a copy of the array of all nodes of this snapshot, in pre-order.
+	 */
+	@Override
+	public Node[] getGroups()
+	{
+		return getGroupArray().clone();
+	}
+
+	@Override
+	public int getNumberOfGroups()
+	{
+		return rootTree.nodeCount;
+	}
+
+	@Override
+	public Node getNode( String id )
+	{
+		Map<String, Node> index = groupsById;
+		if ( index == null ) {
+			Node[] nodes = getGroupArray();
+			index = new HashMap<String, Node>( 2 * nodes.length );
+			for ( Node n : nodes ) {
+				index.put( n.getId(), n );
+			}
+			groupsById = index;
+		}
+		return index.get( id );
+	}
+
+	@Override
+	public Node getNodeOf( Instance instance )
+	{
+		Map<Instance, Node> index = groupsByInstance;
+		if ( index == null ) {
+			index = new IdentityHashMap<Instance, Node>( overallNumberOfInstances );
+			for ( Node n : getGroupArray() ) {
+				for ( Instance i : n.getNodeInstanceList() ) {
+					index.put( i, n );
+				}
+			}
+			groupsByInstance = index;
+		}
+		return index.get( instance );
+	}
+
+	/**
+	 * @return a copy of the array of classes.
+	 */
+	@Override
+	public String[] getClasses()
+	{
+		return classes.clone();
+	}
+
+	@Override
+	public int getNumberOfClasses()
+	{
+		return classes.length;
+	}
+
+	@Override
+	public int getOverallNumberOfInstances()
+	{
+		return overallNumberOfInstances;
+	}
+
+	/**
+	 * @return a copy of the array of class counts.
+	 */
+	@Override
+	public int[] getClassesCount()
+	{
+		return classCounts.clone();
+	}
+
+	@Override
+	public int getParticularClassCount( String className, boolean withNodeInheritance )
+	{
+		return BasicHierarchy.getParticularClassCount(
+			classes, withNodeInheritance ? inheritedClassCounts : classCounts, className
+		);
+	}
+
+	/**
+	 * @return a copy of the array of inherited class counts.
+	 */
+	@Override
+	public int[] getInheritedClassesCount()
+	{
+		return inheritedClassCounts.clone();
+	}
+
+	@Override
+	public Hierarchy getFlatClusteringWithCommonEmptyRoot()
+	{
+		return BasicHierarchy.getFlatClusteringWithCommonEmptyRoot( this );
+	}
+
+	@Override
+	public Hierarchy getFlatClusteringAtDepth( int depth )
+	{
+		return HierarchyView.getLevelCut( this, depth );
+	}
+
+	@Override
+	public List<Hierarchy> getFlatClusteringsAtAllDepths()
+	{
+		return HierarchyView.getLevelCuts( this );
+	}
+
+	@Override
+	public void printTree()
+	{
+		root.printSubtree();
+	}
+
+	/**
+	 * @return a copy of the array of data names, or null if there are none.
+	 */
+	@Override
+	public String[] getDataNames()
+	{
+		return dataNames == null ? null : dataNames.clone();
+	}
+
+	@Override
+	public String toString()
+	{
+		return root.toString();
+	}
+
+	private Node[] getGroupArray()
+	{
+		Node[] result = groups;
+		if ( result == null ) {
+			result = new Node[rootTree.nodeCount];
+			int size = 0;
+			Deque<Node> stack = new ArrayDeque<Node>();
+			stack.push( root );
+			while ( !stack.isEmpty() ) {
+				Node n = stack.pop();
+				result[size++] = n;
+				List<Node> children = n.getChildList();
+				for ( int i = children.size() - 1; i >= 0; --i ) {
+					stack.push( children.get( i ) );
+				}
+			}
+			groups = result;
+		}
+		return result;
+	}
+
+	private FrozenNode checkNode( Node node )
+	{
+		if ( !( node instanceof FrozenNode ) || ( (FrozenNode)node ).getHierarchy() != this ) {
+			throw new IllegalArgumentException( String.format( "Node '%s' does not belong to this snapshot.", node.getId() ) );
+		}
+		return (FrozenNode)node;
+	}
+
+	private void checkDimensions( FrozenInstance instance )
+	{
+		if ( dimensions >= 0 && dimensions != instance.getDimensions() ) {
+			throw new IllegalArgumentException(
+				String.format( "Expected %s feature values, but got %s.", dimensions, instance.getDimensions() )
+			);
+		}
+	}
+
+	/**
+	 * Creates a snapshot in which the contents of the node are replaced, copying contents of its ancestors.
+	 *
+	 * @param delta
+	 *            change of feature sums of the node's subtree, or null if there is none
+	 * @param countDelta
+	 *            change of the number of instances in the node's subtree
+	 * @param classDeltas
+	 *            changes of class counts
+	 * @param newDimensions
+	 *            number of feature values of each instance of the new snapshot
+	 */
+	private FrozenHierarchy derive(
+		FrozenNode node, Tree replacement,
+		double[] delta, int countDelta, Map<String, Integer> classDeltas, int newDimensions )
+	{
+		Tree tree = replacement;
+		for ( FrozenNode n = node; n.getParent() != null; n = (FrozenNode)n.getParent() ) {
+			Tree parent = ( (FrozenNode)n.getParent() ).getTree();
+			Tree[] children = parent.children.clone();
+			children[n.getIndex()] = tree;
+			tree = parent.with(
+				parent.instances, children,
+				useSubtree ? delta : null, useSubtree ? countDelta : 0, countDelta
+			);
+		}
+
+		String[] newClasses = classes;
+		int[] newCounts = classCounts;
+		for ( Map.Entry<String, Integer> e : classDeltas.entrySet() ) {
+			int index = Arrays.binarySearch( newClasses, e.getKey(), new StringIdComparator() );
+			if ( index < 0 ) {
+				if ( e.getValue() < 0 ) {
+					throw new IllegalArgumentException( String.format( "Class '%s' has no instances to remove.", e.getKey() ) );
+				}
+				index = -index - 1;
+				String[] c = new String[newClasses.length + 1];
+				int[] counts = new int[newCounts.length + 1];
+				System.arraycopy( newClasses, 0, c, 0, index );
+				System.arraycopy( newClasses, index, c, index + 1, newClasses.length - index );
+				System.arraycopy( newCounts, 0, counts, 0, index );
+				System.arraycopy( newCounts, index, counts, index + 1, newCounts.length - index );
+				c[index] = e.getKey();
+				counts[index] = e.getValue();
+				newClasses = c;
+				newCounts = counts;
+			}
+			else if ( newCounts[index] + e.getValue() > 0 ) {
+				newCounts = newCounts == classCounts ? newCounts.clone() : newCounts;
+				newCounts[index] += e.getValue();
+			}
+			else {
+				// Drop classes without instances, like a hierarchy built from scratch would.
+				String[] c = new String[newClasses.length - 1];
+				int[] counts = new int[newCounts.length - 1];
+				System.arraycopy( newClasses, 0, c, 0, index );
+				System.arraycopy( newClasses, index + 1, c, index, c.length - index );
+				System.arraycopy( newCounts, 0, counts, 0, index );
+				System.arraycopy( newCounts, index + 1, counts, index, counts.length - index );
+				newClasses = c;
+				newCounts = counts;
+			}
+		}
+
+		return new FrozenHierarchy(
+			tree, useSubtree, newDimensions, dataNames, newClasses, newCounts, overallNumberOfInstances + countDelta
+		);
+	}
+
+	private static void addClassDelta( Map<String, Integer> classDeltas, String trueClass, int delta )
+	{
+		if ( trueClass != null ) {
+			Integer previous = classDeltas.get( trueClass );
+			classDeltas.put( trueClass, previous == null ? delta : previous + delta );
+		}
+	}
+
+	private static double[] add( double[] sums, FrozenInstance instance, int sign )
+	{
+		if ( sums == null ) {
+			sums = new double[instance.getDimensions()];
+		}
+		instance.addTo( sums, sign );
+		return sums;
+	}
+
+	private static double[] add( double[] sums, double[] values )
+	{
+		if ( values == null ) {
+			return sums;
+		}
+		if ( sums == null ) {
+			return values.clone();
+		}
+		for ( int i = 0; i < sums.length; ++i ) {
+			sums[i] += values[i];
+		}
+		return sums;
+	}
+
+	private static double[] scale( double[] values, int factor )
+	{
+		double[] result = new double[values.length];
+		for ( int i = 0; i < result.length; ++i ) {
+			result[i] = factor * values[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Immutable contents of a node and its subtree, shared by all snapshots in which the subtree was not changed.
+	 */
+	static final class Tree
+	{
+		final String id;
+		final FrozenInstance[] instances;
+		final Tree[] children;
+		/** Sums of feature values of instances included in the centroid, or null if there are none. */
+		final double[] sums;
+		/** Number of instances included in the centroid. */
+		final int count;
+		final int subtreeInstanceCount;
+		/** Number of nodes in the subtree. */
+		final int nodeCount;
+		final Instance representation;
+
+
+		Tree(
+			String id, FrozenInstance[] instances, Tree[] children,
+			double[] sums, int count, int subtreeInstanceCount, Instance representation )
+		{
+			this.id = id;
+			this.instances = instances;
+			this.children = children;
+			this.sums = sums;
+			this.count = count;
+			this.subtreeInstanceCount = subtreeInstanceCount;
+			this.representation = representation;
+
+			int nodes = 1;
+			for ( Tree child : children ) {
+				nodes += child.nodeCount;
+			}
+			this.nodeCount = nodes;
+		}
+
+		/**
+		 * @param delta
+		 *            change of the feature sums of this node, or null if they do not change.
+		 *            The centroid is recomputed if they do.
+		 * @param countDelta
+		 *            change of the number of instances included in the centroid
+		 * @param subtreeDelta
+		 *            change of the number of instances in the subtree
+		 * @return contents of this node with the specified instances and children
+		 */
+		Tree with( FrozenInstance[] instances, Tree[] children, double[] delta, int countDelta, int subtreeDelta )
+		{
+			if ( delta == null && countDelta == 0 ) {
+				return new Tree( id, instances, children, sums, count, subtreeInstanceCount + subtreeDelta, representation );
+			}
+
+			double[] newSums = sums == null ? null : sums.clone();
+			if ( delta != null ) {
+				newSums = newSums == null ? new double[delta.length] : newSums;
+				for ( int i = 0; i < newSums.length; ++i ) {
+					newSums[i] += delta[i];
+				}
+			}
+			int newCount = count + countDelta;
+
+			double[] centroid = new double[newCount == 0 || newSums == null ? 0 : newSums.length];
+			for ( int i = 0; i < centroid.length; ++i ) {
+				centroid[i] = newSums[i] / newCount;
+			}
+			return new Tree(
+				id, instances, children, newCount == 0 ? null : newSums, newCount, subtreeInstanceCount + subtreeDelta,
+				new FrozenInstance( "centroid", "centroid", centroid, "centroid" )
+			);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package basic_hierarchy.implementation;
+
+import java.nio.DoubleBuffer;
+
+import basic_hierarchy.interfaces.Instance;
+
+
+/**
+ * An immutable {@link Instance} of a {@link FrozenHierarchy}.
+ * <p>
+ * The instance holds its own copy of the feature values. {@link #getData()} returns a new copy on each call,
+ * and {@link #getDataBuffer()} a read-only buffer over the values, which does not copy them.
+ * All setters throw {@link UnsupportedOperationException}.
+ * </p>
+ */
+public final class FrozenInstance implements Instance
+{
+	private final String instanceName;
+	private final String nodeId;
+	private final String trueClass;
+	private final double[] data;
+
+
+	/**
+	 * @param data
+	 *            feature values of the instance. The array is not copied, and must not be modified afterwards.
+	 */
+	FrozenInstance( String instanceName, String nodeId, double[] data, String trueClass )
+	{
+		this.instanceName = instanceName;
+		this.nodeId = nodeId;
+		this.data = data;
+		this.trueClass = trueClass;
+	}
+
+	/**
+	 * @return the instance itself if it is frozen already, or an immutable copy of it otherwise.
+	 */
+	public static FrozenInstance of( Instance instance )
+	{
+		if ( instance instanceof FrozenInstance ) {
+			return (FrozenInstance)instance;
+		}
+
+		double[] data = new double[instance.getDataBuffer().remaining()];
+		instance.getDataBuffer().get( data );
+		return new FrozenInstance( instance.getInstanceName(), instance.getNodeId(), data, instance.getTrueClass() );
+	}
+
+	@Override
+	public String getInstanceName()
+	{
+		return instanceName;
+	}
+
+	@Override
+	public void setInstanceName( String instanceName )
+	{
+		throw FrozenNode.readOnly();
+	}
+
+	/**
+	 * @return a copy of the feature values of this instance.
+	 */
+	@Override
+	public double[] getData()
+	{
+		return data.clone();
+	}
+
+	/**
+	 * @return read-only buffer over the feature values of this instance.
+	 */
+	@Override
+	public DoubleBuffer getDataBuffer()
+	{
+		return DoubleBuffer.wrap( data ).asReadOnlyBuffer();
+	}
+
+	@Override
+	public void setData( double[] data )
+	{
+		throw FrozenNode.readOnly();
+	}
+
+	@Override
+	public String getTrueClass()
+	{
+		return trueClass;
+	}
+
+	@Override
+	public void setTrueClass( String trueClass )
+	{
+		throw FrozenNode.readOnly();
+	}
+
+	@Override
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	@Override
+	public void setNodeId( String id )
+	{
+		throw FrozenNode.readOnly();
+	}
+
+	/**
+	 * Adds feature values of this instance to the sums, without copying them.
+	 */
+	void addTo( double[] sums, int sign )
+	{
+		for ( int i = 0; i < sums.length; ++i ) {
+			sums[i] += sign * data[i];
+		}
+	}
+
+	int getDimensions()
+	{
+		return data.length;
+	}
+}
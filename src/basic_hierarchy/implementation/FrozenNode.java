@@ -0,0 +1,239 @@
+package basic_hierarchy.implementation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import basic_hierarchy.common.SubtreeInstanceView;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * An immutable {@link Node} of a {@link FrozenHierarchy}.
+ * <p>
+ * Contents of the node (its id, instances, representation and the contents of its children) are shared by
+ * all snapshots derived from one another in which the node's subtree was not changed. The node itself only links
+ * the contents to its parent in a particular snapshot. Child nodes are created when they are first asked for,
+ * once per snapshot, so that they can be compared by identity.
+ * </p>
+ * <p>
+ * Lists returned by {@link #getChildList()} and {@link #getNodeInstanceList()} are read-only. All mutating methods
+ * throw {@link UnsupportedOperationException}. This class is thread safe.
+ * </p>
+ */
+public final class FrozenNode implements Node
+{
+	private final FrozenHierarchy hierarchy;
+	private final FrozenHierarchy.Tree tree;
+	private final FrozenNode parent;
+	/** Index of this node among children of its parent. */
+	private final int index;
+
+	private volatile List<Node> children;
+
+
+	FrozenNode( FrozenHierarchy hierarchy, FrozenHierarchy.Tree tree, FrozenNode parent, int index )
+	{
+		this.hierarchy = hierarchy;
+		this.tree = tree;
+		this.parent = parent;
+		this.index = index;
+	}
+
+	@Override
+	public String getId()
+	{
+		return tree.id;
+	}
+
+	@Override
+	public Node getParent()
+	{
+		return parent;
+	}
+
+	@Override
+	public String getParentId()
+	{
+		return parent.getId();
+	}
+
+	/**
+	 * @return a copy of the list of child nodes of this node.
+	 */
+	@Override
+	public LinkedList<Node> getChildren()
+	{
+		return new LinkedList<Node>( getChildList() );
+	}
+
+	/**
+	 * @return a copy of the list of instances which belong to this node.
+	 */
+	@Override
+	public LinkedList<Instance> getNodeInstances()
+	{
+		return new LinkedList<Instance>( getNodeInstanceList() );
+	}
+
+	/**
+	 * @return read-only list of child nodes of this node.
+	 */
+	@Override
+	public List<Node> getChildList()
+	{
+		List<Node> result = children;
+		if ( result == null ) {
+			synchronized ( this ) {
+				result = children;
+				if ( result == null ) {
+					Node[] nodes = new Node[tree.children.length];
+					for ( int i = 0; i < nodes.length; ++i ) {
+						nodes[i] = new FrozenNode( hierarchy, tree.children[i], this, i );
+					}
+					result = Collections.unmodifiableList( Arrays.asList( nodes ) );
+					children = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return read-only list of instances which belong to this node.
+	 */
+	@Override
+	public List<Instance> getNodeInstanceList()
+	{
+		return Collections.<Instance>unmodifiableList( Arrays.asList( tree.instances ) );
+	}
+
+	@Override
+	public LinkedList<Instance> getSubtreeInstances()
+	{
+		return new LinkedList<Instance>( getSubtreeInstanceView() );
+	}
+
+	@Override
+	public Collection<Instance> getSubtreeInstanceView()
+	{
+		return new SubtreeInstanceView( this );
+	}
+
+	@Override
+	public int getSubtreeInstanceCount()
+	{
+		return tree.subtreeInstanceCount;
+	}
+
+	@Override
+	public Instance getNodeRepresentation()
+	{
+		return tree.representation;
+	}
+
+	@Override
+	public void setId( String id )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setParent( Node parent )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setParentId( String parentId )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setChildren( LinkedList<Node> children )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addChild( Node child )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addInstance( Instance instance )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setInstances( LinkedList<Instance> instances )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setRepresentation( Instance representation )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public String toString()
+	{
+		return print( "", true );
+	}
+
+	@Override
+	public void printSubtree()
+	{
+		System.out.println( toString() );
+	}
+
+	FrozenHierarchy getHierarchy()
+	{
+		return hierarchy;
+	}
+
+	FrozenHierarchy.Tree getTree()
+	{
+		return tree;
+	}
+
+	int getIndex()
+	{
+		return index;
+	}
+
+	private String print( String prefix, boolean isTail )
+	{
+		StringBuilder buf = new StringBuilder();
+
+		buf.append( prefix )
+			.append( isTail ? "L-- " : "|-- " )
+			.append( tree.id )
+			.append( '(' )
+			.append( tree.instances.length )
+			.append( ')' )
+			.append( '\n' );
+
+		String childPrefix = prefix + ( isTail ? "    " : "|   " );
+
+		List<Node> nodes = getChildList();
+		for ( int i = 0; i < nodes.size(); ++i ) {
+			buf.append( ( (FrozenNode)nodes.get( i ) ).print( childPrefix, i == nodes.size() - 1 ) );
+		}
+
+		return buf.toString();
+	}
+
+	static UnsupportedOperationException readOnly()
+	{
+		return new UnsupportedOperationException( "Frozen hierarchies are immutable." );
+	}
+}
@@ -0,0 +1,325 @@
+package basic_hierarchy.implementation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.NodeIdComparator;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * Adds and removes instances and nodes of an already built {@link BasicHierarchy}, keeping its class counts,
+ * total number of instances and node centroids up to date, without rebuilding the hierarchy.
+ * <p>
+ * The updater keeps running sums of feature values for every node (of the node's whole subtree, if centroids
+ * include child nodes' instances), so each added or removed instance only updates the node it belongs to
+ * and its ancestors, in O(depth &times; dimensions) time. The sums are computed once, when the updater is created.
+ * </p>
+ * <p>
+ * All changes to the hierarchy must be made through a single updater, which is not thread safe.
+ * Since centroids are computed from running sums, they may differ from freshly computed ones by rounding errors.
+ * </p>
+ */
+public class HierarchyUpdater
+{
+	private final BasicHierarchy hierarchy;
+	private final boolean useSubtree;
+
+	private final Map<Node, RunningSum> sums = new IdentityHashMap<>();
+	/** Feature values of the instance being added or removed, reused so that updates don't allocate them. */
+	private double[] values = null;
+
+
+	/**
+	 * Creates an updater for the specified hierarchy, computing running sums of all its nodes in a single pass.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy to update. All its nodes must be {@link BasicNode}s.
+	 * @param useSubtree
+	 *            whether centroids of the hierarchy include child nodes' instances. Should be the same
+	 *            as the value used when the hierarchy was built.
+	 */
+	public HierarchyUpdater( BasicHierarchy hierarchy, boolean useSubtree )
+	{
+		this.hierarchy = hierarchy;
+		this.useSubtree = useSubtree;
+
+		hierarchy.copyClassCounts();
+
+		for ( Node n : hierarchy.getGroups() ) {
+			RunningSum sum = getSum( n );
+			for ( Instance i : n.getNodeInstanceList() ) {
+				if ( sum.sums == null ) {
+					sum.sums = new double[FeatureMatrix.getDimensions( i )];
+				}
+				FeatureMatrix.addTo( i, sum.sums );
+				++sum.count;
+			}
+		}
+
+		if ( useSubtree ) {
+			// Add up sums of subtrees, children before parents.
+			Deque<Node> order = new ArrayDeque<>();
+			Deque<Node> pending = new ArrayDeque<>();
+			pending.push( hierarchy.getRoot() );
+			while ( !pending.isEmpty() ) {
+				Node n = pending.pop();
+				order.push( n );
+				for ( Node child : n.getChildren() ) {
+					pending.push( child );
+				}
+			}
+			for ( Node n : order ) {
+				RunningSum sum = getSum( n );
+				if ( n.getParent() != null && sum.sums != null ) {
+					getSum( n.getParent() ).add( sum.sums, sum.count, 1 );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the instance to the specified node, updating class counts, the number of instances,
+	 * and centroids of the node and (if centroids include child nodes' instances) its ancestors.
+	 *
+	 * @param node
+	 *            the node to add the instance to. Must belong to the updated hierarchy.
+	 * @param instance
+	 *            the instance to add
+	 * @throws IllegalArgumentException
+	 *             if the instance has a different number of features than other instances of the node
+	 */
+	public void addInstance( Node node, Instance instance )
+	{
+		checkNode( node );
+
+		RunningSum own = getSum( node );
+		int dimensions = FeatureMatrix.getDimensions( instance );
+		if ( own.sums != null && own.sums.length != dimensions ) {
+			throw new IllegalArgumentException(
+				String.format(
+					"Instance has %s features, but instances of node '%s' have %s.",
+					dimensions, node.getId(), own.sums.length
+				)
+			);
+		}
+
+		node.addInstance( instance );
+		hierarchy.updateInstanceCount( instance.getTrueClass(), 1 );
+		hierarchy.setNodeOf( instance, node );
+		update( node, getValues( instance ), 1, 1 );
+	}
+
+	/**
+	 * Removes the instance from the specified node, updating class counts, the number of instances,
+	 * and centroids of the node and (if centroids include child nodes' instances) its ancestors.
+	 * <p>
+	 * Finding the instance in the node's list of instances takes time proportional to the number of
+	 * instances in the node.
+	 * </p>
+	 *
+	 * @param node
+	 *            the node to remove the instance from. Must belong to the updated hierarchy.
+	 * @param instance
+	 *            the instance to remove, compared by identity
+	 * @return whether the instance was found in the node and removed
+	 */
+	public boolean removeInstance( Node node, Instance instance )
+	{
+		checkNode( node );
+
+		boolean removed = false;
+		for ( Iterator<Instance> it = node.getNodeInstanceList().iterator(); it.hasNext(); ) {
+			if ( it.next() == instance ) {
+				it.remove();
+				removed = true;
+				break;
+			}
+		}
+
+		if ( removed ) {
+			( (BasicNode)node ).invalidateSubtreeInstanceCount();
+			hierarchy.updateInstanceCount( instance.getTrueClass(), -1 );
+			hierarchy.setNodeOf( instance, null );
+			update( node, getValues( instance ), 1, -1 );
+		}
+		return removed;
+	}
+
+	/**
+	 * Adds a new, empty node with the specified id. Missing ancestors of the node are created as well,
+	 * the same way as {@link HierarchyBuilder#fixDepthGaps} would. Gaps in breadth are not filled.
+	 *
+	 * @param id
+	 *            id of the new node
+	 * @return the new node
+	 * @throws IllegalArgumentException
+	 *             if a node with this id already exists, or the id does not belong under the root node
+	 */
+	public BasicNode addNode( String id )
+	{
+		if ( hierarchy.getNode( id ) != null ) {
+			throw new IllegalArgumentException( String.format( "Node '%s' already exists.", id ) );
+		}
+
+		BasicNode ancestor = null;
+		for ( int i = id.lastIndexOf( Constants.HIERARCHY_BRANCH_SEPARATOR ); i > 0 && ancestor == null;
+			i = id.lastIndexOf( Constants.HIERARCHY_BRANCH_SEPARATOR, i - 1 ) ) {
+			ancestor = (BasicNode)hierarchy.getNode( id.substring( 0, i ) );
+		}
+		if ( ancestor == null ) {
+			throw new IllegalArgumentException( String.format( "Node '%s' does not belong under the root node.", id ) );
+		}
+
+		BasicNode node = new BasicNode( id, null, useSubtree );
+		List<BasicNode> created = HierarchyBuilder.fixDepthGapsBetween( ancestor, node, useSubtree );
+		created.add( node );
+
+		// The topmost new node was appended to the children of the existing ancestor; keep them sorted.
+		Collections.sort( ancestor.getChildList(), new NodeIdComparator() );
+
+		for ( BasicNode n : created ) {
+			hierarchy.addGroup( n );
+		}
+		return node;
+	}
+
+	/**
+	 * Removes the node, along with its whole subtree and all of their instances, updating class counts,
+	 * the number of instances, and (if centroids include child nodes' instances) centroids of the node's ancestors.
+	 *
+	 * @param node
+	 *            the node to remove. Must belong to the updated hierarchy, and must not be its root.
+	 */
+	public void removeNode( Node node )
+	{
+		checkNode( node );
+		if ( node.getParent() == null ) {
+			throw new IllegalArgumentException( "The root node cannot be removed." );
+		}
+
+		Set<Node> removed = Collections.newSetFromMap( new IdentityHashMap<Node, Boolean>() );
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push( node );
+		while ( !pending.isEmpty() ) {
+			Node n = pending.pop();
+			removed.add( n );
+			for ( Node child : n.getChildren() ) {
+				pending.push( child );
+			}
+			for ( Instance i : n.getNodeInstances() ) {
+				hierarchy.updateInstanceCount( i.getTrueClass(), -1 );
+			}
+		}
+
+		Node parent = node.getParent();
+		RunningSum sum = getSum( node );
+		if ( useSubtree && sum.sums != null ) {
+			update( parent, sum.sums, sum.count, -1 );
+		}
+
+		for ( Iterator<Node> it = parent.getChildList().iterator(); it.hasNext(); ) {
+			if ( it.next() == node ) {
+				it.remove();
+				break;
+			}
+		}
+		node.setParent( null );
+		( (BasicNode)parent ).invalidateSubtreeInstanceCount();
+
+		for ( Node n : removed ) {
+			sums.remove( n );
+		}
+		hierarchy.removeGroups( removed );
+	}
+
+	/**
+	 * Adds (or subtracts, if {@code sign} is negative) sums of feature values of a number of instances to running sums
+	 * of the node and, if centroids include child nodes' instances, of its ancestors, and updates their centroids.
+	 */
+	private void update( Node node, double[] values, int count, int sign )
+	{
+		for ( Node n = node; n != null; n = useSubtree ? n.getParent() : null ) {
+			RunningSum sum = getSum( n );
+			if ( sign > 0 || sum.count - count > 0 ) {
+				sum.add( values, count, sign );
+				( (BasicNode)n ).setCentroid( sum.sums.clone(), sum.count );
+			}
+			else {
+				// No instances left. Start over, so that rounding errors don't accumulate.
+				sum.sums = null;
+				sum.count = 0;
+				( (BasicNode)n ).setCentroid( new double[0], 0 );
+			}
+		}
+	}
+
+	/**
+	 * @return feature values of the instance, read without copying its row if it is stored in a matrix.
+	 *         The array is reused by subsequent calls.
+	 */
+	private double[] getValues( Instance instance )
+	{
+		int dimensions = FeatureMatrix.getDimensions( instance );
+		if ( values == null || values.length != dimensions ) {
+			values = new double[dimensions];
+		}
+		else {
+			Arrays.fill( values, 0 );
+		}
+		FeatureMatrix.addTo( instance, values );
+		return values;
+	}
+
+	private RunningSum getSum( Node node )
+	{
+		RunningSum sum = sums.get( node );
+		if ( sum == null ) {
+			sum = new RunningSum();
+			sums.put( node, sum );
+		}
+		return sum;
+	}
+
+	private void checkNode( Node node )
+	{
+		if ( hierarchy.getNode( node.getId() ) != node ) {
+			throw new IllegalArgumentException( String.format( "Node '%s' does not belong to the hierarchy.", node.getId() ) );
+		}
+	}
+
+	/**
+	 * Sums of feature values of a number of instances.
+	 */
+	private static class RunningSum
+	{
+		double[] sums;
+		int count;
+
+
+		/**
+		 * Adds (or subtracts, if {@code sign} is negative) sums of feature values of {@code valuesCount} instances.
+		 */
+		void add( double[] values, int valuesCount, int sign )
+		{
+			if ( sums == null ) {
+				sums = new double[values.length];
+			}
+			for ( int i = 0; i < sums.length; ++i ) {
+				sums[i] += sign * values[i];
+			}
+			count += sign * valuesCount;
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package basic_hierarchy.implementation;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A read-only hierarchy derived from another one, which groups the other hierarchy's instances differently,
+ * without copying them.
+ * <p>
+ * Nodes of the view ({@link ViewNode}s) share the instance objects, and the lists holding them, with the source
+ * hierarchy, so creating a view takes time and memory proportional to the number of groups, rather than instances.
+ * The only thing a view stores about the instances is which node of the source hierarchy maps to which node
+ * of the view, which {@link #getNodeOf(Instance)} uses to find the node an instance belongs to in the view.
+ * {@link Instance#getNodeId()} still returns the id of the instance's node in the source hierarchy.
+ * </p>
+ * <p>
+ * The source hierarchy must not be modified while the view is in use.
+ * </p>
+ */
+public class HierarchyView extends BasicHierarchy
+{
+	private final Hierarchy source;
+	/** Nodes of the view by the nodes of the source hierarchy whose instances they contain. */
+	private final Map<Node, Node> viewNodes;
+
+
+	private HierarchyView( Hierarchy source, Node root, List<Node> nodes, Map<Node, Node> viewNodes )
+	{
+		super( root, nodes, source.getDataNames(), source.getClasses(), source.getClassesCount(), source.getOverallNumberOfInstances() );
+		this.source = source;
+		this.viewNodes = viewNodes;
+	}
+
+	/**
+	 * Creates a view with the same groups as {@link Hierarchy#getFlatClusteringWithCommonEmptyRoot()}: an empty root,
+	 * with a child holding the instances of each non-empty node of the source hierarchy, in the order of its groups.
+	 *
+	 * @param h
+	 *            the source hierarchy
+	 * @return the flat view of the hierarchy
+	 */
+	public static HierarchyView getFlatClustering( Hierarchy h )
+	{
+		ViewNode root = new ViewNode( Constants.ROOT_ID, null, new ArrayList<Instance>() );
+		List<Node> nodes = new ArrayList<Node>();
+		Map<Node, Node> viewNodes = new IdentityHashMap<Node, Node>();
+		nodes.add( root );
+
+		int nodesCounter = 0;
+		for ( Node n : h.getGroups() ) {
+			List<Instance> instances = n.getNodeInstanceList();
+			if ( !instances.isEmpty() ) {
+				String id = Constants.ROOT_ID + Constants.HIERARCHY_BRANCH_SEPARATOR + nodesCounter++;
+				ViewNode node = new ViewNode( id, root, instances );
+				nodes.add( node );
+				viewNodes.put( n, node );
+			}
+		}
+
+		return new HierarchyView( h, root, nodes, viewNodes );
+	}
+
+	/**
+	 * Creates a view with the same groups as {@link Utils#getOneClusterHierarchy(Hierarchy)}: a single root node,
+	 * holding all instances of the source hierarchy, in the order of {@link Node#getSubtreeInstances()}.
+	 *
+	 * @param h
+	 *            the source hierarchy
+	 * @return the one-cluster view of the hierarchy
+	 */
+	public static HierarchyView getOneCluster( Hierarchy h )
+	{
+		List<List<Instance>> parts = new ArrayList<List<Instance>>();
+
+		// Walked without recursion, in the order of subtree instances.
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push( h.getRoot() );
+		while ( !stack.isEmpty() ) {
+			Node n = stack.pop();
+			parts.add( n.getNodeInstanceList() );
+
+			List<Node> children = n.getChildList();
+			for ( int i = children.size() - 1; i >= 0; --i ) {
+				stack.push( children.get( i ) );
+			}
+		}
+
+		ViewNode root = new ViewNode( Constants.ROOT_ID, null, new ConcatenatedList( parts ) );
+		Map<Node, Node> viewNodes = new IdentityHashMap<Node, Node>();
+		for ( Node n : h.getGroups() ) {
+			viewNodes.put( n, root );
+		}
+
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add( root );
+		return new HierarchyView( h, root, nodes, viewNodes );
+	}
+
+	/**
+	 * Creates a view of the flat clustering induced by cutting the source hierarchy at the specified depth:
+	 * an empty root, with a child holding all instances of the subtree of each node at that depth, and a child
+	 * holding the own instances of each node above it. Empty groups are left out, and the groups are ordered
+	 * as the nodes in pre-order.
+	 * <p>
+	 * Cutting at depth 0 puts all instances into a single group. Cutting at the height of the hierarchy, or deeper,
+	 * gives the same groups as {@link #getFlatClustering(Hierarchy)}, for hierarchies whose groups are sorted by id.
+	 * </p>
+	 *
+	 * @param h
+	 *            the source hierarchy
+	 * @param depth
+	 *            depth of the cut, 0 being the depth of the root
+	 * @return the level cut view of the hierarchy
+	 */
+	public static HierarchyView getLevelCut( Hierarchy h, int depth )
+	{
+		if ( depth < 0 ) {
+			throw new IllegalArgumentException( "Depth must not be negative: " + depth );
+		}
+		return new LevelCuts( h ).cut( depth );
+	}
+
+	/**
+	 * Creates views of the level cuts of the source hierarchy at all depths, from 0 to the height of the hierarchy,
+	 * see {@link #getLevelCut(Hierarchy, int)}.
+	 * <p>
+	 * Counts and centroids of the subtrees are aggregated bottom-up in a single pass over the instances, which is
+	 * shared by all cuts. Each cut then takes time proportional to the number of groups.
+	 * </p>
+	 *
+	 * @param h
+	 *            the source hierarchy
+	 * @return level cut views of the hierarchy, indexed by depth
+	 */
+	public static List<Hierarchy> getLevelCuts( Hierarchy h )
+	{
+		LevelCuts cuts = new LevelCuts( h );
+		List<Hierarchy> result = new ArrayList<Hierarchy>( cuts.height + 1 );
+		for ( int depth = 0; depth <= cuts.height; ++depth ) {
+			result.add( cuts.cut( depth ) );
+		}
+		return result;
+	}
+
+	/**
+	 * @return the hierarchy whose instances this view groups.
+	 */
+	public Hierarchy getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * Finds the node of the instance in the source hierarchy, and maps it to the node of this view.
+	 */
+	@Override
+	public Node getNodeOf( Instance instance )
+	{
+		Node node = source.getNodeOf( instance );
+		return node == null ? null : viewNodes.get( node );
+	}
+
+	/**
+	 * Nodes of a hierarchy in pre-order, with feature sums of their own instances and of their subtrees,
+	 * from which level cuts at any depth are assembled.
+	 */
+	private static class LevelCuts
+	{
+		private final Hierarchy source;
+		private final Node[] nodes;
+		private final int[] depths;
+		/** Index following the last node of the subtree of each node. */
+		private final int[] subtreeEnds;
+		private final double[][] ownSums;
+		private final double[][] subtreeSums;
+		private final int[] subtreeCounts;
+		private final int height;
+
+
+		LevelCuts( Hierarchy h )
+		{
+			source = h;
+
+			List<Node> preOrder = new ArrayList<Node>();
+			List<Integer> parents = new ArrayList<Integer>();
+			// Walked without recursion, in pre-order.
+			Deque<Node> stack = new ArrayDeque<Node>();
+			Deque<Integer> stackParents = new ArrayDeque<Integer>();
+			stack.push( h.getRoot() );
+			stackParents.push( -1 );
+			while ( !stack.isEmpty() ) {
+				Node n = stack.pop();
+				int index = preOrder.size();
+				preOrder.add( n );
+				parents.add( stackParents.pop() );
+
+				List<Node> children = n.getChildList();
+				for ( int i = children.size() - 1; i >= 0; --i ) {
+					stack.push( children.get( i ) );
+					stackParents.push( index );
+				}
+			}
+
+			nodes = preOrder.toArray( new Node[preOrder.size()] );
+			depths = new int[nodes.length];
+			subtreeEnds = new int[nodes.length];
+			ownSums = new double[nodes.length][];
+			subtreeSums = new double[nodes.length][];
+			subtreeCounts = new int[nodes.length];
+
+			int maxDepth = 0;
+			int dimensions = -1;
+			for ( int i = 0; i < nodes.length; ++i ) {
+				int parent = parents.get( i );
+				depths[i] = parent < 0 ? 0 : depths[parent] + 1;
+				maxDepth = Math.max( maxDepth, depths[i] );
+
+				for ( Instance instance : nodes[i].getNodeInstanceList() ) {
+					if ( dimensions < 0 ) {
+						dimensions = FeatureMatrix.getDimensions( instance );
+					}
+					if ( ownSums[i] == null ) {
+						ownSums[i] = new double[dimensions];
+					}
+					FeatureMatrix.addTo( instance, ownSums[i] );
+				}
+			}
+			height = maxDepth;
+
+			// Children follow their parents in pre-order, so their subtrees are summed up before their parents'.
+			for ( int i = nodes.length - 1; i >= 0; --i ) {
+				subtreeEnds[i] = Math.max( subtreeEnds[i], i + 1 );
+				subtreeCounts[i] += nodes[i].getNodeInstanceList().size();
+				if ( ownSums[i] != null ) {
+					subtreeSums[i] = add( subtreeSums[i], ownSums[i] );
+				}
+
+				int parent = parents.get( i );
+				if ( parent >= 0 ) {
+					subtreeEnds[parent] = Math.max( subtreeEnds[parent], subtreeEnds[i] );
+					subtreeCounts[parent] += subtreeCounts[i];
+					if ( subtreeSums[i] != null ) {
+						subtreeSums[parent] = add( subtreeSums[parent], subtreeSums[i] );
+					}
+				}
+			}
+		}
+
+		HierarchyView cut( int depth )
+		{
+			ViewNode root = new ViewNode( Constants.ROOT_ID, null, new ArrayList<Instance>() );
+			List<Node> groups = new ArrayList<Node>();
+			Map<Node, Node> viewNodes = new IdentityHashMap<Node, Node>();
+			groups.add( root );
+
+			int nodesCounter = 0;
+			for ( int i = 0; i < nodes.length; ) {
+				String id = Constants.ROOT_ID + Constants.HIERARCHY_BRANCH_SEPARATOR + nodesCounter;
+				if ( depths[i] < depth ) {
+					List<Instance> instances = nodes[i].getNodeInstanceList();
+					if ( !instances.isEmpty() ) {
+						ViewNode node = new ViewNode( id, root, instances, getCentroid( ownSums[i], instances.size() ) );
+						groups.add( node );
+						viewNodes.put( nodes[i], node );
+						++nodesCounter;
+					}
+					++i;
+				}
+				else {
+					int end = subtreeEnds[i];
+					if ( subtreeCounts[i] > 0 ) {
+						List<List<Instance>> parts = new ArrayList<List<Instance>>( end - i );
+						for ( int j = i; j < end; ++j ) {
+							parts.add( nodes[j].getNodeInstanceList() );
+						}
+
+						ViewNode node = new ViewNode(
+							id, root, new ConcatenatedList( parts ), getCentroid( subtreeSums[i], subtreeCounts[i] )
+						);
+						groups.add( node );
+						for ( int j = i; j < end; ++j ) {
+							viewNodes.put( nodes[j], node );
+						}
+						++nodesCounter;
+					}
+					i = end;
+				}
+			}
+
+			return new HierarchyView( source, root, groups, viewNodes );
+		}
+
+		private static double[] add( double[] sums, double[] values )
+		{
+			if ( sums == null ) {
+				return values.clone();
+			}
+			for ( int d = 0; d < sums.length; ++d ) {
+				sums[d] += values[d];
+			}
+			return sums;
+		}
+
+		private static Instance getCentroid( double[] sums, int count )
+		{
+			double[] centroid = new double[sums.length];
+			for ( int d = 0; d < centroid.length; ++d ) {
+				centroid[d] = sums[d] / count;
+			}
+			return new BasicInstance( "centroid", "centroid", centroid, "centroid" );
+		}
+	}
+
+	/**
+	 * Read-only concatenation of several lists, which are not copied.
+	 */
+	private static class ConcatenatedList extends AbstractList<Instance>
+	{
+		private final List<List<Instance>> parts;
+		/** Index of the first element of each part, followed by the size of the list. */
+		private final int[] starts;
+
+
+		ConcatenatedList( List<List<Instance>> parts )
+		{
+			this.parts = new ArrayList<List<Instance>>( parts );
+			this.starts = new int[parts.size() + 1];
+			for ( int i = 0; i < this.parts.size(); ++i ) {
+				starts[i + 1] = starts[i] + this.parts.get( i ).size();
+			}
+		}
+
+		@Override
+		public Instance get( int index )
+		{
+			if ( index < 0 || index >= size() ) {
+				throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + size() );
+			}
+
+			int part = Arrays.binarySearch( starts, index );
+			if ( part < 0 ) {
+				part = -part - 2;
+			}
+			else {
+				// Skip empty parts starting at the same index.
+				while ( starts[part + 1] == index ) {
+					++part;
+				}
+			}
+			return parts.get( part ).get( index - starts[part] );
+		}
+
+		@Override
+		public int size()
+		{
+			return starts[parts.size()];
+		}
+
+		@Override
+		public Iterator<Instance> iterator()
+		{
+			return new Iterator<Instance>() {
+				private int part = 0;
+				private Iterator<Instance> current = parts.isEmpty() ? null : parts.get( 0 ).iterator();
+
+				@Override
+				public boolean hasNext()
+				{
+					while ( current != null && !current.hasNext() ) {
+						current = ++part < parts.size() ? parts.get( part ).iterator() : null;
+					}
+					return current != null;
+				}
+
+				@Override
+				public Instance next()
+				{
+					if ( !hasNext() ) {
+						throw new NoSuchElementException();
+					}
+					return current.next();
+				}
+			};
+		}
+	}
+}
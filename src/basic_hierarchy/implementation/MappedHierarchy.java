@@ -0,0 +1,306 @@
+package basic_hierarchy.implementation;
+
+import static basic_hierarchy.common.BinaryHierarchyFormat.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import basic_hierarchy.common.BinaryHierarchyFormat;
+import basic_hierarchy.common.MappedFile;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A read-only {@link Hierarchy} backed directly by a memory-mapped binary snapshot (see {@link BinaryHierarchyFormat}).
+ * <p>
+ * Creating the hierarchy only reads the file header. Nodes and instances are lightweight handles, which read
+ * their ids, children, instances and feature values from the mapping when asked for them, so the data itself
+ * never has to be loaded onto the heap. Since the mapping is backed by the operating system's page cache,
+ * several processes opening the same snapshot share a single copy of the data.
+ * </p>
+ * <p>
+ * All mutating methods of nodes and instances throw {@link UnsupportedOperationException}.
+ * This class is thread safe.
+ * </p>
+ */
+public class MappedHierarchy implements Hierarchy
+{
+	final MappedFile file;
+
+	final int nodeCount;
+	final int dimensions;
+	private final int rootIndex;
+	private final int overallNumberOfInstances;
+	private final int flags;
+
+	final long nodeIds;
+	final long parents;
+	final long childOffsets;
+	final long children;
+	final long instanceOffsets;
+	final long representationOffsets;
+	final long representationLengths;
+	final long representationNames;
+	final long representationNodeIds;
+	final long representationTrueClasses;
+	final long representationData;
+	final long instanceTrueClasses;
+	final long instanceNames;
+	final long features;
+
+	// Small tables, read on first use.
+	private volatile MappedNode[] groups;
+	private volatile String[] trueClasses;
+	private volatile String[] classes;
+	private volatile int[] classCounts;
+	private volatile int[] inheritedClassCounts;
+	private volatile Map<String, Node> groupsById;
+	private volatile String[] dataNames;
+
+
+	/**
+	 * Creates a hierarchy backed by the specified snapshot. Only the header of the file is read.
+	 *
+	 * @param file
+	 *            the mapped snapshot file, with an already verified header
+	 */
+	public MappedHierarchy( MappedFile file )
+	{
+		this.file = file;
+
+		nodeCount = file.getInt( HEADER_NODE_COUNT );
+		rootIndex = file.getInt( HEADER_ROOT_INDEX );
+		dimensions = file.getInt( HEADER_DIMENSIONS );
+		overallNumberOfInstances = file.getInt( HEADER_OVERALL_NUMBER_OF_INSTANCES );
+		flags = file.getInt( HEADER_FLAGS );
+
+		if ( rootIndex < 0 ) {
+			throw new IllegalArgumentException( "Snapshot does not contain a root node." );
+		}
+
+		nodeIds = getSection( file, SECTION_NODE_IDS );
+		parents = getSection( file, SECTION_PARENTS );
+		childOffsets = getSection( file, SECTION_CHILD_OFFSETS );
+		children = getSection( file, SECTION_CHILDREN );
+		instanceOffsets = getSection( file, SECTION_INSTANCE_OFFSETS );
+		representationOffsets = getSection( file, SECTION_REPRESENTATION_OFFSETS );
+		representationLengths = getSection( file, SECTION_REPRESENTATION_LENGTHS );
+		representationNames = getSection( file, SECTION_REPRESENTATION_NAMES );
+		representationNodeIds = getSection( file, SECTION_REPRESENTATION_NODE_IDS );
+		representationTrueClasses = getSection( file, SECTION_REPRESENTATION_TRUE_CLASSES );
+		representationData = getSection( file, SECTION_REPRESENTATION_DATA );
+		instanceTrueClasses = getSection( file, SECTION_INSTANCE_TRUE_CLASSES );
+		instanceNames = getSection( file, SECTION_INSTANCE_NAMES );
+		features = getSection( file, SECTION_FEATURES );
+	}
+
+	@Override
+	public Node getRoot()
+	{
+		return getNode( rootIndex );
+	}
+
+	@Override
+	public Node[] getGroups()
+	{
+		return getNodes();
+	}
+
+	@Override
+	public int getNumberOfGroups()
+	{
+		return nodeCount;
+	}
+
+	/**
+	 * Groups are indexed by their ids on first use, which reads ids of all groups from the mapping.
+	 * Subsequent lookups take constant time.
+	 */
+	@Override
+	public Node getNode( String id )
+	{
+		Map<String, Node> index = groupsById;
+		if ( index == null ) {
+			index = new HashMap<>( 2 * nodeCount );
+			for ( Node n : getNodes() ) {
+				index.put( n.getId(), n );
+			}
+			groupsById = index;
+		}
+		return index.get( id );
+	}
+
+	/**
+	 * Instances of this hierarchy know their group, so no index is needed.
+	 */
+	@Override
+	public Node getNodeOf( Instance instance )
+	{
+		if ( instance instanceof MappedInstance && ( (MappedInstance)instance ).getHierarchy() == this ) {
+			return ( (MappedInstance)instance ).getNode();
+		}
+		return null;
+	}
+
+	@Override
+	public String[] getClasses()
+	{
+		if ( ( flags & FLAG_CLASSES ) == 0 ) {
+			return null;
+		}
+
+		String[] result = classes;
+		if ( result == null ) {
+			result = getStrings( file, getSection( file, SECTION_CLASSES ) );
+			classes = result;
+		}
+		return result;
+	}
+
+	@Override
+	public int getNumberOfClasses()
+	{
+		return getClasses().length;
+	}
+
+	@Override
+	public int getOverallNumberOfInstances()
+	{
+		return overallNumberOfInstances;
+	}
+
+	@Override
+	public int[] getClassesCount()
+	{
+		if ( ( flags & FLAG_CLASSES ) == 0 ) {
+			return null;
+		}
+
+		int[] result = classCounts;
+		if ( result == null ) {
+			result = new int[getClasses().length];
+			long counts = getSection( file, SECTION_CLASS_COUNTS );
+			for ( int i = 0; i < result.length; ++i ) {
+				result[i] = file.getInt( counts + 4L * i );
+			}
+			classCounts = result;
+		}
+		return result;
+	}
+
+	@Override
+	public int getParticularClassCount( String className, boolean withNodeInheritance )
+	{
+		return BasicHierarchy.getParticularClassCount(
+			getClasses(), withNodeInheritance ? getInheritedClassesCount() : getClassesCount(), className
+		);
+	}
+
+	@Override
+	public int[] getInheritedClassesCount()
+	{
+		if ( ( flags & FLAG_CLASSES ) == 0 ) {
+			return null;
+		}
+
+		int[] result = inheritedClassCounts;
+		if ( result == null ) {
+			result = BasicHierarchy.getInheritedClassCounts( getClasses(), getClassesCount() );
+			inheritedClassCounts = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a flat clustering of this hierarchy. Since the result has a different structure, it cannot share
+	 * the mapping, and is copied onto the heap.
+	 */
+	@Override
+	public Hierarchy getFlatClusteringWithCommonEmptyRoot()
+	{
+		return BasicHierarchy.getFlatClusteringWithCommonEmptyRoot( this );
+	}
+
+	@Override
+	public Hierarchy getFlatClusteringAtDepth( int depth )
+	{
+		return HierarchyView.getLevelCut( this, depth );
+	}
+
+	@Override
+	public List<Hierarchy> getFlatClusteringsAtAllDepths()
+	{
+		return HierarchyView.getLevelCuts( this );
+	}
+
+	@Override
+	public void printTree()
+	{
+		getRoot().printSubtree();
+	}
+
+	@Override
+	public String[] getDataNames()
+	{
+		if ( ( flags & FLAG_DATA_NAMES ) == 0 ) {
+			return null;
+		}
+
+		String[] result = dataNames;
+		if ( result == null ) {
+			result = getStrings( file, getSection( file, SECTION_DATA_NAMES ) );
+			dataNames = result;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getRoot().toString();
+	}
+
+	MappedNode getNode( int index )
+	{
+		return getNodes()[index];
+	}
+
+	/**
+	 * @return the true class stored under the specified dictionary index, or null if the index is negative.
+	 */
+	String getTrueClass( int index )
+	{
+		if ( index < 0 ) {
+			return null;
+		}
+
+		String[] result = trueClasses;
+		if ( result == null ) {
+			result = getStrings( file, getSection( file, SECTION_TRUE_CLASSES ) );
+			trueClasses = result;
+		}
+		return result[index];
+	}
+
+	private MappedNode[] getNodes()
+	{
+		MappedNode[] result = groups;
+		if ( result == null ) {
+			synchronized ( this ) {
+				result = groups;
+				if ( result == null ) {
+					// Node handles are created once, so that they can be compared by identity, like heap nodes.
+					result = new MappedNode[nodeCount];
+					for ( int i = 0; i < nodeCount; ++i ) {
+						result[i] = new MappedNode( this, i );
+					}
+					groups = result;
+				}
+			}
+		}
+		return result;
+	}
+}
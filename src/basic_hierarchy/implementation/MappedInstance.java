@@ -0,0 +1,121 @@
+package basic_hierarchy.implementation;
+
+import java.nio.DoubleBuffer;
+
+import basic_hierarchy.common.BinaryHierarchyFormat;
+import basic_hierarchy.interfaces.Instance;
+
+
+/**
+ * A read-only {@link Instance} of a {@link MappedHierarchy}. Only holds the instance's index -- its name,
+ * true class and feature values are read from the mapping on each call.
+ * <p>
+ * Each call to {@link #getData()} returns a new copy of the feature values. Two instances are equal
+ * if they refer to the same row of the same hierarchy.
+ * </p>
+ */
+public class MappedInstance implements Instance
+{
+	private final MappedHierarchy hierarchy;
+	private final MappedNode node;
+	private final long index;
+
+
+	MappedInstance( MappedHierarchy hierarchy, MappedNode node, long index )
+	{
+		this.hierarchy = hierarchy;
+		this.node = node;
+		this.index = index;
+	}
+
+	@Override
+	public String getInstanceName()
+	{
+		return BinaryHierarchyFormat.getString( hierarchy.file, hierarchy.instanceNames, index );
+	}
+
+	@Override
+	public double[] getData()
+	{
+		double[] data = new double[hierarchy.dimensions];
+		hierarchy.file.getDoubles( hierarchy.features + 8L * hierarchy.dimensions * index, data, 0, data.length );
+		return data;
+	}
+
+	/**
+	 * @return read-only buffer of the feature values, viewing the mapping directly.
+	 */
+	@Override
+	public DoubleBuffer getDataBuffer()
+	{
+		return hierarchy.file.getDoubleBuffer( hierarchy.features + 8L * hierarchy.dimensions * index, hierarchy.dimensions );
+	}
+
+	@Override
+	public String getTrueClass()
+	{
+		return hierarchy.getTrueClass( hierarchy.file.getInt( hierarchy.instanceTrueClasses + 4L * index ) );
+	}
+
+	@Override
+	public String getNodeId()
+	{
+		return node.getId();
+	}
+
+	@Override
+	public void setInstanceName( String instanceName )
+	{
+		throw MappedNode.readOnly();
+	}
+
+	@Override
+	public void setData( double[] data )
+	{
+		throw MappedNode.readOnly();
+	}
+
+	@Override
+	public void setTrueClass( String trueClass )
+	{
+		throw MappedNode.readOnly();
+	}
+
+	@Override
+	public void setNodeId( String id )
+	{
+		throw MappedNode.readOnly();
+	}
+
+	/**
+	 * @return the hierarchy this instance belongs to.
+	 */
+	MappedHierarchy getHierarchy()
+	{
+		return hierarchy;
+	}
+
+	/**
+	 * @return the node this instance belongs to.
+	 */
+	MappedNode getNode()
+	{
+		return node;
+	}
+
+	@Override
+	public boolean equals( Object o )
+	{
+		if ( !( o instanceof MappedInstance ) ) {
+			return false;
+		}
+		MappedInstance other = (MappedInstance)o;
+		return hierarchy == other.hierarchy && index == other.index;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int)( index ^ ( index >>> 32 ) );
+	}
+}
@@ -0,0 +1,298 @@
+package basic_hierarchy.implementation;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import basic_hierarchy.common.BinaryHierarchyFormat;
+import basic_hierarchy.common.SubtreeInstanceView;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A read-only {@link Node} of a {@link MappedHierarchy}.
+ * <p>
+ * Lists returned by {@link #getChildren()}, {@link #getChildList()}, {@link #getNodeInstances()} and
+ * {@link #getSubtreeInstances()} are created anew on each call from the mapping, so modifying them does not affect
+ * the node. The list returned by {@link #getNodeInstanceList()} is read-only.
+ * </p>
+ */
+public class MappedNode implements Node
+{
+	private final MappedHierarchy hierarchy;
+	private final int index;
+
+	private volatile String id;
+	private volatile Instance representation;
+	private volatile int subtreeInstanceCount = -1;
+
+
+	MappedNode( MappedHierarchy hierarchy, int index )
+	{
+		this.hierarchy = hierarchy;
+		this.index = index;
+	}
+
+	@Override
+	public String getId()
+	{
+		String result = id;
+		if ( result == null ) {
+			result = BinaryHierarchyFormat.getString( hierarchy.file, hierarchy.nodeIds, index );
+			id = result;
+		}
+		return result;
+	}
+
+	@Override
+	public Node getParent()
+	{
+		int parent = hierarchy.file.getInt( hierarchy.parents + 4L * index );
+		return parent < 0 ? null : hierarchy.getNode( parent );
+	}
+
+	@Override
+	public String getParentId()
+	{
+		return getParent().getId();
+	}
+
+	@Override
+	public LinkedList<Node> getChildren()
+	{
+		int start = hierarchy.file.getInt( hierarchy.childOffsets + 4L * index );
+		int end = hierarchy.file.getInt( hierarchy.childOffsets + 4L * ( index + 1 ) );
+
+		LinkedList<Node> result = new LinkedList<Node>();
+		for ( int i = start; i < end; ++i ) {
+			result.add( hierarchy.getNode( hierarchy.file.getInt( hierarchy.children + 4L * i ) ) );
+		}
+		return result;
+	}
+
+	@Override
+	public LinkedList<Instance> getNodeInstances()
+	{
+		long start = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * index );
+		long end = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * ( index + 1 ) );
+
+		LinkedList<Instance> result = new LinkedList<Instance>();
+		for ( long i = start; i < end; ++i ) {
+			result.add( new MappedInstance( hierarchy, this, i ) );
+		}
+		return result;
+	}
+
+	@Override
+	public List<Node> getChildList()
+	{
+		int start = hierarchy.file.getInt( hierarchy.childOffsets + 4L * index );
+		int end = hierarchy.file.getInt( hierarchy.childOffsets + 4L * ( index + 1 ) );
+
+		List<Node> result = new ArrayList<Node>( end - start );
+		for ( int i = start; i < end; ++i ) {
+			result.add( hierarchy.getNode( hierarchy.file.getInt( hierarchy.children + 4L * i ) ) );
+		}
+		return result;
+	}
+
+	/**
+	 * @return read-only list of instances of this node, which are created from the mapping as they are accessed.
+	 */
+	@Override
+	public List<Instance> getNodeInstanceList()
+	{
+		long start = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * index );
+		return new InstanceList( start, getNumberOfNodeInstances() );
+	}
+
+	@Override
+	public LinkedList<Instance> getSubtreeInstances()
+	{
+		LinkedList<Instance> subtreeInstances = getNodeInstances();
+
+		for ( Node child : getChildren() ) {
+			subtreeInstances.addAll( child.getSubtreeInstances() );
+		}
+
+		return subtreeInstances;
+	}
+
+	@Override
+	public Collection<Instance> getSubtreeInstanceView()
+	{
+		return new SubtreeInstanceView( this );
+	}
+
+	@Override
+	public int getSubtreeInstanceCount()
+	{
+		int result = subtreeInstanceCount;
+		if ( result < 0 ) {
+			long start = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * index );
+			long end = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * ( index + 1 ) );
+
+			result = (int)( end - start );
+			for ( Node child : getChildList() ) {
+				result += child.getSubtreeInstanceCount();
+			}
+			subtreeInstanceCount = result;
+		}
+		return result;
+	}
+
+	@Override
+	public Instance getNodeRepresentation()
+	{
+		Instance result = representation;
+		if ( result == null ) {
+			long offset = hierarchy.file.getLong( hierarchy.representationOffsets + 8L * index );
+			if ( offset < 0 ) {
+				return null;
+			}
+
+			double[] data = new double[hierarchy.file.getInt( hierarchy.representationLengths + 4L * index )];
+			hierarchy.file.getDoubles( hierarchy.representationData + 8 * offset, data, 0, data.length );
+			result = new BasicInstance(
+				BinaryHierarchyFormat.getString( hierarchy.file, hierarchy.representationNames, index ),
+				BinaryHierarchyFormat.getString( hierarchy.file, hierarchy.representationNodeIds, index ),
+				data,
+				BinaryHierarchyFormat.getString( hierarchy.file, hierarchy.representationTrueClasses, index )
+			);
+			representation = result;
+		}
+		return result;
+	}
+
+	@Override
+	public void setId( String id )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setParent( Node parent )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setParentId( String parentId )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setChildren( LinkedList<Node> children )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addChild( Node child )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addInstance( Instance instance )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setInstances( LinkedList<Instance> instances )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setRepresentation( Instance representation )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public String toString()
+	{
+		return print( "", true );
+	}
+
+	@Override
+	public void printSubtree()
+	{
+		System.out.println( toString() );
+	}
+
+	/**
+	 * @return number of instances which belong to this particular node, read without creating the instances.
+	 */
+	public int getNumberOfNodeInstances()
+	{
+		long start = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * index );
+		long end = hierarchy.file.getLong( hierarchy.instanceOffsets + 8L * ( index + 1 ) );
+		return (int)( end - start );
+	}
+
+	private String print( String prefix, boolean isTail )
+	{
+		StringBuilder buf = new StringBuilder();
+
+		buf.append( prefix )
+			.append( isTail ? "L-- " : "|-- " )
+			.append( getId() )
+			.append( '(' )
+			.append( getNumberOfNodeInstances() )
+			.append( ')' )
+			.append( '\n' );
+
+		String childPrefix = prefix + ( isTail ? "    " : "|   " );
+
+		List<Node> children = getChildList();
+		for ( int i = 0; i < children.size(); ++i ) {
+			buf.append( ( (MappedNode)children.get( i ) ).print( childPrefix, i == children.size() - 1 ) );
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Instances of a node, created from the mapping as they are accessed.
+	 */
+	private class InstanceList extends AbstractList<Instance> implements RandomAccess
+	{
+		private final long start;
+		private final int size;
+
+
+		public InstanceList( long start, int size )
+		{
+			this.start = start;
+			this.size = size;
+		}
+
+		@Override
+		public Instance get( int i )
+		{
+			if ( i < 0 || i >= size ) {
+				throw new IndexOutOfBoundsException( "Index: " + i + ", size: " + size );
+			}
+			return new MappedInstance( hierarchy, MappedNode.this, start + i );
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+	}
+
+	static UnsupportedOperationException readOnly()
+	{
+		return new UnsupportedOperationException( "Memory-mapped hierarchies are read-only." );
+	}
+}
@@ -0,0 +1,125 @@
+package basic_hierarchy.implementation;
+
+import java.nio.DoubleBuffer;
+
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.interfaces.Instance;
+
+
+/**
+ * An {@link Instance} whose feature values are stored in a row of a {@link FeatureMatrix}.
+ * <p>
+ * Each call to {@link #getData()} returns a new copy of the feature values, and {@link #setData(double[])}
+ * overwrites the row in the matrix. Use {@link #getDataBuffer()}, {@link FeatureMatrix#addTo(Instance, double[])}
+ * or the matrix itself to access the values without copying them.
+ * </p>
+ */
+public class MatrixInstance implements Instance
+{
+	private final FeatureMatrix matrix;
+	private final int row;
+	private String instanceName;
+	private String nodeId;
+	private String trueClass;
+
+
+	/**
+	 * @param matrix
+	 *            the matrix holding feature values of the instance
+	 * @param row
+	 *            index of the row of the matrix holding feature values of the instance
+	 */
+	public MatrixInstance( FeatureMatrix matrix, int row, String instanceName, String nodeId, String trueClass )
+	{
+		this.matrix = matrix;
+		this.row = row;
+		this.instanceName = instanceName;
+		this.nodeId = nodeId;
+		this.trueClass = trueClass;
+	}
+
+	/**
+	 * @return the matrix holding feature values of this instance.
+	 */
+	public FeatureMatrix getMatrix()
+	{
+		return matrix;
+	}
+
+	/**
+	 * @return index of the row of the matrix holding feature values of this instance.
+	 */
+	public int getRow()
+	{
+		return row;
+	}
+
+	@Override
+	public String getInstanceName()
+	{
+		return instanceName;
+	}
+
+	@Override
+	public void setInstanceName( String instanceName )
+	{
+		this.instanceName = instanceName;
+	}
+
+	/**
+	 * @return a copy of the feature values of this instance.
+	 */
+	@Override
+	public double[] getData()
+	{
+		double[] result = new double[matrix.getDimensions()];
+		matrix.getRow( row, result );
+		return result;
+	}
+
+	/**
+	 * @return buffer spanning the row of the matrix, through which the feature values can be read
+	 *         and modified without copying them.
+	 */
+	@Override
+	public DoubleBuffer getDataBuffer()
+	{
+		return matrix.getRowBuffer( row );
+	}
+
+	/**
+	 * Overwrites feature values of this instance in the matrix.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of values is different from the number of dimensions of the matrix
+	 */
+	@Override
+	public void setData( double[] data )
+	{
+		matrix.setRow( row, data );
+	}
+
+	@Override
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	@Override
+	public void setNodeId( String id )
+	{
+		this.nodeId = id;
+	}
+
+	@Override
+	public String getTrueClass()
+	{
+		return trueClass;
+	}
+
+	@Override
+	public void setTrueClass( String trueClass )
+	{
+		this.trueClass = trueClass;
+	}
+}
@@ -0,0 +1,55 @@
+package basic_hierarchy.implementation;
+
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * Base of mutable nodes which cache the number of instances in their subtree, computed from
+ * {@link #getNodeInstanceList()} and {@link #getChildList()}.
+ * <p>
+ * Subclasses call {@link #invalidateSubtreeInstanceCount()} whenever they add or set instances or children.
+ * </p>
+ */
+abstract class SubtreeCountingNode implements Node
+{
+	/** Number of instances in this node's subtree, or -1 if it has not been computed since the subtree changed. */
+	private int subtreeInstanceCount = -1;
+
+
+	/**
+	 * The count is updated when instances or children are added or set through this node's methods.
+	 * If the lists returned by {@link #getNodeInstanceList()} or {@link #getChildList()} are modified directly,
+	 * {@link #invalidateSubtreeInstanceCount()} must be called afterwards.
+	 */
+	@Override
+	public int getSubtreeInstanceCount()
+	{
+		int result = subtreeInstanceCount;
+		if ( result < 0 ) {
+			result = getNodeInstanceList().size();
+			for ( Node child : getChildList() ) {
+				result += child.getSubtreeInstanceCount();
+			}
+			subtreeInstanceCount = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Discards the cached number of instances in the subtree of this node and of its ancestors.
+	 * Must be called after the lists returned by {@link #getNodeInstanceList()} or {@link #getChildList()}
+	 * are modified directly.
+	 */
+	public void invalidateSubtreeInstanceCount()
+	{
+		// A node's count is only ever computed along with counts of its whole subtree, so once
+		// an ancestor without a computed count is reached, none of the ones above it has one either.
+		for ( Node n = this; n instanceof SubtreeCountingNode; n = n.getParent() ) {
+			SubtreeCountingNode node = (SubtreeCountingNode)n;
+			if ( node.subtreeInstanceCount < 0 && node != this ) {
+				break;
+			}
+			node.subtreeInstanceCount = -1;
+		}
+	}
+}
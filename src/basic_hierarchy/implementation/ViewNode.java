@@ -0,0 +1,263 @@
+package basic_hierarchy.implementation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.SubtreeInstanceView;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * A read-only {@link Node} of a {@link HierarchyView}, whose instances are a view of instances
+ * of another hierarchy, rather than copies of them.
+ * <p>
+ * The instance objects are shared with the other hierarchy, so {@link Instance#getNodeId()} returns the id of the
+ * node they belong to there. Use {@link HierarchyView#getNodeOf(Instance)} to find the node they belong to in the view.
+ * </p>
+ * <p>
+ * Unless given when the node is created, the representation of the node is the centroid of its own instances,
+ * computed when it is first asked for.
+ * </p>
+ */
+public class ViewNode implements Node
+{
+	private final String id;
+	private final Node parent;
+	private final List<Node> children = new ArrayList<Node>();
+	private final List<Instance> instances;
+
+	private volatile Instance representation;
+	private volatile int subtreeInstanceCount = -1;
+
+
+	/**
+	 * @param id
+	 *            id of the node
+	 * @param parent
+	 *            the parent node, or null if this is the root node
+	 * @param instances
+	 *            instances which belong to the node. The list is not copied, and must not be modified afterwards.
+	 */
+	public ViewNode( String id, ViewNode parent, List<Instance> instances )
+	{
+		this( id, parent, instances, null );
+	}
+
+	/**
+	 * @param id
+	 *            id of the node
+	 * @param parent
+	 *            the parent node, or null if this is the root node
+	 * @param instances
+	 *            instances which belong to the node. The list is not copied, and must not be modified afterwards.
+	 * @param representation
+	 *            representation of the node, e.g. its centroid computed from aggregates, or null
+	 *            to compute the centroid of the instances when it is first asked for
+	 */
+	public ViewNode( String id, ViewNode parent, List<Instance> instances, Instance representation )
+	{
+		this.id = id;
+		this.parent = parent;
+		this.instances = Collections.unmodifiableList( instances );
+		this.representation = representation;
+		if ( parent != null ) {
+			parent.children.add( this );
+		}
+	}
+
+	@Override
+	public String getId()
+	{
+		return id;
+	}
+
+	@Override
+	public Node getParent()
+	{
+		return parent;
+	}
+
+	@Override
+	public String getParentId()
+	{
+		return parent.getId();
+	}
+
+	/**
+	 * @return a copy of the list of child nodes of this node.
+	 */
+	@Override
+	public LinkedList<Node> getChildren()
+	{
+		return new LinkedList<Node>( children );
+	}
+
+	/**
+	 * @return a copy of the list of instances which belong to this node.
+	 */
+	@Override
+	public LinkedList<Instance> getNodeInstances()
+	{
+		return new LinkedList<Instance>( instances );
+	}
+
+	/**
+	 * @return read-only list of child nodes of this node.
+	 */
+	@Override
+	public List<Node> getChildList()
+	{
+		return Collections.unmodifiableList( children );
+	}
+
+	/**
+	 * @return read-only list of instances which belong to this node.
+	 */
+	@Override
+	public List<Instance> getNodeInstanceList()
+	{
+		return instances;
+	}
+
+	@Override
+	public LinkedList<Instance> getSubtreeInstances()
+	{
+		return new LinkedList<Instance>( getSubtreeInstanceView() );
+	}
+
+	@Override
+	public Collection<Instance> getSubtreeInstanceView()
+	{
+		return new SubtreeInstanceView( this );
+	}
+
+	@Override
+	public int getSubtreeInstanceCount()
+	{
+		int result = subtreeInstanceCount;
+		if ( result < 0 ) {
+			result = instances.size();
+			for ( Node child : children ) {
+				result += child.getSubtreeInstanceCount();
+			}
+			subtreeInstanceCount = result;
+		}
+		return result;
+	}
+
+	@Override
+	public Instance getNodeRepresentation()
+	{
+		Instance result = representation;
+		if ( result == null ) {
+			double[] centroid = null;
+			for ( Instance i : instances ) {
+				if ( centroid == null ) {
+					centroid = new double[FeatureMatrix.getDimensions( i )];
+				}
+				FeatureMatrix.addTo( i, centroid );
+			}
+			if ( centroid == null ) {
+				centroid = new double[0];
+			}
+			for ( int d = 0; d < centroid.length; ++d ) {
+				centroid[d] /= instances.size();
+			}
+
+			result = new BasicInstance( "centroid", "centroid", centroid, "centroid" );
+			representation = result;
+		}
+		return result;
+	}
+
+	@Override
+	public void setId( String id )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setParent( Node parent )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setParentId( String parentId )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setChildren( LinkedList<Node> children )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addChild( Node child )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addInstance( Instance instance )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setInstances( LinkedList<Instance> instances )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setRepresentation( Instance representation )
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public String toString()
+	{
+		return print( "", true );
+	}
+
+	@Override
+	public void printSubtree()
+	{
+		System.out.println( toString() );
+	}
+
+	private String print( String prefix, boolean isTail )
+	{
+		StringBuilder buf = new StringBuilder();
+
+		buf.append( prefix )
+			.append( isTail ? "L-- " : "|-- " )
+			.append( id )
+			.append( '(' )
+			.append( instances.size() )
+			.append( ')' )
+			.append( '\n' );
+
+		String childPrefix = prefix + ( isTail ? "    " : "|   " );
+
+		for ( int i = 0; i < children.size(); ++i ) {
+			buf.append( ( (ViewNode)children.get( i ) ).print( childPrefix, i == children.size() - 1 ) );
+		}
+
+		return buf.toString();
+	}
+
+	private static UnsupportedOperationException readOnly()
+	{
+		return new UnsupportedOperationException( "Hierarchy views are read-only." );
+	}
+}
@@ -31,4 +31,28 @@ public interface DataReader
 		boolean withColumnHeaders,
 		boolean fixBreadthGaps,
 		boolean useSubtree ) throws IOException;
+
+	/**
+	 * Parses the specified file row by row, passing each row to the visitor as soon as it is read.
+	 * Unlike {@link #load(String, boolean, boolean, boolean, boolean, boolean)}, this method never builds
+	 * a {@link Hierarchy} and does not keep the rows in memory, so it can process files far larger than the heap.
+	 * 
+	 * @param filePath
+	 *            path to the file to read
+	 * @param withInstancesNameAttribute
+	 *            if true, the reader will assume that the file includes a column containing instance names
+	 * @param withTrueClassAttribute
+	 *            if true, the reader will assume that the file includes a column containing true class
+	 * @param withColumnHeaders
+	 *            if true, the reader will assume that the first row contains column headers, specifying the name for each column
+	 * @param visitor
+	 *            the visitor to receive the rows
+	 * @return the number of rows passed to the visitor
+	 */
+	public long stream(
+		String filePath,
+		boolean withInstancesNameAttribute,
+		boolean withTrueClassAttribute,
+		boolean withColumnHeaders,
+		InstanceVisitor visitor ) throws IOException;
 }
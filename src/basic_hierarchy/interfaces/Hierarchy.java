@@ -1,5 +1,7 @@
 package basic_hierarchy.interfaces;
 
+import java.util.List;
+
 /**
  * A hierarchy is a collection of {@link Node}s, all of which share one common ancestor (the root node).
  */
@@ -20,6 +22,24 @@ public interface Hierarchy
 	 */
 	public int getNumberOfGroups();
 
+	/**
+	 * Finds a group by its id, without scanning all groups.
+	 * 
+	 * @param id
+	 *            id of the group to find
+	 * @return the group with the specified id, or null if there is no such group in this hierarchy.
+	 */
+	public Node getNode( String id );
+
+	/**
+	 * Finds the group an instance belongs to, by the instance itself rather than by its node id.
+	 * 
+	 * @param instance
+	 *            the instance to find the group of
+	 * @return the group holding the instance, or null if the instance does not belong to any group of this hierarchy.
+	 */
+	public Node getNodeOf( Instance instance );
+
 	/**
 	 * @return array of classes present in this hierarchy.
 	 */
@@ -54,16 +74,46 @@ public interface Hierarchy
 	 */
 	public int getParticularClassCount( String className, boolean withNodeInheritance );
 
+    /**
+     * Returns counts of every class from hierarchy, including instances of all of its child classes, ie. the results
+     * of {@link #getParticularClassCount(String, boolean)} with inheritance for every class at once.
+     * The order of the classes is the same as in {@code getClasses()} array.
+     *
+     * @return table with size of every class, including its child classes. Must not be modified.
+     */
+    public int[] getInheritedClassesCount();
+
     /**
      * Return a hierarchy that simulates flat clustering. It has a empty, artificial node and all the nodes from
      *
      * {@code this} hierarchy are direct child of this root.
+     * Instances are copied; {@link basic_hierarchy.implementation.HierarchyView#getFlatClustering(Hierarchy)}
+     * creates the same clustering without copying them.
      *
      * @return hierarchy simulating a flat clustering.
      */
     public Hierarchy getFlatClusteringWithCommonEmptyRoot(); //@FIXME we can make it a static method with default
     //implementation but only in java 8
 
+    /**
+     * Returns a flat clustering induced by cutting this hierarchy at the specified depth: each node at that depth
+     * absorbs its subtree, and each node above it keeps its own instances. Instances are not copied.
+     * See {@link basic_hierarchy.implementation.HierarchyView#getLevelCut(Hierarchy, int)}.
+     *
+     * @param depth
+     *            depth of the cut, 0 being the depth of the root
+     * @return hierarchy simulating the flat clustering, with an empty, artificial root.
+     */
+    public Hierarchy getFlatClusteringAtDepth( int depth );
+
+    /**
+     * Returns flat clusterings induced by cutting this hierarchy at every depth, from 0 to the height
+     * of the hierarchy, computed together. See {@link #getFlatClusteringAtDepth(int)}.
+     *
+     * @return hierarchies simulating the flat clusterings, indexed by depth.
+     */
+    public List<Hierarchy> getFlatClusteringsAtAllDepths();
+
 	/**
 	 * Prints the String representation of this Hierarchy to the console
 	 */
@@ -1,5 +1,7 @@
 package basic_hierarchy.interfaces;
 
+import java.nio.DoubleBuffer;
+
 /**
  * An instance is a singular entity (a single observation/data point) that can be placed in a {@link Node},
  * which in turn can be placed in a {@link Hierarchy}.
@@ -21,6 +23,15 @@ public interface Instance
 	 */
 	public double[] getData();
 
+	/**
+	 * Returns feature values of this instance without copying them, if the implementation allows it,
+	 * for bulk numeric code. Whether the buffer is writable, and whether writes to it change this instance,
+	 * depends on the implementation.
+	 * 
+	 * @return buffer whose position is 0 and whose limit is the number of feature values.
+	 */
+	public DoubleBuffer getDataBuffer();
+
     /**
      * @param data - feature vector to set.
      */
@@ -0,0 +1,23 @@
+package basic_hierarchy.interfaces;
+
+/**
+ * Receives rows of a data file one at a time, as they are parsed by a {@link DataReader}, without
+ * a {@link Hierarchy} ever being built.
+ */
+public interface InstanceVisitor
+{
+	/**
+	 * Called once for each row of the file, in the order in which the rows appear in the file.
+	 * 
+	 * @param nodeId
+	 *            id of the node the instance has been assigned to
+	 * @param trueClass
+	 *            id of the true class the instance comes from, or null if the file has no true class column
+	 * @param instanceName
+	 *            name of the instance, or null if the file has no instance name column
+	 * @param data
+	 *            feature values of the instance. The array is reused for subsequent rows, so it must not be
+	 *            retained past this call -- copy it if needed.
+	 */
+	public void visit( String nodeId, String trueClass, String instanceName, double[] data );
+}
@@ -1,6 +1,8 @@
 package basic_hierarchy.interfaces;
 
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 
 /**
@@ -34,11 +36,43 @@ public interface Node
 	 */
 	public LinkedList<Instance> getNodeInstances();
 
+	/**
+	 * Prefer this method over {@link #getChildren()} in new code. Array-backed implementations return
+	 * a list which implements {@link java.util.RandomAccess}, without copying it into a {@link LinkedList}.
+	 * 
+	 * @return list of child nodes of this node. Whether modifying the list affects the node is the same
+	 *         as for {@link #getChildren()}.
+	 */
+	public List<Node> getChildList();
+
+	/**
+	 * Prefer this method over {@link #getNodeInstances()} in new code. Array-backed implementations return
+	 * a list which implements {@link java.util.RandomAccess}, without copying it into a {@link LinkedList}.
+	 * 
+	 * @return list of instances which belong to this particular node. Whether modifying the list affects the node
+	 *         is the same as for {@link #getNodeInstances()}.
+	 */
+	public List<Instance> getNodeInstanceList();
+
 	/**
 	 * @return list of instances which belong to this node or its child nodes.
 	 */
 	public LinkedList<Instance> getSubtreeInstances();
 
+	/**
+	 * Unlike {@link #getSubtreeInstances()}, this method does not copy any instances. The returned collection
+	 * walks the subtree as it is iterated, and reflects its current state.
+	 * 
+	 * @return read-only view of instances which belong to this node or its child nodes,
+	 *         in the same order as in {@link #getSubtreeInstances()}.
+	 */
+	public Collection<Instance> getSubtreeInstanceView();
+
+	/**
+	 * @return number of instances which belong to this node or its child nodes. Computed on first call and cached.
+	 */
+	public int getSubtreeInstanceCount();
+
 	/**
 	 * @return node representation e.g. its centroid or medoid.
 	 */
@@ -0,0 +1,195 @@
+package basic_hierarchy.reader;
+
+import static basic_hierarchy.common.BinaryHierarchyFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import basic_hierarchy.common.BinaryHierarchyFormat;
+import basic_hierarchy.common.MappedFile;
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.implementation.MappedHierarchy;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.writer.BinaryHierarchyWriter;
+
+
+/**
+ * Loads binary hierarchy snapshots written by {@link BinaryHierarchyWriter}.
+ * <p>
+ * Since the snapshot already holds the finished hierarchy, it is recreated directly from the stored
+ * node table, parent and child indices, and instance ranges. No parsing, sorting, gap filling or centroid
+ * computation takes place. See {@link BinaryHierarchyFormat} for a description of the file layout.
+ * </p>
+ */
+public class BinaryHierarchyReader
+{
+    /**
+     * Loads a hierarchy from the specified snapshot file.
+     *
+     * @param filePath
+     *            path to the snapshot file
+     * @return the loaded hierarchy
+     * @throws IOException
+     *             if an IO error occurred while reading the file
+     */
+    public Hierarchy load( String filePath ) throws IOException
+    {
+        MappedFile file = open( filePath );
+
+        int flags = file.getInt( HEADER_FLAGS );
+        int nodeCount = file.getInt( HEADER_NODE_COUNT );
+        int rootIndex = file.getInt( HEADER_ROOT_INDEX );
+        int dimensions = file.getInt( HEADER_DIMENSIONS );
+        int overallNumberOfInstances = file.getInt( HEADER_OVERALL_NUMBER_OF_INSTANCES );
+
+        String[] nodeIds = getStrings( file, getSection( file, SECTION_NODE_IDS ) );
+        String[] representationNames = getStrings( file, getSection( file, SECTION_REPRESENTATION_NAMES ) );
+        String[] representationNodeIds = getStrings( file, getSection( file, SECTION_REPRESENTATION_NODE_IDS ) );
+        String[] representationTrueClasses = getStrings( file, getSection( file, SECTION_REPRESENTATION_TRUE_CLASSES ) );
+        String[] trueClasses = getStrings( file, getSection( file, SECTION_TRUE_CLASSES ) );
+
+        long parents = getSection( file, SECTION_PARENTS );
+        long childOffsets = getSection( file, SECTION_CHILD_OFFSETS );
+        long children = getSection( file, SECTION_CHILDREN );
+        long instanceOffsets = getSection( file, SECTION_INSTANCE_OFFSETS );
+        long representationOffsets = getSection( file, SECTION_REPRESENTATION_OFFSETS );
+        long representationLengths = getSection( file, SECTION_REPRESENTATION_LENGTHS );
+        long representationData = getSection( file, SECTION_REPRESENTATION_DATA );
+        long instanceTrueClasses = getSection( file, SECTION_INSTANCE_TRUE_CLASSES );
+        long instanceNames = getSection( file, SECTION_INSTANCE_NAMES );
+        long features = getSection( file, SECTION_FEATURES );
+
+        // Create all nodes first, so that parent and child indices can be resolved.
+        BasicNode[] nodes = new BasicNode[nodeCount];
+        for ( int i = 0; i < nodeCount; ++i ) {
+            Instance representation = null;
+            long representationOffset = file.getLong( representationOffsets + 8L * i );
+            if ( representationOffset >= 0 ) {
+                double[] data = new double[file.getInt( representationLengths + 4L * i )];
+                file.getDoubles( representationData + 8 * representationOffset, data, 0, data.length );
+                representation = new BasicInstance(
+                    representationNames[i], representationNodeIds[i], data, representationTrueClasses[i]
+                );
+            }
+
+            nodes[i] = new BasicNode( nodeIds[i], null, new LinkedList<Node>(), new LinkedList<Instance>(), representation );
+        }
+
+        long instanceIndex = 0;
+        for ( int i = 0; i < nodeCount; ++i ) {
+            Utils.checkInterruptStatus();
+
+            BasicNode node = nodes[i];
+
+            int parent = file.getInt( parents + 4L * i );
+            if ( parent >= 0 ) {
+                node.setParent( nodes[parent] );
+            }
+
+            int childrenEnd = file.getInt( childOffsets + 4L * ( i + 1 ) );
+            for ( int c = file.getInt( childOffsets + 4L * i ); c < childrenEnd; ++c ) {
+                node.addChild( nodes[file.getInt( children + 4L * c )] );
+            }
+
+            long instancesEnd = file.getLong( instanceOffsets + 8L * ( i + 1 ) );
+            for ( ; instanceIndex < instancesEnd; ++instanceIndex ) {
+                double[] data = new double[dimensions];
+                file.getDoubles( features + 8L * dimensions * instanceIndex, data, 0, dimensions );
+
+                int trueClass = file.getInt( instanceTrueClasses + 4L * instanceIndex );
+                node.addInstance(
+                    new BasicInstance(
+                        getString( file, instanceNames, instanceIndex ),
+                        node.getId(),
+                        data,
+                        trueClass < 0 ? null : trueClasses[trueClass]
+                    )
+                );
+            }
+        }
+
+        String[] dataNames = null;
+        if ( ( flags & FLAG_DATA_NAMES ) != 0 ) {
+            dataNames = getStrings( file, getSection( file, SECTION_DATA_NAMES ) );
+        }
+
+        String[] classes = null;
+        int[] classCounts = null;
+        if ( ( flags & FLAG_CLASSES ) != 0 ) {
+            classes = getStrings( file, getSection( file, SECTION_CLASSES ) );
+            classCounts = new int[classes.length];
+            long counts = getSection( file, SECTION_CLASS_COUNTS );
+            for ( int i = 0; i < classCounts.length; ++i ) {
+                classCounts[i] = file.getInt( counts + 4L * i );
+            }
+        }
+
+        if ( rootIndex < 0 ) {
+            throw new RuntimeException( String.format( "Snapshot '%s' does not contain a root node.", filePath ) );
+        }
+
+        List<Node> nodeList = new ArrayList<Node>( nodeCount );
+        for ( BasicNode n : nodes ) {
+            nodeList.add( n );
+        }
+
+        return new BasicHierarchy( nodes[rootIndex], nodeList, dataNames, classes, classCounts, overallNumberOfInstances );
+    }
+
+    /**
+     * Opens the specified snapshot file as a {@link MappedHierarchy}, which reads nodes, instances and
+     * feature values directly from the memory-mapped file, instead of loading them onto the heap.
+     * Only the header of the file is read, regardless of its size.
+     *
+     * @param filePath
+     *            path to the snapshot file
+     * @return read-only hierarchy backed by the file
+     * @throws IOException
+     *             if an IO error occurred while mapping the file
+     */
+    public Hierarchy map( String filePath ) throws IOException
+    {
+        return new MappedHierarchy( open( filePath ) );
+    }
+
+    /**
+     * Maps the specified snapshot file into memory, and verifies its header.
+     *
+     * @param filePath
+     *            path to the snapshot file
+     * @return the mapped file
+     * @throws IOException
+     *             if an IO error occurred while mapping the file
+     * @throws RuntimeException
+     *             if the file does not exist, is not a snapshot, or was written in an unsupported version of the format
+     */
+    public static MappedFile open( String filePath ) throws IOException
+    {
+        File inputFile = new File( filePath );
+        if ( !inputFile.exists() || inputFile.isDirectory() ) {
+            throw new RuntimeException( String.format( "Cannot access file: '%s'. Does it exist?", filePath ) );
+        }
+
+        MappedFile file = MappedFile.open( inputFile );
+        if ( file.size() < HEADER_SIZE || file.getInt( HEADER_MAGIC ) != MAGIC ) {
+            throw new RuntimeException( String.format( "File '%s' is not a hierarchy snapshot.", filePath ) );
+        }
+
+        int version = file.getInt( HEADER_VERSION );
+        if ( version != VERSION ) {
+            throw new RuntimeException(
+                String.format( "Snapshot '%s' has version %s, only version %s is supported.", filePath, version, VERSION )
+            );
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,191 @@
+package basic_hierarchy.reader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reads lines from a byte source, exposing each line as a range of an internal byte buffer instead of
+ * decoding it into a {@link String}.
+ * <p>
+ * Lines are terminated the same way as in {@link BufferedReader#readLine()}: by a line feed, a carriage return,
+ * or a carriage return followed immediately by a line feed. The buffer grows as needed to hold the longest line.
+ * </p>
+ */
+final class ByteLineReader
+{
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final ByteBuffer source;
+
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    /** Index of the first byte that has not been consumed yet. */
+    private int position = 0;
+    /** Index past the last valid byte in the buffer. */
+    private int limit = 0;
+    /** Whether the previous line ended with a carriage return at the very end of the buffer. */
+    private boolean skipLF = false;
+    private long bytesConsumed = 0;
+
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+
+    /**
+     * @param in
+     *            the stream to read lines from
+     */
+    public ByteLineReader( InputStream in )
+    {
+        this.in = in;
+        this.source = null;
+    }
+
+    /**
+     * @param source
+     *            the buffer to read lines from, between its position and limit.
+     */
+    public ByteLineReader( ByteBuffer source )
+    {
+        this.in = null;
+        this.source = source;
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return true if a line was read, false if the end of input was reached.
+     */
+    public boolean nextLine() throws IOException
+    {
+        if ( skipLF ) {
+            if ( position == limit ) {
+                fill();
+            }
+            if ( position < limit && buffer[position] == '\n' ) {
+                ++position;
+                ++bytesConsumed;
+            }
+            skipLF = false;
+        }
+
+        int scan = position;
+        while ( true ) {
+            while ( scan < limit ) {
+                byte b = buffer[scan];
+                if ( b == '\n' || b == '\r' ) {
+                    lineStart = position;
+                    lineEnd = scan;
+                    position = scan + 1;
+
+                    if ( b == '\r' ) {
+                        if ( position < limit ) {
+                            if ( buffer[position] == '\n' ) {
+                                ++position;
+                            }
+                        }
+                        else {
+                            skipLF = true;
+                        }
+                    }
+
+                    bytesConsumed += position - lineStart;
+                    return true;
+                }
+                ++scan;
+            }
+
+            int shift = position;
+            if ( !fill() ) {
+                if ( position < limit ) {
+                    // Last line, without a terminator.
+                    lineStart = position;
+                    lineEnd = limit;
+                    bytesConsumed += limit - position;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan -= shift;
+        }
+    }
+
+    /**
+     * @return the buffer holding the current line. Only the range {@code [getLineStart(), getLineEnd())}
+     *         is meaningful, and only until the next call to {@link #nextLine()}.
+     */
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of the current line in {@link #getBuffer()}.
+     */
+    public int getLineStart()
+    {
+        return lineStart;
+    }
+
+    /**
+     * @return index past the last byte of the current line in {@link #getBuffer()}, excluding the line terminator.
+     */
+    public int getLineEnd()
+    {
+        return lineEnd;
+    }
+
+    /**
+     * @return number of bytes consumed so far, including line terminators.
+     */
+    public long getBytesConsumed()
+    {
+        return bytesConsumed;
+    }
+
+    /**
+     * Moves unconsumed bytes to the beginning of the buffer (growing it, if it is full), and reads more data
+     * after them.
+     *
+     * @return false if the end of input was reached and no more bytes could be read.
+     */
+    private boolean fill() throws IOException
+    {
+        int remaining = limit - position;
+        if ( remaining == buffer.length ) {
+            byte[] grown = new byte[2 * buffer.length];
+            System.arraycopy( buffer, position, grown, 0, remaining );
+            buffer = grown;
+        }
+        else if ( position > 0 ) {
+            System.arraycopy( buffer, position, buffer, 0, remaining );
+        }
+        position = 0;
+        limit = remaining;
+
+        int read = read( buffer, limit, buffer.length - limit );
+        if ( read <= 0 ) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private int read( byte[] dst, int offset, int length ) throws IOException
+    {
+        if ( in != null ) {
+            return in.read( dst, offset, length );
+        }
+
+        int count = Math.min( length, source.remaining() );
+        if ( count == 0 ) {
+            return -1;
+        }
+        source.get( dst, offset, count );
+        return count;
+    }
+}
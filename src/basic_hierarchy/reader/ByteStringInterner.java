@@ -0,0 +1,121 @@
+package basic_hierarchy.reader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import basic_hierarchy.common.StringDictionary;
+
+
+/**
+ * Maps byte sequences to {@link String}s decoded from them, so that repeated values (such as node ids, which
+ * are repeated on every row of a node) are decoded only once, and share a single {@link String} instance.
+ * <p>
+ * Decoded strings are replaced with their instances held by a {@link StringDictionary}, which can be shared
+ * by interners of many threads, so that all of them return the same instance for the same value.
+ * </p>
+ * <p>
+ * Lookups do not create any objects. This class is not thread safe.
+ * </p>
+ */
+final class ByteStringInterner
+{
+    private byte[][] keys = new byte[64][];
+    private String[] values = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+    private final StringDictionary dictionary;
+
+
+    /**
+     * @param dictionary
+     *            the dictionary holding instances of the strings to return
+     */
+    public ByteStringInterner( StringDictionary dictionary )
+    {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the string previously added for bytes {@code [start, end)} of the array, or null if there is none.
+     */
+    public String get( byte[] bytes, int start, int end )
+    {
+        int hash = hash( bytes, start, end );
+        int mask = keys.length - 1;
+        for ( int slot = hash & mask; keys[slot] != null; slot = ( slot + 1 ) & mask ) {
+            if ( hashes[slot] == hash && equals( keys[slot], bytes, start, end ) ) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes bytes {@code [start, end)} of the array as a UTF-8 string, adds it to the dictionary
+     * and remembers it for subsequent lookups. The bytes must not have been added before.
+     *
+     * @return the dictionary's instance of the decoded string
+     */
+    public String add( byte[] bytes, int start, int end )
+    {
+        if ( 2 * ( size + 1 ) > keys.length ) {
+            rehash( 2 * keys.length );
+        }
+
+        String value = dictionary.intern( new String( bytes, start, end - start, StandardCharsets.UTF_8 ) );
+        insert( Arrays.copyOfRange( bytes, start, end ), value, hash( bytes, start, end ) );
+        ++size;
+        return value;
+    }
+
+    private void insert( byte[] key, String value, int hash )
+    {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while ( keys[slot] != null ) {
+            slot = ( slot + 1 ) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        hashes[slot] = hash;
+    }
+
+    private void rehash( int capacity )
+    {
+        byte[][] oldKeys = keys;
+        String[] oldValues = values;
+        int[] oldHashes = hashes;
+
+        keys = new byte[capacity][];
+        values = new String[capacity];
+        hashes = new int[capacity];
+        for ( int i = 0; i < oldKeys.length; ++i ) {
+            if ( oldKeys[i] != null ) {
+                insert( oldKeys[i], oldValues[i], oldHashes[i] );
+            }
+        }
+    }
+
+    private static int hash( byte[] bytes, int start, int end )
+    {
+        int hash = 1;
+        for ( int i = start; i < end; ++i ) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, since slots are chosen by the lowest bits only.
+        return hash ^ ( hash >>> 16 );
+    }
+
+    private static boolean equals( byte[] key, byte[] bytes, int start, int end )
+    {
+        if ( key.length != end - start ) {
+            return false;
+        }
+        for ( int i = 0; i < key.length; ++i ) {
+            if ( key[i] != bytes[start + i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
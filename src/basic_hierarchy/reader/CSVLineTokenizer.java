@@ -0,0 +1,288 @@
+package basic_hierarchy.reader;
+
+import java.nio.charset.StandardCharsets;
+
+import basic_hierarchy.common.Constants;
+
+
+/**
+ * Splits a UTF-8 encoded line into {@link Constants#DELIMITER}-separated fields, working directly on
+ * the bytes of the line.
+ * <p>
+ * Fields are only decoded into {@link String}s on demand, and numeric fields can be parsed without
+ * decoding them at all. Since the delimiter and line terminators are ASCII characters, they can never
+ * appear inside a multi-byte UTF-8 sequence, so the line can be safely split before it is decoded.
+ * </p>
+ * <p>
+ * This class is not thread safe -- each thread should use its own instance.
+ * </p>
+ */
+public class CSVLineTokenizer
+{
+    private static final byte DELIMITER = (byte)Constants.DELIMITER.charAt( 0 );
+    private static final byte BRANCH_SEPARATOR = (byte)Constants.HIERARCHY_BRANCH_SEPARATOR.charAt( 0 );
+    private static final byte[] NODES_PREFIX = Constants.NODES_PREFIX.getBytes( StandardCharsets.US_ASCII );
+
+    /** Largest mantissa which can be represented exactly by a {@code double}. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /** Powers of ten which can be represented exactly by a {@code double}. */
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private byte[] line;
+    private int lineStart;
+    private int lineEnd;
+
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+
+
+    /**
+     * Splits bytes {@code [start, end)} of the array into fields. The array is referenced, not copied,
+     * so it must not be modified while the fields are being read.
+     * <p>
+     * Fields are split the same way as {@link String#split(String)} would: trailing empty fields are discarded,
+     * and a line without any delimiters consists of a single field, even if it is empty.
+     * </p>
+     */
+    public void tokenize( byte[] line, int start, int end )
+    {
+        this.line = line;
+        this.lineStart = start;
+        this.lineEnd = end;
+
+        fieldCount = 0;
+        int fieldStart = start;
+        for ( int i = start; i < end; ++i ) {
+            if ( line[i] == DELIMITER ) {
+                addField( fieldStart, i );
+                fieldStart = i + 1;
+            }
+        }
+
+        if ( fieldCount == 0 ) {
+            addField( start, end );
+            return;
+        }
+
+        addField( fieldStart, end );
+        while ( fieldCount > 0 && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1] ) {
+            --fieldCount;
+        }
+    }
+
+    /**
+     * @return number of fields in the current line.
+     */
+    public int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    /**
+     * @return the array holding the current line.
+     */
+    public byte[] getLine()
+    {
+        return line;
+    }
+
+    /**
+     * @return index of the first byte of the specified field in {@link #getLine()}.
+     */
+    public int getFieldStart( int field )
+    {
+        return fieldStarts[field];
+    }
+
+    /**
+     * @return index past the last byte of the specified field in {@link #getLine()}.
+     */
+    public int getFieldEnd( int field )
+    {
+        return fieldEnds[field];
+    }
+
+    /**
+     * @return the specified field, decoded into a string.
+     */
+    public String getString( int field )
+    {
+        return new String( line, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return the whole current line, decoded into a string. Meant for error reporting.
+     */
+    public String getLineAsString()
+    {
+        return new String( line, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return whether the specified field is a valid node id.
+     * @see #isValidNodeId(byte[], int, int)
+     */
+    public boolean isValidNodeId( int field )
+    {
+        return isValidNodeId( line, fieldStarts[field], fieldEnds[field] );
+    }
+
+    /**
+     * @return the specified field, parsed as a {@code double}.
+     * @throws NumberFormatException
+     *             if the field is not a parsable {@code double}
+     * @see #parseDouble(byte[], int, int)
+     */
+    public double getDouble( int field )
+    {
+        return parseDouble( line, fieldStarts[field], fieldEnds[field] );
+    }
+
+    private void addField( int start, int end )
+    {
+        if ( fieldCount == fieldStarts.length ) {
+            int[] starts = new int[2 * fieldCount];
+            int[] ends = new int[2 * fieldCount];
+            System.arraycopy( fieldStarts, 0, starts, 0, fieldCount );
+            System.arraycopy( fieldEnds, 0, ends, 0, fieldCount );
+            fieldStarts = starts;
+            fieldEnds = ends;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        ++fieldCount;
+    }
+
+    /**
+     * Checks whether bytes {@code [start, end)} of the array form a valid node id, ie. match the
+     * {@code gen(\.\d+)+} pattern.
+     */
+    public static boolean isValidNodeId( byte[] bytes, int start, int end )
+    {
+        if ( end - start <= NODES_PREFIX.length ) {
+            return false;
+        }
+        for ( int i = 0; i < NODES_PREFIX.length; ++i ) {
+            if ( bytes[start + i] != NODES_PREFIX[i] ) {
+                return false;
+            }
+        }
+
+        // One or more groups, each consisting of a separator followed by at least one digit.
+        int i = start + NODES_PREFIX.length;
+        while ( i < end ) {
+            if ( bytes[i] != BRANCH_SEPARATOR ) {
+                return false;
+            }
+
+            int digitsStart = ++i;
+            while ( i < end && bytes[i] >= '0' && bytes[i] <= '9' ) {
+                ++i;
+            }
+            if ( i == digitsStart ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses bytes {@code [start, end)} of the array as a {@code double}, producing exactly the same result
+     * as {@link Double#parseDouble(String)}.
+     * <p>
+     * Plain decimal numbers with at most 18 significant digits and a small exponent, which cover virtually all
+     * generated data, are parsed without creating any objects: the digits are accumulated into an exact integer
+     * mantissa, which is then scaled by an exactly representable power of ten. A single correctly rounded
+     * multiplication or division yields the correctly rounded result. Anything else is handed over to
+     * {@link Double#parseDouble(String)}.
+     * </p>
+     *
+     * @throws NumberFormatException
+     *             if the bytes do not form a parsable {@code double}
+     */
+    public static double parseDouble( byte[] bytes, int start, int end )
+    {
+        int i = start;
+        boolean negative = false;
+        if ( i < end && ( bytes[i] == '-' || bytes[i] == '+' ) ) {
+            negative = bytes[i] == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+
+        for ( ; i < end && bytes[i] >= '0' && bytes[i] <= '9'; ++i ) {
+            anyDigits = true;
+            mantissa = 10 * mantissa + ( bytes[i] - '0' );
+            if ( mantissa != 0 ) {
+                ++significantDigits;
+            }
+        }
+
+        if ( i < end && bytes[i] == '.' ) {
+            for ( ++i; i < end && bytes[i] >= '0' && bytes[i] <= '9'; ++i ) {
+                anyDigits = true;
+                mantissa = 10 * mantissa + ( bytes[i] - '0' );
+                --exponent;
+                if ( mantissa != 0 ) {
+                    ++significantDigits;
+                }
+            }
+        }
+
+        if ( anyDigits && i < end && ( bytes[i] == 'e' || bytes[i] == 'E' ) ) {
+            ++i;
+            boolean negativeExponent = false;
+            if ( i < end && ( bytes[i] == '-' || bytes[i] == '+' ) ) {
+                negativeExponent = bytes[i] == '-';
+                ++i;
+            }
+
+            int explicitExponent = 0;
+            boolean anyExponentDigits = false;
+            for ( ; i < end && bytes[i] >= '0' && bytes[i] <= '9' && explicitExponent < 1000; ++i ) {
+                anyExponentDigits = true;
+                explicitExponent = 10 * explicitExponent + ( bytes[i] - '0' );
+            }
+
+            if ( !anyExponentDigits ) {
+                return parseDoubleSlow( bytes, start, end );
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if ( !anyDigits || i != end || significantDigits > 18 ) {
+            // Not a plain decimal number (whitespace, type suffix, NaN, hex, ...), or too precise for the fast path.
+            return parseDoubleSlow( bytes, start, end );
+        }
+
+        double result;
+        if ( mantissa == 0 ) {
+            result = 0;
+        }
+        else if ( mantissa < MAX_EXACT_MANTISSA && exponent >= 0 && exponent < EXACT_POWERS_OF_TEN.length ) {
+            result = mantissa * EXACT_POWERS_OF_TEN[exponent];
+        }
+        else if ( mantissa < MAX_EXACT_MANTISSA && exponent < 0 && -exponent < EXACT_POWERS_OF_TEN.length ) {
+            result = mantissa / EXACT_POWERS_OF_TEN[-exponent];
+        }
+        else {
+            return parseDoubleSlow( bytes, start, end );
+        }
+
+        return negative ? -result : result;
+    }
+
+    private static double parseDoubleSlow( byte[] bytes, int start, int end )
+    {
+        return Double.parseDouble( new String( bytes, start, end - start, StandardCharsets.UTF_8 ) );
+    }
+}
@@ -3,23 +3,56 @@ package basic_hierarchy.reader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.FeatureStorage;
 import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.StringDictionary;
+import basic_hierarchy.common.Utils;
 import basic_hierarchy.implementation.BasicHierarchy;
 import basic_hierarchy.implementation.BasicInstance;
 import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.implementation.MatrixInstance;
 import basic_hierarchy.interfaces.DataReader;
 import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.InstanceVisitor;
 import basic_hierarchy.interfaces.Node;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.converters.ArffLoader;
 
 public class GeneratedARFFReader implements DataReader {
 
+	private final FeatureStorage featureStorage;
+
+
+	public GeneratedARFFReader()
+	{
+		this( FeatureStorage.INSTANCE_ARRAYS );
+	}
+
+	/**
+	 * Creates a reader which stores feature values of loaded instances in the specified way.
+	 * 
+	 * @param featureStorage
+	 *            how feature values of instances are to be stored. Has no effect on {@link #stream}.
+	 */
+	public GeneratedARFFReader( FeatureStorage featureStorage )
+	{
+		this.featureStorage = featureStorage;
+	}
+
+	/**
+	 * Rows are streamed with weka's incremental {@link ArffLoader} (see {@link #stream}), and each row's node
+	 * is found through a hash index, so that neither the whole weka data set is kept in memory,
+	 * nor are the nodes scanned for every row.
+	 */
 	@Override
 	public Hierarchy load(
 		String filePath,
@@ -29,36 +62,90 @@ public class GeneratedARFFReader implements DataReader {
 		boolean fixBreadthGaps,
 		boolean useSubtree ) throws IOException
 	{
-		File inputFile = new File(filePath);
-		if(!inputFile.exists() && inputFile.isDirectory())
-		{
-			System.err.println("Cannot access to file: " + filePath + ". Does it exist and is it a "
-					+ "weka ARFF file?\n");
-			System.exit(1);
+		NodeCollector collector = new NodeCollector( useSubtree, featureStorage );
+		stream( filePath, withInstancesNameAttribute, withClassAttribute, withColumnHeaders, collector );
+
+		if ( featureStorage != FeatureStorage.INSTANCE_ARRAYS ) {
+			FeatureMatrix.packStaged( collector.nodes.values(), featureStorage );
 		}
-		DataSource source = null;
-		Instances data = null;
-		try {
-			source = new DataSource(inputFile.getAbsolutePath());
-			data = source.getDataSet();			
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			System.exit(1);
+
+		BasicNode root = collector.root;
+		ArrayList<BasicNode> nodes = new ArrayList<BasicNode>( collector.nodes.values() );
+		List<? extends Node> allNodes = new HierarchyBuilder().buildCompleteHierarchy( root, nodes, fixBreadthGaps, useSubtree );
+
+		if ( root == null ) {
+			// If root was missing from input file, then it must've been created artificially - find it.
+			// List of groups should be sorted by ID, therefore finding root should have negligible overhead.
+			for ( Node group : allNodes ) {
+				if ( group.getId().equalsIgnoreCase( Constants.ROOT_ID ) ) {
+					root = (BasicNode)group;
+					break;
+				}
+			}
 		}
-		
-		data.setClassIndex(Constants.INDEX_OF_ASSIGN_CLASS_IN_WEKA_INSTANCE);
-		int assignClassIndex = data.classIndex();
-		
-		System.out.println("Assign class attribute name is: " + data.classAttribute().name()
-				+ "\nNumber of classes: " + data.numClasses());
-		
-		BasicNode root = null;
-		ArrayList<BasicNode> nodes = new ArrayList<BasicNode>();
-		int rootIndexInNodes = -1;
-		int numberOfInstances = 0;		
-		HashMap<String, Integer> eachClassAndItsCount = new HashMap<String, Integer>();
-		
+
+		// TODO: Implement loading of data column names
+		String[] dataNames = null;
+		return new BasicHierarchy( root, allNodes, dataNames, collector.ids, collector.classCounts, collector.instanceCount );
+	}
+
+	/**
+	 * Rows are read one at a time with weka's incremental {@link ArffLoader}, so the data set is never
+	 * held in memory as a whole.
+	 */
+	@Override
+	public long stream(
+		String filePath,
+		boolean withInstancesNameAttribute,
+		boolean withClassAttribute,
+		boolean withColumnHeaders,
+		InstanceVisitor visitor ) throws IOException
+	{
+		File inputFile = new File( filePath );
+		if ( !inputFile.exists() || inputFile.isDirectory() ) {
+			throw new RuntimeException(
+				String.format( "Cannot access file: '%s'. Does it exist, and is it a weka ARFF file?", filePath )
+			);
+		}
+
+		ArffLoader loader = new ArffLoader();
+		loader.setFile( inputFile );
+		Instances structure = loader.getStructure();
+		structure.setClassIndex( Constants.INDEX_OF_ASSIGN_CLASS_IN_WEKA_INSTANCE );
+
+		double[] instData = new double[getNumberOfDimensions( structure, withInstancesNameAttribute, withClassAttribute )];
+		long rowCount = 0;
+
+		for ( weka.core.Instance inst; ( inst = loader.getNextInstance( structure ) ) != null; ) {
+			Utils.checkInterruptStatus();
+
+			String classAttrib = null;
+			if ( withClassAttribute ) {
+				classAttrib = inst.stringValue( Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE );
+			}
+
+			String instanceNameAttrib = null;
+			if ( withInstancesNameAttribute ) {
+				instanceNameAttrib = inst.stringValue( Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE + ( withClassAttribute ? 1 : 0 ) );
+			}
+
+			readInstanceData( inst, withInstancesNameAttribute, withClassAttribute, instData );
+
+			visitor.visit( inst.stringValue( Constants.INDEX_OF_ASSIGN_CLASS_IN_WEKA_INSTANCE ), classAttrib, instanceNameAttrib, instData );
+			++rowCount;
+		}
+
+		return rowCount;
+	}
+
+	/**
+	 * @param data
+	 *            the data set (or just its structure) to compute the number of dimensions for
+	 * @return number of feature values in each instance, ie. the number of attributes minus the assigned class,
+	 *         true class and instance name attributes.
+	 */
+	private static int getNumberOfDimensions( Instances data, boolean withInstancesNameAttribute, boolean withClassAttribute )
+	{
 		int numberOfDimensions = data.numAttributes() - 1;//minus assign class attribute
 		if(withClassAttribute)
 		{
@@ -69,102 +156,112 @@ public class GeneratedARFFReader implements DataReader {
 		{
 			numberOfDimensions -= 1;
 		}
-		
-		for(int i = 0; i < data.numInstances(); i++)
+		return numberOfDimensions;
+	}
+
+	/**
+	 * Copies feature values of the weka instance into the specified array, skipping the assigned class,
+	 * true class and instance name attributes.
+	 * 
+	 * @param inst
+	 *            the instance to read
+	 * @param instData
+	 *            the array to store the feature values in
+	 */
+	private static void readInstanceData(
+		weka.core.Instance inst,
+		boolean withInstancesNameAttribute,
+		boolean withClassAttribute,
+		double[] instData )
+	{
+		int instDataIndex = 0;
+		for(int j = 0; j < inst.numAttributes(); j++)
 		{
-			weka.core.Instance inst = data.instance(i);
+			if(j == Constants.INDEX_OF_ASSIGN_CLASS_IN_WEKA_INSTANCE)
+				continue;
 			
-			String classAttrib = null;
-			if(withClassAttribute)
-			{
-				classAttrib = inst.stringValue(Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE);
-				if(eachClassAndItsCount.containsKey(classAttrib))
-				{
-					eachClassAndItsCount.put(classAttrib, eachClassAndItsCount.get(classAttrib) + 1);
-				}
-				else
-				{
-					eachClassAndItsCount.put(classAttrib, 1);
-				}
-			}
-			
-			String instanceNameAttrib = null;
-			if(withInstancesNameAttribute)
-			{
-				instanceNameAttrib = inst.stringValue(Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE + (withClassAttribute? 1 : 0));
-			}
-			
-			//assuming that node's instances are grouped in input file
-			//REFACTOR: below could the binary-search be utilised with sorting by ID-comparator
+			if(withClassAttribute && j == Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE)
+				continue;
 			
-			String assignClass = inst.stringValue(assignClassIndex);
+			if(withClassAttribute && withInstancesNameAttribute && j == Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE + 1)
+				continue;
 			
-			double[] instData = new double[numberOfDimensions];
-			int instDataIndex = 0;
-			for(int j = 0; j < inst.numAttributes(); j++)
-			{
-				if(j == Constants.INDEX_OF_ASSIGN_CLASS_IN_WEKA_INSTANCE)
-					continue;
-				
-				if(withClassAttribute && j == Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE)
-					continue;
-				
-				if(withClassAttribute && withInstancesNameAttribute && j == Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE + 1)
-					continue;
-				
-				if(!withClassAttribute && withInstancesNameAttribute && j == Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE)
-					continue;
-				
-				instData[instDataIndex] = inst.value(j);
-				instDataIndex++;
-			}
+			if(!withClassAttribute && withInstancesNameAttribute && j == Constants.INDEX_OF_GROUND_TRUTH_IN_WEKA_INSTANCE)
+				continue;
 			
-			boolean nodeExist = false;
-			int nodeIndex = -1;
-			for(int nodeIndexIter = 0; nodeIndexIter < nodes.size() && !nodeExist; nodeIndexIter++)
-			{
-				if(nodes.get(nodeIndexIter).getId().equalsIgnoreCase(assignClass))
-				{
-					nodeExist = true;
-					nodeIndex = nodeIndexIter;
+			instData[instDataIndex] = inst.value(j);
+			instDataIndex++;
+		}
+	}
+
+	/**
+	 * Groups streamed rows into nodes, looking nodes up by id in constant time.
+	 * <p>
+	 * Node ids are matched case-insensitively. Rows almost always use the exact same spelling of an id,
+	 * so ids are looked up as-is first, and only ids not seen before are lower-cased.
+	 * </p>
+	 */
+	private static class NodeCollector implements InstanceVisitor
+	{
+		private final boolean useSubtree;
+		private final FeatureStorage featureStorage;
+		/** Feature values of the streamed instances, in file order, if they are stored in a matrix. */
+		private FeatureMatrix matrix = null;
+		/** Nodes by their lower-cased ids, in order of appearance. */
+		private final Map<String, BasicNode> nodes = new LinkedHashMap<String, BasicNode>();
+		/** Nodes by every spelling of their ids encountered so far. */
+		private final Map<String, BasicNode> nodesBySpelling = new HashMap<String, BasicNode>();
+		/** Node ids and true classes, so that every row of a node or class shares a single string. */
+		private final StringDictionary ids = new StringDictionary();
+		/** Number of instances of each true class, indexed by ordinals of the classes in {@link #ids}. */
+		private int[] classCounts = new int[0];
+		private int instanceCount = 0;
+		private BasicNode root = null;
+
+
+		public NodeCollector( boolean useSubtree, FeatureStorage featureStorage )
+		{
+			this.useSubtree = useSubtree;
+			this.featureStorage = featureStorage;
+		}
+
+		@Override
+		public void visit( String nodeId, String trueClass, String instanceName, double[] data )
+		{
+			if ( trueClass != null ) {
+				int ordinal = ids.add( trueClass );
+				if ( ordinal >= classCounts.length ) {
+					classCounts = Arrays.copyOf( classCounts, Math.max( ordinal + 1, 2 * classCounts.length ) );
 				}
+				++classCounts[ordinal];
+				trueClass = ids.get( ordinal );
 			}
-			if(nodeExist)
-			{
-				nodes.get(nodeIndex).addInstance(new BasicInstance(instanceNameAttrib, nodes.get(nodeIndex).getId(), instData, classAttrib));
-				numberOfInstances++;
-			}
-			else
-			{
-				BasicNode nodeToAdd = new BasicNode(assignClass, null, new LinkedList<Node>(),
-						new LinkedList<basic_hierarchy.interfaces.Instance>(), useSubtree);
-				nodeToAdd.addInstance(new BasicInstance(instanceNameAttrib, nodeToAdd.getId(), instData, classAttrib));
-				numberOfInstances++;
-				nodes.add(nodeToAdd);
-				if(root == null && assignClass.equalsIgnoreCase(Constants.ROOT_ID))
-				{
-					root = nodes.get(nodes.size()-1);
-					rootIndexInNodes = nodes.size()-1;
+
+			BasicNode node = nodesBySpelling.get( nodeId );
+			if ( node == null ) {
+				String key = nodeId.toLowerCase( Locale.ROOT );
+				node = nodes.get( key );
+				if ( node == null ) {
+					// Node for this id doesn't exist yet. Create it.
+					node = new BasicNode( ids.intern( nodeId ), null, useSubtree );
+					nodes.put( key, node );
+					if ( root == null && nodeId.equalsIgnoreCase( Constants.ROOT_ID ) ) {
+						root = node;
+					}
 				}
+				nodesBySpelling.put( nodeId, node );
 			}
-		}
-		
-		List<? extends Node> allNodes = new HierarchyBuilder().buildCompleteHierarchy( root, nodes, fixBreadthGaps, useSubtree );
 
-		if ( root == null ) {
-			// If root was missing from input file, then it must've been created artificially - find it.
-			// List of groups should be sorted by ID, therefore finding root should have negligible overhead.
-			for ( Node group : allNodes ) {
-				if ( group.getId().equalsIgnoreCase( Constants.ROOT_ID ) ) {
-					root = (BasicNode)group;
-					break;
+			if ( featureStorage != FeatureStorage.INSTANCE_ARRAYS ) {
+				if ( matrix == null ) {
+					matrix = featureStorage.createStagingMatrix( data.length );
 				}
+				node.addInstance( new MatrixInstance( matrix, matrix.addRow( data ), instanceName, node.getId(), trueClass ) );
+			}
+			else {
+				node.addInstance( new BasicInstance( instanceName, node.getId(), data.clone(), trueClass ) );
 			}
+			instanceCount++;
 		}
-
-		// TODO: Implement loading of data column names
-		String[] dataNames = null;
-		return new BasicHierarchy( root, allNodes, dataNames, eachClassAndItsCount, numberOfInstances );
 	}
-
 }
@@ -4,38 +4,116 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import basic_hierarchy.common.AlphanumComparator;
 import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.FeatureStorage;
 import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.StringDictionary;
 import basic_hierarchy.common.Utils;
 import basic_hierarchy.implementation.BasicHierarchy;
 import basic_hierarchy.implementation.BasicInstance;
 import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.implementation.MatrixInstance;
 import basic_hierarchy.interfaces.DataReader;
 import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.InstanceVisitor;
 import basic_hierarchy.interfaces.Node;
 
 
 public class GeneratedCSVReader implements DataReader
 {
-    private static final String REGEX_NODE_ID = "gen(" + Constants.HIERARCHY_BRANCH_SEPARATOR_REGEX + "\\d+)+";
-
+    /** Smallest range of the file parsed by a single task in parallel mode. */
+    private static final long MIN_CHUNK_BYTES = 4L << 20;
+    /** Largest range of the file mapped into memory at once. Must not exceed {@link Integer#MAX_VALUE}. */
+    private static final long MAX_CHUNK_BYTES = 256L << 20;
+
+    private final ForkJoinPool pool;
+    private final FeatureStorage featureStorage;
+    private final long maxChunkBytes;
     private HierarchyBuilder hb = null;
 
     private volatile int progress = 0;
     private volatile String statusMsg = "";
 
 
+    /**
+     * Creates a reader which parses files sequentially, on the calling thread.
+     */
     public GeneratedCSVReader()
     {
+        this( null );
+    }
+
+    /**
+     * Creates a reader which memory-maps the file, splits it into line-aligned chunks and parses them
+     * in parallel using the specified pool. The hierarchy is then built in parallel, using the same pool
+     * (see {@link HierarchyBuilder#HierarchyBuilder(ForkJoinPool)}). The resulting hierarchy is identical
+     * to the one produced by the sequential reader, except for rounding errors in subtree centroids.
+     * 
+     * @param pool
+     *            the pool used to parse the file and build the hierarchy, or null to do both sequentially.
+     */
+    public GeneratedCSVReader( ForkJoinPool pool )
+    {
+        this( pool, FeatureStorage.INSTANCE_ARRAYS );
+    }
+
+    /**
+     * Creates a reader which stores feature values of loaded instances in the specified way.
+     * 
+     * @param pool
+     *            the pool used to parse the file and build the hierarchy, or null to do both sequentially.
+     *            See {@link #GeneratedCSVReader(ForkJoinPool)}.
+     * @param featureStorage
+     *            how feature values of instances are to be stored. Has no effect on {@link #stream}.
+     */
+    public GeneratedCSVReader( ForkJoinPool pool, FeatureStorage featureStorage )
+    {
+        this( pool, featureStorage, MAX_CHUNK_BYTES );
+    }
+
+    /**
+     * Creates a reader which stores feature values of loaded instances in the specified way, and splits files
+     * into chunks of at most the specified size in parallel mode.
+     * 
+     * @param pool
+     *            the pool used to parse the file and build the hierarchy, or null to do both sequentially.
+     *            See {@link #GeneratedCSVReader(ForkJoinPool)}.
+     * @param featureStorage
+     *            how feature values of instances are to be stored. Has no effect on {@link #stream}.
+     * @param maxChunkBytes
+     *            largest range of the file parsed by a single task. A chunk is extended past this size only
+     *            to the end of the line it would otherwise split.
+     * @throws IllegalArgumentException
+     *             if maxChunkBytes is not positive, or exceeds {@link Integer#MAX_VALUE}
+     */
+    public GeneratedCSVReader( ForkJoinPool pool, FeatureStorage featureStorage, long maxChunkBytes )
+    {
+        if ( maxChunkBytes <= 0 || maxChunkBytes > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "maxChunkBytes must be in range [1, " + Integer.MAX_VALUE + "]" );
+        }
+
+        this.pool = pool;
+        this.featureStorage = featureStorage;
+        this.maxChunkBytes = maxChunkBytes;
     }
 
     /**
@@ -65,6 +143,9 @@ public class GeneratedCSVReader implements DataReader
      * <p>
      * Files are loaded assuming UTF-8 encoding.
      * </p>
+     * <p>
+     * If this reader was created with a {@link ForkJoinPool}, the file is parsed in parallel.
+     * </p>
      * 
      * @throws IOException
      *             if an IO error occurred while reading the file
@@ -83,9 +164,116 @@ public class GeneratedCSVReader implements DataReader
     {
         statusMsg = "Parsing file...";
         progress = 0;
+        hb = null;
 
         // REFACTOR: Could create a factory class to generate nodes.
         // REFACTOR: Skip nodes' elements containing "gen" prefix and assume that every ID prefix always begins with "gen"
+        File inputFile = getInputFile( filePath );
+
+        RowParser parser = new RowParser( withInstancesNameAttribute, withTrueClassAttribute, withColumnHeaders );
+        List<ParsedChunk> chunks;
+        if ( pool == null ) {
+            ParsedChunk chunk = new ParsedChunk( useSubtree, featureStorage, parser.ids );
+            parseSequentially( inputFile, parser, chunk );
+            chunks = Collections.singletonList( chunk );
+        }
+        else {
+            chunks = parseInParallel( inputFile, parser, useSubtree );
+        }
+
+        // Merge the chunks in file order, so that instances keep the order in which they appear in the file.
+        Map<String, BasicNode> nodeMap = new TreeMap<String, BasicNode>( new AlphanumComparator() );
+        int[] classCounts = new int[parser.ids.size()];
+        int overallNumberOfInstances = 0;
+
+        for ( ParsedChunk chunk : chunks ) {
+            Utils.checkInterruptStatus();
+
+            for ( BasicNode chunkNode : chunk.nodes.values() ) {
+                BasicNode node = getOrDefault( nodeMap, chunkNode.getId(), null );
+                if ( node == null ) {
+                    nodeMap.put( chunkNode.getId(), chunkNode );
+                }
+                else {
+                    node.getNodeInstances().addAll( chunkNode.getNodeInstances() );
+                    node.invalidateSubtreeInstanceCount();
+                }
+            }
+
+            for ( int i = 0; i < Math.min( classCounts.length, chunk.classCounts.length ); ++i ) {
+                classCounts[i] += chunk.classCounts[i];
+            }
+
+            overallNumberOfInstances += chunk.instanceCount;
+        }
+
+        if ( featureStorage != FeatureStorage.INSTANCE_ARRAYS ) {
+            FeatureMatrix.packStaged( nodeMap.values(), featureStorage );
+        }
+
+        BasicNode root = getOrDefault( nodeMap, Constants.ROOT_ID, null );
+
+        hb = new HierarchyBuilder( pool );
+        progress = 100;
+
+        ArrayList<BasicNode> nodes = new ArrayList<BasicNode>( nodeMap.values() );
+        List<? extends Node> allNodes = hb.buildCompleteHierarchy( root, nodes, fixBreadthGaps, useSubtree );
+
+        if ( root == null ) {
+            // If root was missing from input file, then it must've been created artificially - find it.
+            // List of nodes should be sorted by ID, therefore finding root should have negligible overhead.
+            for ( Node node : allNodes ) {
+                Utils.checkInterruptStatus();
+
+                if ( node.getId().equalsIgnoreCase( Constants.ROOT_ID ) ) {
+                    root = (BasicNode)node;
+                    break;
+                }
+            }
+        }
+
+        return new BasicHierarchy( root, allNodes, parser.dataNames, parser.ids, classCounts, overallNumberOfInstances );
+    }
+
+    /**
+     * Rows are always read sequentially, on the calling thread, regardless of whether this reader
+     * was created with a {@link ForkJoinPool}.
+     * 
+     * @throws IOException
+     *             if an IO error occurred while reading the file
+     * @throws NumberFormatException
+     *             if one of the instance features was not a parsable {@code double}
+     *             (indicating error in input file, or incorrect reader settings)
+     */
+    @Override
+    public long stream(
+        String filePath,
+        boolean withInstancesNameAttribute,
+        boolean withTrueClassAttribute,
+        boolean withColumnHeaders,
+        InstanceVisitor visitor ) throws IOException
+    {
+        statusMsg = "Parsing file...";
+        progress = 0;
+        hb = null;
+
+        File inputFile = getInputFile( filePath );
+        RowParser parser = new RowParser( withInstancesNameAttribute, withTrueClassAttribute, withColumnHeaders );
+        long rowCount = parseSequentially( inputFile, parser, visitor );
+
+        progress = 100;
+        return rowCount;
+    }
+
+    /**
+     * @param filePath
+     *            path to the file to read
+     * @return the file to read
+     * @throws RuntimeException
+     *             if the file does not exist or is a directory
+     */
+    private static File getInputFile( String filePath )
+    {
         File inputFile = new File( filePath );
         if ( !inputFile.exists() || inputFile.isDirectory() ) {
             throw new RuntimeException(
@@ -95,142 +283,196 @@ public class GeneratedCSVReader implements DataReader
                 )
             );
         }
+        return inputFile;
+    }
 
-        BasicNode root = null;
-        String[] dataNames = null;
-        Map<String, BasicNode> nodeMap = new TreeMap<String, BasicNode>( new AlphanumComparator() );
-        HashMap<String, Integer> eachClassAndItsCount = new HashMap<String, Integer>();
-        int overallNumberOfInstances = 0;
-
-        Reader reader = new InputStreamReader( new FileInputStream( filePath ), "UTF-8" );
+    /**
+     * Reads the whole file line by line on the calling thread.
+     * 
+     * @param inputFile
+     *            the file to read
+     * @param parser
+     *            parser configured with the reader settings
+     * @param visitor
+     *            the visitor to pass each row to
+     * @return the number of rows passed to the visitor
+     */
+    private long parseSequentially( File inputFile, RowParser parser, InstanceVisitor visitor ) throws IOException
+    {
+        CSVLineTokenizer tokens = new CSVLineTokenizer();
+        RowBuffer row = null;
+        long rowCount = 0;
 
         final long bytesTotal = inputFile.length();
-        long bytesRead = 0;
-
-        try ( BufferedReader br = new BufferedReader( reader ) ) {
-            final int optionalColumns = boolToInt( withTrueClassAttribute ) + boolToInt( withInstancesNameAttribute );
-            final int minimumColumnCount = 1 + optionalColumns;
-            int dataColumnCount = -1;
-            int totalColumnCount = -1;
 
-            for ( String inputLine; ( inputLine = br.readLine() ) != null; ) {
+        try ( InputStream in = new FileInputStream( inputFile ) ) {
+            ByteLineReader lines = new ByteLineReader( in );
+            while ( lines.nextLine() ) {
                 Utils.checkInterruptStatus();
 
-                bytesRead += inputLine.getBytes( "UTF-8" ).length;
-                progress = (int)( 100 * ( (double)bytesRead / bytesTotal ) );
-
-                String[] lineValues = inputLine.split( Constants.DELIMITER );
-
-                if ( dataColumnCount == -1 ) {
-                    // First line encountered.
-
-                    // Make sure that the file is valid -- it needs to have a node ID column,
-                    // at most 2 optional columns, and at least one data column.
-                    if ( lineValues.length <= minimumColumnCount ) {
-                        throw new RuntimeException(
-                            String.format(
-                                "Input data is not formatted correctly. Each line should contain at least a node ID columm and a value column " +
-                                    "(and optionally class attribute and/or instance name).%nLine: %s",
-                                inputLine
-                            )
-                        );
-                    }
-                    else {
-                        // File seems to be valid -- compute column counts for all the other rows.
-                        totalColumnCount = lineValues.length;
-                        dataColumnCount = totalColumnCount - minimumColumnCount;
-                    }
+                progress = (int)( 100 * ( (double)lines.getBytesConsumed() / bytesTotal ) );
 
-                    if ( withColumnHeaders ) {
-                        dataNames = new String[dataColumnCount];
-                        for ( int i = 0; i < dataColumnCount; ++i ) {
-                            dataNames[i] = lineValues[minimumColumnCount + i];
-                        }
-                        continue;
-                    }
+                tokens.tokenize( lines.getBuffer(), lines.getLineStart(), lines.getLineEnd() );
+                if ( !parser.isInitialized() && parser.readFirstLine( tokens ) ) {
+                    continue;
                 }
 
-                // Assert that the row has the expected number of columns.
-                if ( lineValues.length != totalColumnCount ) {
-                    throw new RuntimeException(
-                        String.format(
-                            "Input data not formatted corectly - each line should contain a total of %s columns (this line has %s).%nLine: %s%n",
-                            totalColumnCount, lineValues.length, inputLine
-                        )
-                    );
+                if ( row == null ) {
+                    row = parser.createRowBuffer();
                 }
+                parser.readRow( tokens, row );
+                visitor.visit( row.nodeId, row.trueClass, row.instanceName, row.values );
+                ++rowCount;
+            }
+        }
 
-                String assignedClassAttr = lineValues[0];
-                if ( !isValidNodeId( assignedClassAttr ) ) {
-                    throw new RuntimeException(
-                        String.format(
-                            "Assigned class is not a valid node id: '%s'%nLine:%s%n",
-                            assignedClassAttr, inputLine
-                        )
-                    );
+        return rowCount;
+    }
+
+    /**
+     * Memory-maps the file, splits it into line-aligned chunks and parses each chunk as a separate task
+     * in this reader's {@link ForkJoinPool}.
+     * <p>
+     * The first line is read up front, since it determines the column layout for all the other rows.
+     * </p>
+     * 
+     * @param inputFile
+     *            the file to read
+     * @param parser
+     *            parser configured with the reader settings
+     * @param useSubtree
+     *            whether the centroid calculation should also include child groups' instances.
+     * @return parsed chunks, in the order in which they appear in the file
+     */
+    private List<ParsedChunk> parseInParallel( File inputFile, RowParser parser, boolean useSubtree ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( inputFile.toPath(), StandardOpenOption.READ ) ) {
+            final long bytesTotal = channel.size();
+
+            long dataStart = 0;
+            if ( bytesTotal > 0 ) {
+                MappedByteBuffer buffer = mapRange( channel, 0, bytesTotal );
+                int lineEnd = 0;
+                while ( lineEnd < buffer.limit() && !isLineTerminator( buffer.get( lineEnd ) ) ) {
+                    ++lineEnd;
                 }
 
-                String trueClassAttr = null;
-                if ( withTrueClassAttribute ) {
-                    // If present, true class is always assumed to be in the second column.
-                    trueClassAttr = lineValues[1];
-                    if ( !isValidNodeId( trueClassAttr ) ) {
-                        throw new RuntimeException(
-                            String.format(
-                                "True class is not a valid node id: '%s'%nLine: %s%n",
-                                trueClassAttr, inputLine
-                            )
-                        );
-                    }
+                byte[] firstLine = new byte[lineEnd];
+                buffer.get( firstLine );
 
-                    eachClassAndItsCount.put( trueClassAttr, getOrDefault( eachClassAndItsCount, trueClassAttr, 0 ) + 1 );
+                CSVLineTokenizer tokens = new CSVLineTokenizer();
+                tokens.tokenize( firstLine, 0, lineEnd );
+                if ( parser.readFirstLine( tokens ) ) {
+                    dataStart = skipLineTerminator( buffer, lineEnd );
                 }
+            }
+
+            long chunkSize = Math.max( MIN_CHUNK_BYTES, ( bytesTotal - dataStart ) / ( 4L * pool.getParallelism() ) );
+            chunkSize = Math.min( chunkSize, maxChunkBytes );
 
-                String instanceNameAttr = null;
-                if ( withInstancesNameAttribute ) {
-                    // If present, instance name is assumed to be in the second column, unless
-                    // true class is also present - then it is assumed to be in the third column.
-                    instanceNameAttr = lineValues[1 + boolToInt( withTrueClassAttribute )];
+            AtomicLong bytesParsed = new AtomicLong( dataStart );
+            List<ChunkParseTask> tasks = new ArrayList<ChunkParseTask>();
+            for ( long start = dataStart; start < bytesTotal; ) {
+                long end = findChunkEnd( channel, start + chunkSize, bytesTotal );
+                if ( end - start > Integer.MAX_VALUE ) {
+                    throw new IOException( "Line starting before offset " + ( start + chunkSize ) + " is too long to be mapped into memory." );
                 }
+                tasks.add( new ChunkParseTask( channel, start, end, parser, useSubtree, bytesParsed, bytesTotal ) );
+                start = end;
+            }
 
-                double[] values = parseInstanceFeatures( inputLine, lineValues, dataColumnCount, minimumColumnCount );
+            for ( ChunkParseTask task : tasks ) {
+                pool.execute( task );
+            }
 
-                BasicNode node = getOrDefault( nodeMap, assignedClassAttr, null );
-                if ( node == null ) {
-                    // Node for this id doesn't exist yet. Create it.
-                    node = new BasicNode( assignedClassAttr, null, useSubtree );
-                    nodeMap.put( assignedClassAttr, node );
+            List<ParsedChunk> chunks = new ArrayList<ParsedChunk>( tasks.size() );
+            try {
+                for ( ChunkParseTask task : tasks ) {
+                    ParsedChunk chunk = task.get();
+                    if ( chunk.failure instanceof IOException ) {
+                        throw (IOException)chunk.failure;
+                    }
+                    else if ( chunk.failure != null ) {
+                        throw (RuntimeException)chunk.failure;
+                    }
+                    chunks.add( chunk );
                 }
+            }
+            catch ( InterruptedException e ) {
+                throw new Utils.RuntimeInterruptedException();
+            }
+            catch ( ExecutionException e ) {
+                throw new RuntimeException( e.getCause() );
+            }
+            finally {
+                // No-op for tasks that have already completed.
+                for ( ChunkParseTask task : tasks ) {
+                    task.cancel( false );
+                }
+            }
 
-                node.addInstance( new BasicInstance( instanceNameAttr, node.getId(), values, trueClassAttr ) );
-                overallNumberOfInstances++;
+            return chunks;
+        }
+    }
 
-                if ( root == null && assignedClassAttr.equalsIgnoreCase( Constants.ROOT_ID ) ) {
-                    root = node;
+    /**
+     * Finds the end of the chunk that should end near the specified offset, so that it ends right after a line feed
+     * and never splits a line in two.
+     * 
+     * @param channel
+     *            the channel of the file being read
+     * @param target
+     *            offset at which the chunk should end, ideally
+     * @param bytesTotal
+     *            size of the file
+     * @return offset of the first byte that does not belong to the chunk
+     */
+    private static long findChunkEnd( FileChannel channel, long target, long bytesTotal ) throws IOException
+    {
+        // Start at the byte preceding the target, in case the target already falls at a line start.
+        for ( long windowStart = target - 1; windowStart < bytesTotal; windowStart += MAX_CHUNK_BYTES ) {
+            MappedByteBuffer window = mapRange( channel, windowStart, bytesTotal );
+            for ( int i = 0; i < window.limit(); ++i ) {
+                if ( window.get( i ) == '\n' ) {
+                    return windowStart + i + 1;
                 }
             }
         }
 
-        hb = new HierarchyBuilder();
-        progress = 100;
+        return bytesTotal;
+    }
 
-        ArrayList<BasicNode> nodes = new ArrayList<BasicNode>( nodeMap.values() );
-        List<? extends Node> allNodes = hb.buildCompleteHierarchy( root, nodes, fixBreadthGaps, useSubtree );
+    /**
+     * Maps the file region starting at {@code start}, up to {@code end} or {@link #MAX_CHUNK_BYTES}, whichever is smaller.
+     */
+    private static MappedByteBuffer mapRange( FileChannel channel, long start, long end ) throws IOException
+    {
+        return channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( end - start, MAX_CHUNK_BYTES ) );
+    }
 
-        if ( root == null ) {
-            // If root was missing from input file, then it must've been created artificially - find it.
-            // List of nodes should be sorted by ID, therefore finding root should have negligible overhead.
-            for ( Node node : allNodes ) {
-                Utils.checkInterruptStatus();
+    /**
+     * Same as {@link BufferedReader#readLine()}, a line is considered to be terminated by a line feed,
+     * a carriage return, or a carriage return followed immediately by a line feed.
+     */
+    private static boolean isLineTerminator( byte b )
+    {
+        return b == '\n' || b == '\r';
+    }
 
-                if ( node.getId().equalsIgnoreCase( Constants.ROOT_ID ) ) {
-                    root = (BasicNode)node;
-                    break;
-                }
-            }
+    /**
+     * @param buffer
+     *            the buffer to read from
+     * @param terminatorIndex
+     *            index of the line terminator in the buffer
+     * @return index of the first byte of the following line
+     */
+    private static int skipLineTerminator( ByteBuffer buffer, int terminatorIndex )
+    {
+        if ( terminatorIndex < buffer.limit() && buffer.get( terminatorIndex ) == '\r' &&
+            terminatorIndex + 1 < buffer.limit() && buffer.get( terminatorIndex + 1 ) == '\n' ) {
+            return terminatorIndex + 2;
         }
-
-        return new BasicHierarchy( root, allNodes, dataNames, eachClassAndItsCount, overallNumberOfInstances );
+        return terminatorIndex + 1;
     }
 
     /**
@@ -264,52 +506,354 @@ public class GeneratedCSVReader implements DataReader
     }
 
     /**
-     * Checks whether the specified string is a valid node id.
+     * Returns the node id stored in the specified field, decoding it only the first time it is encountered
+     * by the thread.
      * 
-     * @param string
-     *            the string to test
-     * @return true if the string is a valid node id, false otherwise.
+     * @param tokens
+     *            tokenizer holding the current line
+     * @param field
+     *            index of the field to read
+     * @param ids
+     *            node ids encountered so far by the thread
+     * @return the node id, or null if the field is not a valid node id.
      */
-    private static boolean isValidNodeId( String string )
+    private static String readNodeId( CSVLineTokenizer tokens, int field, ByteStringInterner ids )
     {
-        return string.matches( REGEX_NODE_ID );
+        byte[] line = tokens.getLine();
+        int start = tokens.getFieldStart( field );
+        int end = tokens.getFieldEnd( field );
+
+        String id = ids.get( line, start, end );
+        if ( id == null && CSVLineTokenizer.isValidNodeId( line, start, end ) ) {
+            id = ids.add( line, start, end );
+        }
+        return id;
     }
 
     /**
-     * Attempts to extract instance features from the specified line.
+     * Attempts to extract instance features from the current line of the tokenizer.
      * 
-     * @param inputLine
-     *            the line to read from; used for error reporting.
-     * @param lineValues
-     *            the array of line values, obtained by splitting the input line over the separator char.
-     * @param dataColumnCount
-     *            number of data columns / instance features.
+     * @param tokens
+     *            tokenizer holding the current line
+     * @param values
+     *            array to store the data values - instance features - in. Its length is the number of data columns.
      * @param minimumColumnCount
      *            number of columns preceding instance features' columns
-     * @return array of data values - instance features
      * @throws NumberFormatException
      *             if one of the data values was not a parsable {@code double}
      *             (indicating error in input file, or incorrect reader settings)
      */
-    private static double[] parseInstanceFeatures( String inputLine, String[] lineValues, int dataColumnCount, int minimumColumnCount )
+    private static void parseInstanceFeatures( CSVLineTokenizer tokens, double[] values, int minimumColumnCount )
     {
-        double[] values = new double[dataColumnCount];
-
-        for ( int j = 0; j < dataColumnCount; ++j ) {
+        for ( int j = 0; j < values.length; ++j ) {
             try {
                 // Data columns are always last.
-                values[j] = Double.parseDouble( lineValues[minimumColumnCount + j] );
+                values[j] = tokens.getDouble( minimumColumnCount + j );
             }
             catch ( NumberFormatException e ) {
                 throw new NumberFormatException(
                     String.format(
                         "Failed to parse '%s' as double. All instance features should be valid floating point numbers.%nLine: %s%n",
-                        lineValues[minimumColumnCount + j], inputLine
+                        tokens.getString( minimumColumnCount + j ), tokens.getLineAsString()
+                    )
+                );
+            }
+        }
+    }
+
+    /**
+     * Parses rows of the file according to the reader settings and the column layout established by the first line
+     * of the file.
+     * <p>
+     * After {@link #readFirstLine(CSVLineTokenizer)} has been called, this class is safe to use from multiple threads,
+     * as long as each thread uses its own {@link RowBuffer}.
+     * </p>
+     */
+    private static class RowParser
+    {
+        private final boolean withInstancesNameAttribute;
+        private final boolean withTrueClassAttribute;
+        private final boolean withColumnHeaders;
+        private final int minimumColumnCount;
+
+        /** Node ids and true classes of all rows, shared by all threads parsing the file. */
+        private final StringDictionary ids = new StringDictionary();
+        private int dataColumnCount = -1;
+        private int totalColumnCount = -1;
+        private String[] dataNames = null;
+
+
+        public RowParser(
+            boolean withInstancesNameAttribute,
+            boolean withTrueClassAttribute,
+            boolean withColumnHeaders )
+        {
+            this.withInstancesNameAttribute = withInstancesNameAttribute;
+            this.withTrueClassAttribute = withTrueClassAttribute;
+            this.withColumnHeaders = withColumnHeaders;
+
+            final int optionalColumns = boolToInt( withTrueClassAttribute ) + boolToInt( withInstancesNameAttribute );
+            this.minimumColumnCount = 1 + optionalColumns;
+        }
+
+        /**
+         * @return true if the first line of the file has already been read.
+         */
+        public boolean isInitialized()
+        {
+            return dataColumnCount != -1;
+        }
+
+        /**
+         * Computes column counts for all rows of the file from its first line, and reads column headers, if present.
+         * 
+         * @param tokens
+         *            tokenizer holding the first line of the file
+         * @return true if the line contained column headers, and as such should not be parsed as a row.
+         */
+        public boolean readFirstLine( CSVLineTokenizer tokens )
+        {
+            // Make sure that the file is valid -- it needs to have a node ID column,
+            // at most 2 optional columns, and at least one data column.
+            if ( tokens.getFieldCount() <= minimumColumnCount ) {
+                throw new RuntimeException(
+                    String.format(
+                        "Input data is not formatted correctly. Each line should contain at least a node ID columm and a value column " +
+                            "(and optionally class attribute and/or instance name).%nLine: %s",
+                        tokens.getLineAsString()
                     )
                 );
             }
+            else {
+                // File seems to be valid -- compute column counts for all the other rows.
+                totalColumnCount = tokens.getFieldCount();
+                dataColumnCount = totalColumnCount - minimumColumnCount;
+            }
+
+            if ( withColumnHeaders ) {
+                dataNames = new String[dataColumnCount];
+                for ( int i = 0; i < dataColumnCount; ++i ) {
+                    dataNames[i] = tokens.getString( minimumColumnCount + i );
+                }
+                return true;
+            }
+
+            return false;
         }
 
-        return values;
+        /**
+         * @return a new buffer for rows of this file. Must be called after {@link #readFirstLine(CSVLineTokenizer)}.
+         */
+        public RowBuffer createRowBuffer()
+        {
+            return new RowBuffer( dataColumnCount, ids );
+        }
+
+        /**
+         * Parses a single data row into the buffer.
+         * 
+         * @param tokens
+         *            tokenizer holding the line to parse
+         * @param row
+         *            the buffer to store the parsed values in
+         */
+        public void readRow( CSVLineTokenizer tokens, RowBuffer row )
+        {
+            // Assert that the row has the expected number of columns.
+            if ( tokens.getFieldCount() != totalColumnCount ) {
+                throw new RuntimeException(
+                    String.format(
+                        "Input data not formatted corectly - each line should contain a total of %s columns (this line has %s).%nLine: %s%n",
+                        totalColumnCount, tokens.getFieldCount(), tokens.getLineAsString()
+                    )
+                );
+            }
+
+            String assignedClassAttr = readNodeId( tokens, 0, row.ids );
+            if ( assignedClassAttr == null ) {
+                throw new RuntimeException(
+                    String.format(
+                        "Assigned class is not a valid node id: '%s'%nLine:%s%n",
+                        tokens.getString( 0 ), tokens.getLineAsString()
+                    )
+                );
+            }
+
+            String trueClassAttr = null;
+            if ( withTrueClassAttribute ) {
+                // If present, true class is always assumed to be in the second column.
+                trueClassAttr = readNodeId( tokens, 1, row.ids );
+                if ( trueClassAttr == null ) {
+                    throw new RuntimeException(
+                        String.format(
+                            "True class is not a valid node id: '%s'%nLine: %s%n",
+                            tokens.getString( 1 ), tokens.getLineAsString()
+                        )
+                    );
+                }
+            }
+
+            String instanceNameAttr = null;
+            if ( withInstancesNameAttribute ) {
+                // If present, instance name is assumed to be in the second column, unless
+                // true class is also present - then it is assumed to be in the third column.
+                instanceNameAttr = tokens.getString( 1 + boolToInt( withTrueClassAttribute ) );
+            }
+
+            parseInstanceFeatures( tokens, row.values, minimumColumnCount );
+
+            row.nodeId = assignedClassAttr;
+            row.trueClass = trueClassAttr;
+            row.instanceName = instanceNameAttr;
+        }
+    }
+
+    /**
+     * Holds the values of the most recently parsed row, along with other state that is reused
+     * from row to row by a single thread.
+     */
+    private static class RowBuffer
+    {
+        private final ByteStringInterner ids;
+        private final double[] values;
+        private String nodeId;
+        private String trueClass;
+        private String instanceName;
+
+
+        public RowBuffer( int dataColumnCount, StringDictionary ids )
+        {
+            this.ids = new ByteStringInterner( ids );
+            this.values = new double[dataColumnCount];
+        }
+    }
+
+    /**
+     * Nodes, instances and class counts parsed from a contiguous range of rows of the file.
+     */
+    private static class ParsedChunk implements InstanceVisitor
+    {
+        private final boolean useSubtree;
+        private final FeatureStorage featureStorage;
+        private final StringDictionary ids;
+        /** Feature values of the chunk's instances, in file order, if they are stored in a matrix. */
+        private FeatureMatrix matrix = null;
+        private final Map<String, BasicNode> nodes = new LinkedHashMap<String, BasicNode>();
+        /** Number of instances of each true class, indexed by ordinals of the classes in {@link #ids}. */
+        private int[] classCounts = new int[0];
+        private int instanceCount = 0;
+        /** Exception raised while parsing the chunk, rethrown by the loading thread as-is. */
+        private Exception failure = null;
+
+
+        /**
+         * @param ids
+         *            dictionary of node ids and true classes, shared by all chunks of the file
+         */
+        public ParsedChunk( boolean useSubtree, FeatureStorage featureStorage, StringDictionary ids )
+        {
+            this.useSubtree = useSubtree;
+            this.featureStorage = featureStorage;
+            this.ids = ids;
+        }
+
+        @Override
+        public void visit( String nodeId, String trueClass, String instanceName, double[] data )
+        {
+            if ( trueClass != null ) {
+                int ordinal = ids.add( trueClass );
+                if ( ordinal >= classCounts.length ) {
+                    classCounts = Arrays.copyOf( classCounts, Math.max( ordinal + 1, 2 * classCounts.length ) );
+                }
+                ++classCounts[ordinal];
+            }
+
+            BasicNode node = nodes.get( nodeId );
+            if ( node == null ) {
+                // Node for this id doesn't exist yet. Create it.
+                node = new BasicNode( nodeId, null, useSubtree );
+                nodes.put( nodeId, node );
+            }
+
+            if ( featureStorage != FeatureStorage.INSTANCE_ARRAYS ) {
+                if ( matrix == null ) {
+                    matrix = featureStorage.createStagingMatrix( data.length );
+                }
+                node.addInstance( new MatrixInstance( matrix, matrix.addRow( data ), instanceName, node.getId(), trueClass ) );
+            }
+            else {
+                node.addInstance( new BasicInstance( instanceName, node.getId(), data.clone(), trueClass ) );
+            }
+            instanceCount++;
+        }
+    }
+
+    /**
+     * Parses a line-aligned range of the file, mapped into memory.
+     */
+    @SuppressWarnings("serial")
+    private class ChunkParseTask extends RecursiveTask<ParsedChunk>
+    {
+        /** How often (in bytes) the task publishes its progress. */
+        private static final int PROGRESS_STEP = 1 << 16;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final RowParser parser;
+        private final boolean useSubtree;
+        private final AtomicLong bytesParsed;
+        private final long bytesTotal;
+
+
+        public ChunkParseTask(
+            FileChannel channel, long start, long end,
+            RowParser parser, boolean useSubtree,
+            AtomicLong bytesParsed, long bytesTotal )
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.parser = parser;
+            this.useSubtree = useSubtree;
+            this.bytesParsed = bytesParsed;
+            this.bytesTotal = bytesTotal;
+        }
+
+        @Override
+        protected ParsedChunk compute()
+        {
+            ParsedChunk chunk = new ParsedChunk( useSubtree, featureStorage, parser.ids );
+
+            try {
+                // The chunk may be longer than a single window of mapRange, since it always ends at a line end.
+                ByteLineReader lines = new ByteLineReader( channel.map( FileChannel.MapMode.READ_ONLY, start, end - start ) );
+                CSVLineTokenizer tokens = new CSVLineTokenizer();
+                RowBuffer row = parser.createRowBuffer();
+
+                long reported = 0;
+                while ( !isCancelled() && lines.nextLine() ) {
+                    tokens.tokenize( lines.getBuffer(), lines.getLineStart(), lines.getLineEnd() );
+                    parser.readRow( tokens, row );
+                    chunk.visit( row.nodeId, row.trueClass, row.instanceName, row.values );
+
+                    if ( lines.getBytesConsumed() - reported >= PROGRESS_STEP ) {
+                        reportProgress( lines.getBytesConsumed() - reported );
+                        reported = lines.getBytesConsumed();
+                    }
+                }
+                reportProgress( lines.getBytesConsumed() - reported );
+            }
+            catch ( IOException | RuntimeException e ) {
+                chunk.failure = e;
+            }
+
+            return chunk;
+        }
+
+        private void reportProgress( long bytes )
+        {
+            progress = (int)( 100 * ( (double)bytesParsed.addAndGet( bytes ) / bytesTotal ) );
+        }
     }
 }
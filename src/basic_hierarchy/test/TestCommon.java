@@ -1,6 +1,7 @@
 package basic_hierarchy.test;
 
 import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.HierarchyBuilder;
 import basic_hierarchy.implementation.BasicHierarchy;
 import basic_hierarchy.implementation.BasicInstance;
 import basic_hierarchy.implementation.BasicNode;
@@ -8,8 +9,15 @@ import basic_hierarchy.interfaces.Hierarchy;
 import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
 
 public class TestCommon {
     public static final double DOUBLE_COMPARISION_DELTA = 1e-9;
@@ -128,4 +136,67 @@ public class TestCommon {
 
         return new BasicHierarchy(rootCluster, groups, eachClassWithCount, 11);
     }
+
+    /**
+     * Builds a hierarchy of 2000 instances with two features, spread randomly over nodes up to 5 levels deep.
+     * Most instances' classes are random node ids, but every third one's class is its own node's id,
+     * so that counts inherited from descendant classes differ from own counts.
+     */
+    public static BasicHierarchy buildRandomHierarchy(Random random, boolean useSubtree) {
+        Map<String, BasicNode> nodes = new HashMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            StringBuilder id = new StringBuilder(Constants.ROOT_ID);
+            for (int depth = random.nextInt(4); depth >= 0; --depth) {
+                id.append(Constants.HIERARCHY_BRANCH_SEPARATOR).append(random.nextInt(5));
+            }
+
+            BasicNode node = nodes.get(id.toString());
+            if (node == null) {
+                node = new BasicNode(id.toString(), null, (Instance) null);
+                nodes.put(node.getId(), node);
+            }
+            String trueClass = i % 3 == 0 ? node.getId() : getIDOfChildCluster(Constants.ROOT_ID, random.nextInt(20));
+            node.addInstance(new BasicInstance("i" + i, node.getId(), new double[]{random.nextGaussian(), i}, trueClass));
+        }
+
+        List<? extends Node> built = new HierarchyBuilder().buildCompleteHierarchy(
+                null, new ArrayList<>(nodes.values()), true, useSubtree);
+        return new BasicHierarchy(built, null);
+    }
+
+    /**
+     * Checks the hierarchy's counts, links and centroids against ones computed from scratch.
+     */
+    public static void assertConsistent(Hierarchy hierarchy, boolean useSubtree) {
+        Hierarchy expected = new BasicHierarchy(new ArrayList<>(Arrays.asList(hierarchy.getGroups())), null);
+        Assert.assertEquals(expected.getOverallNumberOfInstances(), hierarchy.getOverallNumberOfInstances());
+        Assert.assertEquals(hierarchy.getRoot().getSubtreeInstanceCount(), hierarchy.getOverallNumberOfInstances());
+        Assert.assertArrayEquals(expected.getClasses(), hierarchy.getClasses());
+        Assert.assertArrayEquals(expected.getClassesCount(), hierarchy.getClassesCount());
+        Assert.assertArrayEquals(expected.getInheritedClassesCount(), hierarchy.getInheritedClassesCount());
+        for (String trueClass : expected.getClasses()) {
+            Assert.assertEquals(trueClass,
+                    expected.getParticularClassCount(trueClass, true), hierarchy.getParticularClassCount(trueClass, true));
+        }
+
+        for (Node n : hierarchy.getGroups()) {
+            Assert.assertSame(n, hierarchy.getNode(n.getId()));
+            for (Instance i : n.getNodeInstances()) {
+                Assert.assertSame(n, hierarchy.getNodeOf(i));
+            }
+            for (Node child : n.getChildren()) {
+                Assert.assertSame(n, child.getParent());
+            }
+            Assert.assertEquals(n.getSubtreeInstances().size(), n.getSubtreeInstanceCount());
+
+            List<Instance> instances = useSubtree ? n.getSubtreeInstances() : n.getNodeInstances();
+            double[] centroid = new double[instances.isEmpty() ? 0 : instances.get(0).getData().length];
+            for (Instance i : instances) {
+                for (int d = 0; d < centroid.length; ++d) {
+                    centroid[d] += i.getData()[d] / instances.size();
+                }
+            }
+            Assert.assertArrayEquals(n.getId(), centroid, n.getNodeRepresentation().getData(), 1e-6);
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.implementation.ArrayNode;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.test.TestCommon;
+
+
+public class ArrayNodeTest
+{
+    @Test
+    public void arrayBackedCopyMatchesOriginal()
+    {
+        Hierarchy expected = TestCommon.getFourGroupsHierarchy();
+        Hierarchy actual = Utils.getArrayBackedHierarchy( expected );
+
+        Assert.assertEquals( expected.toString(), actual.toString() );
+        Assert.assertArrayEquals( expected.getClasses(), actual.getClasses() );
+        Assert.assertEquals( expected.getOverallNumberOfInstances(), actual.getOverallNumberOfInstances() );
+
+        for ( int i = 0; i < expected.getNumberOfGroups(); ++i ) {
+            Node e = expected.getGroups()[i];
+            Node a = actual.getGroups()[i];
+
+            Assert.assertTrue( a instanceof ArrayNode );
+            Assert.assertTrue( a.getChildList() instanceof RandomAccess );
+            Assert.assertTrue( a.getNodeInstanceList() instanceof RandomAccess );
+            Assert.assertEquals( e.getNodeInstances(), a.getNodeInstances() );
+            Assert.assertEquals( e.getSubtreeInstances(), a.getSubtreeInstances() );
+            Assert.assertEquals( e.getSubtreeInstanceCount(), a.getSubtreeInstanceCount() );
+            Assert.assertEquals( e.getChildList().size(), a.getChildList().size() );
+            for ( Node child : a.getChildList() ) {
+                Assert.assertSame( a, child.getParent() );
+            }
+        }
+    }
+
+    @Test
+    public void linkedListGettersAreReadOnlyCopies()
+    {
+        Node root = Utils.getArrayBackedHierarchy( TestCommon.getFourGroupsHierarchy() ).getRoot();
+        int instanceCount = root.getNodeInstanceList().size();
+        int subtreeInstanceCount = root.getSubtreeInstanceCount();
+
+        assertReadOnly( root.getNodeInstances() );
+        assertReadOnly( root.getChildren() );
+        Assert.assertEquals( instanceCount, root.getNodeInstanceList().size() );
+        Assert.assertEquals( 2, root.getChildList().size() );
+
+        LinkedList<?> copy = (LinkedList<?>)root.getChildren().clone();
+        copy.clear();
+        Assert.assertEquals( 2, root.getChildList().size() );
+
+        root.getChildList().get( 0 ).addInstance( new BasicInstance( null, null, new double[2] ) );
+        Assert.assertEquals( subtreeInstanceCount + 1, root.getSubtreeInstanceCount() );
+        Assert.assertEquals( subtreeInstanceCount + 1, new ArrayList<>( root.getSubtreeInstanceView() ).size() );
+    }
+
+    @Test
+    public void sortAllChildrenSortsArrayBackedHierarchy()
+    {
+        Hierarchy expected = TestCommon.getFourGroupsHierarchy();
+        Hierarchy actual = Utils.getArrayBackedHierarchy( expected );
+        for ( Node n : actual.getGroups() ) {
+            Collections.reverse( n.getChildList() );
+        }
+
+        HierarchyBuilder.sortAllChildren( actual.getRoot() );
+
+        Assert.assertEquals( expected.toString(), actual.toString() );
+        for ( int i = 0; i < expected.getNumberOfGroups(); ++i ) {
+            List<Node> expectedChildren = expected.getGroups()[i].getChildList();
+            List<Node> actualChildren = actual.getGroups()[i].getChildList();
+            Assert.assertEquals( expectedChildren.size(), actualChildren.size() );
+            for ( int j = 0; j < expectedChildren.size(); ++j ) {
+                Assert.assertEquals( expectedChildren.get( j ).getId(), actualChildren.get( j ).getId() );
+            }
+        }
+    }
+
+    private static <E> void assertReadOnly( LinkedList<E> list )
+    {
+        Assert.assertFalse( list.isEmpty() );
+        int size = list.size();
+        E first = list.getFirst();
+
+        try {
+            list.clear();
+            Assert.fail( "clear() should not be supported" );
+        }
+        catch ( UnsupportedOperationException e ) {
+            // Expected.
+        }
+        try {
+            list.add( first );
+            Assert.fail( "add() should not be supported" );
+        }
+        catch ( UnsupportedOperationException e ) {
+            // Expected.
+        }
+        try {
+            Iterator<E> it = list.iterator();
+            it.next();
+            it.remove();
+            Assert.fail( "Iterator.remove() should not be supported" );
+        }
+        catch ( UnsupportedOperationException e ) {
+            // Expected.
+        }
+        try {
+            list.poll();
+            Assert.fail( "poll() should not be supported" );
+        }
+        catch ( UnsupportedOperationException e ) {
+            // Expected.
+        }
+
+        Assert.assertEquals( size, list.size() );
+    }
+}
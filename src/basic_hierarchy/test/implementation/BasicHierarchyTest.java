@@ -1,17 +1,30 @@
 package basic_hierarchy.test.implementation;
 
 import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.HierarchyBuilder;
 import basic_hierarchy.common.Utils;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.implementation.HierarchyView;
 import basic_hierarchy.interfaces.Hierarchy;
 import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
 import basic_hierarchy.test.TestCommon;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class BasicHierarchyTest {
@@ -90,6 +103,175 @@ public class BasicHierarchyTest {
         assertTrue(origClustersInstancesIDs.size() == oneClusterInstancesIDs.size());
     }
 
+    @Test
+    public void inheritedClassCountsMatchPrefixScan(){
+        Random random = new Random(0);
+        Map<String, Integer> classCounts = new HashMap<>();
+        for(int i = 0; i < 3000; i++) {
+            StringBuilder id = new StringBuilder(Constants.ROOT_ID);
+            for(int depth = random.nextInt(5); depth > 0; depth--) {
+                id.append(Constants.HIERARCHY_BRANCH_SEPARATOR).append(random.nextInt(12));
+            }
+            classCounts.put(id.toString(), 1 + random.nextInt(10));
+        }
+
+        Node root = new BasicNode(Constants.ROOT_ID, null, false);
+        Hierarchy h = new BasicHierarchy(root, Collections.singletonList(root), null, classCounts, 0);
+        String[] classes = h.getClasses();
+        int[] inherited = h.getInheritedClassesCount();
+        assertEquals(classes.length, inherited.length);
+
+        for(int i = 0; i < classes.length; i++) {
+            int expected = 0;
+            for(String c: classes) {
+                if(c.equals(classes[i]) || c.startsWith(classes[i] + Constants.HIERARCHY_BRANCH_SEPARATOR)) {
+                    expected += classCounts.get(c);
+                }
+            }
+            assertEquals(classes[i], expected, inherited[i]);
+            assertEquals(expected, h.getParticularClassCount(classes[i], true));
+            assertEquals((int)classCounts.get(classes[i]), h.getParticularClassCount(classes[i], false));
+        }
+        assertTrue(h.getParticularClassCount("gen.0.99", true) < 0);
+    }
+
+    @Test
+    public void findNodesByIdAndInstance(){
+        Hierarchy h = TestCommon.getFourGroupsHierarchy();
+
+        for(Node n: h.getGroups()) {
+            assertSame(n, h.getNode(n.getId()));
+            for(Instance i: n.getNodeInstances()) {
+                assertSame(n, h.getNodeOf(i));
+            }
+        }
+        assertNull(h.getNode("gen.0.7"));
+        assertNull(h.getNodeOf(new BasicInstance("i", "gen.0", new double[2])));
+        // Copies of instances belong to other hierarchies.
+        assertNull(h.getNodeOf(h.getFlatClusteringWithCommonEmptyRoot().getGroups()[1].getNodeInstances().getFirst()));
+    }
+
+    @Test
+    public void flatClusteringViewSharesInstances(){
+        Hierarchy h = TestCommon.getTwoGroupsHierarchyWithEmptyNodes();
+        Hierarchy copy = h.getFlatClusteringWithCommonEmptyRoot();
+        HierarchyView view = HierarchyView.getFlatClustering(h);
+
+        assertEquals(copy.getNumberOfGroups(), view.getNumberOfGroups());
+        assertEquals(copy.getOverallNumberOfInstances(), view.getOverallNumberOfInstances());
+        assertEquals(0, view.getRoot().getNodeInstanceList().size());
+        for(int i = 0; i < copy.getNumberOfGroups(); i++) {
+            Node c = copy.getGroups()[i];
+            Node v = view.getGroups()[i];
+            assertEquals(c.getId(), v.getId());
+            assertEquals(getCollectionOfInstanceNames(c.getNodeInstances()), getCollectionOfInstanceNames(v.getNodeInstances()));
+
+            double[] centroid = new double[2];
+            for(Instance inst: v.getNodeInstanceList()) {
+                assertSame(v, view.getNodeOf(inst));
+                assertEquals(inst.getNodeId(), h.getNodeOf(inst).getId());
+                centroid[0] += inst.getData()[0] / v.getNodeInstanceList().size();
+                centroid[1] += inst.getData()[1] / v.getNodeInstanceList().size();
+            }
+            if(i > 0) {
+                assertArrayEquals(centroid, v.getNodeRepresentation().getData(), TestCommon.DOUBLE_COMPARISION_DELTA);
+            }
+        }
+
+        // Groups of the view hold the source's own instance objects.
+        int next = 1;
+        for(Node n: h.getGroups()) {
+            if(!n.getNodeInstanceList().isEmpty()) {
+                assertSame(n.getNodeInstanceList().get(0), view.getGroups()[next++].getNodeInstanceList().get(0));
+            }
+        }
+    }
+
+    @Test
+    public void oneClusterViewSharesInstances(){
+        Hierarchy h = TestCommon.getFourGroupsHierarchy();
+        HierarchyView view = HierarchyView.getOneCluster(h);
+        Node root = view.getRoot();
+
+        assertEquals(1, view.getNumberOfGroups());
+        assertEquals(h.getRoot().getSubtreeInstances(), root.getNodeInstances());
+        assertEquals(h.getRoot().getSubtreeInstanceCount(), root.getSubtreeInstanceCount());
+        for(int i = 0; i < root.getNodeInstanceList().size(); i++) {
+            Instance inst = root.getNodeInstanceList().get(i);
+            assertSame(h.getRoot().getSubtreeInstances().get(i), inst);
+            assertSame(root, view.getNodeOf(inst));
+        }
+        assertEquals(h.getRoot().getId(), view.getNodeOf(root.getNodeInstanceList().get(0)).getId());
+        assertNull(view.getNodeOf(new BasicInstance("i", "gen.0", new double[2])));
+    }
+
+    @Test
+    public void levelCutsMatchSubtreeInstances(){
+        Random random = new Random(0);
+        Map<String, BasicNode> nodes = new HashMap<>();
+        BasicNode root = new BasicNode(Constants.ROOT_ID, null, false);
+        nodes.put(root.getId(), root);
+        for(int i = 0; i < 1000; i++) {
+            StringBuilder id = new StringBuilder(Constants.ROOT_ID);
+            for(int depth = random.nextInt(5); depth > 0; depth--) {
+                id.append(Constants.HIERARCHY_BRANCH_SEPARATOR).append(random.nextInt(3));
+            }
+            BasicNode node = nodes.get(id.toString());
+            if(node == null) {
+                node = new BasicNode(id.toString(), null, false);
+                nodes.put(id.toString(), node);
+            }
+            node.addInstance(new BasicInstance("i" + i, node.getId(), new double[]{random.nextGaussian(), i}));
+        }
+        List<? extends Node> groups = new HierarchyBuilder().buildCompleteHierarchy(root, new ArrayList<>(nodes.values()), false, false);
+        Hierarchy h = new BasicHierarchy(root, groups, null, Collections.<String, Integer>emptyMap(), 1000);
+
+        List<Hierarchy> cuts = h.getFlatClusteringsAtAllDepths();
+        assertEquals(5, cuts.size());
+        for(int depth = 0; depth < cuts.size() + 2; depth++) {
+            Hierarchy cut = h.getFlatClusteringAtDepth(depth);
+            List<List<Instance>> expected = new ArrayList<>();
+            collectLevelCut(h.getRoot(), 0, depth, expected);
+
+            assertEquals(expected.size() + 1, cut.getNumberOfGroups());
+            assertTrue(cut.getRoot().getNodeInstanceList().isEmpty());
+            for(int i = 0; i < expected.size(); i++) {
+                Node n = cut.getGroups()[i + 1];
+                assertEquals(expected.get(i), n.getNodeInstances());
+                assertEquals(getCollectionOfInstanceNames(n.getNodeInstances()),
+                        getCollectionOfInstanceNames(cuts.get(Math.min(depth, cuts.size() - 1)).getGroups()[i + 1].getNodeInstances()));
+
+                double[] centroid = new double[2];
+                for(Instance inst: expected.get(i)) {
+                    centroid[0] += inst.getData()[0] / expected.get(i).size();
+                    centroid[1] += inst.getData()[1] / expected.get(i).size();
+                    assertSame(n, cut.getNodeOf(inst));
+                }
+                assertArrayEquals(centroid, n.getNodeRepresentation().getData(), TestCommon.DOUBLE_COMPARISION_DELTA);
+            }
+        }
+
+        assertEquals(1000, h.getFlatClusteringAtDepth(0).getGroups()[1].getNodeInstanceList().size());
+        Hierarchy flat = h.getFlatClusteringWithCommonEmptyRoot();
+        Hierarchy deepest = cuts.get(cuts.size() - 1);
+        for(int i = 0; i < flat.getNumberOfGroups(); i++) {
+            assertEquals(getCollectionOfInstanceNames(flat.getGroups()[i].getNodeInstances()),
+                    getCollectionOfInstanceNames(deepest.getGroups()[i].getNodeInstances()));
+        }
+    }
+
+    private static void collectLevelCut(Node n, int nodeDepth, int depth, List<List<Instance>> clusters) {
+        List<Instance> instances = nodeDepth < depth ? n.getNodeInstances() : n.getSubtreeInstances();
+        if(!instances.isEmpty()) {
+            clusters.add(instances);
+        }
+        if(nodeDepth < depth) {
+            for(Node child: n.getChildren()) {
+                collectLevelCut(child, nodeDepth + 1, depth, clusters);
+            }
+        }
+    }
+
     private LinkedList<String> getCollectionOfInstanceNames(LinkedList<Instance> instances) {
         LinkedList<String> result = new LinkedList<>();
         for(Instance i: instances) {
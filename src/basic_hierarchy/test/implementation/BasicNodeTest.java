@@ -8,6 +8,7 @@ import basic_hierarchy.implementation.BasicNode;
 import basic_hierarchy.common.Constants;
 import org.junit.Before;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 
 import static org.junit.Assert.*;
@@ -56,4 +57,47 @@ public class BasicNodeTest {
                 TestCommon.DOUBLE_COMPARISION_DELTA);
     }
 
-}
\ No newline at end of file
+    @org.junit.Test
+    public void subtreeInstanceViewMatchesCopy() throws Exception {
+        BasicNode grandchild = new BasicNode(TestCommon.getIDOfChildCluster(child.getId(), 0), child, false);
+        child.addChild(grandchild);
+        node.addChild(new BasicNode(TestCommon.getIDOfChildCluster(node.getId(), 1), node, false));
+        grandchild.addInstance(new BasicInstance("fifth", grandchild.getId(), new double[]{1.0, 1.0}, null));
+
+        assertEquals(new ArrayList<>(node.getSubtreeInstances()), new ArrayList<>(node.getSubtreeInstanceView()));
+        assertEquals(8, node.getSubtreeInstanceView().size());
+        assertEquals(8, node.getSubtreeInstanceView().stream().count());
+        assertTrue(new BasicNode("gen.1", null, false).getSubtreeInstanceView().isEmpty());
+    }
+
+    @org.junit.Test
+    public void subtreeInstanceCountFollowsChanges() throws Exception {
+        assertEquals(7, node.getSubtreeInstanceCount());
+        assertEquals(4, child.getSubtreeInstanceCount());
+
+        child.addInstance(new BasicInstance("fifth", child.getId(), new double[]{1.0, 1.0}, null));
+        assertEquals(8, node.getSubtreeInstanceCount());
+
+        BasicNode grandchild = new BasicNode(TestCommon.getIDOfChildCluster(child.getId(), 0), child, false);
+        grandchild.addInstance(new BasicInstance("sixth", grandchild.getId(), new double[]{1.0, 1.0}, null));
+        child.addChild(grandchild);
+        assertEquals(9, node.getSubtreeInstanceCount());
+
+        child.getNodeInstances().removeFirst();
+        child.invalidateSubtreeInstanceCount();
+        assertEquals(8, node.getSubtreeInstanceCount());
+        assertEquals(5, child.getSubtreeInstanceCount());
+    }
+
+    @org.junit.Test
+    public void subtreeInstanceViewCountsInstancesAfterDirectChanges() throws Exception {
+        assertEquals(7, node.getSubtreeInstanceCount());
+
+        // The cached count is not invalidated, but streams and arrays must not rely on it.
+        child.getNodeInstances().add(new BasicInstance("fifth", child.getId(), new double[]{1.0, 1.0}, null));
+        assertEquals(8, node.getSubtreeInstanceView().stream().count());
+        assertEquals(8, node.getSubtreeInstanceView().toArray().length);
+        assertEquals(8, node.getSubtreeInstanceView().toArray(new Instance[0]).length);
+        assertEquals(-1, node.getSubtreeInstanceView().spliterator().getExactSizeIfKnown());
+    }
+}
@@ -0,0 +1,276 @@
+package basic_hierarchy.test.implementation;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.DirectFeatureMatrix;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.FeatureStorage;
+import basic_hierarchy.common.FloatFeatureMatrix;
+import basic_hierarchy.common.HeapFeatureMatrix;
+import basic_hierarchy.common.Int16FeatureMatrix;
+import basic_hierarchy.common.Int8FeatureMatrix;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.implementation.MatrixInstance;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+public class FeatureMatrixTest
+{
+    @Test
+    public void rowsSpanningSeveralChunks()
+    {
+        // Wide rows, so that only a few of them fit in a chunk.
+        int dimensions = 300000;
+        Random random = new Random( 0 );
+        FeatureMatrix matrix = new HeapFeatureMatrix( dimensions );
+
+        double[][] rows = new double[10][dimensions];
+        for ( double[] row : rows ) {
+            for ( int d = 0; d < dimensions; d += 1000 ) {
+                row[d] = random.nextGaussian();
+            }
+            Assert.assertEquals( matrix.getRowCount(), matrix.addRow( row ) );
+        }
+
+        double[] sums = new double[dimensions];
+        for ( int r = 0; r < rows.length; ++r ) {
+            Instance instance = new MatrixInstance( matrix, r, null, null, null );
+            Assert.assertArrayEquals( rows[r], instance.getData(), 0 );
+            Assert.assertEquals( rows[r][1000], matrix.get( r, 1000 ), 0 );
+            FeatureMatrix.addTo( instance, sums );
+        }
+
+        FeatureMatrix copy = new HeapFeatureMatrix( dimensions );
+        copy.addRow( matrix, 7 );
+        Assert.assertEquals( 0, copy.getSquaredDistance( 0, rows[7] ), 0 );
+
+        double expected = 0;
+        for ( double[] row : rows ) {
+            expected += row[5000];
+        }
+        Assert.assertEquals( expected, sums[5000], 1e-12 );
+    }
+
+    @Test
+    public void setDataWritesThroughToMatrix()
+    {
+        FeatureMatrix matrix = new HeapFeatureMatrix( 2 );
+        matrix.addRow( new double[] { 1, 2 } );
+        MatrixInstance instance = new MatrixInstance( matrix, matrix.addRow( new double[] { 3, 4 } ), "i", "gen.0", null );
+
+        instance.setData( new double[] { 5, 6 } );
+        Assert.assertArrayEquals( new double[] { 5, 6 }, instance.getData(), 0 );
+        Assert.assertEquals( 2, FeatureMatrix.getDimensions( instance ) );
+        Assert.assertEquals( 1, FeatureMatrix.getDimensions( new BasicInstance( null, null, new double[1] ) ) );
+    }
+
+    @Test
+    public void rowBuffersShareValuesWithMatrix()
+    {
+        for ( FeatureMatrix matrix : new FeatureMatrix[] { new HeapFeatureMatrix( 3 ), new DirectFeatureMatrix( 3 ) } ) {
+            matrix.addRow( new double[] { 1, 2, 3 } );
+            MatrixInstance instance = new MatrixInstance( matrix, matrix.addRow( new double[] { 4, 5, 6 } ), null, null, null );
+
+            DoubleBuffer buffer = instance.getDataBuffer();
+            Assert.assertEquals( 0, buffer.position() );
+            Assert.assertEquals( 3, buffer.remaining() );
+            Assert.assertEquals( 4, buffer.get( 0 ), 0 );
+
+            buffer.put( 2, 7 );
+            Assert.assertArrayEquals( new double[] { 4, 5, 7 }, instance.getData(), 0 );
+            Assert.assertEquals( 3, matrix.get( 0, 2 ), 0 );
+        }
+    }
+
+    @Test
+    public void compactMatricesBoundErrors()
+    {
+        Random random = new Random( 1 );
+        double[][] rows = new double[1000][3];
+        for ( double[] row : rows ) {
+            row[0] = random.nextGaussian();
+            row[1] = 1000 + random.nextDouble();
+            row[2] = 5;
+        }
+        double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, 5 };
+        double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 5 };
+        for ( double[] row : rows ) {
+            for ( int d = 0; d < 2; ++d ) {
+                min[d] = Math.min( min[d], row[d] );
+                max[d] = Math.max( max[d], row[d] );
+            }
+        }
+
+        FeatureMatrix[] matrices = { new FloatFeatureMatrix( 3 ), new Int16FeatureMatrix( min, max ), new Int8FeatureMatrix( min, max ) };
+        double[] relativeErrors = { 1e-7, 0.5 / 65535, 0.5 / 255 };
+        for ( int m = 0; m < matrices.length; ++m ) {
+            FeatureMatrix matrix = matrices[m];
+            double[] sums = new double[3];
+            double[] expectedSums = new double[3];
+            for ( double[] row : rows ) {
+                int r = matrix.addRow( row );
+                double[] actual = new MatrixInstance( matrix, r, null, null, null ).getData();
+                for ( int d = 0; d < 3; ++d ) {
+                    double tolerance = relativeErrors[m] * ( m == 0 ? Math.abs( row[d] ) : max[d] - min[d] ) * 1.0001;
+                    Assert.assertEquals( row[d], actual[d], tolerance );
+                    Assert.assertEquals( actual[d], matrix.get( r, d ), 0 );
+                    expectedSums[d] += actual[d];
+                }
+                matrix.addRowTo( r, sums );
+            }
+            Assert.assertArrayEquals( expectedSums, sums, 1e-9 );
+            Assert.assertEquals( 5, matrix.get( 0, 2 ), 0 );
+        }
+
+        // Values outside of the range are clamped.
+        Int8FeatureMatrix clamped = (Int8FeatureMatrix)matrices[2];
+        clamped.setRow( 0, new double[] { max[0] + 10, min[1] - 10, 6 } );
+        Assert.assertEquals( max[0], clamped.get( 0, 0 ), 1e-12 );
+        Assert.assertEquals( min[1], clamped.get( 0, 1 ), 0 );
+        Assert.assertEquals( 255, clamped.getCodeBuffer( 0 ).get( 0 ) & 0xFF );
+    }
+
+    @Test
+    public void compactAccessorsShareValuesWithMatrix()
+    {
+        FloatFeatureMatrix floats = new FloatFeatureMatrix( 2 );
+        floats.addRow( new double[] { 1.5, 2.5 } );
+        floats.getFloatRowBuffer( 0 ).put( 1, 3.5f );
+        Assert.assertEquals( 3.5, floats.get( 0, 1 ), 0 );
+
+        Int16FeatureMatrix shorts = new Int16FeatureMatrix( new double[] { 0 }, new double[] { 65535 } );
+        shorts.addRow( new double[] { 40000 } );
+        Assert.assertEquals( 40000, shorts.getCodeBuffer( 0 ).get( 0 ) & 0xFFFF );
+        Assert.assertEquals( 1, shorts.getScale( 0 ), 0 );
+
+        // Compact matrices can't expose their values as doubles without widening them.
+        MatrixInstance instance = new MatrixInstance( shorts, 0, null, null, null );
+        Assert.assertTrue( instance.getDataBuffer().isReadOnly() );
+        Assert.assertEquals( 40000, instance.getDataBuffer().get( 0 ), 0 );
+    }
+
+    @Test
+    public void packStagedKeepsRowsInPlaceWhenInNodeOrder()
+    {
+        FeatureMatrix staging = FeatureStorage.OFF_HEAP.createStagingMatrix( 300000 );
+        List<BasicNode> nodes = createStagedNodes( staging, new int[] { 0, 1, 2, 3, 4 }, new int[] { 5, 6, 7, 8, 9 } );
+
+        FeatureMatrix.packStaged( nodes, FeatureStorage.OFF_HEAP );
+
+        int row = 0;
+        for ( BasicNode node : nodes ) {
+            for ( Instance i : node.getNodeInstanceList() ) {
+                Assert.assertSame( staging, ( (MatrixInstance)i ).getMatrix() );
+                Assert.assertEquals( row++, ( (MatrixInstance)i ).getRow() );
+            }
+        }
+    }
+
+    @Test
+    public void packStagedReleasesCopiedChunks()
+    {
+        // Nodes out of order, or a different storage, force the rows to be copied.
+        for ( FeatureStorage storage : new FeatureStorage[] { FeatureStorage.OFF_HEAP, FeatureStorage.MATRIX } ) {
+            FeatureMatrix staging = FeatureStorage.OFF_HEAP.createStagingMatrix( 300000 );
+            int[][] rows = storage == FeatureStorage.MATRIX
+                ? new int[][] { { 0, 1, 2, 3, 4 }, { 5, 6, 7, 8, 9 } }
+                : new int[][] { { 5, 1, 8, 3 }, { 0, 6, 7, 2, 4, 9 } };
+            List<BasicNode> nodes = createStagedNodes( staging, rows );
+
+            FeatureMatrix.packStaged( nodes, storage );
+
+            FeatureMatrix packed = null;
+            int row = 0;
+            for ( int n = 0; n < rows.length; ++n ) {
+                for ( Instance i : nodes.get( n ).getNodeInstanceList() ) {
+                    MatrixInstance mi = (MatrixInstance)i;
+                    packed = mi.getMatrix();
+                    Assert.assertNotSame( staging, packed );
+                    Assert.assertEquals( row++, mi.getRow() );
+                    Assert.assertEquals( rows[n][mi.getRow() - ( n == 0 ? 0 : rows[0].length )], i.getData()[1000], 0 );
+                }
+            }
+            Assert.assertEquals( storage == FeatureStorage.OFF_HEAP, packed instanceof DirectFeatureMatrix );
+
+            // Every chunk of the staging matrix was released.
+            for ( int r = 0; r < staging.getRowCount(); ++r ) {
+                try {
+                    staging.get( r, 0 );
+                    Assert.fail( "Row " + r + " should have been released." );
+                }
+                catch ( NullPointerException e ) {
+                    // Expected.
+                }
+            }
+        }
+    }
+
+    @Test
+    public void quantizedPackRejectsNonFiniteValues()
+    {
+        for ( double value : new double[] { Double.NaN, Double.POSITIVE_INFINITY } ) {
+            for ( FeatureStorage storage : new FeatureStorage[] { FeatureStorage.INT16, FeatureStorage.INT8 } ) {
+                LinkedList<Instance> instances = new LinkedList<>();
+                instances.add( new BasicInstance( "a", "gen.0", new double[] { 1, 2 } ) );
+                instances.add( new BasicInstance( "b", "gen.0", new double[] { 3, value } ) );
+                BasicNode node = new BasicNode( "gen.0", null, new LinkedList<Node>(), instances, false );
+
+                try {
+                    FeatureMatrix.pack( Arrays.asList( node ), storage );
+                    Assert.fail( "Value " + value + " should have been rejected." );
+                }
+                catch ( IllegalArgumentException e ) {
+                    Assert.assertTrue( e.getMessage(), e.getMessage().contains( "instance 'b'" ) );
+                    Assert.assertTrue( e.getMessage(), e.getMessage().contains( "feature 1 " ) );
+                }
+                Assert.assertSame( instances.get( 1 ), node.getNodeInstanceList().get( 1 ) );
+            }
+
+            // Storages which are not quantized keep the value as it is.
+            LinkedList<Instance> instances = new LinkedList<>();
+            instances.add( new BasicInstance( "b", "gen.0", new double[] { 3, value } ) );
+            BasicNode node = new BasicNode( "gen.0", null, new LinkedList<Node>(), instances, false );
+            FeatureMatrix.pack( Arrays.asList( node ), FeatureStorage.FLOAT );
+            Assert.assertEquals( value, node.getNodeInstanceList().get( 0 ).getData()[1], 0 );
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRowsOfOtherLengths()
+    {
+        new HeapFeatureMatrix( 2 ).addRow( new double[3] );
+    }
+
+    /**
+     * Creates a node for each group of rows, holding instances of those rows of a new matrix, in which
+     * the value of feature 1000 of each row is the row's index.
+     */
+    private static List<BasicNode> createStagedNodes( FeatureMatrix staging, int[]... rows )
+    {
+        double[] values = new double[staging.getDimensions()];
+        for ( int r = 0; r < 10; ++r ) {
+            values[1000] = r;
+            staging.addRow( values );
+        }
+
+        BasicNode[] nodes = new BasicNode[rows.length];
+        for ( int n = 0; n < rows.length; ++n ) {
+            LinkedList<Instance> instances = new LinkedList<>();
+            for ( int r : rows[n] ) {
+                instances.add( new MatrixInstance( staging, r, null, null, null ) );
+            }
+            nodes[n] = new BasicNode( "gen.0." + n, null, (Instance)null );
+            nodes[n].setInstances( instances );
+        }
+        return Arrays.asList( nodes );
+    }
+}
@@ -0,0 +1,192 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.FrozenHierarchy;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.test.TestCommon;
+
+
+public class FrozenHierarchyTest
+{
+    @Test
+    public void freezingCopiesHierarchy()
+    {
+        Hierarchy source = TestCommon.getFourGroupsHierarchy();
+        FrozenHierarchy frozen = FrozenHierarchy.freeze( source, false );
+
+        Assert.assertEquals( source.getNumberOfGroups(), frozen.getNumberOfGroups() );
+        Assert.assertEquals( source.getOverallNumberOfInstances(), frozen.getOverallNumberOfInstances() );
+        Assert.assertArrayEquals( source.getClasses(), frozen.getClasses() );
+        Assert.assertArrayEquals( source.getClassesCount(), frozen.getClassesCount() );
+        Assert.assertArrayEquals( source.getInheritedClassesCount(), frozen.getInheritedClassesCount() );
+        for ( Node s : source.getGroups() ) {
+            Node f = frozen.getNode( s.getId() );
+            Assert.assertNotNull( f );
+            Assert.assertArrayEquals( s.getNodeRepresentation().getData(), f.getNodeRepresentation().getData(), 0 );
+            Assert.assertEquals( s.getNodeInstanceList().size(), f.getNodeInstanceList().size() );
+            for ( int i = 0; i < s.getNodeInstanceList().size(); ++i ) {
+                Assert.assertEquals( s.getNodeInstanceList().get( i ).getInstanceName(), f.getNodeInstanceList().get( i ).getInstanceName() );
+                Assert.assertArrayEquals( s.getNodeInstanceList().get( i ).getData(), f.getNodeInstanceList().get( i ).getData(), 0 );
+            }
+        }
+
+        // Changes to the source, or to arrays handed out by the snapshot, do not affect it.
+        source.getRoot().getNodeInstanceList().get( 0 ).getData()[0] = 1000;
+        frozen.getRoot().getNodeInstanceList().get( 0 ).getData()[0] = 1000;
+        frozen.getClassesCount()[0] = 1000;
+        frozen.getGroups()[0] = null;
+        Assert.assertNotEquals( 1000, frozen.getRoot().getNodeInstanceList().get( 0 ).getData()[0], 0 );
+        Assert.assertNotEquals( 1000, frozen.getClassesCount()[0] );
+        Assert.assertSame( frozen.getRoot(), frozen.getGroups()[0] );
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void nodesAreReadOnly()
+    {
+        FrozenHierarchy frozen = FrozenHierarchy.freeze( TestCommon.getFourGroupsHierarchy(), false );
+        frozen.getRoot().addInstance( new BasicInstance( null, null, new double[2] ) );
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void instancesAreReadOnly()
+    {
+        FrozenHierarchy frozen = FrozenHierarchy.freeze( TestCommon.getFourGroupsHierarchy(), false );
+        frozen.getRoot().getNodeInstanceList().get( 0 ).setData( new double[2] );
+    }
+
+    @Test
+    public void addingExistingNodeFails()
+    {
+        FrozenHierarchy frozen = FrozenHierarchy.freeze( TestCommon.buildRandomHierarchy( new Random( 6 ), false ), false );
+        for ( Node parent : frozen.getGroups() ) {
+            for ( Node child : parent.getChildList() ) {
+                try {
+                    frozen.withNodeAdded( parent, child.getId() );
+                    Assert.fail( "Expected an exception for " + child.getId() );
+                }
+                catch ( IllegalArgumentException e ) {
+                    // Expected.
+                }
+            }
+        }
+    }
+
+    @Test
+    public void derivedSnapshotsMatchRecalculation()
+    {
+        for ( boolean useSubtree : new boolean[] { false, true } ) {
+            Random random = new Random( 3 );
+            FrozenHierarchy original = FrozenHierarchy.freeze( TestCommon.buildRandomHierarchy( random, useSubtree ), useSubtree );
+            FrozenHierarchy snapshot = original;
+
+            for ( int step = 0; step < 300; ++step ) {
+                Node[] groups = snapshot.getGroups();
+                Node node = groups[random.nextInt( groups.length )];
+                switch ( random.nextInt( 6 ) ) {
+                    case 0:
+                        if ( node.getParent() != null && random.nextInt( 5 ) == 0 ) {
+                            snapshot = snapshot.withNodeRemoved( node );
+                        }
+                        break;
+                    case 1:
+                        String id = node.getId() + Constants.HIERARCHY_BRANCH_SEPARATOR + ( 10 + random.nextInt( 10 ) );
+                        if ( snapshot.getNode( id ) == null ) {
+                            snapshot = snapshot.withNodeAdded( node, id );
+                            Assert.assertNotNull( snapshot.getNode( id ) );
+                        }
+                        break;
+                    case 2:
+                        if ( !node.getNodeInstanceList().isEmpty() ) {
+                            List<Instance> instances = node.getNodeInstanceList();
+                            Instance removed = instances.get( random.nextInt( instances.size() ) );
+                            snapshot = snapshot.withInstanceRemoved( node, removed );
+                            Assert.assertNull( snapshot.getNodeOf( removed ) );
+                        }
+                        break;
+                    default:
+                        String trueClass = "gen.0." + random.nextInt( 25 );
+                        snapshot = snapshot.withInstanceAdded(
+                            node, new BasicInstance( "added" + step, node.getId(), new double[] { random.nextGaussian(), step }, trueClass )
+                        );
+                        break;
+                }
+            }
+
+            TestCommon.assertConsistent( snapshot, useSubtree );
+            TestCommon.assertConsistent( original, useSubtree );
+        }
+    }
+
+    @Test
+    public void derivedSnapshotsShareUntouchedSubtrees()
+    {
+        for ( boolean useSubtree : new boolean[] { false, true } ) {
+            FrozenHierarchy original = FrozenHierarchy.freeze( TestCommon.buildRandomHierarchy( new Random( 4 ), useSubtree ), useSubtree );
+            Node parent = original.getRoot().getChildList().get( 0 );
+            Node changed = parent.getChildList().get( 0 );
+            Node sibling = parent.getChildList().get( 1 );
+
+            FrozenHierarchy derived = original.withInstanceAdded( changed, new BasicInstance( null, null, new double[] { 1, 1 } ) );
+            Node derivedParent = derived.getNode( parent.getId() );
+            Node derivedSibling = derived.getNode( sibling.getId() );
+
+            Assert.assertNotSame( sibling, derivedSibling );
+            Assert.assertSame( sibling.getNodeRepresentation(), derivedSibling.getNodeRepresentation() );
+            Assert.assertSame( sibling.getNodeInstanceList().get( 0 ), derivedSibling.getNodeInstanceList().get( 0 ) );
+            Assert.assertEquals( useSubtree, parent.getNodeRepresentation() != derivedParent.getNodeRepresentation() );
+            Assert.assertEquals( changed.getNodeInstanceList().size() + 1, derived.getNode( changed.getId() ).getNodeInstanceList().size() );
+            Assert.assertEquals( original.getOverallNumberOfInstances() + 1, derived.getOverallNumberOfInstances() );
+        }
+    }
+
+    @Test
+    public void concurrentReadersSeeSameNodes() throws Exception
+    {
+        final FrozenHierarchy frozen = FrozenHierarchy.freeze( TestCommon.buildRandomHierarchy( new Random( 5 ), false ), false );
+        final Node[] expected = FrozenHierarchy.freeze( frozen, false ).getGroups();
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<Node[]>> futures = new ArrayList<>();
+            for ( int t = 0; t < 4; ++t ) {
+                futures.add( executor.submit( new Callable<Node[]>() {
+                    @Override
+                    public Node[] call()
+                    {
+                        Node[] result = new Node[expected.length];
+                        for ( int i = 0; i < expected.length; ++i ) {
+                            result[i] = frozen.getNode( expected[i].getId() );
+                            for ( Instance instance : result[i].getNodeInstanceList() ) {
+                                Assert.assertSame( result[i], frozen.getNodeOf( instance ) );
+                            }
+                        }
+                        return result;
+                    }
+                } ) );
+            }
+
+            Node[] first = futures.get( 0 ).get();
+            for ( Future<Node[]> f : futures ) {
+                Assert.assertArrayEquals( first, f.get() );
+            }
+            Assert.assertArrayEquals( frozen.getGroups(), first );
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -3,7 +3,13 @@ package basic_hierarchy.test.implementation;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -12,7 +18,11 @@ import org.junit.Test;
 import basic_hierarchy.common.AlphanumComparator;
 import basic_hierarchy.common.Constants;
 import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.implementation.BasicInstance;
 import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.test.TestCommon;
 
 
 public class HierarchyBuilderTest
@@ -135,6 +145,292 @@ public class HierarchyBuilderTest
         }
     }
 
+    @Test(timeout = 20000)
+    public void fixBreadthGapsInNodeWithHighFanOut()
+    {
+        int childCount = 200001;
+        List<BasicNode> children = new ArrayList<>();
+        for ( int i = 0; i < childCount; ++i ) {
+            if ( i % 3 != 1 ) {
+                children.add( new BasicNode( TestCommon.getIDOfChildCluster( Constants.ROOT_ID, i ), root, false ) );
+            }
+        }
+        Collections.shuffle( children, new Random( 4 ) );
+        for ( BasicNode child : children ) {
+            root.addChild( child );
+        }
+
+        List<BasicNode> artificial = HierarchyBuilder.fixBreadthGapsInNode( root, false );
+
+        Assert.assertEquals( childCount / 3, artificial.size() );
+        for ( int i = 0; i < artificial.size(); ++i ) {
+            Assert.assertEquals( TestCommon.getIDOfChildCluster( Constants.ROOT_ID, 3 * i + 1 ), artificial.get( i ).getId() );
+            Assert.assertSame( root, artificial.get( i ).getParent() );
+        }
+
+        int index = 0;
+        for ( Node child : root.getChildren() ) {
+            Assert.assertEquals( TestCommon.getIDOfChildCluster( Constants.ROOT_ID, index++ ), child.getId() );
+        }
+        Assert.assertEquals( childCount, index );
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void fixBreadthGapsInNodeRejectsDuplicateIds()
+    {
+        root.addChild( new BasicNode( "gen.0.2", root, false ) );
+        root.addChild( new BasicNode( "gen.0.2", root, false ) );
+
+        HierarchyBuilder.fixBreadthGapsInNode( root, false );
+    }
+
+    @Test
+    public void createParentChildRelationsKeepsListOrder()
+    {
+        List<BasicNode> tree = createTree( 2000, 0 );
+
+        HierarchyBuilder.createParentChildRelations( tree, null );
+
+        // Every node's children must be exactly the nodes whose ids mark them as its children, in list order.
+        for ( BasicNode parent : tree ) {
+            List<Node> expected = new ArrayList<>();
+            for ( BasicNode child : tree ) {
+                if ( HierarchyBuilder.areNodesParentAndChild( parent, child ) ) {
+                    expected.add( child );
+                }
+            }
+
+            Assert.assertEquals( expected, parent.getChildren() );
+            for ( Node child : expected ) {
+                Assert.assertSame( parent, child.getParent() );
+            }
+        }
+    }
+
+    @Test
+    public void createParentChildRelationsScalesLinearly()
+    {
+        // Count how often the nodes are accessed instead of measuring time, which is not reliable on shared machines.
+        // Comparing nodes pairwise, or scanning lists of children, would make the count grow faster than the tree.
+        int smallSize = 250000;
+        int largeSize = 8 * smallSize;
+
+        long[] smallCount = new long[1];
+        HierarchyBuilder.createParentChildRelations( createTree( smallSize, 1, smallCount ), null );
+
+        long[] largeCount = new long[1];
+        List<BasicNode> large = createTree( largeSize, 2, largeCount );
+        HierarchyBuilder.createParentChildRelations( large, null );
+
+        double smallPerNode = (double)smallCount[0] / smallSize;
+        double largePerNode = (double)largeCount[0] / largeSize;
+
+        int links = 0;
+        for ( BasicNode n : large ) {
+            links += n.getChildList().size();
+        }
+        Assert.assertEquals( largeSize - 1, links );
+        Assert.assertTrue( "Accesses per node: " + smallPerNode, smallPerNode < 10 );
+        Assert.assertEquals( smallPerNode, largePerNode, 0.01 );
+    }
+
+    @Test
+    public void subtreeCentroidsMatchSubtreeInstances()
+    {
+        Random random = new Random( 3 );
+        List<BasicNode> tree = new ArrayList<>();
+        tree.add( new BasicNode( Constants.ROOT_ID, null, (Instance)null ) );
+
+        // A deep, narrow hierarchy, with some empty nodes.
+        for ( int i = 1; i < 400; ++i ) {
+            BasicNode parent = tree.get( Math.max( 0, i - 1 - random.nextInt( 3 ) ) );
+            BasicNode node = new BasicNode( parent.getId() + Constants.HIERARCHY_BRANCH_SEPARATOR + i, parent, (Instance)null );
+            parent.addChild( node );
+            tree.add( node );
+
+            int instanceCount = random.nextInt( 4 ) == 0 ? 0 : random.nextInt( 10 );
+            for ( int j = 0; j < instanceCount; ++j ) {
+                node.addInstance( new BasicInstance( null, node.getId(), new double[] { random.nextGaussian(), j } ) );
+            }
+        }
+
+        HierarchyBuilder.recalculateCentroids( tree, true, null );
+
+        for ( BasicNode n : tree ) {
+            List<Instance> instances = n.getSubtreeInstances();
+            double[] expected = new double[instances.isEmpty() ? 0 : 2];
+            for ( Instance i : instances ) {
+                expected[0] += i.getData()[0] / instances.size();
+                expected[1] += i.getData()[1] / instances.size();
+            }
+
+            Assert.assertArrayEquals( expected, n.getNodeRepresentation().getData(), TestCommon.DOUBLE_COMPARISION_DELTA );
+        }
+    }
+
+    @Test
+    public void parallelBuildMatchesSequential()
+    {
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( int variant = 0; variant < 4; ++variant ) {
+                boolean fixBreadthGaps = ( variant & 1 ) != 0;
+                boolean useSubtree = ( variant & 2 ) != 0;
+
+                List<BasicNode> expectedNodes = createSparseNodes( variant );
+                List<BasicNode> actualNodes = createSparseNodes( variant );
+
+                List<? extends Node> expected = new HierarchyBuilder().buildCompleteHierarchy(
+                    null, expectedNodes, fixBreadthGaps, useSubtree
+                );
+                List<? extends Node> actual = new HierarchyBuilder( pool ).buildCompleteHierarchy(
+                    null, actualNodes, fixBreadthGaps, useSubtree
+                );
+
+                Assert.assertEquals( expected.size(), actual.size() );
+                for ( int i = 0; i < expected.size(); ++i ) {
+                    Node e = expected.get( i );
+                    Node a = actual.get( i );
+
+                    Assert.assertEquals( e.getId(), a.getId() );
+                    Assert.assertEquals( e.getParent() == null ? null : e.getParentId(), a.getParent() == null ? null : a.getParentId() );
+                    Assert.assertEquals( e.getChildren().size(), a.getChildren().size() );
+                    for ( int c = 0; c < e.getChildren().size(); ++c ) {
+                        Assert.assertEquals( e.getChildren().get( c ).getId(), a.getChildren().get( c ).getId() );
+                    }
+                    Assert.assertArrayEquals(
+                        e.getNodeRepresentation().getData(), a.getNodeRepresentation().getData(),
+                        TestCommon.DOUBLE_COMPARISION_DELTA
+                    );
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Creates unlinked nodes with random ids, leaving gaps in both depth and breadth, without the root node.
+     */
+    private static List<BasicNode> createSparseNodes( long seed )
+    {
+        Random random = new Random( seed );
+        Map<String, BasicNode> nodes = new LinkedHashMap<>();
+        for ( int i = 0; i < 3000; ++i ) {
+            StringBuilder id = new StringBuilder( Constants.ROOT_ID );
+            for ( int depth = random.nextInt( 6 ); depth >= 0; --depth ) {
+                id.append( Constants.HIERARCHY_BRANCH_SEPARATOR ).append( random.nextInt( 12 ) );
+            }
+
+            BasicNode node = nodes.get( id.toString() );
+            if ( node == null ) {
+                node = new BasicNode( id.toString(), null, (Instance)null );
+                nodes.put( node.getId(), node );
+            }
+            node.addInstance( new BasicInstance( null, node.getId(), new double[] { random.nextGaussian(), i } ) );
+        }
+        return new ArrayList<>( nodes.values() );
+    }
+
+    /**
+     * Creates the specified number of nodes, forming a complete tree with 10 children per node, in random order.
+     */
+    private static List<BasicNode> createTree( int size, long seed )
+    {
+        return createTree( size, seed, null );
+    }
+
+    /**
+     * Same as {@link #createTree(int, long)}, but nodes count calls to their methods, once the tree is created.
+     *
+     * @param accesses
+     *            single-element array, in which the calls are counted, or null to create plain nodes
+     */
+    private static List<BasicNode> createTree( int size, long seed, long[] accesses )
+    {
+        List<BasicNode> tree = new ArrayList<>( size );
+        tree.add( createNode( Constants.ROOT_ID, accesses ) );
+        for ( int i = 1; i < size; ++i ) {
+            String parentId = tree.get( ( i - 1 ) / 10 ).getId();
+            tree.add( createNode( parentId + Constants.HIERARCHY_BRANCH_SEPARATOR + ( i - 1 ) % 10, accesses ) );
+        }
+        Collections.shuffle( tree, new Random( seed ) );
+        if ( accesses != null ) {
+            accesses[0] = 0;
+        }
+        return tree;
+    }
+
+    private static BasicNode createNode( String id, long[] accesses )
+    {
+        return accesses == null ? new BasicNode( id, null, (Instance)null ) : new CountingNode( id, accesses );
+    }
+
+    /**
+     * A node which counts calls to the methods used to link nodes together.
+     */
+    private static class CountingNode extends BasicNode
+    {
+        private final long[] accesses;
+
+
+        public CountingNode( String id, long[] accesses )
+        {
+            super( id, null, (Instance)null );
+            this.accesses = accesses;
+        }
+
+        @Override
+        public String getId()
+        {
+            ++accesses[0];
+            return super.getId();
+        }
+
+        @Override
+        public Node getParent()
+        {
+            ++accesses[0];
+            return super.getParent();
+        }
+
+        @Override
+        public void setParent( Node parent )
+        {
+            ++accesses[0];
+            super.setParent( parent );
+        }
+
+        @Override
+        public LinkedList<Node> getChildren()
+        {
+            ++accesses[0];
+            return super.getChildren();
+        }
+
+        @Override
+        public List<Node> getChildList()
+        {
+            ++accesses[0];
+            return super.getChildList();
+        }
+
+        @Override
+        public void setChildren( LinkedList<Node> children )
+        {
+            ++accesses[0];
+            super.setChildren( children );
+        }
+
+        @Override
+        public void addChild( Node child )
+        {
+            ++accesses[0];
+            super.addChild( child );
+        }
+    }
+
     private BasicNode findNodeWithId( Collection<BasicNode> c, String id )
     {
         for ( BasicNode n : c ) {
@@ -0,0 +1,137 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.implementation.HierarchyUpdater;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.test.TestCommon;
+
+
+public class HierarchyUpdaterTest
+{
+    @Test
+    public void instanceUpdatesMatchRecalculation()
+    {
+        for ( boolean useSubtree : new boolean[] { false, true } ) {
+            Random random = new Random( 1 );
+            BasicHierarchy hierarchy = TestCommon.buildRandomHierarchy( random, useSubtree );
+            HierarchyUpdater updater = new HierarchyUpdater( hierarchy, useSubtree );
+            // Computed up front, so that they have to be updated along with the instances.
+            hierarchy.getInheritedClassesCount();
+            hierarchy.getNodeOf( hierarchy.getRoot().getNodeRepresentation() );
+
+            List<Instance> added = new ArrayList<>();
+            List<Node> addedTo = new ArrayList<>();
+            for ( int i = 0; i < 500; ++i ) {
+                Node node = hierarchy.getGroups()[random.nextInt( hierarchy.getNumberOfGroups() )];
+                if ( !added.isEmpty() && random.nextInt( 3 ) == 0 ) {
+                    int index = random.nextInt( added.size() );
+                    Instance instance = added.remove( index );
+                    Assert.assertTrue( updater.removeInstance( addedTo.remove( index ), instance ) );
+                    Assert.assertNull( hierarchy.getNodeOf( instance ) );
+                }
+                else {
+                    // Some of the true classes are not in the hierarchy yet.
+                    String trueClass = "gen.0." + random.nextInt( 25 );
+                    if ( i % 4 == 0 ) {
+                        trueClass = node.getId();
+                    }
+                    Instance instance = new BasicInstance( null, node.getId(), new double[] { random.nextGaussian(), i }, trueClass );
+                    updater.addInstance( node, instance );
+                    added.add( instance );
+                    addedTo.add( node );
+                }
+            }
+
+            Assert.assertTrue( hierarchy.getNumberOfClasses() > 25 );
+            TestCommon.assertConsistent( hierarchy, useSubtree );
+        }
+    }
+
+    @Test
+    public void removingLastInstancesEmptiesCentroid()
+    {
+        BasicHierarchy hierarchy = (BasicHierarchy)TestCommon.getFourGroupsHierarchy();
+        HierarchyUpdater updater = new HierarchyUpdater( hierarchy, false );
+
+        Node node = hierarchy.getRoot().getChildren().get( 1 );
+        for ( Instance i : new ArrayList<>( node.getNodeInstances() ) ) {
+            Assert.assertTrue( updater.removeInstance( node, i ) );
+        }
+        Assert.assertFalse( updater.removeInstance( node, hierarchy.getRoot().getNodeInstances().getFirst() ) );
+
+        Assert.assertEquals( 0, node.getNodeRepresentation().getData().length );
+        Assert.assertEquals( 8, hierarchy.getOverallNumberOfInstances() );
+        TestCommon.assertConsistent( hierarchy, false );
+    }
+
+    @Test
+    public void nodeUpdatesMatchRecalculation()
+    {
+        for ( boolean useSubtree : new boolean[] { false, true } ) {
+            Random random = new Random( 2 );
+            BasicHierarchy hierarchy = TestCommon.buildRandomHierarchy( random, useSubtree );
+            HierarchyUpdater updater = new HierarchyUpdater( hierarchy, useSubtree );
+
+            hierarchy.getNodeOf( hierarchy.getRoot().getNodeRepresentation() );
+            hierarchy.getTreeIndex();
+            BasicNode node = updater.addNode( "gen.0.3.20.1.7" );
+            Assert.assertEquals( 4, hierarchy.getTreeIndex().getDepth( node ) );
+            Assert.assertSame( node, hierarchy.getGroups()[findGroup( hierarchy, "gen.0.3.20.1.7" )] );
+            Assert.assertEquals( "gen.0.3.20.1", node.getParentId() );
+            Assert.assertTrue( findGroup( hierarchy, "gen.0.3.20" ) >= 0 );
+            updater.addInstance( node, new BasicInstance( null, node.getId(), new double[] { 100, -100 }, "gen.0.99" ) );
+
+            Node removed = hierarchy.getGroups()[findGroup( hierarchy, "gen.0.1" )];
+            Instance removedInstance = removed.getSubtreeInstances().getLast();
+            updater.removeNode( removed );
+            Assert.assertNull( removed.getParent() );
+            Assert.assertNull( hierarchy.getNode( "gen.0.1" ) );
+            Assert.assertNull( hierarchy.getNodeOf( removedInstance ) );
+            Assert.assertEquals( -1, hierarchy.getTreeIndex().indexOf( removed ) );
+            Assert.assertEquals( hierarchy.getNumberOfGroups(), hierarchy.getTreeIndex().size() );
+            Assert.assertEquals( -1, findGroup( hierarchy, "gen.0.1" ) );
+            for ( Node n : hierarchy.getGroups() ) {
+                Assert.assertFalse( n.getId(), HierarchyBuilder.areIdsAncestorAndDescendant( "gen.0.1", n.getId() ) );
+            }
+
+            TestCommon.assertConsistent( hierarchy, useSubtree );
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInstancesOfDifferentDimensions()
+    {
+        BasicHierarchy hierarchy = (BasicHierarchy)TestCommon.getFourGroupsHierarchy();
+        new HierarchyUpdater( hierarchy, false ).addInstance( hierarchy.getRoot(), new BasicInstance( null, null, new double[3] ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsExistingNodes()
+    {
+        BasicHierarchy hierarchy = (BasicHierarchy)TestCommon.getFourGroupsHierarchy();
+        new HierarchyUpdater( hierarchy, false ).addNode( "gen.0.0" );
+    }
+
+    private static int findGroup( Hierarchy hierarchy, String id )
+    {
+        Node[] groups = hierarchy.getGroups();
+        for ( int i = 0; i < groups.length; ++i ) {
+            if ( groups[i].getId().equals( id ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
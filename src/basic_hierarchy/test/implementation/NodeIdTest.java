@@ -0,0 +1,111 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.AlphanumComparator;
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.NodeId;
+import basic_hierarchy.common.StringIdComparator;
+
+
+public class NodeIdTest
+{
+    @Test
+    public void parsing()
+    {
+        NodeId id = NodeId.parse( "gen.0.15.1" );
+
+        Assert.assertEquals( "gen.0.15.1", id.toString() );
+        Assert.assertEquals( 3, id.getDepth() );
+        Assert.assertEquals( 15, id.getSegment( 1 ) );
+        Assert.assertEquals( 1, id.getLastSegment() );
+        Assert.assertEquals( "gen.0.15", id.getParent().toString() );
+        Assert.assertEquals( "gen.0.15.1.7", id.getChild( 7 ).toString() );
+        Assert.assertEquals( id, NodeId.parse( "gen.0.15.1" ) );
+        Assert.assertNull( NodeId.parse( "gen.0" ).getParent() );
+
+        String[] invalid = { "gen", "gen.", "gen.0.", "gen..0", "gen.0.01", "gen.0.a", "gen.+1", "gen.0.1234567890", "ARTIFICIAL_ROOT", "" };
+        for ( String s : invalid ) {
+            Assert.assertNull( s, NodeId.tryParse( s ) );
+        }
+    }
+
+    @Test
+    public void consistentWithStringOperations()
+    {
+        List<String> ids = randomIds( new Random( 0 ), 3000 );
+        AlphanumComparator alphanum = new AlphanumComparator();
+        StringIdComparator stringIdComparator = new StringIdComparator();
+
+        for ( int i = 0; i < ids.size(); ++i ) {
+            String s1 = ids.get( i );
+            String s2 = ids.get( ( 7 * i + 3 ) % ids.size() );
+            NodeId id1 = NodeId.parse( s1 );
+            NodeId id2 = NodeId.parse( s2 );
+
+            int expected = Integer.signum( compareSplit( s1, s2 ) );
+            Assert.assertEquals( expected, Integer.signum( id1.compareTo( id2 ) ) );
+            Assert.assertEquals( expected, Integer.signum( alphanum.compare( s1, s2 ) ) );
+            Assert.assertEquals( expected, Integer.signum( stringIdComparator.compare( s1, s2 ) ) );
+
+            Assert.assertEquals( HierarchyBuilder.getIdHeight( s1 ), id1.getDepth() );
+            Assert.assertEquals( HierarchyBuilder.areIdsParentAndChild( s1, s2 ), id1.isParentOf( id2 ) );
+            Assert.assertEquals( HierarchyBuilder.areIdsAncestorAndDescendant( s1, s2 ), id1.isAncestorOf( id2 ) );
+            if ( id1.getParent() != null ) {
+                Assert.assertTrue( id1.getParent().isParentOf( id1 ) );
+                Assert.assertTrue( HierarchyBuilder.areIdsParentAndChild( id1.getParent().toString(), s1 ) );
+            }
+        }
+    }
+
+    @Test
+    public void stringIdComparatorHandlesMalformedIds()
+    {
+        StringIdComparator comparator = new StringIdComparator();
+        String[] ids = { "gen.0.01", "gen.0.1.", "gen", ".3", "gen.2147483647", "gen.0.0.5" };
+        for ( String s1 : ids ) {
+            for ( String s2 : ids ) {
+                Assert.assertEquals( s1 + " " + s2, Integer.signum( compareSplit( s1, s2 ) ), Integer.signum( comparator.compare( s1, s2 ) ) );
+            }
+        }
+    }
+
+    /**
+     * Reference comparison, by splitting ids into segments and parsing each of them.
+     */
+    private static int compareSplit( String o1, String o2 )
+    {
+        String[] id1 = o1.split( "\\." );
+        String[] id2 = o2.split( "\\." );
+
+        int end = Math.min( id1.length, id2.length );
+        for ( int i = 1; i < end; ++i ) {
+            long n1 = Long.parseLong( id1[i] );
+            long n2 = Long.parseLong( id2[i] );
+            if ( n1 != n2 ) {
+                return n1 < n2 ? -1 : 1;
+            }
+        }
+        return id1.length - id2.length;
+    }
+
+    /**
+     * Creates random ids, many of which share prefixes, or are related to each other.
+     */
+    private static List<String> randomIds( Random random, int count )
+    {
+        List<String> ids = new ArrayList<>();
+        ids.add( "gen.0" );
+        while ( ids.size() < count ) {
+            String base = ids.get( random.nextInt( ids.size() ) );
+            int segment = random.nextInt( 10 ) == 0 ? random.nextInt( 1000000000 ) : random.nextInt( 15 );
+            ids.add( base + "." + segment );
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,97 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.FeatureStorage;
+import basic_hierarchy.common.PreOrderLayout;
+import basic_hierarchy.common.TreeIndex;
+import basic_hierarchy.implementation.MatrixInstance;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.test.TestCommon;
+
+
+public class PreOrderLayoutTest
+{
+    @Test
+    public void subtreesAreContiguousRanges()
+    {
+        Node root = TestCommon.buildRandomHierarchy( new Random( 0 ), false ).getRoot();
+        PreOrderLayout layout = new PreOrderLayout( root );
+        TreeIndex index = new TreeIndex( root );
+
+        Assert.assertEquals( index.size(), layout.size() );
+        Assert.assertNull( layout.getMatrix() );
+        Assert.assertEquals( root.getSubtreeInstanceCount(), layout.getInstanceCount() );
+        for ( int i = 0; i < layout.size(); ++i ) {
+            Node n = layout.getNode( i );
+            Assert.assertSame( n, index.getNode( i ) );
+            Assert.assertEquals( i, layout.indexOf( n ) );
+
+            for ( int j = 0; j < layout.size(); ++j ) {
+                boolean inSubtree = j > i && j < layout.getSubtreeEnd( i );
+                Assert.assertEquals( index.isAncestorOf( i, j ), inSubtree );
+            }
+
+            Assert.assertEquals( n.getNodeInstanceList(), layout.getNodeInstances( i ) );
+            Assert.assertEquals( n.getSubtreeInstances(), layout.getSubtreeInstances( i ) );
+            Assert.assertEquals( n.getSubtreeInstanceCount(), layout.getSubtreeInstanceCount( i ) );
+        }
+    }
+
+    @Test
+    public void compactionPacksInstancesInLayoutOrder()
+    {
+        Node root = TestCommon.buildRandomHierarchy( new Random( 1 ), false ).getRoot();
+        Map<Node, double[]> expectedSums = new HashMap<>();
+        for ( Node n : getNodes( root ) ) {
+            expectedSums.put( n, getSubtreeSums( n ) );
+        }
+
+        PreOrderLayout layout = PreOrderLayout.compact( root, FeatureStorage.OFF_HEAP );
+        Assert.assertNotNull( layout.getMatrix() );
+        Assert.assertEquals( layout.getInstanceCount(), layout.getMatrix().getRowCount() );
+        for ( int position = 0; position < layout.getInstanceCount(); ++position ) {
+            MatrixInstance instance = (MatrixInstance)layout.getInstance( position );
+            Assert.assertSame( layout.getMatrix(), instance.getMatrix() );
+            Assert.assertEquals( position, instance.getRow() );
+        }
+
+        for ( int i = 0; i < layout.size(); ++i ) {
+            double[] sums = new double[2];
+            layout.addSubtreeFeaturesTo( i, sums );
+            Assert.assertArrayEquals( expectedSums.get( layout.getNode( i ) ), sums, TestCommon.DOUBLE_COMPARISION_DELTA );
+            Assert.assertEquals( layout.getNode( i ).getSubtreeInstances(), layout.getSubtreeInstances( i ) );
+        }
+
+        // Laying out the compacted tree again finds the same matrix.
+        Assert.assertSame( layout.getMatrix(), new PreOrderLayout( root ).getMatrix() );
+    }
+
+    private static List<Node> getNodes( Node root )
+    {
+        List<Node> result = new ArrayList<>();
+        result.add( root );
+        for ( int i = 0; i < result.size(); ++i ) {
+            result.addAll( result.get( i ).getChildren() );
+        }
+        return result;
+    }
+
+    private static double[] getSubtreeSums( Node node )
+    {
+        double[] result = new double[2];
+        for ( Instance i : node.getSubtreeInstances() ) {
+            result[0] += i.getData()[0];
+            result[1] += i.getData()[1];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.StringDictionary;
+
+
+public class StringDictionaryTest
+{
+    @Test
+    public void equalStringsShareOrdinalAndInstance()
+    {
+        StringDictionary dictionary = new StringDictionary();
+        String first = new String( "gen.0.1" );
+        String second = new String( "gen.0.1" );
+
+        Assert.assertEquals( 0, dictionary.add( first ) );
+        Assert.assertEquals( 1, dictionary.add( "gen.0.2" ) );
+        Assert.assertEquals( 0, dictionary.add( second ) );
+        Assert.assertSame( first, dictionary.intern( second ) );
+        Assert.assertNull( dictionary.intern( null ) );
+
+        Assert.assertEquals( 2, dictionary.size() );
+        Assert.assertEquals( "gen.0.2", dictionary.get( 1 ) );
+        Assert.assertEquals( -1, dictionary.indexOf( "gen.0.3" ) );
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsUnassignedOrdinals()
+    {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.add( "gen.0" );
+        dictionary.get( 1 );
+    }
+
+    @Test
+    public void concurrentAddsAssignConsecutiveOrdinals() throws Exception
+    {
+        final StringDictionary dictionary = new StringDictionary();
+        final int count = 10000;
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for ( int t = 0; t < 4; ++t ) {
+                futures.add( executor.submit( new Callable<Void>() {
+                    @Override
+                    public Void call()
+                    {
+                        for ( int i = 0; i < count; ++i ) {
+                            int ordinal = dictionary.add( "gen.0." + i );
+                            Assert.assertEquals( "gen.0." + i, dictionary.get( ordinal ) );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<?> f : futures ) {
+                f.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals( count, dictionary.size() );
+        for ( int ordinal = 0; ordinal < count; ++ordinal ) {
+            Assert.assertEquals( ordinal, dictionary.indexOf( dictionary.get( ordinal ) ) );
+        }
+    }
+}
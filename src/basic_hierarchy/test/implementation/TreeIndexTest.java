@@ -0,0 +1,97 @@
+package basic_hierarchy.test.implementation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.TreeIndex;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Node;
+
+
+public class TreeIndexTest
+{
+    @Test
+    public void queriesMatchParentChains()
+    {
+        Random random = new Random( 0 );
+        List<Node> nodes = new ArrayList<>();
+        nodes.add( new BasicNode( Constants.ROOT_ID, null, false ) );
+        for ( int i = 1; i < 3000; ++i ) {
+            Node parent = nodes.get( random.nextInt( nodes.size() ) );
+            Node child = new BasicNode( parent.getId() + Constants.HIERARCHY_BRANCH_SEPARATOR + parent.getChildren().size(), parent, false );
+            parent.addChild( child );
+            nodes.add( child );
+        }
+
+        TreeIndex index = new TreeIndex( nodes.get( 0 ) );
+        Assert.assertEquals( nodes.size(), index.size() );
+        for ( Node n : nodes ) {
+            Assert.assertSame( n, index.getNode( index.getPreOrder( n ) ) );
+            Assert.assertEquals( getAncestors( n ).size() - 1, index.getDepth( n ) );
+        }
+
+        for ( int i = 0; i < 20000; ++i ) {
+            Node a = nodes.get( random.nextInt( nodes.size() ) );
+            Node b = random.nextInt( 10 ) == 0 ? a : nodes.get( random.nextInt( nodes.size() ) );
+
+            Assert.assertEquals( HierarchyBuilder.areNodesAncestorAndDescendant( a, b ), index.isAncestorOf( a, b ) );
+
+            List<Node> ancestorsOfA = getAncestors( a );
+            List<Node> ancestorsOfB = getAncestors( b );
+            Node expected = null;
+            for ( int d = 0; d < Math.min( ancestorsOfA.size(), ancestorsOfB.size() ) && ancestorsOfA.get( d ) == ancestorsOfB.get( d ); ++d ) {
+                expected = ancestorsOfA.get( d );
+            }
+            Assert.assertSame( expected, index.getLowestCommonAncestor( a, b ) );
+            Assert.assertEquals(
+                ancestorsOfA.size() + ancestorsOfB.size() - 2 * getAncestors( expected ).size(),
+                index.getDistance( a, b )
+            );
+        }
+    }
+
+    @Test
+    public void indexesDeepTrees()
+    {
+        Node root = new BasicNode( Constants.ROOT_ID, null, false );
+        Node leaf = root;
+        for ( int i = 0; i < 100000; ++i ) {
+            Node child = new BasicNode( "n" + i, leaf, false );
+            leaf.addChild( child );
+            leaf = child;
+        }
+
+        TreeIndex index = new TreeIndex( root );
+        Assert.assertEquals( 100000, index.getDepth( leaf ) );
+        Assert.assertEquals( 0, index.getPostOrder( leaf ) );
+        Assert.assertTrue( index.isAncestorOf( root, leaf ) );
+        Assert.assertSame( root, index.getLowestCommonAncestor( leaf, root ) );
+        Assert.assertEquals( 100000, index.getDistance( root, leaf ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNodesOutsideOfTree()
+    {
+        TreeIndex index = new TreeIndex( new BasicNode( Constants.ROOT_ID, null, false ) );
+        Assert.assertEquals( -1, index.indexOf( new BasicNode( Constants.ROOT_ID, null, false ) ) );
+        index.getDepth( new BasicNode( Constants.ROOT_ID, null, false ) );
+    }
+
+    /**
+     * @return ancestors of the node, starting from the root and ending with the node itself.
+     */
+    private static List<Node> getAncestors( Node node )
+    {
+        List<Node> result = new ArrayList<>();
+        for ( ; node != null; node = node.getParent() ) {
+            result.add( 0, node );
+        }
+        return result;
+    }
+}
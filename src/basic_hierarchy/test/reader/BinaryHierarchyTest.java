@@ -0,0 +1,160 @@
+package basic_hierarchy.test.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.reader.BinaryHierarchyReader;
+import basic_hierarchy.reader.GeneratedCSVReader;
+import basic_hierarchy.test.TestCommon;
+import basic_hierarchy.writer.BinaryHierarchyWriter;
+
+
+public class BinaryHierarchyTest
+{
+    private File csvFile;
+    private File snapshotFile;
+
+
+    @Before
+    public void setup() throws IOException
+    {
+        csvFile = File.createTempFile( "hierarchy", ".csv" );
+        csvFile.deleteOnExit();
+        snapshotFile = File.createTempFile( "hierarchy", ".bin" );
+        snapshotFile.deleteOnExit();
+
+        Random random = new Random( 0 );
+        try ( PrintWriter writer = new PrintWriter( csvFile, "UTF-8" ) ) {
+            writer.println( "class;trueClass;name;x;y;z" );
+            for ( int i = 0; i < 5000; ++i ) {
+                String nodeId = "gen.0." + random.nextInt( 8 ) + ( random.nextBoolean() ? "" : "." + 2 * random.nextInt( 3 ) );
+                String trueClass = "gen.0." + random.nextInt( 8 );
+                writer.println(
+                    nodeId + ";" + trueClass + ";żółw" + i + ";" + random.nextGaussian() + ";" + random.nextInt( 100 ) + ";-0.0"
+                );
+            }
+        }
+    }
+
+    @After
+    public void teardown()
+    {
+        csvFile.delete();
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void roundTripOfLoadedHierarchy() throws IOException
+    {
+        Hierarchy expected = new GeneratedCSVReader().load( csvFile.getPath(), true, true, true, true, true );
+        new BinaryHierarchyWriter().write( expected, snapshotFile.getPath() );
+        Hierarchy actual = new BinaryHierarchyReader().load( snapshotFile.getPath() );
+
+        GeneratedCSVReaderTest.assertHierarchiesEqual( expected, actual );
+        assertStructureEqual( expected, actual );
+    }
+
+    @Test
+    public void roundTripWithoutDataNames() throws IOException
+    {
+        Hierarchy expected = TestCommon.getFourGroupsHierarchy();
+        new BinaryHierarchyWriter().write( expected, snapshotFile.getPath() );
+        Hierarchy actual = new BinaryHierarchyReader().load( snapshotFile.getPath() );
+
+        Assert.assertNull( actual.getDataNames() );
+        GeneratedCSVReaderTest.assertHierarchiesEqual( expected, actual );
+        assertStructureEqual( expected, actual );
+    }
+
+    @Test
+    public void mappedHierarchyMatchesLoaded() throws IOException
+    {
+        Hierarchy expected = new GeneratedCSVReader().load( csvFile.getPath(), true, true, true, true, true );
+        new BinaryHierarchyWriter().write( expected, snapshotFile.getPath() );
+        Hierarchy actual = new BinaryHierarchyReader().map( snapshotFile.getPath() );
+
+        GeneratedCSVReaderTest.assertHierarchiesEqual( expected, actual );
+        assertStructureEqual( expected, actual );
+        Assert.assertEquals( expected.toString(), actual.toString() );
+        Assert.assertEquals(
+            expected.getParticularClassCount( "gen.0.1", true ), actual.getParticularClassCount( "gen.0.1", true )
+        );
+
+        Instance instance = actual.getRoot().getChildren().getFirst().getNodeInstances().getFirst();
+        Assert.assertEquals( instance, actual.getRoot().getChildren().getFirst().getNodeInstances().getFirst() );
+        Assert.assertNotSame( instance.getData(), instance.getData() );
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mappedHierarchyIsReadOnly() throws IOException
+    {
+        new BinaryHierarchyWriter().write( TestCommon.getFourGroupsHierarchy(), snapshotFile.getPath() );
+        new BinaryHierarchyReader().map( snapshotFile.getPath() ).getRoot().setId( "gen.1" );
+    }
+
+    @Test
+    public void failedWriteKeepsPreviousSnapshot() throws IOException
+    {
+        new BinaryHierarchyWriter().write( TestCommon.getFourGroupsHierarchy(), snapshotFile.getPath() );
+        byte[] previous = Files.readAllBytes( snapshotFile.toPath() );
+
+        // A child which is not one of the groups is only detected once the nodes are inspected.
+        Hierarchy invalid = TestCommon.getFourGroupsHierarchy();
+        invalid.getRoot().addChild( new BasicNode( "gen.0.9", invalid.getRoot(), (Instance)null ) );
+        try {
+            new BinaryHierarchyWriter().write( invalid, snapshotFile.getPath() );
+            Assert.fail( "Expected an exception." );
+        }
+        catch ( IllegalArgumentException e ) {
+            // Expected.
+        }
+
+        Assert.assertTrue( Arrays.equals( previous, Files.readAllBytes( snapshotFile.toPath() ) ) );
+        File[] leftovers = snapshotFile.getAbsoluteFile().getParentFile().listFiles();
+        for ( File f : leftovers ) {
+            Assert.assertFalse( f.getName().startsWith( snapshotFile.getName() ) && f.getName().endsWith( ".tmp" ) );
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsOtherFiles() throws IOException
+    {
+        new BinaryHierarchyReader().load( csvFile.getPath() );
+    }
+
+    private static void assertStructureEqual( Hierarchy expected, Hierarchy actual )
+    {
+        Assert.assertSame( actual.getGroups()[0], actual.getRoot() );
+
+        for ( int i = 0; i < expected.getNumberOfGroups(); ++i ) {
+            Node e = expected.getGroups()[i];
+            Node a = actual.getGroups()[i];
+
+            if ( e.getParent() == null ) {
+                Assert.assertNull( a.getParent() );
+            }
+            else {
+                Assert.assertEquals( e.getParentId(), a.getParentId() );
+            }
+            for ( int c = 0; c < e.getChildren().size(); ++c ) {
+                Assert.assertSame( a, a.getChildren().get( c ).getParent() );
+                Assert.assertEquals( e.getChildren().get( c ).getId(), a.getChildren().get( c ).getId() );
+            }
+            Assert.assertEquals( e.getNodeRepresentation().getInstanceName(), a.getNodeRepresentation().getInstanceName() );
+            Assert.assertEquals( e.getNodeRepresentation().getTrueClass(), a.getNodeRepresentation().getTrueClass() );
+        }
+    }
+}
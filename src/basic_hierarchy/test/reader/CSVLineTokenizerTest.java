@@ -0,0 +1,97 @@
+package basic_hierarchy.test.reader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.reader.CSVLineTokenizer;
+
+
+public class CSVLineTokenizerTest
+{
+    @Test
+    public void tokenizeMatchesSplit()
+    {
+        String[] lines = {
+            "", ";", ";;;", "gen.0", "gen.0;1.5;2", "gen.0;;2", ";gen.0;1", "gen.0;1;;", "gen.0;zażółć;1"
+        };
+
+        CSVLineTokenizer tokens = new CSVLineTokenizer();
+        for ( String line : lines ) {
+            byte[] bytes = line.getBytes( StandardCharsets.UTF_8 );
+            tokens.tokenize( bytes, 0, bytes.length );
+
+            String[] expected = line.split( Constants.DELIMITER );
+            Assert.assertEquals( line, expected.length, tokens.getFieldCount() );
+            for ( int i = 0; i < expected.length; ++i ) {
+                Assert.assertEquals( line, expected[i], tokens.getString( i ) );
+            }
+            Assert.assertEquals( line, tokens.getLineAsString() );
+        }
+    }
+
+    @Test
+    public void nodeIdValidationMatchesRegex()
+    {
+        String regex = "gen(" + Constants.HIERARCHY_BRANCH_SEPARATOR_REGEX + "\\d+)+";
+        String[] ids = {
+            "gen.0", "gen.0.12.3", "gen", "gen.", "gen.0.", "gen..0", "gen.a", "Gen.0", "gen0", "gen.0.1x", ".0", ""
+        };
+
+        for ( String id : ids ) {
+            byte[] bytes = id.getBytes( StandardCharsets.UTF_8 );
+            Assert.assertEquals( id, id.matches( regex ), CSVLineTokenizer.isValidNodeId( bytes, 0, bytes.length ) );
+        }
+    }
+
+    @Test
+    public void parseDoubleMatchesJdk()
+    {
+        String[] values = {
+            "0", "-0", "+0.0", "1", "-1.5", "3.14159", ".5", "1.", "1e10", "1E-5", "-2.5e+3", "123456789012345678",
+            "1234567890123456789", "0.1234567890123456789", "9007199254740993", "1e22", "1e23", "4.9e-324", "1.7976931348623157E308",
+            "NaN", "-Infinity", " 1.5", "1.5d", "0x1p3", "00000000000000000000001.5", "0.000000000000000000000000001"
+        };
+
+        for ( String value : values ) {
+            assertParsesLikeJdk( value );
+        }
+
+        Random random = new Random( 0 );
+        for ( int i = 0; i < 100000; ++i ) {
+            assertParsesLikeJdk( Double.toString( random.nextGaussian() * Math.pow( 10, random.nextInt( 40 ) - 20 ) ) );
+            assertParsesLikeJdk( String.format( Locale.ROOT, "%." + random.nextInt( 10 ) + "f", random.nextDouble() * 1000 - 500 ) );
+        }
+    }
+
+    @Test
+    public void parseDoubleRejectsInvalidInput()
+    {
+        String[] values = { "", "-", ".", "1e", "1.2.3", "abc", "1;2" };
+
+        for ( String value : values ) {
+            byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            try {
+                CSVLineTokenizer.parseDouble( bytes, 0, bytes.length );
+                Assert.fail( "Expected NumberFormatException for '" + value + "'" );
+            }
+            catch ( NumberFormatException e ) {
+                // Expected.
+            }
+        }
+    }
+
+    private static void assertParsesLikeJdk( String value )
+    {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        Assert.assertEquals(
+            value,
+            Double.doubleToRawLongBits( Double.parseDouble( value ) ),
+            Double.doubleToRawLongBits( CSVLineTokenizer.parseDouble( bytes, 0, bytes.length ) )
+        );
+    }
+}
@@ -0,0 +1,122 @@
+package basic_hierarchy.test.reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.common.FeatureStorage;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.InstanceVisitor;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.reader.GeneratedARFFReader;
+
+
+public class GeneratedARFFReaderTest
+{
+    private File file;
+
+
+    @Before
+    public void setup() throws IOException
+    {
+        file = File.createTempFile( "hierarchy", ".arff" );
+        file.deleteOnExit();
+
+        try ( PrintWriter writer = new PrintWriter( file, "UTF-8" ) ) {
+            writer.println( "@relation hierarchy" );
+            writer.println( "@attribute class {gen.0,gen.0.1,gen.0.1.1,gen.0.2,GEN.0.2}" );
+            writer.println( "@attribute trueClass {gen.0,gen.0.1,gen.0.2}" );
+            writer.println( "@attribute name string" );
+            writer.println( "@attribute x numeric" );
+            writer.println( "@attribute y numeric" );
+            writer.println( "@data" );
+            writer.println( "gen.0,gen.0,a,1,2" );
+            writer.println( "gen.0.1,gen.0.1,b,3,4" );
+            writer.println( "gen.0.1.1,gen.0.1,c,5,6" );
+            writer.println( "gen.0.2,gen.0.2,d,7,8" );
+            writer.println( "gen.0.1,gen.0,e,9,10" );
+            // Node ids are matched regardless of case.
+            writer.println( "GEN.0.2,gen.0.2,f,11,12" );
+        }
+    }
+
+    @After
+    public void teardown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void loadGroupsRowsIntoNodes() throws IOException
+    {
+        for ( FeatureStorage storage : new FeatureStorage[] { FeatureStorage.INSTANCE_ARRAYS, FeatureStorage.MATRIX } ) {
+            Hierarchy hierarchy = new GeneratedARFFReader( storage ).load( file.getPath(), true, true, false, false, false );
+
+            Assert.assertEquals( 6, hierarchy.getOverallNumberOfInstances() );
+            Assert.assertEquals( 4, hierarchy.getNumberOfGroups() );
+            Assert.assertEquals( "gen.0", hierarchy.getRoot().getId() );
+            Assert.assertEquals( 3, hierarchy.getNumberOfClasses() );
+            Assert.assertEquals( 2, hierarchy.getParticularClassCount( "gen.0", false ) );
+            Assert.assertEquals( 2, hierarchy.getParticularClassCount( "gen.0.1", false ) );
+            Assert.assertEquals( 2, hierarchy.getParticularClassCount( "gen.0.2", false ) );
+
+            assertInstances( hierarchy.getNode( "gen.0" ), "a" );
+            assertInstances( hierarchy.getNode( "gen.0.1" ), "b", "e" );
+            assertInstances( hierarchy.getNode( "gen.0.1.1" ), "c" );
+            assertInstances( hierarchy.getNode( "gen.0.2" ), "d", "f" );
+
+            Instance e = hierarchy.getNode( "gen.0.1" ).getNodeInstanceList().get( 1 );
+            Assert.assertEquals( "gen.0", e.getTrueClass() );
+            Assert.assertEquals( "gen.0.1", e.getNodeId() );
+            Assert.assertArrayEquals( new double[] { 9, 10 }, e.getData(), 0 );
+        }
+    }
+
+    @Test
+    public void streamVisitsRowsWithoutPrinting() throws IOException
+    {
+        final List<String> rows = new ArrayList<>();
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut( new PrintStream( printed, true, "UTF-8" ) );
+        long rowCount;
+        try {
+            rowCount = new GeneratedARFFReader().stream( file.getPath(), true, true, false, new InstanceVisitor() {
+                @Override
+                public void visit( String nodeId, String trueClass, String instanceName, double[] data )
+                {
+                    Assert.assertEquals( 2, data.length );
+                    rows.add( nodeId + ";" + trueClass + ";" + instanceName );
+                }
+            } );
+        }
+        finally {
+            System.setOut( stdout );
+        }
+
+        Assert.assertEquals( 6, rowCount );
+        Assert.assertEquals( "gen.0.1.1;gen.0.1;c", rows.get( 2 ) );
+        Assert.assertEquals( "GEN.0.2;gen.0.2;f", rows.get( 5 ) );
+        Assert.assertEquals( 0, printed.size() );
+    }
+
+    private static void assertInstances( Node node, String... names )
+    {
+        Assert.assertNotNull( node );
+        Assert.assertEquals( names.length, node.getNodeInstanceList().size() );
+        for ( int i = 0; i < names.length; ++i ) {
+            Assert.assertEquals( names[i], node.getNodeInstanceList().get( i ).getInstanceName() );
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package basic_hierarchy.test.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.DoubleBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.DirectFeatureMatrix;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.FeatureStorage;
+import basic_hierarchy.common.QuantizedFeatureMatrix;
+import basic_hierarchy.implementation.MatrixInstance;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.InstanceVisitor;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.reader.GeneratedCSVReader;
+import basic_hierarchy.test.TestCommon;
+
+
+public class GeneratedCSVReaderTest
+{
+    private File file;
+    private ForkJoinPool pool;
+
+
+    @Before
+    public void setup() throws IOException
+    {
+        pool = new ForkJoinPool( 4 );
+
+        // Large enough to be split into several chunks by the parallel reader.
+        // Rows of a node are not grouped together, and some nodes are missing to force gap fixing.
+        file = File.createTempFile( "hierarchy", ".csv" );
+        file.deleteOnExit();
+
+        Random random = new Random( 0 );
+        try ( PrintWriter writer = new PrintWriter( file, "UTF-8" ) ) {
+            writer.println( "class;trueClass;name;x;y" );
+            for ( int i = 0; i < 200000; ++i ) {
+                String nodeId = "gen.0." + random.nextInt( 20 ) + ( random.nextBoolean() ? "" : "." + 2 * random.nextInt( 5 ) );
+                String trueClass = "gen.0." + random.nextInt( 20 );
+                writer.print( nodeId + ";" + trueClass + ";inst" + i + ";" + random.nextGaussian() + ";" + random.nextInt( 100 ) );
+                writer.print( i % 1000 == 0 ? "\r\n" : "\n" );
+            }
+        }
+    }
+
+    @After
+    public void teardown()
+    {
+        pool.shutdown();
+        file.delete();
+    }
+
+    @Test
+    public void parallelLoadMatchesSequential() throws IOException
+    {
+        Hierarchy expected = new GeneratedCSVReader().load( file.getPath(), true, true, true, true, true );
+        Hierarchy actual = new GeneratedCSVReader( pool ).load( file.getPath(), true, true, true, true, true );
+
+        assertHierarchiesEqual( expected, actual );
+    }
+
+    @Test
+    public void parallelLoadSharesIdStrings() throws IOException
+    {
+        Hierarchy actual = new GeneratedCSVReader( pool ).load( file.getPath(), true, true, true, true, true );
+
+        // Equal node ids and true classes are the same string, even if they were read by different threads.
+        Map<String, String> ids = new HashMap<>();
+        for ( Node n : actual.getGroups() ) {
+            for ( Instance i : n.getNodeInstanceList() ) {
+                for ( String id : new String[] { i.getNodeId(), i.getTrueClass() } ) {
+                    String previous = ids.get( id );
+                    if ( previous == null ) {
+                        ids.put( id, id );
+                    }
+                    else {
+                        Assert.assertSame( previous, id );
+                    }
+                }
+            }
+        }
+
+        int sum = 0;
+        for ( int count : actual.getClassesCount() ) {
+            sum += count;
+        }
+        Assert.assertEquals( 20, actual.getNumberOfClasses() );
+        Assert.assertEquals( actual.getOverallNumberOfInstances(), sum );
+    }
+
+    @Test
+    public void parallelLoadWithoutHeaders() throws IOException
+    {
+        File headerless = File.createTempFile( "hierarchy", ".csv" );
+        headerless.deleteOnExit();
+        try ( PrintWriter writer = new PrintWriter( headerless, "UTF-8" ) ) {
+            writer.println( "gen.0.1;1.5" );
+            writer.println( "gen.0;2.5" );
+            writer.print( "gen.0.1;-3" );
+        }
+
+        Hierarchy expected = new GeneratedCSVReader().load( headerless.getPath(), false, false, false, false, false );
+        Hierarchy actual = new GeneratedCSVReader( pool ).load( headerless.getPath(), false, false, false, false, false );
+
+        Assert.assertEquals( 3, actual.getOverallNumberOfInstances() );
+        assertHierarchiesEqual( expected, actual );
+        headerless.delete();
+    }
+
+    @Test
+    public void parallelLoadReadsLinesLongerThanChunks() throws IOException
+    {
+        File longLines = File.createTempFile( "hierarchy", ".csv" );
+        longLines.deleteOnExit();
+
+        // Chunks end at the first line end past the size limit, so a long line following that point
+        // makes the chunk several times larger than the limit.
+        StringBuilder padding = new StringBuilder();
+        for ( int i = 0; i < 500; ++i ) {
+            padding.append( '0' );
+        }
+        Random random = new Random( 1 );
+        try ( PrintWriter writer = new PrintWriter( longLines, "UTF-8" ) ) {
+            writer.println( "class;trueClass;name;x;y" );
+            for ( int i = 0; i < 2000; ++i ) {
+                String nodeId = "gen.0." + random.nextInt( 5 );
+                if ( i % 7 == 0 ) {
+                    writer.println( nodeId + ";gen.0;long" + padding + i + ";0." + padding + i + ";" + i + padding );
+                }
+                else {
+                    writer.println( nodeId + ";gen.0;inst" + i + ";" + random.nextGaussian() + ";" + i );
+                }
+            }
+        }
+
+        Hierarchy expected = new GeneratedCSVReader().load( longLines.getPath(), true, true, true, true, true );
+        ForkJoinPool single = new ForkJoinPool( 1 );
+        try {
+            for ( long maxChunkBytes : new long[] { 1, 100, 1000 } ) {
+                Hierarchy actual = new GeneratedCSVReader( single, FeatureStorage.INSTANCE_ARRAYS, maxChunkBytes )
+                    .load( longLines.getPath(), true, true, true, true, true );
+                Assert.assertEquals( 2000, actual.getOverallNumberOfInstances() );
+                assertHierarchiesEqual( expected, actual );
+            }
+        }
+        finally {
+            single.shutdown();
+            longLines.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkSizeMustBeMappable()
+    {
+        new GeneratedCSVReader( pool, FeatureStorage.INSTANCE_ARRAYS, Integer.MAX_VALUE + 1L );
+    }
+
+    @Test
+    public void matrixStorageMatchesInstanceArrays() throws IOException
+    {
+        Hierarchy expected = new GeneratedCSVReader().load( file.getPath(), true, true, true, true, true );
+
+        for ( FeatureStorage storage : new FeatureStorage[] { FeatureStorage.MATRIX, FeatureStorage.OFF_HEAP } ) {
+            for ( ForkJoinPool p : new ForkJoinPool[] { null, pool } ) {
+                Hierarchy actual = new GeneratedCSVReader( p, storage ).load( file.getPath(), true, true, true, true, true );
+                assertHierarchiesEqual( expected, actual );
+
+                // Instances of all nodes share a single matrix, in which each node's instances occupy consecutive rows.
+                FeatureMatrix matrix = null;
+                int nextRow = 0;
+                for ( Node n : actual.getGroups() ) {
+                    for ( Instance i : n.getNodeInstanceList() ) {
+                        MatrixInstance mi = (MatrixInstance)i;
+                        if ( matrix == null ) {
+                            matrix = mi.getMatrix();
+                        }
+                        Assert.assertSame( matrix, mi.getMatrix() );
+                        Assert.assertEquals( nextRow++, mi.getRow() );
+                        Assert.assertEquals( DoubleBuffer.wrap( i.getData() ), i.getDataBuffer() );
+                    }
+                }
+                Assert.assertEquals( actual.getOverallNumberOfInstances(), matrix.getRowCount() );
+                Assert.assertEquals( storage == FeatureStorage.OFF_HEAP, matrix instanceof DirectFeatureMatrix );
+            }
+        }
+    }
+
+    @Test
+    public void compactStoragesApproximateInstanceArrays() throws IOException
+    {
+        Hierarchy expected = new GeneratedCSVReader().load( file.getPath(), true, true, true, true, true );
+
+        for ( FeatureStorage storage : new FeatureStorage[] { FeatureStorage.FLOAT, FeatureStorage.INT16, FeatureStorage.INT8 } ) {
+            Hierarchy actual = new GeneratedCSVReader( pool, storage ).load( file.getPath(), true, true, true, true, true );
+            Assert.assertEquals( expected.getNumberOfGroups(), actual.getNumberOfGroups() );
+            Assert.assertEquals( expected.getOverallNumberOfInstances(), actual.getOverallNumberOfInstances() );
+
+            FeatureMatrix matrix = null;
+            for ( int g = 0; g < expected.getNumberOfGroups(); ++g ) {
+                Node e = expected.getGroups()[g];
+                Node a = actual.getGroups()[g];
+                Assert.assertEquals( e.getId(), a.getId() );
+
+                Iterator<Instance> it = a.getNodeInstanceList().iterator();
+                for ( Instance ei : e.getNodeInstanceList() ) {
+                    MatrixInstance ai = (MatrixInstance)it.next();
+                    Assert.assertEquals( ei.getInstanceName(), ai.getInstanceName() );
+                    matrix = ai.getMatrix();
+
+                    double[] expectedData = ei.getData();
+                    double[] actualData = ai.getData();
+                    for ( int d = 0; d < expectedData.length; ++d ) {
+                        double tolerance = matrix instanceof QuantizedFeatureMatrix
+                            ? ( (QuantizedFeatureMatrix)matrix ).getScale( d ) / 2 + 1e-12
+                            : Math.abs( expectedData[d] ) * 1e-7;
+                        Assert.assertEquals( expectedData[d], actualData[d], tolerance );
+                    }
+                }
+            }
+            Assert.assertEquals( storage.isQuantized(), matrix instanceof QuantizedFeatureMatrix );
+        }
+    }
+
+    @Test
+    public void streamVisitsEveryRowInFileOrder() throws IOException
+    {
+        final Hierarchy expected = new GeneratedCSVReader().load( file.getPath(), true, true, true, false, false );
+        final Map<String, Integer> classCounts = new HashMap<>();
+        final Set<double[]> buffers = Collections.newSetFromMap( new IdentityHashMap<double[], Boolean>() );
+
+        long rowCount = new GeneratedCSVReader( pool ).stream( file.getPath(), true, true, true, new InstanceVisitor() {
+            private int row = 0;
+
+            @Override
+            public void visit( String nodeId, String trueClass, String instanceName, double[] data )
+            {
+                Assert.assertEquals( "inst" + row++, instanceName );
+                Assert.assertTrue( nodeId.startsWith( Constants.ROOT_ID ) );
+                Assert.assertEquals( 2, data.length );
+
+                Integer count = classCounts.get( trueClass );
+                classCounts.put( trueClass, count == null ? 1 : count + 1 );
+                buffers.add( data );
+            }
+        } );
+
+        Assert.assertEquals( expected.getOverallNumberOfInstances(), rowCount );
+        Assert.assertEquals( 1, buffers.size() );
+        for ( int i = 0; i < expected.getNumberOfClasses(); ++i ) {
+            Assert.assertEquals( expected.getClassesCount()[i], (int)classCounts.get( expected.getClasses()[i] ) );
+        }
+    }
+
+    static void assertHierarchiesEqual( Hierarchy expected, Hierarchy actual )
+    {
+        Assert.assertArrayEquals( expected.getDataNames(), actual.getDataNames() );
+        Assert.assertArrayEquals( expected.getClasses(), actual.getClasses() );
+        Assert.assertArrayEquals( expected.getClassesCount(), actual.getClassesCount() );
+        Assert.assertEquals( expected.getOverallNumberOfInstances(), actual.getOverallNumberOfInstances() );
+        Assert.assertEquals( expected.getNumberOfGroups(), actual.getNumberOfGroups() );
+        Assert.assertEquals( expected.getRoot().getId(), actual.getRoot().getId() );
+
+        for ( int i = 0; i < expected.getNumberOfGroups(); ++i ) {
+            Node e = expected.getGroups()[i];
+            Node a = actual.getGroups()[i];
+
+            Assert.assertEquals( e.getId(), a.getId() );
+            Assert.assertEquals( e.getChildren().size(), a.getChildren().size() );
+            Assert.assertArrayEquals(
+                e.getNodeRepresentation().getData(), a.getNodeRepresentation().getData(),
+                TestCommon.DOUBLE_COMPARISION_DELTA
+            );
+            Assert.assertEquals( e.getNodeInstances().size(), a.getNodeInstances().size() );
+
+            Iterator<Instance> it = a.getNodeInstances().iterator();
+            for ( Instance ei : e.getNodeInstances() ) {
+                Instance ai = it.next();
+                Assert.assertEquals( ei.getInstanceName(), ai.getInstanceName() );
+                Assert.assertEquals( ei.getNodeId(), ai.getNodeId() );
+                Assert.assertEquals( ei.getTrueClass(), ai.getTrueClass() );
+                Assert.assertArrayEquals( ei.getData(), ai.getData(), 0 );
+            }
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package basic_hierarchy.writer;
+
+import static basic_hierarchy.common.BinaryHierarchyFormat.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import basic_hierarchy.common.BinaryHierarchyFormat;
+import basic_hierarchy.common.FeatureMatrix;
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.reader.BinaryHierarchyReader;
+
+
+/**
+ * Writes {@link Hierarchy} objects as binary snapshots, which can be loaded back much faster than
+ * the text files they were originally read from, using {@link BinaryHierarchyReader}.
+ * <p>
+ * The snapshot stores the hierarchy exactly as it is -- after gaps have been fixed, centroids computed
+ * and nodes sorted -- so loading it does not require any post-processing.
+ * See {@link BinaryHierarchyFormat} for a description of the file layout.
+ * </p>
+ */
+public class BinaryHierarchyWriter
+{
+    /**
+     * Writes the specified hierarchy to a file.
+     *
+     * @param hierarchy
+     *            the hierarchy to write
+     * @param filePath
+     *            path to the file to write. If the file exists, it is replaced once the snapshot has been written
+     *            in full, and left as it was if writing fails.
+     * @throws IOException
+     *             if an IO error occurred while writing the file
+     * @throws IllegalArgumentException
+     *             if instances of the hierarchy have differing numbers of features, or a child of one of
+     *             the hierarchy's groups is not one of the groups itself
+     */
+    public void write( Hierarchy hierarchy, String filePath ) throws IOException
+    {
+        final Node[] nodes = hierarchy.getGroups();
+
+        Map<Node, Integer> nodeIndices = new IdentityHashMap<>( nodes.length );
+        for ( int i = 0; i < nodes.length; ++i ) {
+            nodeIndices.put( nodes[i], i );
+        }
+
+        // Check the hierarchy before anything is written, intern true classes, and find out the number of features.
+        Map<String, Integer> trueClasses = new LinkedHashMap<>();
+        long instanceCount = 0;
+        int dimensions = -1;
+        for ( Node n : nodes ) {
+            for ( Node child : n.getChildList() ) {
+                if ( !nodeIndices.containsKey( child ) ) {
+                    throw new IllegalArgumentException(
+                        String.format( "Child '%s' of node '%s' is not one of the hierarchy's groups.", child.getId(), n.getId() )
+                    );
+                }
+            }
+
+            for ( Instance i : n.getNodeInstanceList() ) {
+                if ( i.getTrueClass() != null && !trueClasses.containsKey( i.getTrueClass() ) ) {
+                    trueClasses.put( i.getTrueClass(), trueClasses.size() );
+                }
+
+                int length = FeatureMatrix.getDimensions( i );
+                if ( dimensions == -1 ) {
+                    dimensions = length;
+                }
+                else if ( dimensions != length ) {
+                    throw new IllegalArgumentException(
+                        String.format(
+                            "All instances must have the same number of features. Instance '%s' in node '%s' has %s, expected %s.",
+                            i.getInstanceName(), n.getId(), length, dimensions
+                        )
+                    );
+                }
+                ++instanceCount;
+            }
+        }
+        if ( dimensions == -1 ) {
+            dimensions = hierarchy.getDataNames() == null ? 0 : hierarchy.getDataNames().length;
+        }
+
+        // Write to a temporary file next to the target, so that a failed write never leaves a truncated snapshot behind.
+        Path target = new File( filePath ).getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile( target.getParent(), target.getFileName().toString(), ".tmp" );
+        boolean written = false;
+        try {
+            write( hierarchy, temp.toFile(), nodes, nodeIndices, trueClasses, instanceCount, dimensions );
+            try {
+                Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch ( AtomicMoveNotSupportedException e ) {
+                Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING );
+            }
+            written = true;
+        }
+        finally {
+            if ( !written ) {
+                Files.deleteIfExists( temp );
+            }
+        }
+    }
+
+    private void write(
+        Hierarchy hierarchy, File file, Node[] nodes, Map<Node, Integer> nodeIndices,
+        Map<String, Integer> trueClasses, long instanceCount, int dimensions ) throws IOException
+    {
+        String[] dataNames = hierarchy.getDataNames();
+        String[] classes = hierarchy.getClasses();
+        int[] classCounts = hierarchy.getClassesCount();
+
+        int flags = 0;
+        if ( dataNames != null ) {
+            flags |= FLAG_DATA_NAMES;
+        }
+        if ( classes != null && classCounts != null ) {
+            flags |= FLAG_CLASSES;
+        }
+
+        try ( Output out = new Output( file ) ) {
+            long[] sections = new long[SECTION_COUNT];
+
+            // Reserve space for the header, it's written last.
+            out.skip( HEADER_SIZE );
+
+            sections[SECTION_NODE_IDS] = out.writeStrings( nodes.length, new NodeStrings( nodes ) {
+                protected String select( Node n )
+                {
+                    return n.getId();
+                }
+            } );
+
+            sections[SECTION_PARENTS] = out.align();
+            for ( Node n : nodes ) {
+                Integer parent = n.getParent() == null ? null : nodeIndices.get( n.getParent() );
+                out.writeInt( parent == null ? -1 : parent );
+            }
+
+            sections[SECTION_CHILD_OFFSETS] = out.align();
+            int childOffset = 0;
+            out.writeInt( childOffset );
+            for ( Node n : nodes ) {
+                childOffset += n.getChildList().size();
+                out.writeInt( childOffset );
+            }
+
+            sections[SECTION_CHILDREN] = out.align();
+            for ( Node n : nodes ) {
+                for ( Node child : n.getChildList() ) {
+                    out.writeInt( nodeIndices.get( child ) );
+                }
+            }
+
+            sections[SECTION_INSTANCE_OFFSETS] = out.align();
+            long instanceOffset = 0;
+            out.writeLong( instanceOffset );
+            for ( Node n : nodes ) {
+                instanceOffset += n.getNodeInstanceList().size();
+                out.writeLong( instanceOffset );
+            }
+
+            sections[SECTION_REPRESENTATION_OFFSETS] = out.align();
+            long representationOffset = 0;
+            for ( Node n : nodes ) {
+                Instance representation = n.getNodeRepresentation();
+                out.writeLong( representation == null ? -1 : representationOffset );
+                representationOffset += representation == null ? 0 : FeatureMatrix.getDimensions( representation );
+            }
+
+            sections[SECTION_REPRESENTATION_LENGTHS] = out.align();
+            for ( Node n : nodes ) {
+                Instance representation = n.getNodeRepresentation();
+                out.writeInt( representation == null ? 0 : FeatureMatrix.getDimensions( representation ) );
+            }
+
+            sections[SECTION_REPRESENTATION_NAMES] = out.writeStrings( nodes.length, new NodeStrings( nodes ) {
+                protected String select( Node n )
+                {
+                    return n.getNodeRepresentation() == null ? null : n.getNodeRepresentation().getInstanceName();
+                }
+            } );
+            sections[SECTION_REPRESENTATION_NODE_IDS] = out.writeStrings( nodes.length, new NodeStrings( nodes ) {
+                protected String select( Node n )
+                {
+                    return n.getNodeRepresentation() == null ? null : n.getNodeRepresentation().getNodeId();
+                }
+            } );
+            sections[SECTION_REPRESENTATION_TRUE_CLASSES] = out.writeStrings( nodes.length, new NodeStrings( nodes ) {
+                protected String select( Node n )
+                {
+                    return n.getNodeRepresentation() == null ? null : n.getNodeRepresentation().getTrueClass();
+                }
+            } );
+
+            sections[SECTION_REPRESENTATION_DATA] = out.align();
+            for ( Node n : nodes ) {
+                if ( n.getNodeRepresentation() != null ) {
+                    out.writeDoubles( n.getNodeRepresentation().getDataBuffer() );
+                }
+            }
+
+            String[] noStrings = new String[0];
+            sections[SECTION_DATA_NAMES] = out.writeStrings( dataNames == null ? noStrings : dataNames );
+            sections[SECTION_CLASSES] = out.writeStrings( ( flags & FLAG_CLASSES ) == 0 ? noStrings : classes );
+
+            sections[SECTION_CLASS_COUNTS] = out.align();
+            if ( ( flags & FLAG_CLASSES ) != 0 ) {
+                for ( int count : classCounts ) {
+                    out.writeInt( count );
+                }
+            }
+
+            sections[SECTION_TRUE_CLASSES] = out.writeStrings( trueClasses.keySet().toArray( noStrings ) );
+
+            sections[SECTION_INSTANCE_TRUE_CLASSES] = out.align();
+            for ( Node n : nodes ) {
+                for ( Instance i : n.getNodeInstanceList() ) {
+                    out.writeInt( i.getTrueClass() == null ? -1 : trueClasses.get( i.getTrueClass() ) );
+                }
+            }
+
+            sections[SECTION_INSTANCE_NAMES] = out.writeStrings( (int)instanceCount, new InstanceStrings( nodes ) {
+                protected String select( Instance i )
+                {
+                    return i.getInstanceName();
+                }
+            } );
+
+            sections[SECTION_FEATURES] = out.align();
+            for ( Node n : nodes ) {
+                Utils.checkInterruptStatus();
+
+                for ( Instance i : n.getNodeInstanceList() ) {
+                    out.writeDoubles( i.getDataBuffer() );
+                }
+            }
+
+            Integer rootIndex = nodeIndices.get( hierarchy.getRoot() );
+
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            header.putInt( HEADER_MAGIC, MAGIC );
+            header.putInt( HEADER_VERSION, VERSION );
+            header.putInt( HEADER_FLAGS, flags );
+            header.putInt( HEADER_NODE_COUNT, nodes.length );
+            header.putInt( HEADER_ROOT_INDEX, rootIndex == null ? -1 : rootIndex );
+            header.putInt( HEADER_DIMENSIONS, dimensions );
+            header.putInt( HEADER_OVERALL_NUMBER_OF_INSTANCES, hierarchy.getOverallNumberOfInstances() );
+            header.putLong( HEADER_INSTANCE_COUNT, instanceCount );
+            for ( int i = 0; i < SECTION_COUNT; ++i ) {
+                header.putLong( HEADER_SECTIONS + 8 * i, sections[i] );
+            }
+            out.writeAt( 0, header );
+        }
+    }
+
+    /**
+     * Iterates over one string of each node.
+     */
+    private static abstract class NodeStrings implements Iterable<String>
+    {
+        private final Node[] nodes;
+
+
+        public NodeStrings( Node[] nodes )
+        {
+            this.nodes = nodes;
+        }
+
+        protected abstract String select( Node n );
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return index < nodes.length;
+                }
+
+                @Override
+                public String next()
+                {
+                    return select( nodes[index++] );
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterates over one string of each instance, node by node.
+     */
+    private static abstract class InstanceStrings implements Iterable<String>
+    {
+        private final Node[] nodes;
+
+
+        public InstanceStrings( Node[] nodes )
+        {
+            this.nodes = nodes;
+        }
+
+        protected abstract String select( Instance i );
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>() {
+                private int nodeIndex = 0;
+                private Iterator<Instance> instances = null;
+
+                @Override
+                public boolean hasNext()
+                {
+                    while ( instances == null || !instances.hasNext() ) {
+                        if ( nodeIndex == nodes.length ) {
+                            return false;
+                        }
+                        instances = nodes[nodeIndex++].getNodeInstanceList().iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public String next()
+                {
+                    hasNext();
+                    return select( instances.next() );
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Buffered, little-endian output to a file channel, which keeps track of the current position.
+     */
+    private static class Output implements Closeable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect( 1 << 20 ).order( ByteOrder.LITTLE_ENDIAN );
+        private long position = 0;
+
+
+        public Output( File file ) throws IOException
+        {
+            channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+            );
+        }
+
+        public long position()
+        {
+            return position;
+        }
+
+        public void writeByte( int v ) throws IOException
+        {
+            ensure( 1 );
+            buffer.put( (byte)v );
+            position += 1;
+        }
+
+        public void writeInt( int v ) throws IOException
+        {
+            ensure( 4 );
+            buffer.putInt( v );
+            position += 4;
+        }
+
+        public void writeLong( long v ) throws IOException
+        {
+            ensure( 8 );
+            buffer.putLong( v );
+            position += 8;
+        }
+
+        /**
+         * Writes the values from the buffer's position up to its limit, without changing the position.
+         */
+        public void writeDoubles( DoubleBuffer values ) throws IOException
+        {
+            for ( int i = values.position(); i < values.limit(); ++i ) {
+                ensure( 8 );
+                buffer.putDouble( values.get( i ) );
+            }
+            position += 8L * values.remaining();
+        }
+
+        public void writeBytes( byte[] bytes ) throws IOException
+        {
+            for ( int offset = 0; offset < bytes.length; ) {
+                ensure( 1 );
+                int count = Math.min( buffer.remaining(), bytes.length - offset );
+                buffer.put( bytes, offset, count );
+                offset += count;
+            }
+            position += bytes.length;
+        }
+
+        public void skip( int count ) throws IOException
+        {
+            for ( int i = 0; i < count; ++i ) {
+                writeByte( 0 );
+            }
+        }
+
+        /**
+         * Pads the output with zeros up to the next multiple of 8 bytes.
+         *
+         * @return the aligned position
+         */
+        public long align() throws IOException
+        {
+            while ( position % 8 != 0 ) {
+                writeByte( 0 );
+            }
+            return position;
+        }
+
+        public long writeStrings( String[] strings ) throws IOException
+        {
+            return writeStrings( strings.length, Arrays.asList( strings ) );
+        }
+
+        /**
+         * Writes a string table, as described in {@link BinaryHierarchyFormat}. The strings are iterated three times,
+         * so that the table can be written without holding the encoded strings in memory.
+         *
+         * @return position of the table
+         */
+        public long writeStrings( int count, Iterable<String> strings ) throws IOException
+        {
+            long table = align();
+            writeInt( count );
+            writeInt( 0 );
+
+            long offset = 0;
+            writeLong( offset );
+            for ( String s : strings ) {
+                offset += s == null ? 0 : utf8Length( s );
+                writeLong( offset );
+            }
+
+            int bits = 0;
+            int index = 0;
+            for ( String s : strings ) {
+                if ( s == null ) {
+                    bits |= 1 << ( index & 7 );
+                }
+                if ( ( ++index & 7 ) == 0 ) {
+                    writeByte( bits );
+                    bits = 0;
+                }
+            }
+            if ( ( index & 7 ) != 0 ) {
+                writeByte( bits );
+            }
+
+            for ( String s : strings ) {
+                if ( s != null ) {
+                    writeBytes( s.getBytes( StandardCharsets.UTF_8 ) );
+                }
+            }
+
+            return table;
+        }
+
+        public void writeAt( long position, ByteBuffer data ) throws IOException
+        {
+            flush();
+            data.rewind();
+            while ( data.hasRemaining() ) {
+                position += channel.write( data, position );
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                flush();
+            }
+            finally {
+                channel.close();
+            }
+        }
+
+        private void ensure( int count ) throws IOException
+        {
+            if ( buffer.remaining() < count ) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException
+        {
+            buffer.flip();
+            while ( buffer.hasRemaining() ) {
+                channel.write( buffer );
+            }
+            buffer.clear();
+        }
+
+        /**
+         * @return number of bytes the string takes up when encoded in UTF-8, computed without encoding it.
+         */
+        private static int utf8Length( String s )
+        {
+            int length = 0;
+            for ( int i = 0; i < s.length(); ++i ) {
+                char c = s.charAt( i );
+                if ( c < 0x80 ) {
+                    length += 1;
+                }
+                else if ( c < 0x800 ) {
+                    length += 2;
+                }
+                else if ( Character.isHighSurrogate( c ) && i + 1 < s.length() && Character.isLowSurrogate( s.charAt( i + 1 ) ) ) {
+                    length += 4;
+                    ++i;
+                }
+                else {
+                    // Unpaired surrogates are encoded as a single '?' replacement byte.
+                    length += Character.isSurrogate( c ) ? 1 : 3;
+                }
+            }
+            return length;
+        }
+    }
+}